@@ -18,6 +18,7 @@
  */
 package org.apache.felix.bundlerepository.impl;
 
+import java.io.File;
 import java.util.Hashtable;
 
 import org.apache.felix.bundlerepository.RepositoryAdmin;
@@ -68,7 +69,9 @@ public class Activator implements BundleActivator
         Activator.logger = new Logger(context);
 
         // Register bundle repository service.
-        m_repoAdmin = new RepositoryAdminImpl(context, logger);
+        File cacheDir = "false".equalsIgnoreCase(context.getProperty(RepositoryAdminImpl.REPOSITORY_CACHE_PROP))
+            ? null : context.getDataFile("repository-cache");
+        m_repoAdmin = new RepositoryAdminImpl(context, logger, cacheDir);
         context.registerService(
             RepositoryAdmin.class.getName(),
             m_repoAdmin, null);
@@ -0,0 +1,455 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.bundlerepository.Capability;
+import org.apache.felix.bundlerepository.Requirement;
+import org.apache.felix.bundlerepository.Resource;
+
+/**
+ * An inverted index of the capabilities of a set of resources.
+ *
+ * Capabilities are indexed by name (namespace) and by the value of the
+ * primary attribute of the namespace, e.g. the package name for the
+ * <code>package</code> namespace.  Lookups return a superset of the
+ * matching capabilities, which still have to be checked against the
+ * requirement, in the order of the resources and capabilities the
+ * index has been built from.
+ *
+ * An updated index shares the layers of the index it has been updated from
+ * and only indexes the added resources in a new layer.  The entries of the
+ * layers refer to the resources they have been created for, lookups skip
+ * the entries of removed resources and move the others over to the
+ * resources of the index.  The index is built from scratch once there are
+ * too many layers or too many of their entries are stale.
+ */
+public class CapabilityIndex
+{
+    private static final int MAX_LAYERS = 8;
+
+    private final Resource[] m_resources;
+    // resource the entries have been created for -> position of the
+    // resource, or of the equal resource which replaced it, in m_resources
+    private final Map<Resource, Integer> m_positions;
+    // oldest first, the last layer holds the resources added by this index
+    private final Layer[] m_layers;
+    // number of removed resources which still have entries in the layers
+    private final int m_stale;
+
+    private final Comparator<Entry> m_order = new Comparator<Entry>()
+    {
+        public int compare(Entry e1, Entry e2)
+        {
+            int p1 = getPosition(e1.getResource());
+            int p2 = getPosition(e2.getResource());
+            if (p1 != p2)
+            {
+                return p1 < p2 ? -1 : 1;
+            }
+            return e1.m_capIdx < e2.m_capIdx ? -1 : (e1.m_capIdx == e2.m_capIdx ? 0 : 1);
+        }
+    };
+
+    public CapabilityIndex(Resource[] resources)
+    {
+        m_resources = (resources != null) ? resources : new Resource[0];
+        m_positions = getPositions(m_resources);
+        Layer layer = new Layer();
+        for (int resIdx = 0; resIdx < m_resources.length; resIdx++)
+        {
+            layer.index(m_resources[resIdx]);
+        }
+        m_layers = new Layer[] { layer };
+        m_stale = 0;
+    }
+
+    private CapabilityIndex(CapabilityIndex previous, Resource[] resources,
+        Collection<Resource> added, Map<Resource, Resource> replaced, int stale)
+    {
+        m_resources = resources;
+        Map<Resource, Integer> positions = getPositions(resources);
+        m_positions = new IdentityHashMap<Resource, Integer>(positions.size());
+        for (Iterator<Map.Entry<Resource, Integer>> it = previous.m_positions.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry<Resource, Integer> entry = it.next();
+            Resource replacement = replaced.get(previous.m_resources[entry.getValue().intValue()]);
+            if (replacement != null)
+            {
+                m_positions.put(entry.getKey(), positions.get(replacement));
+            }
+        }
+        Layer layer = new Layer();
+        for (Iterator<Resource> it = added.iterator(); it.hasNext();)
+        {
+            Resource resource = it.next();
+            m_positions.put(resource, positions.get(resource));
+            layer.index(resource);
+        }
+        m_layers = new Layer[previous.m_layers.length + 1];
+        System.arraycopy(previous.m_layers, 0, m_layers, 0, previous.m_layers.length);
+        m_layers[previous.m_layers.length] = layer;
+        m_stale = stale;
+    }
+
+    /**
+     * Returns an index of the given resources, built from this index by
+     * adding the given resources and dropping the resources of this index
+     * which have neither been replaced nor added again.  The resources of
+     * this index which did not change are replaced by the given equal
+     * resources, which must have the same capabilities in the same order.
+     * The given resources must be in the same order as the resources of
+     * this index they replace.  This index is not modified.
+     */
+    public CapabilityIndex update(Resource[] resources, Collection<Resource> added,
+        Map<Resource, Resource> replaced)
+    {
+        int stale = m_stale + m_resources.length - replaced.size();
+        if (m_layers.length >= MAX_LAYERS || (stale + added.size()) * 2 > resources.length)
+        {
+            return new CapabilityIndex(resources);
+        }
+        return new CapabilityIndex(this, resources, added, replaced, stale);
+    }
+
+    public Resource[] getResources()
+    {
+        return m_resources;
+    }
+
+    /**
+     * Returns the capabilities which may satisfy the given requirement.
+     * The returned list is a new list which can be modified by the caller.
+     */
+    public List<ResourceCapability> getCandidates(Requirement req)
+    {
+        String value = getEqualityValue(req.getFilter(), getPrimaryAttribute(req.getName()));
+        List<Entry> entries = new ArrayList<Entry>();
+        int lists = 0;
+        for (int i = 0; i < m_layers.length; i++)
+        {
+            Layer layer = m_layers[i];
+            if (value == null)
+            {
+                lists += addAll(entries, layer.m_namespaces.get(req.getName()));
+            }
+            else
+            {
+                Map<String, List<Entry>> values = layer.m_values.get(req.getName());
+                lists += addAll(entries, (values != null) ? values.get(value.toLowerCase()) : null);
+                lists += addAll(entries, layer.m_unkeyed.get(req.getName()));
+            }
+        }
+        if (lists > 1)
+        {
+            Collections.sort(entries, m_order);
+        }
+
+        List<ResourceCapability> result = new ArrayList<ResourceCapability>(entries.size());
+        for (int i = 0; i < entries.size(); i++)
+        {
+            Entry entry = entries.get(i);
+            Resource resource = getResource(entry.getResource());
+            if (resource == entry.getResource())
+            {
+                result.add(entry);
+            }
+            else if (resource != null)
+            {
+                result.add(new ResourceCapabilityImpl(resource, resource.getCapabilities()[entry.m_capIdx]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the resources which may match the given filter on the resource
+     * properties, or all resources if the filter does not test the symbolic
+     * name for equality.
+     */
+    public Resource[] getResources(String filter)
+    {
+        String symbolicName = (filter != null) ? getEqualityValue(filter, Resource.SYMBOLIC_NAME) : null;
+        if (symbolicName == null)
+        {
+            return m_resources;
+        }
+        List<Resource> resources = new ArrayList<Resource>();
+        for (int i = 0; i < m_layers.length; i++)
+        {
+            List<Resource> list = m_layers[i].m_symbolicNames.get(symbolicName.toLowerCase());
+            for (int resIdx = 0; (list != null) && (resIdx < list.size()); resIdx++)
+            {
+                Resource resource = getResource(list.get(resIdx));
+                if (resource != null)
+                {
+                    resources.add(resource);
+                }
+            }
+        }
+        Resource[] result = resources.toArray(new Resource[resources.size()]);
+        if (m_layers.length > 1)
+        {
+            Arrays.sort(result, new Comparator<Resource>()
+            {
+                public int compare(Resource r1, Resource r2)
+                {
+                    int p1 = getPosition(r1);
+                    int p2 = getPosition(r2);
+                    return p1 < p2 ? -1 : (p1 == p2 ? 0 : 1);
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Returns the attribute identifying the capabilities of a namespace.
+     */
+    static String getPrimaryAttribute(String namespace)
+    {
+        if (Capability.BUNDLE.equals(namespace))
+        {
+            return Resource.SYMBOLIC_NAME;
+        }
+        return namespace;
+    }
+
+    /**
+     * Returns the value the given attribute is compared to for equality in
+     * the filter, either as the whole filter or as one of the operands of
+     * a top level <code>&amp;</code>, or <code>null</code> if there is no
+     * such comparison.
+     */
+    static String getEqualityValue(String filter, String attribute)
+    {
+        if (filter == null)
+        {
+            return null;
+        }
+        filter = filter.trim();
+        if (filter.startsWith("(&"))
+        {
+            int depth = 0;
+            int start = -1;
+            for (int i = 2; i < filter.length() - 1; i++)
+            {
+                char c = filter.charAt(i);
+                if (c == '\\')
+                {
+                    i++;
+                }
+                else if (c == '(')
+                {
+                    if (depth++ == 0)
+                    {
+                        start = i;
+                    }
+                }
+                else if (c == ')')
+                {
+                    if (--depth == 0)
+                    {
+                        String value = getSimpleEqualityValue(filter.substring(start, i + 1), attribute);
+                        if (value != null)
+                        {
+                            return value;
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+        return getSimpleEqualityValue(filter, attribute);
+    }
+
+    private static String getSimpleEqualityValue(String filter, String attribute)
+    {
+        if (!filter.startsWith("(") || !filter.endsWith(")"))
+        {
+            return null;
+        }
+        int eq = filter.indexOf('=');
+        if (eq < 2 || !filter.substring(1, eq).trim().equalsIgnoreCase(attribute))
+        {
+            // Also rejects the ~=, <= and >= operators as well as nested filters
+            return null;
+        }
+        String value = filter.substring(eq + 1, filter.length() - 1);
+        StringBuffer sb = new StringBuffer(value.length());
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length())
+            {
+                sb.append(value.charAt(++i));
+            }
+            else if (c == '*')
+            {
+                // Substring or presence filter
+                return null;
+            }
+            else
+            {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Map<Resource, Integer> getPositions(Resource[] resources)
+    {
+        Map<Resource, Integer> positions = new IdentityHashMap<Resource, Integer>(resources.length);
+        for (int resIdx = 0; resIdx < resources.length; resIdx++)
+        {
+            if (resources[resIdx] != null)
+            {
+                positions.put(resources[resIdx], new Integer(resIdx));
+            }
+        }
+        return positions;
+    }
+
+    // Returns the resource of this index for the resource an entry has been
+    // created for, or null if the resource has been removed
+    private Resource getResource(Resource resource)
+    {
+        Integer position = m_positions.get(resource);
+        return (position != null) ? m_resources[position.intValue()] : null;
+    }
+
+    // Entries of removed resources, which are skipped anyway, sort last
+    private int getPosition(Resource resource)
+    {
+        Integer position = m_positions.get(resource);
+        return (position != null) ? position.intValue() : Integer.MAX_VALUE;
+    }
+
+    private static int addAll(List<Entry> entries, List<Entry> list)
+    {
+        if (list == null || list.isEmpty())
+        {
+            return 0;
+        }
+        entries.addAll(list);
+        return 1;
+    }
+
+    private static <T> void add(Map<String, List<T>> map, String key, T value)
+    {
+        List<T> list = map.get(key);
+        if (list == null)
+        {
+            list = new ArrayList<T>();
+            map.put(key, list);
+        }
+        list.add(value);
+    }
+
+    /**
+     * The capabilities of the resources added to the index at once.  A layer
+     * is not modified once it has been built, it is shared by the indices
+     * updated from the index it has been built for.
+     */
+    private static class Layer
+    {
+        // namespace -> all capabilities of the namespace
+        private final Map<String, List<Entry>> m_namespaces = new HashMap<String, List<Entry>>();
+        // namespace -> lower case value of the primary attribute -> capabilities
+        private final Map<String, Map<String, List<Entry>>> m_values = new HashMap<String, Map<String, List<Entry>>>();
+        // namespace -> capabilities without a usable primary attribute
+        private final Map<String, List<Entry>> m_unkeyed = new HashMap<String, List<Entry>>();
+        // lower case symbolic name -> resources
+        private final Map<String, List<Resource>> m_symbolicNames = new HashMap<String, List<Resource>>();
+
+        void index(Resource resource)
+        {
+            if (resource == null)
+            {
+                return;
+            }
+            String symbolicName = resource.getSymbolicName();
+            if (symbolicName != null)
+            {
+                add(m_symbolicNames, symbolicName.toLowerCase(), resource);
+            }
+            Capability[] caps = resource.getCapabilities();
+            for (int capIdx = 0; (caps != null) && (capIdx < caps.length); capIdx++)
+            {
+                Capability cap = caps[capIdx];
+                Entry entry = new Entry(resource, cap, capIdx);
+                add(m_namespaces, cap.getName(), entry);
+
+                Object value = cap.getPropertiesAsMap().get(getPrimaryAttribute(cap.getName()));
+                if (value instanceof String)
+                {
+                    addValue(cap.getName(), (String) value, entry);
+                }
+                else if (value instanceof Collection)
+                {
+                    for (Iterator it = ((Collection) value).iterator(); it.hasNext();)
+                    {
+                        addValue(cap.getName(), String.valueOf(it.next()), entry);
+                    }
+                }
+                else
+                {
+                    add(m_unkeyed, cap.getName(), entry);
+                }
+            }
+        }
+
+        private void addValue(String namespace, String value, Entry entry)
+        {
+            Map<String, List<Entry>> values = m_values.get(namespace);
+            if (values == null)
+            {
+                values = new HashMap<String, List<Entry>>();
+                m_values.put(namespace, values);
+            }
+            List<Entry> entries = values.get(value.toLowerCase());
+            // A capability listing the same value twice is only indexed once
+            if (entries == null || entries.get(entries.size() - 1) != entry)
+            {
+                add(values, value.toLowerCase(), entry);
+            }
+        }
+    }
+
+    private static class Entry extends ResourceCapabilityImpl
+    {
+        private final int m_capIdx;
+
+        Entry(Resource resource, Capability capability, int capIdx)
+        {
+            super(resource, capability);
+            m_capIdx = capIdx;
+        }
+    }
+}
@@ -204,6 +204,11 @@ public class FileUtil
         // Do it the manual way to have a chance to
         // set request properties as proxy auth (EW).
         setProxyAuth(conn);
+        return getInputStream(conn);
+    }
+
+    public static InputStream getInputStream(final URLConnection conn) throws IOException
+    {
         try
         {
             return conn.getInputStream();
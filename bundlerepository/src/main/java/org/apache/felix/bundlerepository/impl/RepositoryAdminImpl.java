@@ -18,6 +18,7 @@
  */
 package org.apache.felix.bundlerepository.impl;
 
+import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.AccessController;
@@ -27,9 +28,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.felix.bundlerepository.Capability;
 import org.apache.felix.bundlerepository.DataModelHelper;
@@ -50,22 +56,57 @@ public class RepositoryAdminImpl implements RepositoryAdmin
     private final Logger m_logger;
     private final SystemRepositoryImpl m_system;
     private final LocalRepositoryImpl m_local;
-    private final DataModelHelper m_helper = new DataModelHelperImpl();
-    private Map m_repoMap = new LinkedHashMap();
-    private boolean m_initialized = false;
+    private final DataModelHelperImpl m_helper = new DataModelHelperImpl();
+    private final RepositoryCache m_cache;
+    private final int m_parallelism;
+    // Replaced, never modified, so that it can be read without locking
+    private volatile Map m_repoMap = new LinkedHashMap();
+    private volatile boolean m_initialized = false;
+    private boolean m_initializing = false;
 
     // Reusable comparator for sorting resources by name.
     private Comparator m_nameComparator = new ResourceComparator();
 
     public static final String REPOSITORY_URL_PROP = "obr.repository.url";
+    public static final String REPOSITORY_CACHE_PROP = "obr.repository.cache";
+    public static final String REPOSITORY_PARALLELISM_PROP = "obr.repository.parallelism";
+    public static final int DEFAULT_PARALLELISM = 4;
     public static final String EXTERN_REPOSITORY_TAG = "extern-repositories";
 
     public RepositoryAdminImpl(BundleContext context, Logger logger)
+    {
+        this(context, logger, null);
+    }
+
+    /**
+     * @param cacheDir directory where snapshots of the parsed repositories
+     *        are kept, or <code>null</code> to not cache repositories
+     */
+    public RepositoryAdminImpl(BundleContext context, Logger logger, File cacheDir)
     {
         m_context = context;
         m_logger = logger;
         m_system = new SystemRepositoryImpl(context, logger);
         m_local = new LocalRepositoryImpl(context, logger);
+        m_cache = (cacheDir != null) ? new RepositoryCache(cacheDir, m_helper, logger) : null;
+        m_parallelism = getParallelism(context, logger);
+    }
+
+    private static int getParallelism(BundleContext context, Logger logger)
+    {
+        String value = context.getProperty(REPOSITORY_PARALLELISM_PROP);
+        if (value != null)
+        {
+            try
+            {
+                return Math.max(1, Integer.parseInt(value.trim()));
+            }
+            catch (NumberFormatException ex)
+            {
+                logger.log(Logger.LOG_WARNING, "Invalid value for " + REPOSITORY_PARALLELISM_PROP + ": " + value);
+            }
+        }
+        return DEFAULT_PARALLELISM;
     }
 
     public DataModelHelper getHelper()
@@ -98,71 +139,218 @@ public class RepositoryAdminImpl implements RepositoryAdmin
         return addRepository(url, Integer.MAX_VALUE);
     }
 
-    public synchronized RepositoryImpl addRepository(final URL url, int hopCount) throws Exception
+    public RepositoryImpl addRepository(final URL url, int hopCount) throws Exception
     {
         initialize();
 
-        // If the repository URL is a duplicate, then we will just
-        // replace the existing repository object with a new one,
-        // which is effectively the same as refreshing the repository.
+        // Download and parse the repository, then its referrals
+        // concurrently, before adding them in the order they are
+        // referenced.
+        Loader root = new Loader(url, hopCount);
+        root.run();
+        if (root.m_error != null)
+        {
+            throw root.m_error;
+        }
+
+        ExecutorService executor = null;
         try
         {
-            RepositoryImpl repository = (RepositoryImpl) AccessController.doPrivileged(new PrivilegedExceptionAction()
+            if (!root.m_referrals.isEmpty())
             {
-                public Object run() throws Exception
+                executor = Executors.newFixedThreadPool(m_parallelism, new ThreadFactory()
                 {
-                    return m_helper.repository(url);
-                }
-            });
-            m_repoMap.put(url.toExternalForm(), repository);
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread thread = new Thread(r, "OBR referral loader");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                root.submitReferrals(executor);
+            }
 
-            // resolve referrals
-            hopCount--;
-            if (hopCount > 0 && repository.getReferrals() != null)
+            List loaded = new ArrayList();
+            Exception error = collect(root, loaded);
+            add(loaded);
+            if (error != null)
             {
-                for (int i = 0; i < repository.getReferrals().length; i++)
-                {
-                    Referral referral = repository.getReferrals()[i];
+                throw error;
+            }
+            return root.m_repository;
+        }
+        finally
+        {
+            if (executor != null)
+            {
+                executor.shutdownNow();
+            }
+        }
+    }
 
-                    URL referralUrl = new URL(url, referral.getUrl());
-                    hopCount = (referral.getDepth() > hopCount) ? hopCount : referral.getDepth();
+    /**
+     * Collect the loaded repositories in depth first order, up to the
+     * first repository which could not be loaded.
+     */
+    private Exception collect(Loader loader, List loaded) throws Exception
+    {
+        if (loader.m_future != null)
+        {
+            loader.m_future.get();
+        }
+        if (loader.m_error != null)
+        {
+            return loader.m_error;
+        }
+        loaded.add(loader);
+        for (int i = 0; i < loader.m_referrals.size(); i++)
+        {
+            Exception error = collect((Loader) loader.m_referrals.get(i), loaded);
+            if (error != null)
+            {
+                return error;
+            }
+        }
+        return null;
+    }
 
-                    addRepository(referralUrl, hopCount);
+    private synchronized void add(List loaded)
+    {
+        // If the repository URL is a duplicate, then we will just
+        // replace the existing repository object with the new one,
+        // which only needs to index the resources that changed.
+        Map repoMap = new LinkedHashMap(m_repoMap);
+        for (int i = 0; i < loaded.size(); i++)
+        {
+            Loader loader = (Loader) loaded.get(i);
+            String key = loader.m_url.toExternalForm();
+            Object previous = repoMap.get(key);
+            if (previous instanceof RepositoryImpl && previous != loader.m_repository)
+            {
+                RepositoryDiff diff = loader.m_repository.refresh((RepositoryImpl) previous);
+                if (diff != null)
+                {
+                    m_logger.log(Logger.LOG_DEBUG, "Refreshed repository " + key + ": "
+                        + diff.getAddedResources().length + " resource(s) added, "
+                        + diff.getRemovedResources().length + " resource(s) removed");
                 }
             }
+            repoMap.put(key, loader.m_repository);
+        }
+        m_repoMap = repoMap;
+    }
 
-            return repository;
+    private RepositoryImpl load(final URL url) throws Exception
+    {
+        try
+        {
+            return (RepositoryImpl) AccessController.doPrivileged(new PrivilegedExceptionAction()
+            {
+                public Object run() throws Exception
+                {
+                    return (m_cache != null) ? m_cache.repository(url) : m_helper.repository(url);
+                }
+            });
         }
         catch (PrivilegedActionException ex)
         {
             throw (Exception) ex.getCause();
         }
+    }
+
+    /**
+     * Loads a repository and submits the loading of its referrals.
+     */
+    private class Loader implements Runnable
+    {
+        private final URL m_url;
+        private final int m_hopCount;
+        private final List m_referrals = new ArrayList();
+        // Set before the loader is submitted, null for the root repository
+        private ExecutorService m_executor;
+        private Future m_future;
+        private RepositoryImpl m_repository;
+        private Exception m_error;
+
+        Loader(URL url, int hopCount)
+        {
+            m_url = url;
+            m_hopCount = hopCount;
+        }
+
+        public void run()
+        {
+            try
+            {
+                m_repository = load(m_url);
 
+                // resolve referrals
+                int hopCount = m_hopCount - 1;
+                Referral[] referrals = m_repository.getReferrals();
+                if (hopCount > 0 && referrals != null)
+                {
+                    for (int i = 0; i < referrals.length; i++)
+                    {
+                        URL referralUrl = new URL(m_url, referrals[i].getUrl());
+                        hopCount = (referrals[i].getDepth() > hopCount) ? hopCount : referrals[i].getDepth();
+                        m_referrals.add(new Loader(referralUrl, hopCount));
+                    }
+                }
+                if (m_executor != null)
+                {
+                    submitReferrals(m_executor);
+                }
+            }
+            catch (Exception ex)
+            {
+                m_error = ex;
+            }
+        }
+
+        void submitReferrals(ExecutorService executor)
+        {
+            for (int i = 0; i < m_referrals.size(); i++)
+            {
+                Loader referral = (Loader) m_referrals.get(i);
+                referral.m_executor = executor;
+                referral.m_future = executor.submit(referral);
+            }
+        }
     }
 
     public synchronized boolean removeRepository(String uri)
     {
         initialize();
-        
+
+        String key;
         try
         {
             URL url = new URL(uri);
-            return m_repoMap.remove(url.toExternalForm()) != null;
+            key = url.toExternalForm();
+            if (m_cache != null)
+            {
+                m_cache.remove(url);
+            }
         }
         catch (MalformedURLException e)
         {
-            return m_repoMap.remove(uri) != null;
+            key = uri;
         }
+        Map repoMap = new LinkedHashMap(m_repoMap);
+        boolean removed = repoMap.remove(key) != null;
+        m_repoMap = repoMap;
+        return removed;
     }
 
-    public synchronized Repository[] listRepositories()
+    public Repository[] listRepositories()
     {
         initialize();
 
-        return (Repository[]) m_repoMap.values().toArray(new Repository[m_repoMap.size()]);
+        Map repoMap = m_repoMap;
+        return (Repository[]) repoMap.values().toArray(new Repository[repoMap.size()]);
     }
 
-    public synchronized Resolver resolver()
+    public Resolver resolver()
     {
         initialize();
 
@@ -173,7 +361,7 @@ public class RepositoryAdminImpl implements RepositoryAdmin
         return resolver((Repository[]) repositories.toArray(new Repository[repositories.size()]));
     }
 
-    public synchronized Resolver resolver(Repository[] repositories)
+    public Resolver resolver(Repository[] repositories)
     {
         initialize();
 
@@ -184,7 +372,7 @@ public class RepositoryAdminImpl implements RepositoryAdmin
         return new ResolverImpl(m_context, repositories, m_logger);
     }
 
-    public synchronized Resource[] discoverResources(String filterExpr) throws InvalidSyntaxException
+    public Resource[] discoverResources(String filterExpr) throws InvalidSyntaxException
     {
         initialize();
 
@@ -195,7 +383,7 @@ public class RepositoryAdminImpl implements RepositoryAdmin
         List matchList = new ArrayList();
         for (int repoIdx = 0; (repos != null) && (repoIdx < repos.length); repoIdx++)
         {
-            resources = repos[repoIdx].getResources();
+            resources = getResources(repos[repoIdx], filterExpr);
             for (int resIdx = 0; (resources != null) && (resIdx < resources.length); resIdx++)
             {
                 dict.setSourceMap(resources[resIdx].getProperties());
@@ -212,7 +400,7 @@ public class RepositoryAdminImpl implements RepositoryAdmin
         return resources;
     }
 
-    public synchronized Resource[] discoverResources(Requirement[] requirements)
+    public Resource[] discoverResources(Requirement[] requirements)
     {
         initialize();
 
@@ -221,7 +409,7 @@ public class RepositoryAdminImpl implements RepositoryAdmin
         List matchList = new ArrayList();
         for (int repoIdx = 0; (repos != null) && (repoIdx < repos.length); repoIdx++)
         {
-            resources = repos[repoIdx].getResources();
+            resources = getCandidates(repos[repoIdx], requirements);
             for (int resIdx = 0; (resources != null) && (resIdx < resources.length); resIdx++)
             {
                 boolean match = true;
@@ -256,39 +444,88 @@ public class RepositoryAdminImpl implements RepositoryAdmin
         return resources;
     }
 
+    /**
+     * Returns the resources of the repository which may match the filter.
+     * Only repositories read from a repository file have a capability
+     * index, the resources of the system and local repositories change
+     * with the installed bundles and are all returned.
+     */
+    private Resource[] getResources(Repository repository, String filterExpr)
+    {
+        if (repository instanceof RepositoryImpl)
+        {
+            return ((RepositoryImpl) repository).getCapabilityIndex().getResources(filterExpr);
+        }
+        return repository.getResources();
+    }
+
+    /**
+     * Returns the resources of the repository which provide a capability
+     * that may satisfy the first requirement, or all resources if there are
+     * no requirements or the repository has no capability index.
+     */
+    private Resource[] getCandidates(Repository repository, Requirement[] requirements)
+    {
+        if (!(repository instanceof RepositoryImpl))
+        {
+            return repository.getResources();
+        }
+        CapabilityIndex index = ((RepositoryImpl) repository).getCapabilityIndex();
+        if (requirements == null || requirements.length == 0)
+        {
+            return index.getResources();
+        }
+        List candidates = index.getCandidates(requirements[0]);
+        LinkedHashSet resources = new LinkedHashSet();
+        for (int i = 0; i < candidates.size(); i++)
+        {
+            resources.add(((ResourceCapability) candidates.get(i)).getResource());
+        }
+        return (Resource[]) resources.toArray(new Resource[resources.size()]);
+    }
+
     private void initialize()
     {
         if (m_initialized)
         {
             return;
         }
-        m_initialized = true;
-
-        // First check the repository URL config property.
-        String urlStr = m_context.getProperty(REPOSITORY_URL_PROP);
-        if (urlStr != null)
+        synchronized (this)
         {
-            StringTokenizer st = new StringTokenizer(urlStr);
-            if (st.countTokens() > 0)
+            // Repositories added while initializing call back into this method
+            if (m_initialized || m_initializing)
             {
-                while (st.hasMoreTokens())
+                return;
+            }
+            m_initializing = true;
+
+            // First check the repository URL config property.
+            String urlStr = m_context.getProperty(REPOSITORY_URL_PROP);
+            if (urlStr != null)
+            {
+                StringTokenizer st = new StringTokenizer(urlStr);
+                if (st.countTokens() > 0)
                 {
-                    final String token = st.nextToken();
-                    try
-                    {
-                        addRepository(token);
-                    }
-                    catch (Exception ex)
+                    while (st.hasMoreTokens())
                     {
-                        m_logger.log(
-                            Logger.LOG_WARNING,
-                            "Repository url " + token + " cannot be used. Skipped.",
-                            ex);
+                        final String token = st.nextToken();
+                        try
+                        {
+                            addRepository(token);
+                        }
+                        catch (Exception ex)
+                        {
+                            m_logger.log(
+                                Logger.LOG_WARNING,
+                                "Repository url " + token + " cannot be used. Skipped.",
+                                ex);
+                        }
                     }
                 }
             }
-        }
 
+            m_initialized = true;
+        }
     }
 
 }
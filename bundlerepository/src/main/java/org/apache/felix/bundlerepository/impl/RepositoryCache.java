@@ -0,0 +1,672 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.felix.bundlerepository.Capability;
+import org.apache.felix.bundlerepository.Property;
+import org.apache.felix.bundlerepository.Requirement;
+import org.apache.felix.bundlerepository.Resource;
+import org.apache.felix.utils.log.Logger;
+import org.apache.felix.utils.version.VersionTable;
+import org.osgi.framework.Version;
+
+/**
+ * A cache of parsed repositories.
+ *
+ * Each repository is stored as a binary snapshot together with the last
+ * modification date of the repository url.  As long as the url has not been
+ * modified, the repository is read from the snapshot instead of being
+ * downloaded and parsed again.  For http urls, the snapshot is validated with
+ * a conditional request.
+ */
+public class RepositoryCache
+{
+    private static final int MAGIC = 0x4f425201;
+
+    // tags of the values
+    private static final byte STRING = 0;
+    private static final byte VERSION = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte LIST = 4;
+    private static final byte SET = 5;
+
+    // kinds of capability properties
+    private static final byte PROPERTY = 0;
+    private static final byte ADAPTER = 1;
+
+    private final File m_dir;
+    private final DataModelHelperImpl m_helper;
+    private final Logger m_logger;
+
+    public RepositoryCache(File dir, DataModelHelperImpl helper, Logger logger)
+    {
+        m_dir = dir;
+        m_helper = helper;
+        m_logger = logger;
+    }
+
+    /**
+     * Returns the repository at the given url, either from its snapshot or
+     * by downloading and parsing it.
+     */
+    public RepositoryImpl repository(URL url) throws Exception
+    {
+        File file = getFile(url);
+        long cached = getLastModified(url, file);
+
+        URLConnection conn = url.openConnection();
+        FileUtil.setProxyAuth(conn);
+        if (cached > 0)
+        {
+            conn.setIfModifiedSince(cached);
+        }
+        long lastModified = conn.getLastModified();
+        if (cached > 0 && conn instanceof HttpURLConnection
+            && ((HttpURLConnection) conn).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)
+        {
+            lastModified = cached;
+        }
+
+        if (cached > 0 && lastModified == cached)
+        {
+            RepositoryImpl repository = read(url, file);
+            release(conn);
+            if (repository != null)
+            {
+                return repository;
+            }
+            // The snapshot can not be used, so download the repository again
+            conn = url.openConnection();
+            FileUtil.setProxyAuth(conn);
+        }
+
+        RepositoryImpl repository = m_helper.repository(url, conn);
+        if (lastModified > 0)
+        {
+            write(url, lastModified, repository, file);
+        }
+        else
+        {
+            file.delete();
+        }
+        return repository;
+    }
+
+    /**
+     * Remove the snapshot of the repository at the given url.
+     */
+    public void remove(URL url)
+    {
+        getFile(url).delete();
+    }
+
+    File getFile(URL url)
+    {
+        return new File(m_dir, "repository-" + Integer.toHexString(url.toExternalForm().hashCode()) + ".bin");
+    }
+
+    /**
+     * Returns the last modification date of the repository stored in the
+     * snapshot, or <code>-1</code> if there is no usable snapshot.
+     */
+    private long getLastModified(URL url, File file)
+    {
+        if (!file.isFile())
+        {
+            return -1;
+        }
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024));
+            if (in.readInt() != MAGIC || !url.toExternalForm().equals(in.readUTF()))
+            {
+                return -1;
+            }
+            return in.readLong();
+        }
+        catch (IOException e)
+        {
+            return -1;
+        }
+        finally
+        {
+            close(in);
+        }
+    }
+
+    RepositoryImpl read(URL url, File file)
+    {
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+            if (in.readInt() != MAGIC || !url.toExternalForm().equals(in.readUTF()))
+            {
+                return null;
+            }
+            in.readLong();
+            return new Input(in).readRepository();
+        }
+        catch (Exception e)
+        {
+            m_logger.log(Logger.LOG_DEBUG, "Unable to read the snapshot of repository " + url, e);
+            return null;
+        }
+        finally
+        {
+            close(in);
+        }
+    }
+
+    void write(URL url, long lastModified, RepositoryImpl repository, File file)
+    {
+        File tmp = new File(file.getPath() + ".tmp");
+        try
+        {
+            m_dir.mkdirs();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+            try
+            {
+                out.writeInt(MAGIC);
+                out.writeUTF(url.toExternalForm());
+                out.writeLong(lastModified);
+                new Output(out).writeRepository(repository);
+            }
+            finally
+            {
+                out.close();
+            }
+            file.delete();
+            if (!tmp.renameTo(file))
+            {
+                throw new IOException("Unable to rename " + tmp + " to " + file);
+            }
+        }
+        catch (Exception e)
+        {
+            m_logger.log(Logger.LOG_DEBUG, "Unable to write the snapshot of repository " + url, e);
+            tmp.delete();
+            file.delete();
+        }
+    }
+
+    private static void release(URLConnection conn)
+    {
+        if (conn instanceof HttpURLConnection)
+        {
+            ((HttpURLConnection) conn).disconnect();
+        }
+        else
+        {
+            // Connections to files keep the file open once connected
+            try
+            {
+                conn.getInputStream().close();
+            }
+            catch (IOException e)
+            {
+                // Not much we can do.
+            }
+        }
+    }
+
+    private static void close(DataInputStream in)
+    {
+        if (in != null)
+        {
+            try
+            {
+                in.close();
+            }
+            catch (IOException e)
+            {
+                // Not much we can do.
+            }
+        }
+    }
+
+    /**
+     * Writes the repository.  Strings are written once and referenced by
+     * their index afterwards, which keeps snapshots small and allows the
+     * restored resources to share them.
+     */
+    private static class Output
+    {
+        private final DataOutputStream m_out;
+        private final Map<String, Integer> m_strings = new HashMap<String, Integer>();
+
+        Output(DataOutputStream out)
+        {
+            m_out = out;
+        }
+
+        void writeRepository(RepositoryImpl repository) throws IOException
+        {
+            writeString(repository.getName());
+            m_out.writeLong(repository.getLastModified());
+            writeString(repository.getURI());
+
+            Referral[] referrals = repository.getReferrals();
+            int nbReferrals = (referrals != null) ? referrals.length : 0;
+            m_out.writeInt(nbReferrals);
+            for (int i = 0; i < nbReferrals; i++)
+            {
+                m_out.writeInt(referrals[i].getDepth());
+                writeString(referrals[i].getUrl());
+            }
+
+            Resource[] resources = repository.getResources();
+            m_out.writeInt(resources.length);
+            for (int i = 0; i < resources.length; i++)
+            {
+                writeResource(resources[i]);
+            }
+        }
+
+        private void writeResource(Resource resource) throws IOException
+        {
+            if (!(resource instanceof ResourceImpl))
+            {
+                throw new IOException("Unsupported resource " + resource.getClass().getName());
+            }
+            Map properties = resource.getProperties();
+            m_out.writeInt(properties.size());
+            for (Iterator it = properties.entrySet().iterator(); it.hasNext();)
+            {
+                Map.Entry entry = (Map.Entry) it.next();
+                writeString((String) entry.getKey());
+                writeValue(entry.getValue());
+            }
+
+            Capability[] caps = resource.getCapabilities();
+            m_out.writeInt(caps.length);
+            for (int i = 0; i < caps.length; i++)
+            {
+                writeCapability(caps[i]);
+            }
+
+            Requirement[] reqs = resource.getRequirements();
+            m_out.writeInt(reqs.length);
+            for (int i = 0; i < reqs.length; i++)
+            {
+                writeRequirement(reqs[i]);
+            }
+        }
+
+        private void writeCapability(Capability capability) throws IOException
+        {
+            if (!(capability instanceof CapabilityImpl))
+            {
+                throw new IOException("Unsupported capability " + capability.getClass().getName());
+            }
+            writeString(capability.getName());
+            Property[] properties = capability.getProperties();
+            m_out.writeInt(properties.length);
+            for (int i = 0; i < properties.length; i++)
+            {
+                if (properties[i] instanceof PropertyImpl)
+                {
+                    m_out.writeByte(PROPERTY);
+                    writeString(properties[i].getName());
+                    writeString(properties[i].getType());
+                    writeString(properties[i].getValue());
+                }
+                else if (properties[i] instanceof FelixPropertyAdapter)
+                {
+                    m_out.writeByte(ADAPTER);
+                    writeString(properties[i].getName());
+                    writeValue(properties[i].getConvertedValue());
+                }
+                else
+                {
+                    throw new IOException("Unsupported property " + properties[i].getClass().getName());
+                }
+            }
+            writeStrings(((CapabilityImpl) capability).getDirectives());
+        }
+
+        private void writeRequirement(Requirement requirement) throws IOException
+        {
+            if (!(requirement instanceof RequirementImpl))
+            {
+                throw new IOException("Unsupported requirement " + requirement.getClass().getName());
+            }
+            writeString(requirement.getName());
+            writeString(requirement.getFilter());
+            m_out.writeBoolean(requirement.isExtend());
+            m_out.writeBoolean(requirement.isMultiple());
+            m_out.writeBoolean(requirement.isOptional());
+            writeString(requirement.getComment());
+
+            Map<String, Object> attributes = requirement.getAttributes();
+            m_out.writeInt(attributes.size());
+            for (Iterator<Map.Entry<String, Object>> it = attributes.entrySet().iterator(); it.hasNext();)
+            {
+                Map.Entry<String, Object> entry = it.next();
+                writeString(entry.getKey());
+                writeValue(entry.getValue());
+            }
+            writeStrings(requirement.getDirectives());
+        }
+
+        private void writeStrings(Map<String, String> map) throws IOException
+        {
+            m_out.writeInt(map.size());
+            for (Iterator<Map.Entry<String, String>> it = map.entrySet().iterator(); it.hasNext();)
+            {
+                Map.Entry<String, String> entry = it.next();
+                writeString(entry.getKey());
+                writeString(entry.getValue());
+            }
+        }
+
+        private void writeValue(Object value) throws IOException
+        {
+            if (value instanceof String)
+            {
+                m_out.writeByte(STRING);
+                writeString((String) value);
+            }
+            else if (value instanceof Version)
+            {
+                m_out.writeByte(VERSION);
+                writeString(value.toString());
+            }
+            else if (value instanceof Long)
+            {
+                m_out.writeByte(LONG);
+                m_out.writeLong(((Long) value).longValue());
+            }
+            else if (value instanceof Double)
+            {
+                m_out.writeByte(DOUBLE);
+                m_out.writeDouble(((Double) value).doubleValue());
+            }
+            else if (value instanceof List || value instanceof Set)
+            {
+                Collection collection = (Collection) value;
+                m_out.writeByte(value instanceof List ? LIST : SET);
+                m_out.writeInt(collection.size());
+                for (Iterator it = collection.iterator(); it.hasNext();)
+                {
+                    writeValue(it.next());
+                }
+            }
+            else
+            {
+                throw new IOException("Unsupported value " + (value != null ? value.getClass().getName() : null));
+            }
+        }
+
+        private void writeString(String s) throws IOException
+        {
+            if (s == null)
+            {
+                m_out.writeInt(-1);
+                return;
+            }
+            Integer index = m_strings.get(s);
+            if (index != null)
+            {
+                m_out.writeInt(index.intValue());
+                return;
+            }
+            m_strings.put(s, new Integer(m_strings.size()));
+            byte[] bytes = s.getBytes("UTF-8");
+            m_out.writeInt(-2);
+            m_out.writeInt(bytes.length);
+            m_out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a repository written by {@link Output}.
+     */
+    private static class Input
+    {
+        private final DataInputStream m_in;
+        private final List<String> m_strings = new ArrayList<String>();
+
+        Input(DataInputStream in)
+        {
+            m_in = in;
+        }
+
+        RepositoryImpl readRepository() throws IOException
+        {
+            RepositoryImpl repository = new RepositoryImpl();
+            repository.setName(readString());
+            repository.setLastModified(m_in.readLong());
+            repository.setURI(readString());
+
+            int nbReferrals = m_in.readInt();
+            for (int i = 0; i < nbReferrals; i++)
+            {
+                Referral referral = new Referral();
+                referral.setDepth(Integer.toString(m_in.readInt()));
+                referral.setUrl(readString());
+                try
+                {
+                    repository.addReferral(referral);
+                }
+                catch (Exception e)
+                {
+                    IOException ex = new IOException(e.getMessage());
+                    ex.initCause(e);
+                    throw ex;
+                }
+            }
+
+            int nbResources = m_in.readInt();
+            for (int i = 0; i < nbResources; i++)
+            {
+                repository.addResource(readResource());
+            }
+            return repository;
+        }
+
+        private ResourceImpl readResource() throws IOException
+        {
+            ResourceImpl resource = new ResourceImpl();
+            int nbProperties = m_in.readInt();
+            for (int i = 0; i < nbProperties; i++)
+            {
+                String key = readString();
+                Object value = readValue();
+                if (value instanceof Version)
+                {
+                    resource.put(key, value.toString(), Property.VERSION);
+                }
+                else if (value instanceof Long)
+                {
+                    resource.put(key, value.toString(), Property.LONG);
+                }
+                else if (value instanceof List && Resource.CATEGORY.equals(key))
+                {
+                    for (Iterator it = ((List) value).iterator(); it.hasNext();)
+                    {
+                        resource.addCategory((String) it.next());
+                    }
+                }
+                else if (value instanceof Set)
+                {
+                    StringBuffer sb = new StringBuffer();
+                    for (Iterator it = ((Set) value).iterator(); it.hasNext();)
+                    {
+                        sb.append(sb.length() > 0 ? "," : "").append(it.next());
+                    }
+                    resource.put(key, sb.toString(), Property.SET);
+                }
+                else if (value instanceof String)
+                {
+                    resource.put(key, (String) value, null);
+                }
+                else
+                {
+                    throw new IOException("Unexpected value of resource property " + key);
+                }
+            }
+
+            int nbCapabilities = m_in.readInt();
+            for (int i = 0; i < nbCapabilities; i++)
+            {
+                resource.addCapability(readCapability());
+            }
+
+            int nbRequirements = m_in.readInt();
+            for (int i = 0; i < nbRequirements; i++)
+            {
+                resource.addRequire(readRequirement());
+            }
+            return resource;
+        }
+
+        private CapabilityImpl readCapability() throws IOException
+        {
+            CapabilityImpl capability = new CapabilityImpl(readString());
+            int nbProperties = m_in.readInt();
+            for (int i = 0; i < nbProperties; i++)
+            {
+                byte kind = m_in.readByte();
+                if (kind == PROPERTY)
+                {
+                    String name = readString();
+                    String type = readString();
+                    capability.addProperty(new PropertyImpl(name, type, readString()));
+                }
+                else
+                {
+                    String name = readString();
+                    capability.addProperty(new FelixPropertyAdapter(name, readValue()));
+                }
+            }
+            int nbDirectives = m_in.readInt();
+            for (int i = 0; i < nbDirectives; i++)
+            {
+                capability.addDirective(readString(), readString());
+            }
+            return capability;
+        }
+
+        private RequirementImpl readRequirement() throws IOException
+        {
+            RequirementImpl requirement = new RequirementImpl(readString());
+            requirement.setFilter(readString());
+            requirement.setExtend(m_in.readBoolean());
+            requirement.setMultiple(m_in.readBoolean());
+            requirement.setOptional(m_in.readBoolean());
+            String comment = readString();
+            if (comment != null)
+            {
+                requirement.addText(comment);
+            }
+
+            int nbAttributes = m_in.readInt();
+            if (nbAttributes > 0)
+            {
+                Map<String, Object> attributes = new HashMap<String, Object>();
+                for (int i = 0; i < nbAttributes; i++)
+                {
+                    attributes.put(readString(), readValue());
+                }
+                requirement.setAttributes(attributes);
+            }
+            int nbDirectives = m_in.readInt();
+            if (nbDirectives > 0)
+            {
+                Map<String, String> directives = new HashMap<String, String>();
+                for (int i = 0; i < nbDirectives; i++)
+                {
+                    directives.put(readString(), readString());
+                }
+                requirement.setDirectives(directives);
+            }
+            return requirement;
+        }
+
+        private Object readValue() throws IOException
+        {
+            byte tag = m_in.readByte();
+            switch (tag)
+            {
+                case STRING:
+                    return readString();
+                case VERSION:
+                    return VersionTable.getVersion(readString());
+                case LONG:
+                    return new Long(m_in.readLong());
+                case DOUBLE:
+                    return new Double(m_in.readDouble());
+                case LIST:
+                case SET:
+                    int size = m_in.readInt();
+                    Collection<Object> collection = (tag == LIST)
+                        ? (Collection<Object>) new ArrayList<Object>(size)
+                        : (Collection<Object>) new HashSet<Object>();
+                    for (int i = 0; i < size; i++)
+                    {
+                        collection.add(readValue());
+                    }
+                    return collection;
+                default:
+                    throw new IOException("Unexpected value tag " + tag);
+            }
+        }
+
+        private String readString() throws IOException
+        {
+            int index = m_in.readInt();
+            if (index == -1)
+            {
+                return null;
+            }
+            if (index >= 0)
+            {
+                return m_strings.get(index);
+            }
+            byte[] bytes = new byte[m_in.readInt()];
+            m_in.readFully(bytes);
+            String s = new String(bytes, "UTF-8");
+            m_strings.add(s);
+            return s;
+        }
+    }
+}
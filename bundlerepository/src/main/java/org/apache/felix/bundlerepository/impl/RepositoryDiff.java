@@ -16,30 +16,31 @@
  * specific language governing permissions and limitations
  * under the License.
  */
-package org.apache.felix.resolver.util;
+package org.apache.felix.bundlerepository.impl;
 
-import org.osgi.resource.Requirement;
+import org.apache.felix.bundlerepository.Resource;
 
-public class OpenHashMapList extends OpenHashMap<Requirement, CandidateSelector> {
-    private static final long serialVersionUID = 0L;
+/**
+ * The resources added and removed when a repository is refreshed.
+ */
+public class RepositoryDiff
+{
+    private final Resource[] m_added;
+    private final Resource[] m_removed;
 
-    public OpenHashMapList() {
-        super();
+    public RepositoryDiff(Resource[] added, Resource[] removed)
+    {
+        m_added = added;
+        m_removed = removed;
     }
 
-    public OpenHashMapList(int initialCapacity) {
-        super(initialCapacity);
+    public Resource[] getAddedResources()
+    {
+        return m_added;
     }
 
-    public OpenHashMapList deepClone() {
-        OpenHashMapList copy = (OpenHashMapList) super.clone();
-        Object[] values = copy.value;
-        for (int i = values.length; i-- > 0;) {
-            if (values[i] != null) {
-                values[i] = ((CandidateSelector) values[i]).copy();
-            }
-        }
-        return copy;
+    public Resource[] getRemovedResources()
+    {
+        return m_removed;
     }
-
 }
@@ -20,10 +20,16 @@ package org.apache.felix.bundlerepository.impl;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.apache.felix.bundlerepository.Capability;
 import org.apache.felix.bundlerepository.Resource;
 import org.apache.felix.bundlerepository.Repository;
 
@@ -35,6 +41,7 @@ public class RepositoryImpl implements Repository
     private Resource[] m_resources = null;
     private Referral[] m_referrals = null;
     private Set m_resourceSet = new HashSet();
+    private volatile CapabilityIndex m_index = null;
 
     public RepositoryImpl()
     {
@@ -78,6 +85,100 @@ public class RepositoryImpl implements Repository
         m_resourceSet.remove(resource);
         m_resourceSet.add(resource);
         m_resources = null;
+        m_index = null;
+    }
+
+    /**
+     * Returns the index of the capabilities of the resources of this
+     * repository, which is built on first use.
+     */
+    public CapabilityIndex getCapabilityIndex()
+    {
+        CapabilityIndex index = m_index;
+        if (index == null)
+        {
+            index = new CapabilityIndex(getResources());
+            m_index = index;
+        }
+        return index;
+    }
+
+    /**
+     * Take over the capability index from the previous version of this
+     * repository, so that only the resources which changed have to be
+     * indexed.  The entries of the unchanged resources are moved over to the
+     * resources of this repository; the previous version is not modified, as
+     * it may still be in use.
+     *
+     * @return the resources added and removed since the previous version, or
+     * <code>null</code> if the previous version has not built its index, in
+     * which case this repository builds its own index on first use
+     */
+    public RepositoryDiff refresh(RepositoryImpl previous)
+    {
+        CapabilityIndex index = previous.m_index;
+        if (index == null)
+        {
+            return null;
+        }
+
+        Map<Resource, Resource> previousResources = new HashMap<Resource, Resource>();
+        Resource[] resources = previous.getResources();
+        for (int i = 0; i < resources.length; i++)
+        {
+            previousResources.put(resources[i], resources[i]);
+        }
+
+        List<Resource> added = new ArrayList<Resource>();
+        List<Resource> removed = new ArrayList<Resource>();
+        Map<Resource, Resource> unchanged = new IdentityHashMap<Resource, Resource>();
+        resources = getResources();
+        for (int i = 0; i < resources.length; i++)
+        {
+            Resource old = previousResources.remove(resources[i]);
+            if (old != null && isUnchanged(old, resources[i]))
+            {
+                unchanged.put(old, resources[i]);
+            }
+            else
+            {
+                added.add(resources[i]);
+                if (old != null)
+                {
+                    removed.add(old);
+                }
+            }
+        }
+        removed.addAll(previousResources.values());
+
+        m_index = index.update(resources, added, unchanged);
+        return new RepositoryDiff(
+            added.toArray(new Resource[added.size()]),
+            removed.toArray(new Resource[removed.size()]));
+    }
+
+    private static boolean isUnchanged(Resource r1, Resource r2)
+    {
+        if (!r1.getProperties().equals(r2.getProperties())
+            || !Arrays.equals(r1.getRequirements(), r2.getRequirements()))
+        {
+            return false;
+        }
+        Capability[] caps1 = r1.getCapabilities();
+        Capability[] caps2 = r2.getCapabilities();
+        if (caps1.length != caps2.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < caps1.length; i++)
+        {
+            if (!caps1[i].getName().equals(caps2[i].getName())
+                || !caps1[i].getPropertiesAsMap().equals(caps2[i].getPropertiesAsMap()))
+            {
+                return false;
+            }
+        }
+        return true;
     }
 
     public Referral[] getReferrals()
@@ -46,6 +46,8 @@ public class ResolverImpl implements Resolver
     private boolean m_resolved = false;
     private long m_resolveTimeStamp;
     private int m_resolutionFlags;
+    private CapabilityIndex m_localIndex;
+    private CapabilityIndex m_remoteIndex;
 
     public ResolverImpl(BundleContext context, Repository[] repositories, Logger logger)
     {
@@ -178,6 +180,11 @@ public class ResolverImpl implements Resolver
         Resource[] locals = getLocalResources();
         Resource[] remotes = getRemoteResources();
 
+        // Index their capabilities, so that looking for candidates does
+        // not need to go through all resources for each requirement
+        m_localIndex = new CapabilityIndex(locals);
+        m_remoteIndex = new CapabilityIndex(remotes);
+
         // time of the resolution process start
         m_resolveTimeStamp = 0;
         for (int repoIdx = 0; (m_repositories != null) && (repoIdx < m_repositories.length); repoIdx++)
@@ -279,8 +286,8 @@ public class ResolverImpl implements Resolver
                     candidate = searchResources(req, m_resolveSet);
                 }
                 if (candidate == null) {
-                    List<ResourceCapability> candidateCapabilities = searchResources(req, locals);
-                    candidateCapabilities.addAll(searchResources(req, remotes));
+                    List<ResourceCapability> candidateCapabilities = searchResources(req, m_localIndex);
+                    candidateCapabilities.addAll(searchResources(req, m_remoteIndex));
 
                     // Determine the best candidate available that
                     // can resolve.
@@ -364,26 +371,19 @@ public class ResolverImpl implements Resolver
     /**
      * Searches for resources that do meet the given requirement
      * @param req the the requirement that must be satisfied by resources
-     * @param resources list of resources to look at
+     * @param index index of the resources to look at
      * @return all resources meeting the given requirement
      */
-    private List<ResourceCapability> searchResources(Requirement req, Resource[] resources)
+    private List<ResourceCapability> searchResources(Requirement req, CapabilityIndex index)
     {
-        List<ResourceCapability> matchingCapabilities = new ArrayList<ResourceCapability>();
-
-        if (resources != null) {
-            for (Resource resource : resources) {
-                checkInterrupt();
-                // We don't need to look at resources we've already looked at.
-                if (!m_failedSet.contains(resource)) {
-                    Capability[] caps = resource.getCapabilities();
-                    if (caps != null) {
-                        for (Capability cap : caps) {
-                            if (req.isSatisfied(cap))
-                                matchingCapabilities.add(new ResourceCapabilityImpl(resource, cap));
-                        }
-                    }
-                }
+        List<ResourceCapability> matchingCapabilities = index.getCandidates(req);
+
+        for (Iterator<ResourceCapability> it = matchingCapabilities.iterator(); it.hasNext();) {
+            checkInterrupt();
+            ResourceCapability candidate = it.next();
+            // We don't need to look at resources we've already looked at.
+            if (m_failedSet.contains(candidate.getResource()) || !req.isSatisfied(candidate.getCapability())) {
+                it.remove();
             }
         }
 
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.bundlerepository.Resource;
+
+public class CapabilityIndexTest extends TestCase
+{
+    public void testEqualityValue()
+    {
+        assertEquals("org.foo", CapabilityIndex.getEqualityValue("(package=org.foo)", "package"));
+        assertEquals("org.foo", CapabilityIndex.getEqualityValue(
+            "(&(package=org.foo)(version>=1.0.0)(!(version>=2.0.0)))", "package"));
+        assertEquals("a(b)", CapabilityIndex.getEqualityValue("(&(version>=1.0.0)(symbolicname=a\\(b\\)))", "symbolicname"));
+        assertNull(CapabilityIndex.getEqualityValue("(package=org.*)", "package"));
+        assertNull(CapabilityIndex.getEqualityValue("(package~=org.foo)", "package"));
+        assertNull(CapabilityIndex.getEqualityValue("(|(package=org.foo)(package=org.bar))", "package"));
+        assertNull(CapabilityIndex.getEqualityValue("(&(!(package=org.foo))(version>=1.0.0))", "package"));
+    }
+
+    public void testCandidates()
+    {
+        ResourceImpl res1 = resource("res1", "org.foo");
+        ResourceImpl res2 = resource("res2", "org.bar");
+        ResourceImpl res3 = resource("res3", "org.foo");
+        CapabilityIndex index = new CapabilityIndex(new Resource[] { res1, res2, res3 });
+
+        List<ResourceCapability> candidates = index.getCandidates(new RequirementImpl("package")
+        {
+            {
+                setFilter("(&(package=org.foo)(version>=1.0.0))");
+            }
+        });
+        assertEquals(2, candidates.size());
+        assertSame(res1, candidates.get(0).getResource());
+        assertSame(res3, candidates.get(1).getResource());
+
+        RequirementImpl req = new RequirementImpl("package");
+        req.setFilter("(package=org.*)");
+        assertEquals(3, index.getCandidates(req).size());
+
+        req = new RequirementImpl("service");
+        req.setFilter("(service=org.foo)");
+        assertTrue(index.getCandidates(req).isEmpty());
+
+        Resource[] resources = index.getResources("(&(symbolicname=RES2)(version>=1.0.0))");
+        assertEquals(1, resources.length);
+        assertSame(res2, resources[0]);
+        assertEquals(3, index.getResources("(presentationname=foo)").length);
+    }
+
+    public void testUpdate()
+    {
+        Resource[] resources = new Resource[10];
+        for (int i = 0; i < resources.length; i++)
+        {
+            resources[i] = resource("res" + i, "org.foo");
+        }
+        CapabilityIndex index = new CapabilityIndex(resources);
+
+        // res3 is removed and res4a is added between res4 and res5, the
+        // other resources are replaced by equal ones
+        Resource[] updated = new Resource[10];
+        Map<Resource, Resource> replaced = new IdentityHashMap<Resource, Resource>();
+        for (int i = 0, j = 0; i < resources.length; i++)
+        {
+            if (i == 3)
+            {
+                continue;
+            }
+            updated[j] = resource("res" + i, "org.foo");
+            replaced.put(resources[i], updated[j++]);
+            if (i == 4)
+            {
+                updated[j++] = resource("res4a", "org.foo");
+            }
+        }
+        CapabilityIndex next = index.update(updated, Collections.singletonList(updated[4]), replaced);
+
+        RequirementImpl req = new RequirementImpl("package");
+        req.setFilter("(package=org.foo)");
+        List<Resource> candidates = new ArrayList<Resource>();
+        for (ResourceCapability candidate : next.getCandidates(req))
+        {
+            candidates.add(candidate.getResource());
+        }
+        assertEquals(10, candidates.size());
+        for (int i = 0; i < updated.length; i++)
+        {
+            assertSame(updated[i], candidates.get(i));
+        }
+        assertSame(updated[4], next.getResources("(symbolicname=res4a)")[0]);
+        assertSame(updated[6], next.getResources("(symbolicname=res6)")[0]);
+        assertEquals(0, next.getResources("(symbolicname=res3)").length);
+
+        // the index the update has been built from is left as it is
+        assertEquals(10, index.getCandidates(req).size());
+        assertSame(resources[3], index.getCandidates(req).get(3).getResource());
+        assertSame(resources[3], index.getResources("(symbolicname=res3)")[0]);
+    }
+
+    private static ResourceImpl resource(String symbolicName, String pkg)
+    {
+        ResourceImpl resource = new ResourceImpl();
+        resource.put(Resource.SYMBOLIC_NAME, symbolicName);
+        resource.put(Resource.VERSION, "1.0.0");
+        CapabilityImpl capability = new CapabilityImpl("package");
+        capability.addProperty("package", pkg);
+        capability.addProperty("version", "version", "1.0.0");
+        resource.addCapability(capability);
+        return resource;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.bundlerepository.Resource;
+import org.apache.felix.utils.log.Logger;
+
+public class RepositoryCacheTest extends TestCase
+{
+    private File m_dir;
+    private RepositoryCache m_cache;
+    private DataModelHelperImpl m_helper;
+
+    protected void setUp() throws Exception
+    {
+        m_dir = new File("target/repository-cache-" + getName());
+        m_dir.mkdirs();
+        File[] files = m_dir.listFiles();
+        for (int i = 0; i < files.length; i++)
+        {
+            files[i].delete();
+        }
+        m_helper = new DataModelHelperImpl();
+        m_cache = new RepositoryCache(m_dir, m_helper, new Logger(null));
+    }
+
+    public void testSnapshot() throws Exception
+    {
+        checkSnapshot(copy("/repo_for_resolvertest.xml", "repository.xml"));
+    }
+
+    public void testSpecSnapshot() throws Exception
+    {
+        checkSnapshot(copy("/spec_repository.xml", "repository.xml"));
+    }
+
+    public void testModifiedRepository() throws Exception
+    {
+        File file = copy("/repo_for_resolvertest.xml", "repository.xml");
+        URL url = file.toURI().toURL();
+        assertTrue(m_cache.repository(url).getResources().length > 1);
+
+        File other = copy("/referred.xml", "repository.xml");
+        other.setLastModified(file.lastModified() + 2000);
+        assertEquals(1, m_cache.repository(url).getResources().length);
+    }
+
+    private void checkSnapshot(File file) throws Exception
+    {
+        URL url = file.toURI().toURL();
+        RepositoryImpl parsed = m_cache.repository(url);
+        assertTrue(m_cache.getFile(url).isFile());
+        assertNotNull(m_cache.read(url, m_cache.getFile(url)));
+
+        RepositoryImpl cached = m_cache.repository(url);
+        assertNotSame(parsed, cached);
+        assertEquals(parsed.getURI(), cached.getURI());
+        assertEquals(parsed.getLastModified(), cached.getLastModified());
+
+        Resource[] expected = parsed.getResources();
+        Resource[] actual = cached.getResources();
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++)
+        {
+            assertEquals(expected[i].getProperties(), actual[i].getProperties());
+            assertEquals(expected[i].getCapabilities().length, actual[i].getCapabilities().length);
+            for (int j = 0; j < expected[i].getCapabilities().length; j++)
+            {
+                assertEquals(expected[i].getCapabilities()[j].getName(), actual[i].getCapabilities()[j].getName());
+                assertEquals(expected[i].getCapabilities()[j].getPropertiesAsMap(),
+                    actual[i].getCapabilities()[j].getPropertiesAsMap());
+            }
+            assertEquals(expected[i].getRequirements().length, actual[i].getRequirements().length);
+            for (int j = 0; j < expected[i].getRequirements().length; j++)
+            {
+                assertEquals(expected[i].getRequirements()[j], actual[i].getRequirements()[j]);
+            }
+        }
+    }
+
+    private File copy(String resource, String name) throws Exception
+    {
+        File file = new File(m_dir, name);
+        InputStream in = getClass().getResourceAsStream(resource);
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            byte[] buffer = new byte[4096];
+            for (int len = in.read(buffer); len > 0; len = in.read(buffer))
+            {
+                out.write(buffer, 0, len);
+            }
+        }
+        finally
+        {
+            in.close();
+            out.close();
+        }
+        return file;
+    }
+}
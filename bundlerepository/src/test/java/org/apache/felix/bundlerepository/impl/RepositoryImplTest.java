@@ -18,11 +18,20 @@
  */
 package org.apache.felix.bundlerepository.impl;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.URL;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 
 import junit.framework.TestCase;
 
@@ -95,6 +104,130 @@ public class RepositoryImplTest extends TestCase
 //        assertEquals("referral1_repository", res[0].getRepository().getName());
     }
 
+    public void testParallelReferrals() throws Exception
+    {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                String name = exchange.getRequestURI().getPath().substring(1);
+                String xml;
+                if (name.equals("root.xml"))
+                {
+                    xml = "<repository name='root'>"
+                        + "<referral depth='2' url='a.xml'/>"
+                        + "<referral depth='2' url='b.xml'/>"
+                        + "<referral depth='2' url='c.xml'/>"
+                        + "</repository>";
+                }
+                else
+                {
+                    int n = active.incrementAndGet();
+                    synchronized (maxActive)
+                    {
+                        maxActive.set(Math.max(maxActive.get(), n));
+                    }
+                    try
+                    {
+                        Thread.sleep(200);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    active.decrementAndGet();
+                    String id = name.substring(0, name.indexOf('.'));
+                    xml = "<repository name='" + id + "'>"
+                        + "<resource id='" + id + "' symbolicname='org.sample." + id + "' uri='" + id + ".jar' version='1.0.0'/>"
+                        + "</repository>";
+                }
+                byte[] bytes = xml.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(bytes);
+                os.close();
+            }
+        });
+        server.start();
+        try
+        {
+            String base = "http://localhost:" + server.getAddress().getPort() + "/";
+            RepositoryAdminImpl repoAdmin = createRepositoryAdmin();
+            repoAdmin.addRepository(new URL(base + "root.xml"));
+
+            assertTrue("Expect referrals to be loaded concurrently", maxActive.get() > 1);
+
+            // repositories are listed in the order they are referenced
+            Repository[] repos = repoAdmin.listRepositories();
+            assertEquals(4, repos.length);
+            assertEquals(base + "root.xml", repos[0].getURI());
+            assertEquals(base + "a.xml", repos[1].getURI());
+            assertEquals(base + "b.xml", repos[2].getURI());
+            assertEquals(base + "c.xml", repos[3].getURI());
+            assertEquals(1, repoAdmin.discoverResources("(symbolicname=org.sample.b)").length);
+        }
+        finally
+        {
+            server.stop(0);
+        }
+    }
+
+    public void testRefresh() throws Exception
+    {
+        DataModelHelperImpl helper = new DataModelHelperImpl();
+        RepositoryImpl previous = (RepositoryImpl) helper.readRepository("<repository name='test'>"
+            + "<resource id='a' symbolicname='a' version='1.0.0'><capability name='package'><p n='package' v='org.a'/></capability></resource>"
+            + "<resource id='b' symbolicname='b' version='1.0.0'><capability name='package'><p n='package' v='org.b'/></capability></resource>"
+            + "<resource id='c' symbolicname='c' version='1.0.0' size='1'/>"
+            + "</repository>");
+        CapabilityIndex previousIndex = previous.getCapabilityIndex();
+        RepositoryImpl repository = (RepositoryImpl) helper.readRepository("<repository name='test'>"
+            + "<resource id='a' symbolicname='a' version='1.0.0'><capability name='package'><p n='package' v='org.a'/></capability></resource>"
+            + "<resource id='c' symbolicname='c' version='1.0.0' size='2'/>"
+            + "<resource id='d' symbolicname='d' version='1.0.0'><capability name='package'><p n='package' v='org.d'/></capability></resource>"
+            + "</repository>");
+
+        RepositoryDiff diff = repository.refresh(previous);
+        assertEquals(2, diff.getAddedResources().length);
+        assertEquals(2, diff.getRemovedResources().length);
+
+        // unchanged resources are moved over to the new repository, the
+        // previous one is left as it is
+        Resource previousA = previous.getCapabilityIndex().getResources("(symbolicname=a)")[0];
+        Resource a = repository.getCapabilityIndex().getResources("(symbolicname=a)")[0];
+        assertNotSame(previousA, a);
+        assertSame(previous, ((ResourceImpl) previousA).getRepository());
+        assertSame(repository, ((ResourceImpl) a).getRepository());
+        RequirementImpl reqA = new RequirementImpl("package");
+        reqA.setFilter("(package=org.a)");
+        assertSame(a, repository.getCapabilityIndex().getCandidates(reqA).get(0).getResource());
+        assertSame(previousA, previous.getCapabilityIndex().getCandidates(reqA).get(0).getResource());
+
+        // the index has been updated, not rebuilt
+        CapabilityIndex index = repository.getCapabilityIndex();
+        assertNotSame(previousIndex, index);
+        assertEquals(0, index.getResources("(symbolicname=b)").length);
+        RequirementImpl req = new RequirementImpl("package");
+        req.setFilter("(package=org.d)");
+        assertEquals(1, index.getCandidates(req).size());
+        req.setFilter("(package=org.b)");
+        assertEquals(0, index.getCandidates(req).size());
+
+        // without an index of the previous version there is nothing to take over
+        RepositoryImpl next = (RepositoryImpl) helper.readRepository("<repository name='test'>"
+            + "<resource id='a' symbolicname='a' version='1.0.0'/>"
+            + "</repository>");
+        RepositoryImpl refreshed = (RepositoryImpl) helper.readRepository("<repository name='test'>"
+            + "<resource id='a' symbolicname='a' version='1.0.0'/>"
+            + "</repository>");
+        assertNull(refreshed.refresh(next));
+        assertEquals(1, refreshed.getCapabilityIndex().getResources("(symbolicname=a)").length);
+    }
+
     private RepositoryAdminImpl createRepositoryAdmin() throws Exception
     {
         BundleContext bundleContext = EasyMock.createMock(BundleContext.class);
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osgi.util.converter.jmh;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.util.converter.Converter;
+import org.osgi.util.converter.Converters;
+import org.osgi.util.converter.TypeReference;
+
+/**
+ * Throughput of the standard converter for the common kinds of conversions:
+ * maps to and from DTOs, collections and scalars.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConverterBenchmark {
+    public enum Level { LOW, MEDIUM, HIGH }
+
+    public static class ConfigDTO {
+        public String name;
+        public int port;
+        public long timeout;
+        public boolean enabled;
+        public Level level;
+        public List<String> hosts;
+    }
+
+    private static final TypeReference<List<Integer>> INTEGER_LIST = new TypeReference<List<Integer>>() {};
+
+    private Converter converter;
+    private Map<String, Object> map;
+    private ConfigDTO dto;
+    private List<String> numbers;
+
+    @Setup
+    public void setup() {
+        converter = Converters.standardConverter();
+
+        map = new HashMap<>();
+        map.put("name", "server");
+        map.put("port", "8080");
+        map.put("timeout", 30000L);
+        map.put("enabled", "true");
+        map.put("level", "MEDIUM");
+        List<String> hosts = new ArrayList<>();
+        hosts.add("a.example.org");
+        hosts.add("b.example.org");
+        map.put("hosts", hosts);
+
+        dto = converter.convert(map).to(ConfigDTO.class);
+
+        numbers = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            numbers.add(Integer.toString(i));
+        }
+    }
+
+    @Benchmark
+    public ConfigDTO mapToDTO() {
+        return converter.convert(map).to(ConfigDTO.class);
+    }
+
+    @Benchmark
+    public Map<?, ?> dtoToMap() {
+        return converter.convert(dto).to(Map.class);
+    }
+
+    @Benchmark
+    public List<Integer> collection() {
+        return converter.convert(numbers).to(INTEGER_LIST);
+    }
+
+    @Benchmark
+    public int stringToInt() {
+        return converter.convert("12345").to(int.class);
+    }
+
+    @Benchmark
+    public Level stringToEnum() {
+        return converter.convert("HIGH").to(Level.class);
+    }
+
+    @Benchmark
+    public String longToString() {
+        return converter.convert(12345L).to(String.class);
+    }
+}
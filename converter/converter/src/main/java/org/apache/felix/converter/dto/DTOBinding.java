@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.converter.dto;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * The binding of the keys of a map to the fields of a DTO class, as used by
+ * the converter when it converts a map to a DTO.
+ */
+@ProviderType
+public interface DTOBinding {
+	/**
+	 * Create a new instance of the DTO.
+	 *
+	 * @return The new instance.
+	 * @throws Exception If the DTO cannot be created.
+	 */
+	Object newInstance() throws Exception;
+
+	/**
+	 * Obtain the field the value of a key is stored in.
+	 *
+	 * @param key The key, including the prefix of the DTO, if any.
+	 * @return The field or {@code null} if the DTO has no field for the key.
+	 */
+	DTOField getField(String key);
+}
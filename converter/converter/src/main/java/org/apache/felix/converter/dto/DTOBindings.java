@@ -0,0 +1,36 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.converter.dto;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Implemented by the converters of this bundle to expose how they bind the
+ * keys of a map to the fields of a DTO.
+ */
+@ProviderType
+public interface DTOBindings {
+	/**
+	 * Obtain the binding of a DTO class.
+	 *
+	 * @param cls The class.
+	 * @return The binding or {@code null} if the class is not a DTO which can
+	 *         be bound directly, for example because its fields have generic
+	 *         types that are only known from a subclass.
+	 */
+	DTOBinding getDTOBinding(Class< ? > cls);
+}
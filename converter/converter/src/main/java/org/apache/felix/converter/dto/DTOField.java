@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.converter.dto;
+
+import java.lang.reflect.Type;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * A field of a DTO binding.
+ */
+@ProviderType
+public interface DTOField {
+	/**
+	 * @return The generic type of the field.
+	 */
+	Type getGenericType();
+
+	/**
+	 * Set the field of a DTO.
+	 *
+	 * @param dto The DTO.
+	 * @param value The value, which must be of the type of the field.
+	 * @throws Exception If the field cannot be set.
+	 */
+	void set(Object dto, Object value) throws Exception;
+}
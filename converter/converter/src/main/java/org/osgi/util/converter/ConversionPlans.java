@@ -0,0 +1,706 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osgi.util.converter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.felix.converter.dto.DTOBinding;
+import org.apache.felix.converter.dto.DTOField;
+
+/**
+ * The compiled conversion plans of a converter.
+ * <p>
+ * Deciding how an object is converted requires a fair amount of reflection on
+ * the source and target types: whether they are DTOs, JavaBeans or map-like
+ * interfaces, which fields, accessors and constructors they have. A plan holds
+ * the outcome of this reflection for one class, with the accessors and
+ * constructors resolved to method handles, so that it is only done once for
+ * all objects converted from or to that class. Plans do not depend on the
+ * rules of a converter, these are applied before a plan is consulted.
+ * <p>
+ * Plans are attached to their class through a {@link ClassValue}, so they do
+ * not keep the classes of uninstalled bundles reachable.
+ *
+ * @author $Id$
+ */
+class ConversionPlans {
+	static final int								MAX_DTO_FIELDS	= 256;
+
+	private static final MethodHandles.Lookup		LOOKUP		= MethodHandles
+			.lookup();
+
+	private static final MethodType					GETTER_TYPE	= MethodType
+			.methodType(Object.class, Object.class);
+	private static final MethodType					SETTER_TYPE	= MethodType
+			.methodType(void.class, Object.class, Object.class);
+
+	private final ClassValue<TypePlan>				plans		= new ClassValue<TypePlan>() {
+		@Override
+		protected TypePlan computeValue(Class< ? > cls) {
+			return new TypePlan(ConversionPlans.this, cls);
+		}
+	};
+
+	TypePlan plan(Class< ? > cls) {
+		return plans.get(cls);
+	}
+
+	/**
+	 * The plan for one class. All information is computed lazily, as most
+	 * classes are only ever used in one or two roles. Concurrent callers may
+	 * compute the same information more than once, which is harmless as the
+	 * result is always the same.
+	 */
+	static class TypePlan implements DTOBinding {
+		private static final Object					NONE	= new Object();
+
+		private final ConversionPlans				plans;
+		final Class< ? >							cls;
+
+		private volatile Boolean					dtoType;
+		private volatile Boolean					bindable;
+		private volatile Boolean					writeableJavaBean;
+		private volatile Boolean					copyRequired;
+		private volatile Set<Class< ? >>			interfaces;
+		private volatile String						prefix;
+		private volatile List<String>				names;
+		private volatile Object						getProperties;
+		private volatile Object						constructableType;
+		private volatile Object						valueOf;
+		private volatile Object						stringConstructor;
+		private volatile MethodHandle				defaultConstructor;
+		private volatile MethodHandle				sizeConstructor;
+		private volatile boolean					constructorsResolved;
+		private volatile List<Accessor>				dtoGetters;
+		private volatile List<Accessor>				beanGetters;
+		private volatile List<Accessor>				beanSetters;
+		private volatile Set<Method>				setters;
+		private final ConcurrentMap<String,Object>	dtoFields	= new ConcurrentHashMap<>();
+
+		TypePlan(ConversionPlans plans, Class< ? > cls) {
+			this.plans = plans;
+			this.cls = cls;
+		}
+
+		boolean isDTOType() {
+			Boolean res = dtoType;
+			if (res == null)
+				dtoType = res = Boolean.valueOf(DTOUtil.isDTOType(cls));
+			return res.booleanValue();
+		}
+
+		/**
+		 * This plan as a DTO binding, or <code>null</code> if the class is not
+		 * a DTO or if the types of its fields are not fully known.
+		 */
+		DTOBinding getDTOBinding() {
+			Boolean res = bindable;
+			if (res == null) {
+				boolean b = isDTOType() && cls.getTypeParameters().length == 0;
+				if (b) {
+					for (Field f : cls.getFields()) {
+						if (!Modifier.isStatic(f.getModifiers())
+								&& hasTypeVariable(f.getGenericType())) {
+							b = false;
+							break;
+						}
+					}
+				}
+				bindable = res = Boolean.valueOf(b);
+			}
+			return res.booleanValue() ? this : null;
+		}
+
+		@Override
+		public DTOField getField(String key) {
+			String fieldName = Util.mangleName(getPrefix(), key, getNames());
+			if (fieldName == null)
+				return null;
+			return getDTOField(fieldName, false);
+		}
+
+		boolean isMapType(boolean asJavaBean, boolean asDTO) {
+			if (asDTO)
+				return true;
+
+			// All interface types that are not Collections are treated as
+			// maps
+			if (Map.class.isAssignableFrom(cls))
+				return true;
+			else if (getInterfaces().size() > 0)
+				return true;
+			else if (isDTOType())
+				return true;
+			else if (asJavaBean && isWriteableJavaBean())
+				return true;
+			else
+				return Dictionary.class.isAssignableFrom(cls);
+		}
+
+		boolean isCopyRequiredType() {
+			Boolean res = copyRequired;
+			if (res == null) {
+				if (cls.isEnum())
+					res = Boolean.FALSE;
+				else
+					res = Boolean.valueOf(Map.class.isAssignableFrom(cls)
+							|| Collection.class.isAssignableFrom(cls)
+							|| isDTOType() || cls.isArray());
+				copyRequired = res;
+			}
+			return res.booleanValue();
+		}
+
+		boolean isWriteableJavaBean() {
+			Boolean res = writeableJavaBean;
+			if (res == null) {
+				boolean hasNoArgCtor = false;
+				for (Constructor< ? > ctor : cls.getConstructors()) {
+					if (ctor.getParameterTypes().length == 0)
+						hasNoArgCtor = true;
+				}
+				// A JavaBean must have a public no-arg constructor
+				res = Boolean.valueOf(
+						hasNoArgCtor && getSetters().size() > 0);
+				writeableJavaBean = res;
+			}
+			return res.booleanValue();
+		}
+
+		// Returns an ordered set
+		Set<Class< ? >> getInterfaces() {
+			Set<Class< ? >> res = interfaces;
+			if (res == null) {
+				if (ConvertingImpl.NO_MAP_VIEW_TYPES.contains(cls)) {
+					res = Collections.emptySet();
+				} else {
+					Set<Class< ? >> intfs = getInterfaces0(cls);
+					for (Iterator<Class< ? >> it = intfs.iterator(); it
+							.hasNext();) {
+						Class< ? > intf = it.next();
+						if (intf.getDeclaredMethods().length == 0)
+							it.remove();
+					}
+					intfs.removeAll(ConvertingImpl.NO_MAP_VIEW_TYPES);
+					res = Collections.unmodifiableSet(intfs);
+				}
+				interfaces = res;
+			}
+			return res;
+		}
+
+		// Returns an ordered set
+		private Set<Class< ? >> getInterfaces0(Class< ? > c) {
+			Set<Class< ? >> classes = new LinkedHashSet<>();
+			if (c.isInterface()) {
+				classes.add(c);
+			} else {
+				classes.addAll(Arrays.asList(c.getInterfaces()));
+			}
+
+			Class< ? > superClass = c.getSuperclass();
+			if (superClass != null)
+				classes.addAll(plans.plan(superClass).getInterfaces());
+
+			return classes;
+		}
+
+		String getPrefix() {
+			String res = prefix;
+			if (res == null)
+				prefix = res = Util.getPrefix(cls);
+			return res;
+		}
+
+		/**
+		 * The names of the public instance fields declared by the class.
+		 */
+		List<String> getNames() {
+			List<String> res = names;
+			if (res == null) {
+				List<String> ns = new ArrayList<>();
+				for (Field field : cls.getDeclaredFields()) {
+					int modifiers = field.getModifiers();
+					if (Modifier.isStatic(modifiers))
+						continue;
+					if (!Modifier.isPublic(modifiers))
+						continue;
+
+					String name = field.getName();
+					if (!ns.contains(name))
+						ns.add(name);
+				}
+				names = res = Collections.unmodifiableList(ns);
+			}
+			return res;
+		}
+
+		/**
+		 * The <code>getProperties()</code> method of the class, or
+		 * <code>null</code> if there is none.
+		 */
+		Method getPropertiesMethod() {
+			Object res = getProperties;
+			if (res == null) {
+				try {
+					res = cls.getDeclaredMethod("getProperties");
+				} catch (Exception e) {
+					res = NONE;
+				}
+				getProperties = res;
+			}
+			return res != NONE ? (Method) res : null;
+		}
+
+		/**
+		 * The class to instantiate to copy an instance of this class, or
+		 * <code>null</code> if there is none.
+		 */
+		Class< ? > getConstructableType() {
+			Object res = constructableType;
+			if (res == null) {
+				res = findConstructableType();
+				if (res == null)
+					res = NONE;
+				constructableType = res;
+			}
+			return res != NONE ? (Class< ? >) res : null;
+		}
+
+		private Class< ? > findConstructableType() {
+			if (cls.isArray())
+				return cls;
+
+			Class< ? > c = cls;
+			do {
+				try {
+					c.getConstructor(int.class);
+					return c; // If no exception the constructor is there
+				} catch (NoSuchMethodException e) {
+					try {
+						c.getConstructor();
+						return c; // If no exception the constructor is there
+					} catch (NoSuchMethodException e1) {
+						// There is no constructor with this name
+					}
+				}
+				for (Class< ? > intf : c.getInterfaces()) {
+					Class< ? > impl = ConvertingImpl.INTERFACE_IMPLS.get(intf);
+					if (impl != null)
+						return impl;
+				}
+
+				c = c.getSuperclass();
+			} while (c != null && !Object.class.equals(c));
+
+			return null;
+		}
+
+		/**
+		 * Create a map or collection of this class, using the constructor
+		 * taking an initial size if there is one.
+		 *
+		 * @return The new instance or <code>null</code> if the class cannot
+		 *         be instantiated.
+		 */
+		Object newMapOrCollection(int initialSize) {
+			resolveConstructors();
+			MethodHandle ctor = sizeConstructor;
+			if (ctor != null) {
+				try {
+					return (Object) ctor.invokeExact(initialSize);
+				} catch (Throwable t) {
+					// try the default constructor
+				}
+			}
+			ctor = defaultConstructor;
+			if (ctor != null) {
+				try {
+					return (Object) ctor.invokeExact();
+				} catch (Throwable t) {
+					// ignore
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Create an instance using the no-arg constructor.
+		 */
+		@Override
+		public Object newInstance() throws Exception {
+			resolveConstructors();
+			MethodHandle ctor = defaultConstructor;
+			if (ctor == null)
+				return cls.newInstance();
+			try {
+				return (Object) ctor.invokeExact();
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		private void resolveConstructors() {
+			if (constructorsResolved)
+				return;
+
+			defaultConstructor = findConstructor(cls);
+			sizeConstructor = findConstructor(cls, int.class);
+			constructorsResolved = true;
+		}
+
+		/**
+		 * The static <code>valueOf(String)</code> method declared by the
+		 * class, or <code>null</code>.
+		 */
+		Method getValueOf() {
+			Object res = valueOf;
+			if (res == null) {
+				try {
+					res = cls.getDeclaredMethod("valueOf", String.class);
+				} catch (Exception e) {
+					res = NONE;
+				}
+				valueOf = res;
+			}
+			return res != NONE ? (Method) res : null;
+		}
+
+		/**
+		 * The public constructor taking a <code>String</code>, or
+		 * <code>null</code>.
+		 */
+		Constructor< ? > getStringConstructor() {
+			Object res = stringConstructor;
+			if (res == null) {
+				try {
+					res = cls.getConstructor(String.class);
+				} catch (Exception e) {
+					res = NONE;
+				}
+				stringConstructor = res;
+			}
+			return res != NONE ? (Constructor< ? >) res : null;
+		}
+
+		/**
+		 * The field a DTO value with the given (mangled) name is stored in,
+		 * or <code>null</code> if there is no such field.
+		 */
+		Accessor getDTOField(String fieldName, boolean ignoreCase) {
+			Object res = dtoFields.get(fieldName);
+			if (res == null) {
+				Field f = findField(fieldName);
+				res = f != null ? new Accessor(f) : NONE;
+				if (dtoFields.size() < MAX_DTO_FIELDS)
+					dtoFields.putIfAbsent(fieldName, res);
+			}
+			if (res != NONE)
+				return (Accessor) res;
+			if (!ignoreCase)
+				return null;
+
+			// If enabled, try again but now ignore case
+			for (Field fs : cls.getDeclaredFields()) {
+				if (fs.getName().equalsIgnoreCase(fieldName))
+					return getDTOField(fs.getName(), false);
+			}
+			for (Field fs : cls.getFields()) {
+				if (fs.getName().equalsIgnoreCase(fieldName))
+					return getDTOField(fs.getName(), false);
+			}
+			return null;
+		}
+
+		private Field findField(String fieldName) {
+			try {
+				return cls.getDeclaredField(fieldName);
+			} catch (NoSuchFieldException e) {
+				try {
+					return cls.getField(fieldName);
+				} catch (NoSuchFieldException e1) {
+					// There is no field with this name
+					return null;
+				}
+			}
+		}
+
+		/**
+		 * The fields read when an instance of this class is viewed as a DTO,
+		 * keyed by their DTO keys.
+		 */
+		List<Accessor> getDTOGetters() {
+			List<Accessor> res = dtoGetters;
+			if (res == null) {
+				Set<String> handledFields = new HashSet<>();
+				List<Accessor> getters = new ArrayList<>();
+				// Do we need 'declaredfields'? We only need to look at the
+				// public ones...
+				addDTOGetters(cls.getDeclaredFields(), handledFields, getters);
+				addDTOGetters(cls.getFields(), handledFields, getters);
+				dtoGetters = res = Collections.unmodifiableList(getters);
+			}
+			return res;
+		}
+
+		private static void addDTOGetters(Field[] fields,
+				Set<String> handledFields, List<Accessor> getters) {
+			for (Field f : fields) {
+				String fn = Util.getDTOKey(f);
+				if (fn == null || handledFields.contains(fn))
+					continue;
+				handledFields.add(fn);
+				getters.add(new Accessor(fn, f));
+			}
+		}
+
+		/**
+		 * The accessors of a JavaBean declared by the class, keyed by their
+		 * property name. A property may have more than one accessor.
+		 */
+		List<Accessor> getBeanGetters() {
+			List<Accessor> res = beanGetters;
+			if (res == null) {
+				List<Accessor> accessors = new ArrayList<>();
+				for (Method md : cls.getDeclaredMethods()) {
+					String bp = Util.getBeanKey(md);
+					if (bp != null)
+						accessors.add(new Accessor(bp, md));
+				}
+				beanGetters = res = Collections.unmodifiableList(accessors);
+			}
+			return res;
+		}
+
+		/**
+		 * The setters of a JavaBean, keyed by their property name.
+		 */
+		List<Accessor> getBeanSetters() {
+			List<Accessor> res = beanSetters;
+			if (res == null) {
+				List<Accessor> accessors = new ArrayList<>();
+				for (Method setter : getSetters()) {
+					String setterName = setter.getName();
+					StringBuilder propName = new StringBuilder(
+							Character.valueOf(
+									Character.toLowerCase(setterName.charAt(3)))
+									.toString());
+					if (setterName.length() > 4)
+						propName.append(setterName.substring(4));
+					accessors.add(new Accessor(propName.toString(), setter));
+				}
+				beanSetters = res = Collections.unmodifiableList(accessors);
+			}
+			return res;
+		}
+
+		private Set<Method> getSetters() {
+			Set<Method> res = setters;
+			if (res == null) {
+				res = new HashSet<>();
+				Class< ? > c = cls;
+				while (c != null && !Object.class.equals(c)) {
+					Set<Method> methods = new HashSet<>();
+					methods.addAll(Arrays.asList(c.getDeclaredMethods()));
+					methods.addAll(Arrays.asList(c.getMethods()));
+					for (Method md : methods) {
+						if (md.getParameterTypes().length != 1)
+							continue; // Only setters with a single argument
+						String name = md.getName();
+						if (name.length() < 4)
+							continue;
+						if (name.startsWith("set")
+								&& Character.isUpperCase(name.charAt(3)))
+							res.add(md);
+					}
+					c = c.getSuperclass();
+				}
+				setters = res = Collections.unmodifiableSet(res);
+			}
+			return res;
+		}
+	}
+
+	/**
+	 * A field, accessor or single argument method, with a method handle to access it
+	 * if the member is accessible to the converter.
+	 */
+	static class Accessor implements DTOField {
+		final String			name;
+		final Class< ? >		type;
+		final Type				genericType;
+		private final Field		field;
+		private final Method	method;
+		private final MethodHandle	getter;
+		private final MethodHandle	setter;
+
+		Accessor(Field f) {
+			this(f.getName(), f);
+		}
+
+		Accessor(String name, Field f) {
+			this.name = name;
+			type = f.getType();
+			genericType = f.getGenericType();
+			field = f;
+			method = null;
+			getter = unreflectGetter(f);
+			setter = unreflectSetter(f);
+		}
+
+		Accessor(String name, Method md) {
+			this.name = name;
+			field = null;
+			method = md;
+			if (md.getParameterTypes().length == 0) {
+				type = md.getReturnType();
+				genericType = md.getGenericReturnType();
+				getter = unreflect(md, GETTER_TYPE);
+				setter = null;
+			} else {
+				type = md.getParameterTypes()[0];
+				genericType = md.getGenericParameterTypes()[0];
+				getter = null;
+				setter = unreflect(md, SETTER_TYPE);
+			}
+		}
+
+		Object get(Object obj) throws Exception {
+			if (getter == null) {
+				if (field != null)
+					return field.get(obj);
+				return method.invoke(obj);
+			}
+			try {
+				return (Object) getter.invokeExact(obj);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		public Type getGenericType() {
+			return genericType;
+		}
+
+		@Override
+		public void set(Object obj, Object value) throws Exception {
+			if (setter == null) {
+				if (field != null)
+					field.set(obj, value);
+				else
+					method.invoke(obj, value);
+				return;
+			}
+			try {
+				setter.invokeExact(obj, value);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+	}
+
+	static boolean hasTypeVariable(Type type) {
+		if (type instanceof Class)
+			return false;
+		if (type instanceof ParameterizedType) {
+			for (Type t : ((ParameterizedType) type)
+					.getActualTypeArguments()) {
+				if (hasTypeVariable(t))
+					return true;
+			}
+			return false;
+		}
+		if (type instanceof GenericArrayType)
+			return hasTypeVariable(
+					((GenericArrayType) type).getGenericComponentType());
+		// Type variables and wildcards
+		return true;
+	}
+
+	static Exception rethrow(Throwable t) {
+		if (t instanceof Error)
+			throw (Error) t;
+		if (t instanceof Exception)
+			return (Exception) t;
+		return new InvocationTargetException(t);
+	}
+
+	private static MethodHandle findConstructor(Class< ? > cls,
+			Class< ? >... parameterTypes) {
+		if (cls.isInterface() || Modifier.isAbstract(cls.getModifiers()))
+			return null;
+		try {
+			return LOOKUP
+					.findConstructor(cls,
+							MethodType.methodType(void.class, parameterTypes))
+					.asType(MethodType.methodType(Object.class,
+							parameterTypes));
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static MethodHandle unreflectGetter(Field f) {
+		try {
+			return LOOKUP.unreflectGetter(f).asType(GETTER_TYPE);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static MethodHandle unreflectSetter(Field f) {
+		try {
+			return LOOKUP.unreflectSetter(f).asType(SETTER_TYPE);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static MethodHandle unreflect(Method md, MethodType type) {
+		if (Modifier.isStatic(md.getModifiers()))
+			return null;
+		try {
+			return LOOKUP.unreflect(md).asType(type);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+}
@@ -25,6 +25,7 @@ import java.util.TimeZone;
 import java.util.UUID;
 import java.util.regex.Pattern;
 
+import org.apache.felix.converter.dto.DTOBinding;
 import org.osgi.util.function.Function;
 
 /**
@@ -43,9 +44,13 @@ class ConverterImpl implements InternalConverter {
 		ISO8601_DATE_FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
 	}
 
+	// Shared by all converters built from this one, as the plans do not
+	// depend on the rules
+	final ConversionPlans plans = new ConversionPlans();
+
 	@Override
 	public InternalConverting convert(Object obj) {
-		return new ConvertingImpl(this, obj);
+		return new ConvertingImpl(this, plans, obj);
 	}
 
 	@Override
@@ -53,6 +58,11 @@ class ConverterImpl implements InternalConverter {
 		return new FunctioningImpl(this);
 	}
 
+	@Override
+	public DTOBinding getDTOBinding(Class< ? > cls) {
+		return plans.plan(cls).getDTOBinding();
+	}
+
 	void addStandardRules(ConverterBuilder cb) {
 		// Not written using lambda's because this code needs to run with Java 7
 		cb.rule(new Rule<Calendar,String>(new Function<Calendar,String>() {
@@ -19,11 +19,9 @@ package org.osgi.util.converter;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
 import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Proxy;
 import java.lang.reflect.Type;
@@ -62,9 +60,9 @@ import java.util.concurrent.ConcurrentSkipListMap;
  */
 class ConvertingImpl extends AbstractSpecifying<Converting>
 		implements Converting, InternalConverting {
-	private static final Map<Class< ? >,Class< ? >>	INTERFACE_IMPLS;
+	static final Map<Class< ? >,Class< ? >>	INTERFACE_IMPLS;
 	// Interfaces with no methods are also not considered
-	private static final Collection<Class< ? >>		NO_MAP_VIEW_TYPES;
+	static final Collection<Class< ? >>		NO_MAP_VIEW_TYPES;
 	static {
 
 		Map<Class< ? >,Class< ? >> cim = new HashMap<>();
@@ -95,15 +93,17 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 		NO_MAP_VIEW_TYPES = Collections.unmodifiableSet(nmv);
 	}
 
-	volatile InternalConverter	converter;
-	private volatile Object		object;
+	volatile InternalConverter		converter;
+	private final ConversionPlans	plans;
+	private volatile Object			object;
 	private volatile Class< ? >	sourceClass;
 	private volatile Class< ? >	targetClass;
 	private volatile Type[]		typeArguments;
 	private volatile Type		targetType;
 
-	ConvertingImpl(InternalConverter c, Object obj) {
+	ConvertingImpl(InternalConverter c, ConversionPlans p, Object obj) {
 		converter = c;
+		plans = p;
 		object = obj;
 	}
 
@@ -369,11 +369,12 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 		Map m = mapView(object, sourceCls, converter);
 
 		try {
-			String prefix = Util.getPrefix(targetAsCls);
+			ConversionPlans.TypePlan plan = plans.plan(targetAsCls);
+			String prefix = plan.getPrefix();
 
-			T dto = (T) targetClass.newInstance();
+			T dto = (T) plans.plan(targetClass).newInstance();
 
-			List<String> names = getNames(targetAsClass);
+			List<String> names = plan.getNames();
 			for (Map.Entry entry : (Set<Map.Entry>) m.entrySet()) {
 				Object key = entry.getKey();
 				if (key == null)
@@ -383,43 +384,14 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 				if (fieldName == null)
 					continue;
 
-				Field f = null;
-				try {
-					f = targetAsCls.getDeclaredField(fieldName);
-				} catch (NoSuchFieldException e) {
-					try {
-						f = targetAsCls.getField(fieldName);
-					} catch (NoSuchFieldException | NullPointerException e1) {
-						// There is no field with this name
-						if (keysIgnoreCase) {
-							// If enabled, try again but now ignore case
-							for (Field fs : targetAsCls.getDeclaredFields()) {
-								if (fs.getName().equalsIgnoreCase(fieldName)) {
-									f = fs;
-									break;
-								}
-							}
-
-							if (f == null) {
-								for (Field fs : targetAsCls.getFields()) {
-									if (fs.getName()
-											.equalsIgnoreCase(fieldName)) {
-										f = fs;
-										break;
-									}
-								}
-							}
-						}
-					}
-				}
-
+				ConversionPlans.Accessor f = plan.getDTOField(fieldName,
+						keysIgnoreCase);
 				if (f != null) {
 					Object val = entry.getValue();
-					if (sourceAsDTO && DTOUtil.isDTOType(f.getType()))
-						val = converter.convert(val).sourceAsDTO().to(
-								f.getType());
+					if (sourceAsDTO && plans.plan(f.type).isDTOType())
+						val = converter.convert(val).sourceAsDTO().to(f.type);
 					else {
-						Type genericType = reifyType(f.getGenericType(),
+						Type genericType = reifyType(f.genericType,
 								targetAsClass, typeArguments);
 						val = converter.convert(val).to(genericType);
 					}
@@ -521,23 +493,6 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 		return typeToReify;
 	}
 
-	private List<String> getNames(Class< ? > cls) {
-		List<String> names = new ArrayList<>();
-		for (Field field : cls.getDeclaredFields()) {
-			int modifiers = field.getModifiers();
-			if (Modifier.isStatic(modifiers))
-				continue;
-			if (!Modifier.isPublic(modifiers))
-				continue;
-
-			String name = field.getName();
-			if (!names.contains(name))
-				names.add(name);
-
-		}
-		return names;
-	}
-
 	@SuppressWarnings({
 			"rawtypes", "unchecked"
 	})
@@ -580,7 +535,7 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 					cls = getConstructableType(cls);
 				}
 
-				if (sourceAsDTO || DTOUtil.isDTOType(cls))
+				if (sourceAsDTO || plans.plan(cls).isDTOType())
 					element = converter.convert(element).sourceAsDTO().to(cls);
 				else
 					element = converter.convert(element).to(cls);
@@ -612,7 +567,7 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 					cls = getConstructableType(cls);
 				}
 
-				if (sourceAsDTO || DTOUtil.isDTOType(cls))
+				if (sourceAsDTO || plans.plan(cls).isDTOType())
 					element = converter.convert(element).sourceAsDTO().to(cls);
 				else
 					element = converter.convert(element).to(cls);
@@ -629,7 +584,7 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 			return MapDelegate.forMap((Map) object, this);
 		} else if (Dictionary.class.isAssignableFrom(sourceClass)) {
 			return MapDelegate.forDictionary((Dictionary) object, this);
-		} else if (DTOUtil.isDTOType(sourceClass) || sourceAsDTO) {
+		} else if (plans.plan(sourceClass).isDTOType() || sourceAsDTO) {
 			return MapDelegate.forDTO(object, sourceClass, this);
 		} else if (sourceAsJavaBean) {
 			return MapDelegate.forBean(object, sourceClass, this);
@@ -663,7 +618,7 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 			return convertToMap();
 		else if (Dictionary.class.isAssignableFrom(targetAsClass))
 			return convertToDictionary();
-		else if (targetAsDTO || DTOUtil.isDTOType(targetAsClass))
+		else if (targetAsDTO || plans.plan(targetAsClass).isDTOType())
 			return convertToDTO(sourceClass, targetAsClass);
 		else if (targetAsClass.isInterface())
 			return convertToInterface(sourceClass, targetAsClass);
@@ -699,24 +654,16 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 
 	private Object convertToJavaBean(Class< ? > sourceCls,
 			Class< ? > targetCls) {
-		String prefix = Util.getPrefix(targetCls);
+		ConversionPlans.TypePlan plan = plans.plan(targetCls);
+		String prefix = plan.getPrefix();
 
 		@SuppressWarnings("rawtypes")
 		Map m = mapView(object, sourceCls, converter);
 		try {
-			Object res = targetClass.newInstance();
-			for (Method setter : getSetters(targetCls)) {
-				String setterName = setter.getName();
-				StringBuilder propName = new StringBuilder(Character
-						.valueOf(Character.toLowerCase(setterName.charAt(3)))
-						.toString());
-				if (setterName.length() > 4)
-					propName.append(setterName.substring(4));
-
-				Class< ? > setterType = setter.getParameterTypes()[0];
-				String key = propName.toString();
-				Object val = m.get(Util.unMangleName(prefix, key));
-				setter.invoke(res, converter.convert(val).to(setterType));
+			Object res = plans.plan(targetClass).newInstance();
+			for (ConversionPlans.Accessor setter : plan.getBeanSetters()) {
+				Object val = m.get(Util.unMangleName(prefix, setter.name));
+				setter.set(res, converter.convert(val).to(setter.type));
 			}
 			return res;
 		} catch (Exception e) {
@@ -832,22 +779,9 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 		return converter.convert(0).to(cls);
 	}
 
-	private static boolean isMapType(Class< ? > cls, boolean asJavaBean,
+	private boolean isMapType(Class< ? > cls, boolean asJavaBean,
 			boolean asDTO) {
-		if (asDTO)
-			return true;
-
-		// All interface types that are not Collections are treated as maps
-		if (Map.class.isAssignableFrom(cls))
-			return true;
-		else if (getInterfaces(cls).size() > 0)
-			return true;
-		else if (DTOUtil.isDTOType(cls))
-			return true;
-		else if (asJavaBean && isWriteableJavaBean(cls))
-			return true;
-		else
-			return Dictionary.class.isAssignableFrom(cls);
+		return plans.plan(cls).isMapType(asJavaBean, asDTO);
 	}
 
 	@SuppressWarnings("boxing")
@@ -950,17 +884,20 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 
 	@SuppressWarnings("unchecked")
 	private <T> T tryStandardMethods() {
-		try {
-			Method m = targetAsClass.getDeclaredMethod("valueOf", String.class);
-			if (m != null) {
+		ConversionPlans.TypePlan plan = plans.plan(targetAsClass);
+		Method m = plan.getValueOf();
+		if (m != null) {
+			try {
 				return (T) m.invoke(null, object.toString());
+			} catch (Exception e) {
+				// Try the constructor
 			}
-		} catch (Exception e) {
+		}
+		Constructor< ? > ctr = plan.getStringConstructor();
+		if (ctr != null) {
 			try {
-				Constructor< ? > ctr = targetAsClass
-						.getConstructor(String.class);
 				return (T) ctr.newInstance(object.toString());
-			} catch (Exception e2) {
+			} catch (Exception e) {
 				// Ignore
 			}
 		}
@@ -1005,36 +942,36 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 	}
 
 	@SuppressWarnings("rawtypes")
-	private static Map createMapFromBeanAccessors(Object obj,
-			Class< ? > sourceCls) {
+	private Map createMapFromBeanAccessors(Object obj, Class< ? > sourceCls) {
 		Set<String> invokedMethods = new HashSet<>();
 
 		Map result = new HashMap();
-		for (Method md : sourceCls.getDeclaredMethods()) {
-			handleBeanMethod(obj, md, invokedMethods, result);
+		for (ConversionPlans.Accessor accessor : plans.plan(sourceCls)
+				.getBeanGetters()) {
+			handleBeanMethod(obj, accessor, invokedMethods, result);
 		}
 
 		return result;
 	}
 
-	@SuppressWarnings("rawtypes")
+	@SuppressWarnings({
+			"rawtypes", "unchecked"
+	})
 	private Map createMapFromDTO(Object obj, InternalConverter ic) {
-		Set<String> handledFields = new HashSet<>();
-
 		Map result = new HashMap();
-		// Do we need 'declaredfields'? We only need to look at the public
-		// ones...
-		for (Field f : obj.getClass().getDeclaredFields()) {
-			handleDTOField(obj, f, handledFields, result, ic);
-		}
-		for (Field f : obj.getClass().getFields()) {
-			handleDTOField(obj, f, handledFields, result, ic);
+		for (ConversionPlans.Accessor field : plans.plan(obj.getClass())
+				.getDTOGetters()) {
+			try {
+				result.put(field.name, field.get(obj));
+			} catch (Exception e) {
+				// Ignore
+			}
 		}
 		return result;
 	}
 
 	@SuppressWarnings("rawtypes")
-	private static Map createMapFromInterface(Object obj, Class< ? > srcCls) {
+	private Map createMapFromInterface(Object obj, Class< ? > srcCls) {
 		Map result = new HashMap();
 
 		for (Class i : getInterfaces(srcCls)) {
@@ -1048,121 +985,31 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 		throw new ConversionException("Cannot be converted to map: " + obj);
 	}
 
-	@SuppressWarnings("boxing")
-	private static Object createMapOrCollection(Class< ? > cls,
-			int initialSize) {
-		try {
-			Constructor< ? > ctor = cls.getConstructor(int.class);
-			return ctor.newInstance(initialSize);
-		} catch (Exception e1) {
-			try {
-				Constructor< ? > ctor2 = cls.getConstructor();
-				return ctor2.newInstance();
-			} catch (Exception e2) {
-				// ignore
-			}
-		}
-		return null;
-	}
-
-	private static Class< ? > getConstructableType(Class< ? > targetCls) {
-		if (targetCls.isArray())
-			return targetCls;
-
-		Class< ? > cls = targetCls;
-		do {
-			try {
-				cls.getConstructor(int.class);
-				return cls; // If no exception the constructor is there
-			} catch (NoSuchMethodException e) {
-				try {
-					cls.getConstructor();
-					return cls; // If no exception the constructor is there
-				} catch (NoSuchMethodException e1) {
-					// There is no constructor with this name
-				}
-			}
-			for (Class< ? > intf : cls.getInterfaces()) {
-				Class< ? > impl = INTERFACE_IMPLS.get(intf);
-				if (impl != null)
-					return impl;
-			}
-
-			cls = cls.getSuperclass();
-		} while (!Object.class.equals(cls));
-
-		return null;
+	private Object createMapOrCollection(Class< ? > cls, int initialSize) {
+		return plans.plan(cls).newMapOrCollection(initialSize);
 	}
 
-	// Returns an ordered set
-	private static Set<Class< ? >> getInterfaces(Class< ? > cls) {
-		if (NO_MAP_VIEW_TYPES.contains(cls))
-			return Collections.emptySet();
-
-		Set<Class< ? >> interfaces = getInterfaces0(cls);
-		for (Iterator<Class< ? >> it = interfaces.iterator(); it.hasNext();) {
-			Class< ? > intf = it.next();
-			if (intf.getDeclaredMethods().length == 0)
-				it.remove();
-		}
-
-		interfaces.removeAll(NO_MAP_VIEW_TYPES);
-
-		return interfaces;
+	private Class< ? > getConstructableType(Class< ? > targetCls) {
+		return plans.plan(targetCls).getConstructableType();
 	}
 
 	// Returns an ordered set
-	private static Set<Class< ? >> getInterfaces0(Class< ? > cls) {
-		if (cls == null)
-			return Collections.emptySet();
-
-		Set<Class< ? >> classes = new LinkedHashSet<>();
-		if (cls.isInterface()) {
-			classes.add(cls);
-		} else {
-			classes.addAll(Arrays.asList(cls.getInterfaces()));
-		}
-
-		classes.addAll(getInterfaces(cls.getSuperclass()));
-
-		return classes;
-	}
-
-	@SuppressWarnings({
-			"rawtypes", "unchecked"
-	})
-	private void handleDTOField(Object obj, Field field,
-			Set<String> handledFields, Map result, InternalConverter ic) {
-		String fn = Util.getDTOKey(field);
-		if (fn == null)
-			return;
-
-		if (handledFields.contains(fn))
-			return; // Field with this name was already handled
-
-		try {
-			Object fVal = field.get(obj);
-			result.put(fn, fVal);
-			handledFields.add(fn);
-		} catch (Exception e) {
-			// Ignore
-		}
+	private Set<Class< ? >> getInterfaces(Class< ? > cls) {
+		return plans.plan(cls).getInterfaces();
 	}
 
 	@SuppressWarnings({
 			"rawtypes", "unchecked"
 	})
-	private static void handleBeanMethod(Object obj, Method md,
-			Set<String> invokedMethods, Map res) {
-		String bp = Util.getBeanKey(md);
-		if (bp == null)
-			return;
-
+	private static void handleBeanMethod(Object obj,
+			ConversionPlans.Accessor accessor, Set<String> invokedMethods,
+			Map res) {
+		String bp = accessor.name;
 		if (invokedMethods.contains(bp))
 			return; // method with this name already invoked
 
 		try {
-			res.put(bp, md.invoke(obj));
+			res.put(bp, accessor.get(obj));
 			invokedMethods.add(bp);
 		} catch (Exception e) {
 			// Ignore
@@ -1197,13 +1044,14 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 
 	private Map< ? , ? > mapView(Object obj, Class< ? > sourceCls,
 			InternalConverter ic) {
+		ConversionPlans.TypePlan plan = plans.plan(sourceCls);
 		if (Map.class.isAssignableFrom(sourceCls)
-				|| (DTOUtil.isDTOType(sourceCls) && obj instanceof Map))
+				|| (obj instanceof Map && plan.isDTOType()))
 			return (Map< ? , ? >) obj;
 		else if (Dictionary.class.isAssignableFrom(sourceCls))
 			return MapDelegate.forDictionary((Dictionary< ? , ? >) object,
 					this);
-		else if (DTOUtil.isDTOType(sourceCls) || sourceAsDTO)
+		else if (sourceAsDTO || plan.isDTOType())
 			return createMapFromDTO(obj, ic);
 		else if (sourceAsJavaBean) {
 			Map< ? , ? > m = createMapFromBeanAccessors(obj, sourceCls);
@@ -1216,66 +1064,19 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 	}
 
 	private boolean hasGetProperties(Class< ? > cls) {
-		try {
-			Method m = cls.getDeclaredMethod("getProperties");
-			if (m == null)
-				m = cls.getMethod("getProperties");
-			return m != null;
-		} catch (Exception e) {
-			return false;
-		}
+		return plans.plan(cls).getPropertiesMethod() != null;
 	}
 
 	private Map< ? , ? > getPropertiesDelegate(Object obj, Class< ? > cls) {
 		try {
-			Method m = cls.getDeclaredMethod("getProperties");
-			if (m == null)
-				m = cls.getMethod("getProperties");
-
+			Method m = plans.plan(cls).getPropertiesMethod();
 			return converter.convert(m.invoke(obj)).to(Map.class);
 		} catch (Exception e) {
 			return Collections.emptyMap();
 		}
 	}
 
-	private static boolean isCopyRequiredType(Class< ? > cls) {
-		if (cls.isEnum())
-			return false;
-		return Map.class.isAssignableFrom(cls)
-				|| Collection.class.isAssignableFrom(cls)
-				|| DTOUtil.isDTOType(cls) || cls.isArray();
-	}
-
-	private static boolean isWriteableJavaBean(Class< ? > cls) {
-		boolean hasNoArgCtor = false;
-		for (Constructor< ? > ctor : cls.getConstructors()) {
-			if (ctor.getParameterTypes().length == 0)
-				hasNoArgCtor = true;
-		}
-		if (!hasNoArgCtor)
-			return false; // A JavaBean must have a public no-arg constructor
-
-		return getSetters(cls).size() > 0;
-	}
-
-	private static Set<Method> getSetters(Class< ? > cls) {
-		Set<Method> setters = new HashSet<>();
-		while (!Object.class.equals(cls)) {
-			Set<Method> methods = new HashSet<>();
-			methods.addAll(Arrays.asList(cls.getDeclaredMethods()));
-			methods.addAll(Arrays.asList(cls.getMethods()));
-			for (Method md : methods) {
-				if (md.getParameterTypes().length != 1)
-					continue; // Only setters with a single argument
-				String name = md.getName();
-				if (name.length() < 4)
-					continue;
-				if (name.startsWith("set")
-						&& Character.isUpperCase(name.charAt(3)))
-					setters.add(md);
-			}
-			cls = cls.getSuperclass();
-		}
-		return setters;
+	private boolean isCopyRequiredType(Class< ? > cls) {
+		return plans.plan(cls).isCopyRequiredType();
 	}
 }
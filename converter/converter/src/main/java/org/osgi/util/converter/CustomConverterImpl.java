@@ -22,6 +22,8 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.felix.converter.dto.DTOBinding;
+
 /**
  * A custom converter wraps another converter by adding rules and/or error
  * handlers.
@@ -56,6 +58,11 @@ class CustomConverterImpl implements InternalConverter {
 		return new FunctioningImpl(this);
 	}
 
+	@Override
+	public DTOBinding getDTOBinding(Class< ? > cls) {
+		return delegate.getDTOBinding(cls);
+	}
+
 	@Override
 	public ConverterBuilder newConverterBuilder() {
 		return new ConverterBuilderImpl(this);
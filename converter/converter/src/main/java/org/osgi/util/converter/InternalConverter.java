@@ -16,10 +16,12 @@
 
 package org.osgi.util.converter;
 
+import org.apache.felix.converter.dto.DTOBindings;
+
 /**
  * @author $Id$
  */
-interface InternalConverter extends Converter {
+interface InternalConverter extends Converter, DTOBindings {
 	// This interface specifies a convert(Object) method that returns an
 	// InternalConverting rather than a normal Converting instance.
 	@Override
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.osgi.util.converter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.felix.converter.dto.DTOBinding;
+import org.apache.felix.converter.dto.DTOBindings;
+import org.apache.felix.converter.dto.DTOField;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConversionPlansTest {
+    @Test
+    public void testPlansAreReused() {
+        ConverterImpl converter = new ConverterImpl();
+        Map<String, Object> m = new HashMap<>();
+        m.put("ping", "hi");
+        m.put("pong", "42");
+
+        MyDTO dto = converter.convert(m).to(MyDTO.class);
+        assertEquals("hi", dto.ping);
+        assertEquals(42L, dto.pong);
+
+        ConversionPlans.TypePlan plan = converter.plans.plan(MyDTO.class);
+        m.put("pong", 43);
+        dto = converter.convert(m).to(MyDTO.class);
+        assertEquals(43L, dto.pong);
+        assertSame(plan, converter.plans.plan(MyDTO.class));
+    }
+
+    @Test
+    public void testDTOFields() throws Exception {
+        ConversionPlans.TypePlan plan = new ConversionPlans().plan(MyDTO.class);
+        assertTrue(plan.isDTOType());
+        assertTrue(plan.isMapType(false, false));
+
+        ConversionPlans.Accessor pong = plan.getDTOField("pong", false);
+        assertNotNull(pong);
+        assertSame(pong, plan.getDTOField("pong", false));
+        assertEquals(long.class, pong.type);
+        assertNull(plan.getDTOField("PONG", false));
+        assertSame(pong, plan.getDTOField("PONG", true));
+
+        MyDTO dto = (MyDTO) plan.newInstance();
+        pong.set(dto, 12L);
+        assertEquals(12L, dto.pong);
+        assertEquals(12L, pong.get(dto));
+    }
+
+    @Test
+    public void testDTOBindings() throws Exception {
+        DTOBindings bindings = (DTOBindings) Converters.standardConverter();
+        DTOBinding binding = bindings.getDTOBinding(PrefixDTO.class);
+        assertNotNull(binding);
+        assertNull(binding.getField("width"));
+
+        DTOField width = binding.getField("org.foo.bar.width");
+        assertEquals(long.class, width.getGenericType());
+        PrefixDTO dto = (PrefixDTO) binding.newInstance();
+        width.set(dto, 42L);
+        assertEquals(42L, dto.width);
+
+        assertNull(bindings.getDTOBinding(MyBean.class));
+        assertNull(bindings.getDTOBinding(MyGenericDTOWithVariables.class));
+    }
+
+    @Test
+    public void testBeanAccessors() throws Exception {
+        ConversionPlans.TypePlan plan = new ConversionPlans().plan(MyBean.class);
+        assertFalse(plan.isDTOType());
+        assertTrue(plan.isWriteableJavaBean());
+
+        MyBean bean = (MyBean) plan.newInstance();
+        for (ConversionPlans.Accessor setter : plan.getBeanSetters()) {
+            if ("me".equals(setter.name))
+                setter.set(bean, "you");
+        }
+        assertEquals("you", bean.getMe());
+
+        Object me = null;
+        for (ConversionPlans.Accessor getter : plan.getBeanGetters()) {
+            if ("me".equals(getter.name))
+                me = getter.get(bean);
+        }
+        assertEquals("you", me);
+    }
+
+    @Test
+    public void testCollectionFactories() {
+        ConversionPlans plans = new ConversionPlans();
+        assertTrue(plans.plan(ArrayList.class).newMapOrCollection(5) instanceof ArrayList);
+        assertNull(plans.plan(Map.class).newMapOrCollection(5));
+        assertSame(ArrayList.class, plans.plan(ArrayList.class).getConstructableType());
+    }
+}
@@ -16,6 +16,9 @@
  */
 package org.apache.felix.persister.impl;
 
+import java.util.Dictionary;
+import java.util.Hashtable;
+
 import org.apache.felix.persister.PersisterFactory;
 import org.apache.felix.serializer.Serializer;
 import org.osgi.framework.BundleActivator;
@@ -26,6 +29,7 @@ import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 
 public class Activator implements ServiceListener, BundleActivator {
+    public static final String[] binaryArray = new String[] { "application/octet-stream" };
 
     private PersisterFactoryService factory;
     private ServiceRegistration<PersisterFactory> registration;
@@ -34,6 +38,12 @@ public class Activator implements ServiceListener, BundleActivator {
     @Override
     public void start(BundleContext context) throws Exception {
         this.context = context;
+
+        // The binary format does not need a Serializer
+        Dictionary<String, Object> binaryProps = new Hashtable<>();
+        binaryProps.put("mimetype", binaryArray);
+        context.registerService(PersisterFactory.class, new BinaryPersisterFactoryService(), binaryProps);
+
         context.addServiceListener(this, "(objectclass=" + Serializer.class.getName() + ")");
     }
 
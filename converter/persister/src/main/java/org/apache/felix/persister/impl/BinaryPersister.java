@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.persister.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.felix.persister.Persister;
+import org.osgi.util.converter.ConversionException;
+
+/**
+ * Persists entities in a compact binary format instead of JSON or YAML. The
+ * data can only be read back as long as the schema of the entity type does
+ * not change.
+ */
+public class BinaryPersister<D> implements Persister<D> {
+
+    private final Class<D> dataType;
+    private final SchemaCodec codec;
+
+    public BinaryPersister(Class<D> aDataType) {
+        dataType = aDataType;
+        codec = SchemaCodec.forType(aDataType);
+    }
+
+    @Override
+    public void serialize(OutputStream out, D entity) {
+        try {
+            codec.write(out, entity);
+        } catch ( IOException e ) {
+            throw new ConversionException("Cannot write " + dataType.getName(), e);
+        }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    @Override
+    public D deserialize(InputStream in) {
+        try {
+            return (D)codec.read(in);
+        } catch ( IOException e ) {
+            throw new ConversionException("Cannot read " + dataType.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,615 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.persister.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Queue;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.felix.schematizer.Node;
+import org.apache.felix.schematizer.Schema;
+import org.apache.felix.schematizer.StandardSchematizer;
+import org.osgi.dto.DTO;
+import org.osgi.util.converter.ConversionException;
+import org.osgi.util.converter.Converter;
+import org.osgi.util.converter.Converters;
+
+/**
+ * The schema of a type compiled into a codec. The codec reads and writes the
+ * fields of the DTOs in the schema through method handles, so that
+ * persisting an entity does not need to reflect on its type again.
+ * <p>
+ * An entity can either be turned into plain maps, lists and scalars, which
+ * are then handed to a {@code Serializer}, or written in a compact binary
+ * format. The binary format stores the fields of a DTO by their position in
+ * the schema, so it can only be read back with the same schema.
+ * <p>
+ * Codecs are attached to their type through a {@link ClassValue} and shared
+ * by all persisters, without keeping the types of uninstalled bundles alive.
+ */
+final class SchemaCodec {
+    private static final ClassValue<SchemaCodec> CODECS = new ClassValue<SchemaCodec>() {
+        @Override
+        protected SchemaCodec computeValue(Class<?> type) {
+            return new SchemaCodec(compile(type));
+        }
+    };
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_SIZE = 8192;
+
+    // Tags of the values in the binary format that are not described by the schema
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int INT = 2;
+    private static final int LONG = 3;
+    private static final int DOUBLE = 4;
+    private static final int FLOAT = 5;
+    private static final int BOOLEAN = 6;
+    private static final int SHORT = 7;
+    private static final int BYTE = 8;
+    private static final int CHAR = 9;
+    private static final int LIST = 10;
+    private static final int MAP = 11;
+
+    private static final Converter converter = Converters.standardConverter();
+
+    private final ValueCodec root;
+    private final int fingerprint;
+
+    private SchemaCodec(ValueCodec aRoot) {
+        root = aRoot;
+        StringBuilder sb = new StringBuilder();
+        aRoot.describe(sb);
+        fingerprint = sb.toString().hashCode();
+    }
+
+    static SchemaCodec forType(Class<?> type) {
+        return CODECS.get(type);
+    }
+
+    /**
+     * Convert an entity into maps, lists and scalars.
+     */
+    Object toPlain(Object entity) {
+        return root.toPlain(entity);
+    }
+
+    /**
+     * Create an entity from maps, lists and scalars.
+     */
+    Object fromPlain(Object value) {
+        return root.fromPlain(value);
+    }
+
+    void write(OutputStream out, Object entity) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        dos.writeByte(FORMAT_VERSION);
+        dos.writeInt(fingerprint);
+        root.write(dos, entity);
+        dos.flush();
+    }
+
+    Object read(InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        int version = dis.readUnsignedByte();
+        if (version != FORMAT_VERSION)
+            throw new IOException("Unsupported format version " + version);
+        if (dis.readInt() != fingerprint)
+            throw new IOException("The data was written with a different schema");
+        return root.read(dis);
+    }
+
+    private static ValueCodec compile(Class<?> type) {
+        String name = type.getName();
+        Schema schema = new StandardSchematizer().schematize(name, type).get(name);
+        return compile(schema.rootNode(), null);
+    }
+
+    private static ValueCodec compile(Node node, Field field) {
+        if (node.isCollection()) {
+            Type elementType = node.type();
+            ValueCodec element;
+            if (!node.children().isEmpty())
+                element = new DTOCodec(rawClassOf(elementType), node);
+            else if (Object.class.equals(elementType) && field != null && elementClassOf(field) != null)
+                // The schema only knows the element type if the field is annotated,
+                // but the element type is often available from the generic field type
+                element = forType(elementClassOf(field)).root;
+            else
+                element = new ScalarCodec(elementType);
+            return new CollectionCodec(node.collectionType(), element);
+        }
+
+        if (!node.children().isEmpty())
+            return new DTOCodec(rawClassOf(node.type()), node);
+        return new ScalarCodec(node.type());
+    }
+
+    private static Class<?> rawClassOf(Type type) {
+        if (type instanceof Class)
+            return (Class<?>)type;
+        if (type instanceof ParameterizedType && ((ParameterizedType)type).getRawType() instanceof Class)
+            return (Class<?>)((ParameterizedType)type).getRawType();
+        return Object.class;
+    }
+
+    private static Class<?> elementClassOf(Field field) {
+        Type type = field.getGenericType();
+        if (!(type instanceof ParameterizedType))
+            return null;
+        Type[] args = ((ParameterizedType)type).getActualTypeArguments();
+        if (args.length != 1 || !(args[0] instanceof Class) || Object.class.equals(args[0]))
+            return null;
+        return (Class<?>)args[0];
+    }
+
+    private static MethodHandle accessible(Field field, boolean setter) throws IllegalAccessException {
+        if (!Modifier.isPublic(field.getDeclaringClass().getModifiers()))
+            field.setAccessible(true);
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        if (setter)
+            return lookup.unreflectSetter(field)
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+        return lookup.unreflectGetter(field)
+                .asType(MethodType.methodType(Object.class, Object.class));
+    }
+
+    private static MethodHandle constructorOf(Class<?> cls) {
+        try {
+            Constructor<?> c = cls.getDeclaredConstructor();
+            if (!Modifier.isPublic(c.getModifiers()) || !Modifier.isPublic(cls.getModifiers()))
+                c.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(c)
+                    .asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException | SecurityException e) {
+            return null;
+        }
+    }
+
+    private static ConversionException rethrow(String message, Throwable t) {
+        if (t instanceof RuntimeException)
+            throw (RuntimeException)t;
+        if (t instanceof Error)
+            throw (Error)t;
+        return new ConversionException(message, t);
+    }
+
+    private static void writeSize(DataOutputStream out, int size) throws IOException {
+        // Variable length, 7 bits per byte
+        while ((size & ~0x7F) != 0) {
+            out.writeByte((size & 0x7F) | 0x80);
+            size >>>= 7;
+        }
+        out.writeByte(size);
+    }
+
+    private static int readSize(DataInputStream in) throws IOException {
+        int size = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            size |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return size;
+        }
+        throw new IOException("Malformed size");
+    }
+
+    private static abstract class ValueCodec {
+        abstract Object toPlain(Object value);
+        abstract Object fromPlain(Object value);
+        abstract void write(DataOutputStream out, Object value) throws IOException;
+        abstract Object read(DataInputStream in) throws IOException;
+        abstract void describe(StringBuilder sb);
+    }
+
+    private static class FieldCodec {
+        final String name;
+        final MethodHandle getter;
+        final MethodHandle setter;
+        final ValueCodec value;
+
+        FieldCodec(Field aField, ValueCodec aValue) throws IllegalAccessException {
+            name = aField.getName();
+            getter = accessible(aField, false);
+            setter = accessible(aField, true);
+            value = aValue;
+        }
+
+        Object get(Object dto) {
+            try {
+                return (Object)getter.invokeExact(dto);
+            } catch (Throwable t) {
+                throw rethrow("Cannot read field " + name, t);
+            }
+        }
+
+        void set(Object dto, Object val) {
+            try {
+                setter.invokeExact(dto, val);
+            } catch (Throwable t) {
+                throw rethrow("Cannot set field " + name, t);
+            }
+        }
+    }
+
+    private static class DTOCodec extends ValueCodec {
+        private final Class<?> dtoClass;
+        private final MethodHandle constructor;
+        private final FieldCodec[] fields;
+        private final Map<String, FieldCodec> fieldsByName = new LinkedHashMap<>();
+
+        DTOCodec(Class<?> cls, Node node) {
+            dtoClass = cls;
+            constructor = constructorOf(cls);
+            if (constructor == null)
+                throw new ConversionException("Cannot create instance of DTO " + cls + ". Bad constructor?");
+
+            List<Node> children = new ArrayList<>(node.children().values());
+            children.sort(Comparator.comparing(Node::name));
+            List<FieldCodec> l = new ArrayList<>();
+            for (Node child : children) {
+                try {
+                    Field f = child.field() != null ? child.field() : cls.getField(child.name());
+                    if (Modifier.isStatic(f.getModifiers()) || Modifier.isFinal(f.getModifiers()))
+                        continue;
+                    FieldCodec fc = new FieldCodec(f, compile(child, f));
+                    l.add(fc);
+                    fieldsByName.put(fc.name, fc);
+                } catch (NoSuchFieldException | IllegalAccessException | SecurityException e) {
+                    // Not a field that can be persisted
+                }
+            }
+            fields = l.toArray(new FieldCodec[l.size()]);
+        }
+
+        private Object newInstance() {
+            try {
+                return (Object)constructor.invokeExact();
+            } catch (Throwable t) {
+                throw rethrow("Cannot create instance of DTO " + dtoClass, t);
+            }
+        }
+
+        @Override
+        Object toPlain(Object value) {
+            if (value == null)
+                return null;
+            Map<String, Object> m = new LinkedHashMap<>();
+            for (FieldCodec f : fields) {
+                m.put(f.name, f.value.toPlain(f.get(value)));
+            }
+            return m;
+        }
+
+        @Override
+        Object fromPlain(Object value) {
+            if (value == null)
+                return null;
+            if (!(value instanceof Map))
+                throw new ConversionException("Cannot create DTO " + dtoClass + " from " + value.getClass());
+
+            Object dto = newInstance();
+            for (Map.Entry<?,?> entry : ((Map<?,?>)value).entrySet()) {
+                FieldCodec f = fieldsByName.get(String.valueOf(entry.getKey()));
+                if (f == null || entry.getValue() == null)
+                    continue;
+                f.set(dto, f.value.fromPlain(entry.getValue()));
+            }
+            return dto;
+        }
+
+        @Override
+        void write(DataOutputStream out, Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(0);
+                return;
+            }
+            out.writeByte(1);
+            for (FieldCodec f : fields) {
+                f.value.write(out, f.get(value));
+            }
+        }
+
+        @Override
+        Object read(DataInputStream in) throws IOException {
+            if (in.readUnsignedByte() == 0)
+                return null;
+            Object dto = newInstance();
+            for (FieldCodec f : fields) {
+                Object val = f.value.read(in);
+                if (val != null)
+                    f.set(dto, val);
+            }
+            return dto;
+        }
+
+        @Override
+        void describe(StringBuilder sb) {
+            sb.append(dtoClass.getName()).append('{');
+            for (FieldCodec f : fields) {
+                sb.append(f.name).append(':');
+                f.value.describe(sb);
+                sb.append(',');
+            }
+            sb.append('}');
+        }
+    }
+
+    private static class CollectionCodec extends ValueCodec {
+        private final Class<?> collectionType;
+        private final MethodHandle constructor;
+        private final ValueCodec element;
+
+        CollectionCodec(Class<?> aCollectionType, ValueCodec anElement) {
+            collectionType = aCollectionType != null ? aCollectionType : Collection.class;
+            constructor = collectionType.isInterface() || Modifier.isAbstract(collectionType.getModifiers())
+                    ? null
+                    : constructorOf(collectionType);
+            element = anElement;
+        }
+
+        @SuppressWarnings( "unchecked" )
+        private Collection<Object> newCollection() {
+            if (constructor != null) {
+                try {
+                    return (Collection<Object>)(Object)constructor.invokeExact();
+                } catch (Throwable t) {
+                    throw rethrow("Cannot create collection " + collectionType, t);
+                }
+            }
+            if (collectionType.isAssignableFrom(ArrayList.class))
+                return new ArrayList<>();
+            if (collectionType.isAssignableFrom(LinkedHashSet.class))
+                return new LinkedHashSet<>();
+            if (NavigableSet.class.equals(collectionType) || SortedSet.class.equals(collectionType))
+                return new TreeSet<>();
+            if (Queue.class.equals(collectionType) || Deque.class.equals(collectionType))
+                return new LinkedList<>();
+            throw new ConversionException("Cannot create collection " + collectionType);
+        }
+
+        @Override
+        Object toPlain(Object value) {
+            if (value == null)
+                return null;
+            Collection<?> c = (Collection<?>)value;
+            List<Object> l = new ArrayList<>(c.size());
+            for (Object o : c) {
+                l.add(element.toPlain(o));
+            }
+            return l;
+        }
+
+        @Override
+        Object fromPlain(Object value) {
+            if (value == null)
+                return null;
+            if (!(value instanceof Collection))
+                throw new ConversionException("Cannot create " + collectionType + " from " + value.getClass());
+
+            Collection<Object> c = newCollection();
+            for (Object o : (Collection<?>)value) {
+                c.add(element.fromPlain(o));
+            }
+            return c;
+        }
+
+        @Override
+        void write(DataOutputStream out, Object value) throws IOException {
+            if (value == null) {
+                writeSize(out, 0);
+                return;
+            }
+            Collection<?> c = (Collection<?>)value;
+            writeSize(out, c.size() + 1);
+            for (Object o : c) {
+                element.write(out, o);
+            }
+        }
+
+        @Override
+        Object read(DataInputStream in) throws IOException {
+            int size = readSize(in) - 1;
+            if (size < 0)
+                return null;
+            Collection<Object> c = newCollection();
+            for (int i = 0; i < size; i++) {
+                c.add(element.read(in));
+            }
+            return c;
+        }
+
+        @Override
+        void describe(StringBuilder sb) {
+            sb.append('[');
+            element.describe(sb);
+            sb.append(']');
+        }
+    }
+
+    private static class ScalarCodec extends ValueCodec {
+        private final Type type;
+        private final Class<?> cls;
+
+        ScalarCodec(Type aType) {
+            type = aType;
+            cls = rawClassOf(aType);
+        }
+
+        @Override
+        Object toPlain(Object value) {
+            return value;
+        }
+
+        @Override
+        Object fromPlain(Object value) {
+            if (value == null || (type instanceof Class && cls.isInstance(value)))
+                return value;
+            return converter.convert(value).to(type);
+        }
+
+        @Override
+        void write(DataOutputStream out, Object value) throws IOException {
+            writeValue(out, value);
+        }
+
+        @Override
+        Object read(DataInputStream in) throws IOException {
+            return fromPlain(readValue(in));
+        }
+
+        @Override
+        void describe(StringBuilder sb) {
+            sb.append(type.getTypeName());
+        }
+
+        private static void writeValue(DataOutputStream out, Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NULL);
+            } else if (value instanceof String) {
+                out.writeByte(STRING);
+                writeString(out, (String)value);
+            } else if (value instanceof Integer) {
+                out.writeByte(INT);
+                out.writeInt((Integer)value);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong((Long)value);
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double)value);
+            } else if (value instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float)value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean)value);
+            } else if (value instanceof Short) {
+                out.writeByte(SHORT);
+                out.writeShort((Short)value);
+            } else if (value instanceof Byte) {
+                out.writeByte(BYTE);
+                out.writeByte((Byte)value);
+            } else if (value instanceof Character) {
+                out.writeByte(CHAR);
+                out.writeChar((Character)value);
+            } else if (value instanceof Collection) {
+                Collection<?> c = (Collection<?>)value;
+                out.writeByte(LIST);
+                writeSize(out, c.size());
+                for (Object o : c) {
+                    writeValue(out, o);
+                }
+            } else if (value instanceof Map || value instanceof DTO) {
+                Map<?,?> m = value instanceof Map
+                        ? (Map<?,?>)value
+                        : converter.convert(value).sourceAsDTO().to(Map.class);
+                out.writeByte(MAP);
+                writeSize(out, m.size());
+                for (Map.Entry<?,?> entry : m.entrySet()) {
+                    writeValue(out, entry.getKey());
+                    writeValue(out, entry.getValue());
+                }
+            } else {
+                out.writeByte(STRING);
+                writeString(out, converter.convert(value).to(String.class));
+            }
+        }
+
+        private static Object readValue(DataInputStream in) throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case BOOLEAN:
+                return in.readBoolean();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case CHAR:
+                return in.readChar();
+            case LIST:
+                int size = readSize(in);
+                List<Object> l = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    l.add(readValue(in));
+                }
+                return l;
+            case MAP:
+                int entries = readSize(in);
+                Map<Object, Object> m = new LinkedHashMap<>();
+                for (int i = 0; i < entries; i++) {
+                    Object key = readValue(in);
+                    m.put(key, readValue(in));
+                }
+                return m;
+            default:
+                throw new IOException("Unknown value tag " + tag);
+            }
+        }
+
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeSize(out, bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[readSize(in)];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -21,48 +21,34 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 import org.apache.felix.persister.Persister;
-import org.apache.felix.schematizer.Schematizer;
-import org.apache.felix.schematizer.StandardSchematizer;
 import org.apache.felix.serializer.Serializer;
-import org.osgi.util.converter.Converter;
 
 public class StandardPersister<D> implements Persister<D> {
 
-    private final Class<D> dataType;
     private final Serializer serializer;
-    private Converter converter;
+    private final SchemaCodec codec;
 
     public StandardPersister(Class<D> aDataType, Serializer aSerializer) {
-        dataType = aDataType;
         serializer = aSerializer;
+        codec = SchemaCodec.forType(aDataType);
     }
 
     @Override
     public void serialize(OutputStream out, D entity) {
         try {
-            serializer.serialize(entity).convertWith(getConverter()).to( out );
+            serializer.serialize(codec.toPlain(entity)).to( out );
         } catch ( IOException e ) {
             // TODO: Handle this
             e.printStackTrace();
         }
     }
 
+    @SuppressWarnings( "unchecked" )
     @Override
     public D deserialize(InputStream in) {
-      return (D)serializer
-              .deserialize(dataType)
-              .convertWith(getConverter())
-              .from(in);
-    }
-
-    private Converter getConverter() {
-        if (converter == null) {
-            String name = dataType.getName();
-            Schematizer s = new StandardSchematizer();
-            s.schematize(name, dataType).get(name);
-            converter = s.converterFor(name);
-        }
-
-        return converter;
+        Object plain = serializer
+                .deserialize(Object.class)
+                .from(in);
+        return (D)codec.fromPlain(plain);
     }
 }
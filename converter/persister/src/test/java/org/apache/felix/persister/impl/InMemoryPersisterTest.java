@@ -16,6 +16,8 @@
  */
 package org.apache.felix.persister.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 
 import org.apache.felix.serializer.Serializer;
 import org.apache.felix.serializer.impl.json.JsonSerializerImpl;
@@ -24,6 +26,8 @@ import org.apache.felix.persister.PersisterFactory;
 import org.apache.felix.persister.test.backend.Persistence;
 import org.apache.felix.persister.test.inmemory.MockInMemoryPersistence;
 import org.apache.felix.persister.test.objects.Bottom;
+import org.apache.felix.persister.test.objects.ComplexMiddle;
+import org.apache.felix.persister.test.objects.ComplexTop;
 import org.apache.felix.persister.test.objects.SimpleMiddle;
 import org.apache.felix.persister.test.objects.SimpleTop;
 import org.junit.After;
@@ -63,6 +67,71 @@ public class InMemoryPersisterTest {
         assertEquals(top.embedded.embedded.cul,result.embedded.embedded.cul);
     }
 
+    @Test
+    public void testCollectionOfDTOs() {
+        Persister<ComplexTop.ComplexTopDTO> persister = factory.newPersister(ComplexTop.ComplexTopDTO.class);
+        Persistence<ComplexTop.ComplexTopDTO> p = new MockInMemoryPersistence<>(persister);
+        ComplexTop.ComplexTopDTO top = newMockComplexTop();
+        p.put(top.id, top);
+        ComplexTop.ComplexTopDTO result = p.get(top.id);
+
+        assertEquals(top.id,result.id);
+        assertNull(result.value2);
+        assertEquals(top.embedded.value,result.embedded.value);
+        assertEquals(2,result.embedded.embedded.size());
+        assertEquals("BUM2",result.embedded.embedded.get(1).id);
+        assertEquals("moncul2",result.embedded.embedded.get(1).cul);
+    }
+
+    @Test
+    public void testBinaryPersister() {
+        Persister<ComplexTop.ComplexTopDTO> persister = new BinaryPersisterFactoryService().newPersister(ComplexTop.ComplexTopDTO.class);
+        ComplexTop.ComplexTopDTO top = newMockComplexTop();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        persister.serialize(out, top);
+        ComplexTop.ComplexTopDTO result = persister.deserialize(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(top.id,result.id);
+        assertEquals(top.value1,result.value1);
+        assertNull(result.value2);
+        assertEquals(top.embedded.id,result.embedded.id);
+        assertEquals(2,result.embedded.embedded.size());
+        assertEquals("BUM1",result.embedded.embedded.get(0).id);
+        assertEquals("moncul2",result.embedded.embedded.get(1).cul);
+
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        factory.newPersister(ComplexTop.ComplexTopDTO.class).serialize(json, top);
+        assertTrue(out.size() < json.size());
+    }
+
+    @Test
+    public void testCodecIsShared() {
+        SchemaCodec codec = SchemaCodec.forType(SimpleTop.SimpleTopDTO.class);
+        new PersisterFactoryService(new JsonSerializerImpl()).newPersister(SimpleTop.SimpleTopDTO.class);
+        assertSame(codec, SchemaCodec.forType(SimpleTop.SimpleTopDTO.class));
+    }
+
+    private ComplexTop.ComplexTopDTO newMockComplexTop() {
+        ComplexTop.ComplexTopDTO top = new ComplexTop.ComplexTopDTO();
+        top.id = "TOP";
+        top.value1 = "top-value1";
+
+        ComplexMiddle.ComplexMiddleDTO mid = new ComplexMiddle.ComplexMiddleDTO();
+        mid.id = "MID";
+        mid.value = "mid-value";
+
+        for (int i = 1; i <= 2; i++) {
+            Bottom.BottomDTO bum = new Bottom.BottomDTO();
+            bum.id = "BUM" + i;
+            bum.cul = "moncul" + i;
+            mid.embedded.add(bum);
+        }
+
+        top.embedded = mid;
+
+        return top;
+    }
+
     private SimpleTop.SimpleTopDTO newMockSimpleTop() {
         SimpleTop.SimpleTopDTO top = new SimpleTop.SimpleTopDTO();
         top.id = "TOP";
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.serializer.jmh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.serializer.Serializer;
+import org.apache.felix.serializer.impl.json.JsonSerializerImpl;
+import org.apache.felix.serializer.impl.yaml.YamlSerializerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.dto.DTO;
+
+/**
+ * Throughput of the JSON and YAML serializers for documents of different
+ * sizes, in both directions. The size is the number of entries in the
+ * document.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializerBenchmark {
+    public static class EntryDTO extends DTO {
+        public String name;
+        public long size;
+        public double weight;
+        public boolean enabled;
+        public List<String> tags;
+    }
+
+    public static class DocumentDTO extends DTO {
+        public String id;
+        public List<EntryDTO> entries;
+    }
+
+    @Param({ "json", "yaml" })
+    public String format;
+
+    @Param({ "10", "100", "1000" })
+    public int size;
+
+    private Serializer serializer;
+    private DocumentDTO document;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() throws IOException {
+        serializer = "yaml".equals(format) ? new YamlSerializerImpl() : new JsonSerializerImpl();
+
+        document = new DocumentDTO();
+        document.id = "document";
+        document.entries = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            EntryDTO e = new EntryDTO();
+            e.name = "entry" + i;
+            e.size = i * 1024L;
+            e.weight = i / 3.0;
+            e.enabled = i % 2 == 0;
+            e.tags = new ArrayList<>();
+            e.tags.add("tag" + (i % 7));
+            e.tags.add("tag" + (i % 11));
+            document.entries.add(e);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.serialize(document).to(out);
+        serialized = out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(serialized.length);
+        serializer.serialize(document).to(out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public DocumentDTO deserializeDTO() {
+        return serializer.deserialize(DocumentDTO.class).from(new ByteArrayInputStream(serialized));
+    }
+
+    @Benchmark
+    public Map<?, ?> deserializeMap() {
+        return serializer.deserialize(Map.class).from(new ByteArrayInputStream(serialized));
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.serializer.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Encodes characters into an output stream. The character and byte buffers
+ * are kept per thread and reused by all documents written by that thread, so
+ * writing to a stream needs neither the whole document in memory nor new
+ * buffers for every call.
+ */
+public class EncodingAppendable implements Appendable {
+    private static final int BUFFER_SIZE = 8192;
+    private static final ThreadLocal<Buffers> BUFFERS = new ThreadLocal<>();
+
+    private final OutputStream out;
+    private final Buffers buffers;
+    private final CharBuffer chars;
+    private final ByteBuffer bytes;
+    private final CharsetEncoder encoder;
+
+    private EncodingAppendable(OutputStream os, Charset charset, Buffers b) {
+        out = os;
+        buffers = b;
+        chars = b.chars;
+        bytes = b.bytes;
+        if (b.encoder == null || !b.encoder.charset().equals(charset))
+            b.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        else
+            b.encoder.reset();
+        encoder = b.encoder;
+    }
+
+    /**
+     * Start writing to a stream. The buffers of the calling thread are handed
+     * out again once {@link #finish()} is called.
+     *
+     * @param os The stream.
+     * @param charset The charset to encode with.
+     * @return The appendable.
+     */
+    public static EncodingAppendable open(OutputStream os, Charset charset) {
+        Buffers b = BUFFERS.get();
+        if (b != null)
+            // Taken out, so that a nested write gets buffers of its own
+            BUFFERS.remove();
+        else
+            b = new Buffers();
+        return new EncodingAppendable(os, charset, b);
+    }
+
+    @Override
+    public Appendable append(CharSequence csq) throws IOException {
+        if (csq == null)
+            csq = "null";
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) throws IOException {
+        if (csq == null)
+            csq = "null";
+        while (start < end) {
+            if (!chars.hasRemaining())
+                encode(false);
+            int n = Math.min(chars.remaining(), end - start);
+            if (csq instanceof String) {
+                chars.put((String) csq, start, start + n);
+            } else {
+                for (int i = start; i < start + n; i++) {
+                    chars.put(csq.charAt(i));
+                }
+            }
+            start += n;
+        }
+        return this;
+    }
+
+    @Override
+    public Appendable append(char c) throws IOException {
+        if (!chars.hasRemaining())
+            encode(false);
+        chars.put(c);
+        return this;
+    }
+
+    /**
+     * Write out all pending characters, flush the stream and give the buffers
+     * back to the calling thread. The stream is not closed.
+     *
+     * @throws IOException If the stream cannot be written to.
+     */
+    public void finish() throws IOException {
+        encode(true);
+        while (encoder.flush(bytes).isOverflow()) {
+            writeBytes();
+        }
+        writeBytes();
+        out.flush();
+
+        chars.clear();
+        BUFFERS.set(buffers);
+    }
+
+    private void encode(boolean endOfInput) throws IOException {
+        chars.flip();
+        for (;;) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (!result.isOverflow())
+                break;
+            writeBytes();
+        }
+        // Keeps a dangling high surrogate for the next round
+        chars.compact();
+    }
+
+    private void writeBytes() throws IOException {
+        out.write(bytes.array(), 0, bytes.position());
+        bytes.clear();
+    }
+
+    private static class Buffers {
+        final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        CharsetEncoder encoder;
+    }
+}
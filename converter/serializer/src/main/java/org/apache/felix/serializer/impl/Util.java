@@ -19,8 +19,34 @@ package org.apache.felix.serializer.impl;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 public class Util {
+    private static final Map<Class<?>, Class<?>> WRAPPERS = new HashMap<>();
+    static {
+        WRAPPERS.put(boolean.class, Boolean.class);
+        WRAPPERS.put(byte.class, Byte.class);
+        WRAPPERS.put(char.class, Character.class);
+        WRAPPERS.put(double.class, Double.class);
+        WRAPPERS.put(float.class, Float.class);
+        WRAPPERS.put(int.class, Integer.class);
+        WRAPPERS.put(long.class, Long.class);
+        WRAPPERS.put(short.class, Short.class);
+    }
+
     private Util() {} // prevent instantiation
 
     public static byte [] readStream(InputStream is) throws IOException {
@@ -47,4 +73,58 @@ public class Util {
             is.close();
         }
     }
+
+    /**
+     * Whether a value can be assigned to a field or element of the given
+     * class as it is. Primitive classes accept their wrapper types.
+     */
+    public static boolean isInstance(Class<?> cls, Object value) {
+        if (cls.isPrimitive())
+            return value != null && WRAPPERS.get(cls) == value.getClass();
+        return cls.isInstance(value);
+    }
+
+    /**
+     * Create a map of the given type to decode into.
+     *
+     * @return The map or {@code null} if no map of the type can be created.
+     */
+    public static Map<Object, Object> newMap(Class<?> cls) {
+        return newInstance(cls, Map.class, LinkedHashMap.class);
+    }
+
+    /**
+     * Create a collection of the given type to decode into.
+     *
+     * @return The collection or {@code null} if no collection of the type can
+     * be created.
+     */
+    public static Collection<Object> newCollection(Class<?> cls) {
+        if (cls.equals(Set.class))
+            return new LinkedHashSet<>();
+        if (cls.equals(NavigableSet.class) || cls.equals(SortedSet.class))
+            return new TreeSet<>();
+        if (cls.equals(Queue.class) || cls.equals(Deque.class))
+            return new LinkedList<>();
+        return newInstance(cls, Collection.class, ArrayList.class);
+    }
+
+    // Instantiates the class or, for the given interface and its
+    // super interfaces, the default implementation
+    @SuppressWarnings("unchecked")
+    private static <T> T newInstance(Class<?> cls, Class<?> intf, Class<?> impl) {
+        if (cls.isInterface())
+            return (T) (cls.isAssignableFrom(impl) && intf.isAssignableFrom(cls) ? newInstance(impl) : null);
+        if (Modifier.isAbstract(cls.getModifiers()))
+            return null;
+        return (T) newInstance(cls);
+    }
+
+    private static Object newInstance(Class<?> cls) {
+        try {
+            return cls.getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
 }
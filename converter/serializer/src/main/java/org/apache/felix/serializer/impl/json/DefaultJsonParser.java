@@ -16,13 +16,17 @@
  */
 package org.apache.felix.serializer.impl.json;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.felix.serializer.Parser;
-import org.apache.felix.utils.json.JSONParser;
 
 public class DefaultJsonParser implements Parser {
 
@@ -30,8 +34,8 @@ public class DefaultJsonParser implements Parser {
     public Map<String, Object> parse(InputStream in)
     {
         try {
-            JSONParser parser = new JSONParser(in);
-            return parser.getParsed();
+            BufferedInputStream bin = new BufferedInputStream(in);
+            return parse(new JsonReader(new InputStreamReader(bin, detectCharset(bin))));
         } catch (IOException e) {
             Map<String, Object> report = new HashMap<>();
             report.put("error", e.getMessage());
@@ -41,7 +45,55 @@ public class DefaultJsonParser implements Parser {
 
     @Override
     public Map<String, Object> parse(CharSequence in) {
-        JSONParser parser = new JSONParser(in);
-        return parser.getParsed();
+        try {
+            return parse(new JsonReader(CharBuffer.wrap(in)));
+        } catch (IOException e) {
+            // Cannot happen when reading from memory
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> parse(JsonReader reader) throws IOException {
+        Object parsed = reader.nextValue();
+        if (reader.peek() != JsonReader.Token.END_DOCUMENT)
+            throw new IllegalArgumentException("Malformatted JSON: unexpected content after the end of the document");
+
+        if (parsed instanceof Map)
+            return (Map<String, Object>) parsed;
+        else
+            return null;
+    }
+
+    /*
+     * Infer the encoding as described in section 3 of RFC 4627 from the
+     * pattern of nulls in the first four octets, skipping a byte order mark.
+     */
+    private static Charset detectCharset(BufferedInputStream in) throws IOException {
+        byte[] bytes = new byte[4];
+        in.mark(bytes.length);
+        int len = 0;
+        int n;
+        while (len < bytes.length && (n = in.read(bytes, len, bytes.length - len)) != -1) {
+            len += n;
+        }
+        in.reset();
+
+        if (len < bytes.length)
+            return StandardCharsets.UTF_8;
+
+        if ((bytes[0] == -1 && bytes[1] == -2) || (bytes[0] == -2 && bytes[1] == -1))
+            // UTF-16 with byte order mark, which the decoder consumes
+            return StandardCharsets.UTF_16;
+
+        if (bytes[0] == 0 && bytes[1] == 0 && bytes[2] == 0)
+            return Charset.forName("UTF-32BE");
+        if (bytes[1] == 0 && bytes[2] == 0 && bytes[3] == 0)
+            return Charset.forName("UTF-32LE");
+        if (bytes[0] == 0)
+            return StandardCharsets.UTF_16BE;
+        if (bytes[1] == 0)
+            return StandardCharsets.UTF_16LE;
+        return StandardCharsets.UTF_8;
     }
 }
@@ -16,15 +16,15 @@
  */
 package org.apache.felix.serializer.impl.json;
 
+import java.io.IOException;
 import java.lang.reflect.Array;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import org.apache.felix.serializer.Writer;
 import org.osgi.dto.DTO;
@@ -41,7 +41,26 @@ public class DefaultJsonWriter implements Writer {
 
     @Override
     public String write(Object obj) {
-        return encode(obj);
+        StringBuilder sb = new StringBuilder();
+        try {
+            write(obj, sb);
+        } catch (IOException e) {
+            // Cannot happen when writing to a StringBuilder
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the JSON representation of an object to an appendable, without
+     * building the representation in memory first.
+     *
+     * @param obj The object to write.
+     * @param out The appendable to write to.
+     * @throws IOException If writing to the appendable failed.
+     */
+    public void write(Object obj, Appendable out) throws IOException {
+        encode(obj, out);
     }
 
     @Override
@@ -55,74 +74,78 @@ public class DefaultJsonWriter implements Writer {
     }
 
     @SuppressWarnings("rawtypes")
-    private String encode(Object obj) {
+    private void encode(Object obj, Appendable out) throws IOException {
         if (obj == null) {
-            return ignoreNull ? "" : "null";
+            if (!ignoreNull)
+                out.append("null");
+            return;
         }
 
         if (obj instanceof String) {
-            return "\"" + (String)obj + "\"";
+            out.append('"').append((String)obj).append('"');
         } else if (obj instanceof Map) {
-            return encodeMap((Map) obj);
+            encodeMap((Map) obj, out);
         } else if (obj instanceof Collection) {
-            return encodeCollection((Collection) obj);
+            encodeCollection((Collection) obj, out);
         } else if (obj instanceof DTO) {
-            return encodeMap(converter.convert(obj).sourceAsDTO().to(Map.class));
+            encodeMap(converter.convert(obj).sourceAsDTO().to(Map.class), out);
         } else if (obj.getClass().isArray()) {
-            return encodeCollection(asCollection(obj));
+            encodeArray(obj, out);
         } else if (obj instanceof Number) {
-            return obj.toString();
+            out.append(obj.toString());
         } else if (obj instanceof Boolean) {
-            return obj.toString();
+            out.append(obj.toString());
+        } else {
+            out.append('"').append(converter.convert(obj).to(String.class)).append('"');
         }
-
-        return "\"" + converter.convert(obj).to(String.class) + "\"";
     }
 
-    private Collection<?> asCollection(Object arr) {
+    private void encodeArray(Object arr, Appendable out) throws IOException {
         // Arrays.asList() doesn't work for primitive arrays
         int len = Array.getLength(arr);
-        List<Object> l = new ArrayList<>(len);
+        out.append('[');
         for (int i=0; i<len; i++) {
-            l.add(Array.get(arr, i));
+            if (i > 0)
+                out.append(',');
+            encode(Array.get(arr, i), out);
         }
-        return l;
+        out.append(']');
     }
 
-    private String encodeCollection(Collection<?> collection) {
-        StringBuilder sb = new StringBuilder("[");
+    private void encodeCollection(Collection<?> collection, Appendable out) throws IOException {
+        out.append('[');
 
         boolean first = true;
         for (Object o : collection) {
             if (first)
                 first = false;
             else
-                sb.append(',');
+                out.append(',');
 
-            sb.append(encode(o));
+            encode(o, out);
         }
 
-        sb.append("]");
-        return sb.toString();
+        out.append(']');
     }
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    private String encodeMap(Map m) {
-        StringBuilder sb = new StringBuilder("{");
+    private void encodeMap(Map m, Appendable out) throws IOException {
+        out.append('{');
+        boolean first = true;
         for (Entry entry : (Set<Entry>) m.entrySet()) {
             if (entry.getKey() == null || entry.getValue() == null)
                 if (ignoreNull)
                     continue;
 
-            if (sb.length() > 1)
-                sb.append(',');
-            sb.append('"');
-            sb.append(entry.getKey().toString());
-            sb.append("\":");
-            sb.append(encode(entry.getValue()));
+            if (first)
+                first = false;
+            else
+                out.append(',');
+            out.append('"');
+            out.append(entry.getKey().toString());
+            out.append("\":");
+            encode(entry.getValue(), out);
         }
-        sb.append("}");
-
-        return sb.toString();
+        out.append('}');
     }
 }
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.serializer.impl.json;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.converter.dto.DTOBinding;
+import org.apache.felix.converter.dto.DTOBindings;
+import org.apache.felix.converter.dto.DTOField;
+import org.apache.felix.serializer.impl.Util;
+import org.apache.felix.serializer.impl.json.JsonReader.Token;
+import org.osgi.util.converter.ConversionException;
+import org.osgi.util.converter.Converter;
+
+/**
+ * Decodes a JSON document straight into the target type while it is being
+ * read. DTOs, maps, collections and arrays are populated from the tokens of
+ * the document, only scalar values and values of other types are passed
+ * through the converter. DTO keys are bound to fields with the DTO bindings
+ * of the converter, so both agree on which key goes into which field. This
+ * produces the same result as parsing the document into a map and converting
+ * the map, as long as the converter has no rules for the DTO, map and
+ * collection types involved.
+ */
+class JsonDecoder {
+    private final JsonReader reader;
+    private final Converter converter;
+    private final DTOBindings bindings;
+
+    JsonDecoder(JsonReader r, Converter c) {
+        reader = r;
+        converter = c;
+        bindings = c instanceof DTOBindings ? (DTOBindings) c : null;
+    }
+
+    Object decode(Type type) throws IOException {
+        Object result = decodeValue(type);
+        if (reader.peek() != Token.END_DOCUMENT)
+            throw new IllegalArgumentException("Malformatted JSON: unexpected content after the end of the document");
+        return result;
+    }
+
+    private Object decodeValue(Type type) throws IOException {
+        Class<?> cls = null;
+        Type[] typeArgs = null;
+        if (type instanceof Class) {
+            cls = (Class<?>) type;
+        } else if (type instanceof ParameterizedType) {
+            ParameterizedType pt = (ParameterizedType) type;
+            if (pt.getRawType() instanceof Class)
+                cls = (Class<?>) pt.getRawType();
+            typeArgs = pt.getActualTypeArguments();
+        }
+
+        Token token = reader.peek();
+        if (cls != null) {
+            if (token == Token.BEGIN_OBJECT) {
+                DTOBinding binding = bindings != null ? bindings.getDTOBinding(cls) : null;
+                if (binding != null)
+                    return decodeDTO(binding);
+                if (Map.class.isAssignableFrom(cls) && (typeArgs == null || typeArgs.length == 2)) {
+                    Map<Object, Object> m = Util.newMap(cls);
+                    if (m != null)
+                        return decodeMap(m, typeArgs);
+                }
+            } else if (token == Token.BEGIN_ARRAY) {
+                if (cls.isArray())
+                    return decodeArray(cls.getComponentType());
+                if (Collection.class.isAssignableFrom(cls) && (typeArgs == null || typeArgs.length == 1)) {
+                    Collection<Object> c = Util.newCollection(cls);
+                    if (c != null)
+                        return decodeCollection(c, typeArgs);
+                }
+            } else {
+                Object val = reader.nextScalar();
+                if (val == null)
+                    // The converter does not keep the component type of arrays for null
+                    return cls.isArray() ? null : converter.convert(null).to(type);
+                if (Util.isInstance(cls, val))
+                    return val;
+                return converter.convert(val).to(type);
+            }
+        }
+
+        // Any other type is converted from its generic representation
+        return converter.convert(reader.nextValue()).to(type);
+    }
+
+    private Object decodeDTO(DTOBinding binding) throws IOException {
+        Object dto;
+        try {
+            dto = binding.newInstance();
+        } catch (Exception e) {
+            throw new ConversionException("Cannot create DTO", e);
+        }
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            DTOField f = binding.getField(key);
+            if (f == null) {
+                reader.skipValue();
+                continue;
+            }
+
+            Object val = decodeValue(f.getGenericType());
+            try {
+                f.set(dto, val);
+            } catch (Exception e) {
+                throw new ConversionException("Cannot set field for key " + key, e);
+            }
+        }
+        reader.endObject();
+        return dto;
+    }
+
+    private Object decodeMap(Map<Object, Object> m, Type[] typeArgs) throws IOException {
+        Type keyType = typeArgs != null ? typeArgs[0] : null;
+        Type valueType = typeArgs != null ? typeArgs[1] : Object.class;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            Object key = reader.nextName();
+            if (keyType != null && keyType != String.class)
+                key = converter.convert(key).to(keyType);
+            m.put(key, decodeValue(valueType));
+        }
+        reader.endObject();
+        return m;
+    }
+
+    private Object decodeCollection(Collection<Object> c, Type[] typeArgs) throws IOException {
+        Type elementType = typeArgs != null ? typeArgs[0] : Object.class;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            c.add(decodeValue(elementType));
+        }
+        reader.endArray();
+        return c;
+    }
+
+    private Object decodeArray(Class<?> componentType) throws IOException {
+        List<Object> l = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            l.add(decodeValue(componentType));
+        }
+        reader.endArray();
+
+        Object array = Array.newInstance(componentType, l.size());
+        for (int i = 0; i < l.size(); i++) {
+            Array.set(array, i, l.get(i));
+        }
+        return array;
+    }
+}
@@ -16,9 +16,12 @@
  */
 package org.apache.felix.serializer.impl.json;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.lang.reflect.Type;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
@@ -29,6 +32,7 @@ import org.apache.felix.serializer.Parser;
 import org.apache.felix.serializer.impl.Util;
 import org.osgi.util.converter.ConversionException;
 import org.osgi.util.converter.Converter;
+import org.osgi.util.converter.Converters;
 
 public class JsonDeserializingImpl<T> implements Deserializing<T> {
     private final Type type;
@@ -44,6 +48,15 @@ public class JsonDeserializingImpl<T> implements Deserializing<T> {
     @Override
     @SuppressWarnings("unchecked")
     public T from(CharSequence in) {
+        if (isStreaming()) {
+            try {
+                return decode(CharBuffer.wrap(in));
+            } catch (IOException e) {
+                // Cannot happen when reading from memory
+                throw new ConversionException("Error reading JSON", e);
+            }
+        }
+
         Map<?,?> m = parser.parse(in);
         if (type instanceof Class)
             if (m.getClass().isAssignableFrom((Class<?>) type))
@@ -60,6 +73,14 @@ public class JsonDeserializingImpl<T> implements Deserializing<T> {
     @Override
     public T from(InputStream in, Charset charset) {
         try {
+            if (isStreaming()) {
+                try {
+                    return decode(new InputStreamReader(in, charset));
+                } finally {
+                    in.close();
+                }
+            }
+
             byte[] bytes = Util.readStream(in);
             String s = new String(bytes, charset);
             return from(s);
@@ -70,12 +91,44 @@ public class JsonDeserializingImpl<T> implements Deserializing<T> {
 
     @Override
     public T from(Readable in) {
+        if (isStreaming()) {
+            try {
+                return decode(in);
+            } catch (IOException e) {
+                throw new ConversionException("Error reading JSON", e);
+            } finally {
+                if (in instanceof Closeable) {
+                    try {
+                        ((Closeable) in).close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+
         try (Scanner s = new Scanner(in)) {
             s.useDelimiter("\\Z");
             return from(s.next());
         }
     }
 
+    /**
+     * The document is decoded while it is read, without parsing it into a map
+     * first, unless a custom parser or a custom converter is used. Custom
+     * converters can have rules for DTOs, maps and collections, which are
+     * only applied when the whole map is converted.
+     */
+    private boolean isStreaming() {
+        return parser instanceof DefaultJsonParser
+                && converter == Converters.standardConverter();
+    }
+
+    @SuppressWarnings("unchecked")
+    private T decode(Readable in) throws IOException {
+        return (T) new JsonDecoder(new JsonReader(in), converter).decode(type);
+    }
+
     @Override
     public Deserializing<T> convertWith(Converter c) {
         converter = c;
@@ -0,0 +1,376 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.serializer.impl.json;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A pull based JSON tokenizer. The input is read through a fixed size buffer,
+ * so that a document can be processed without holding it in memory.
+ * <p>
+ * Values are represented in the same way as by the JSON parser of Felix
+ * Utils, which was used before: strings as {@link String},
+ * numbers as {@link Long} or, if they have a fraction or an exponent, as
+ * {@link Double}, booleans as {@link Boolean} and objects and arrays as
+ * {@link HashMap} and {@link ArrayList}.
+ */
+public class JsonReader {
+    public enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Readable in;
+    private final CharBuffer buffer = CharBuffer.allocate(BUFFER_SIZE);
+    private final StringBuilder sb = new StringBuilder();
+
+    // The containers the reader is in, true for objects
+    private boolean[] stack = new boolean[32];
+    private int depth = 0;
+    // Whether a value (or name) has been read in the current container
+    private boolean hasElement;
+    // Whether the next string in an object is a value rather than a name
+    private boolean expectValue;
+
+    private Token peeked;
+    private long position;
+
+    public JsonReader(Readable in) {
+        this.in = in;
+        buffer.flip();
+    }
+
+    /**
+     * Return the type of the next token without consuming it.
+     */
+    public Token peek() throws IOException {
+        if (peeked == null)
+            peeked = readToken();
+        return peeked;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+    }
+
+    /**
+     * Whether the current object or array has more elements.
+     */
+    public boolean hasNext() throws IOException {
+        Token t = peek();
+        return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END_DOCUMENT;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return sb.toString();
+    }
+
+    /**
+     * Read the next scalar value: a string, number, boolean or null.
+     */
+    public Object nextScalar() throws IOException {
+        Token t = peek();
+        peeked = null;
+        switch (t) {
+        case STRING:
+            return sb.toString();
+        case NUMBER:
+            return parseNumber(sb.toString());
+        case BOOLEAN:
+            return Boolean.valueOf(sb.charAt(0) == 't');
+        case NULL:
+            return null;
+        default:
+            throw error("Expected a value but found " + t);
+        }
+    }
+
+    /**
+     * Read the next value including all nested values.
+     */
+    public Object nextValue() throws IOException {
+        switch (peek()) {
+        case BEGIN_OBJECT:
+            Map<String, Object> m = new HashMap<>();
+            beginObject();
+            while (hasNext()) {
+                String name = nextName();
+                m.put(name, nextValue());
+            }
+            endObject();
+            return m;
+        case BEGIN_ARRAY:
+            List<Object> l = new ArrayList<>();
+            beginArray();
+            while (hasNext()) {
+                l.add(nextValue());
+            }
+            endArray();
+            return l;
+        default:
+            return nextScalar();
+        }
+    }
+
+    /**
+     * Skip the next value including all nested values.
+     */
+    public void skipValue() throws IOException {
+        int level = 0;
+        do {
+            switch (peek()) {
+            case BEGIN_OBJECT:
+            case BEGIN_ARRAY:
+                level++;
+                break;
+            case END_OBJECT:
+            case END_ARRAY:
+                level--;
+                break;
+            case END_DOCUMENT:
+                throw error("Unexpected end of document");
+            default:
+                break;
+            }
+            peeked = null;
+        } while (level > 0);
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token t = peek();
+        if (t != expected)
+            throw error("Expected " + expected + " but found " + t);
+        peeked = null;
+    }
+
+    private Token readToken() throws IOException {
+        int c = nextNonWhitespace();
+        if (depth > 0 && (c == '}' || c == ']')) {
+            boolean object = stack[depth - 1];
+            if (c != (object ? '}' : ']') || (object && expectValue))
+                throw error("Unexpected '" + (char) c + "'");
+            depth--;
+            hasElement = true;
+            expectValue = false;
+            return object ? Token.END_OBJECT : Token.END_ARRAY;
+        }
+
+        boolean inObject = depth > 0 && stack[depth - 1];
+        if (depth > 0) {
+            if (expectValue) {
+                if (c != ':')
+                    throw error("Expected ':'");
+                c = nextNonWhitespace();
+            } else if (hasElement) {
+                if (c != ',')
+                    throw error("Expected ',' or '" + (inObject ? '}' : ']') + "'");
+                c = nextNonWhitespace();
+            }
+        } else if (hasElement) {
+            if (c != -1)
+                throw error("Unexpected content after the end of the document");
+            return Token.END_DOCUMENT;
+        }
+
+        if (inObject && !expectValue) {
+            if (c != '"')
+                throw error("Expected a name");
+            readString();
+            expectValue = true;
+            return Token.NAME;
+        }
+        expectValue = false;
+        hasElement = true;
+
+        switch (c) {
+        case -1:
+            if (depth > 0)
+                throw error("Unexpected end of document");
+            return Token.END_DOCUMENT;
+        case '{':
+            push(true);
+            return Token.BEGIN_OBJECT;
+        case '[':
+            push(false);
+            return Token.BEGIN_ARRAY;
+        case '"':
+            readString();
+            return Token.STRING;
+        case 't':
+            readLiteral("true");
+            return Token.BOOLEAN;
+        case 'f':
+            readLiteral("false");
+            return Token.BOOLEAN;
+        case 'n':
+            readLiteral("null");
+            return Token.NULL;
+        default:
+            if (c == '-' || (c >= '0' && c <= '9')) {
+                readNumber(c);
+                return Token.NUMBER;
+            }
+            throw error("Unexpected '" + (char) c + "'");
+        }
+    }
+
+    private void push(boolean object) {
+        if (depth == stack.length) {
+            boolean[] newStack = new boolean[depth * 2];
+            System.arraycopy(stack, 0, newStack, 0, depth);
+            stack = newStack;
+        }
+        stack[depth++] = object;
+        hasElement = false;
+    }
+
+    private void readString() throws IOException {
+        sb.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == '"')
+                return;
+            if (c == -1)
+                throw error("Unterminated string");
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    int uc = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int d = Character.digit(read(), 16);
+                        if (d < 0)
+                            throw error("Malformatted unicode escape");
+                        uc = (uc << 4) + d;
+                    }
+                    sb.append((char) uc);
+                    break;
+                case -1:
+                    throw error("Unterminated string");
+                default:
+                    sb.append((char) c);
+                }
+            } else {
+                sb.append((char) c);
+            }
+        }
+    }
+
+    private void readLiteral(String literal) throws IOException {
+        sb.setLength(0);
+        sb.append(literal.charAt(0));
+        for (int i = 1; i < literal.length(); i++) {
+            if (read() != literal.charAt(i))
+                throw error("Expected '" + literal + "'");
+        }
+        if (isLiteralChar(peekChar()))
+            throw error("Expected '" + literal + "'");
+    }
+
+    private void readNumber(int first) throws IOException {
+        sb.setLength(0);
+        sb.append((char) first);
+        int c;
+        while (isLiteralChar(c = peekChar())) {
+            sb.append((char) c);
+            read();
+        }
+    }
+
+    private Object parseNumber(String s) {
+        try {
+            if (s.indexOf('.') >= 0 || s.indexOf('e') >= 0 || s.indexOf('E') >= 0)
+                return Double.valueOf(s);
+            return Long.valueOf(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformatted JSON number: " + s, e);
+        }
+    }
+
+    private static boolean isLiteralChar(int c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                || c == '-' || c == '+' || c == '.';
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (!fill())
+            return -1;
+        position++;
+        return buffer.get();
+    }
+
+    private int peekChar() throws IOException {
+        if (!fill())
+            return -1;
+        return buffer.get(buffer.position());
+    }
+
+    private boolean fill() throws IOException {
+        while (!buffer.hasRemaining()) {
+            buffer.clear();
+            int n = in.read(buffer);
+            buffer.flip();
+            if (n < 0)
+                return false;
+        }
+        return true;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Malformatted JSON at character " + position + ": " + message);
+    }
+}
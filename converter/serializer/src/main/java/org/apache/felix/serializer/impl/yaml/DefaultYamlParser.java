@@ -21,21 +21,21 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.felix.serializer.Parser;
-import org.yaml.snakeyaml.Yaml;
+import org.osgi.util.converter.Converters;
+import org.yaml.snakeyaml.reader.UnicodeReader;
 
 public class DefaultYamlParser implements Parser {
 
     @Override
     public Map<String, Object> parse(InputStream in)
     {
-        Yaml yaml = new Yaml();
-        return toMap(yaml.load(in));
+        // Detects the encoding from the byte order mark, as Yaml.load() does
+        return toMap(new YamlDecoder(new UnicodeReader(in), Converters.standardConverter()).read());
     }
 
     @Override
     public Map<String, Object> parse(CharSequence in) {
-        Yaml yaml = new Yaml();
-        return toMap(yaml.load(in.toString()));
+        return toMap(new YamlDecoder(in, Converters.standardConverter()).read());
     }
 
     @SuppressWarnings( { "unchecked", "rawtypes" } )
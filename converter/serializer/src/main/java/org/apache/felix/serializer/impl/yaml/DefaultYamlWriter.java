@@ -16,8 +16,8 @@
  */
 package org.apache.felix.serializer.impl.yaml;
 
+import java.io.IOException;
 import java.lang.reflect.Array;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -27,6 +27,7 @@ import java.util.Set;
 import java.util.Map.Entry;
 
 import org.apache.felix.serializer.Writer;
+import org.osgi.dto.DTO;
 import org.osgi.util.converter.Converter;
 
 public class DefaultYamlWriter implements Writer {
@@ -40,7 +41,26 @@ public class DefaultYamlWriter implements Writer {
 
     @Override
     public String write(Object obj) {
-        return encode(obj, 0).trim();
+        StringBuilder sb = new StringBuilder();
+        try {
+            write(obj, sb);
+        } catch (IOException e) {
+            // Cannot happen when writing to a StringBuilder
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the YAML representation of an object to an appendable, without
+     * building the representation in memory first.
+     *
+     * @param obj The object to write.
+     * @param out The appendable to write to.
+     * @throws IOException If writing to the appendable failed.
+     */
+    public void write(Object obj, Appendable out) throws IOException {
+        encode(obj, 0, new TrimmingAppendable(out));
     }
 
     @Override
@@ -54,65 +74,123 @@ public class DefaultYamlWriter implements Writer {
     }
 
     @SuppressWarnings("rawtypes")
-    private String encode(Object obj, int level) {
+    private void encode(Object obj, int level, Appendable out) throws IOException {
         if (obj == null)
-            return "";
+            return;
 
         if (obj instanceof Map) {
-            return encodeMap((Map) obj, level);
+            encodeMap((Map) obj, level, out);
         } else if (obj instanceof Collection) {
-            return encodeCollection((Collection) obj, level);
+            encodeCollection((Collection) obj, level, out);
+        } else if (obj instanceof DTO) {
+            encodeMap(converter.convert(obj).sourceAsDTO().to(Map.class), level, out);
         } else if (obj.getClass().isArray()) {
-            return encodeCollection(asCollection(obj), level);
+            encodeArray(obj, level, out);
         } else if (obj instanceof Number)  {
-            return obj.toString();
+            out.append(obj.toString());
         } else if (obj instanceof Boolean) {
-            return obj.toString();
+            out.append(obj.toString());
+        } else {
+            out.append('\'').append(converter.convert(obj).to(String.class)).append('\'');
         }
-
-        return "'" + converter.convert(obj).to(String.class) + "'";
     }
 
-    private Collection<?> asCollection(Object arr) {
+    private void encodeArray(Object arr, int level, Appendable out) throws IOException {
         // Arrays.asList() doesn't work for primitive arrays
         int len = Array.getLength(arr);
-        List<Object> l = new ArrayList<>(len);
         for (int i=0; i<len; i++) {
-            l.add(Array.get(arr, i));
+            out.append('\n');
+            appendIndentation(level, out);
+            out.append("- ");
+            encode(Array.get(arr, i), level + 1, out);
         }
-        return l;
     }
 
-    private String encodeCollection(Collection<?> collection, int level) {
-        StringBuilder sb = new StringBuilder();
+    private void encodeCollection(Collection<?> collection, int level, Appendable out) throws IOException {
         for (Object o : collection) {
-            sb.append("\n");
-            sb.append(getIdentPrefix(level));
-            sb.append("- ");
-            sb.append(encode(o, level + 1));
+            out.append('\n');
+            appendIndentation(level, out);
+            out.append("- ");
+            encode(o, level + 1, out);
         }
-        return sb.toString();
     }
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    private String encodeMap(Map m, int level) {
-        StringBuilder sb = new StringBuilder();
+    private void encodeMap(Map m, int level, Appendable out) throws IOException {
         for (Entry entry : (Set<Entry>) m.entrySet()) {
-            sb.append("\n");
-            sb.append(getIdentPrefix(level));
-            sb.append(entry.getKey().toString());
-            sb.append(": ");
-            sb.append(encode(entry.getValue(), level + 1));
+            out.append('\n');
+            appendIndentation(level, out);
+            out.append(entry.getKey().toString());
+            out.append(": ");
+            encode(entry.getValue(), level + 1, out);
         }
-
-        return sb.toString();
     }
 
-    private String getIdentPrefix(int level) {
+    private void appendIndentation(int level, Appendable out) throws IOException {
         int numSpaces = indentation * level;
-        StringBuilder sb = new StringBuilder(numSpaces);
         for (int i=0; i < numSpaces; i++)
-            sb.append(' ');
-        return sb.toString();
+            out.append(' ');
+    }
+
+    /**
+     * Leaves out leading and trailing whitespace, the same as trimming the
+     * written document would do. Whitespace is held back until it is known
+     * not to be trailing.
+     */
+    private static class TrimmingAppendable implements Appendable {
+        private final Appendable out;
+        private final StringBuilder whitespace = new StringBuilder();
+        private boolean started;
+
+        TrimmingAppendable(Appendable anOut) {
+            out = anOut;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            if (!started) {
+                while (start < end && csq.charAt(start) <= ' ')
+                    start++;
+            }
+            int last = end - 1;
+            while (last >= start && csq.charAt(last) <= ' ')
+                last--;
+            if (last < start) {
+                whitespace.append(csq, start, end);
+                return this;
+            }
+
+            started = true;
+            flushWhitespace();
+            out.append(csq, start, last + 1);
+            whitespace.append(csq, last + 1, end);
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            if (c <= ' ') {
+                if (started)
+                    whitespace.append(c);
+                return this;
+            }
+
+            started = true;
+            flushWhitespace();
+            out.append(c);
+            return this;
+        }
+
+        private void flushWhitespace() throws IOException {
+            if (whitespace.length() > 0) {
+                out.append(whitespace);
+                whitespace.setLength(0);
+            }
+        }
     }
 }
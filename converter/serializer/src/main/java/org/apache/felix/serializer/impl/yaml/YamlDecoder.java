@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.serializer.impl.yaml;
+
+import java.io.Reader;
+import java.lang.reflect.Array;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.converter.dto.DTOBinding;
+import org.apache.felix.converter.dto.DTOBindings;
+import org.apache.felix.converter.dto.DTOField;
+import org.apache.felix.serializer.impl.Util;
+import org.osgi.util.converter.ConversionException;
+import org.osgi.util.converter.Converter;
+import org.yaml.snakeyaml.constructor.Construct;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.events.AliasEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.NodeEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.ScalarNode;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.parser.ParserImpl;
+import org.yaml.snakeyaml.reader.StreamReader;
+import org.yaml.snakeyaml.resolver.Resolver;
+
+/**
+ * Decodes a YAML document straight into the target type while it is being
+ * read, from the events of the SnakeYAML parser. Neither a node graph nor a
+ * map of the whole document is built. DTOs, maps, collections and arrays are
+ * populated directly, only scalar values and values of other types are passed
+ * through the converter. DTO keys are bound to fields with the DTO bindings
+ * of the converter.
+ * <p>
+ * Scalars are resolved to the same values as {@code Yaml.load()} does. Nodes
+ * with an anchor are decoded into their generic representation, so that
+ * aliases can refer to them.
+ */
+class YamlDecoder {
+    private final ParserImpl events;
+    private final Converter converter;
+    private final DTOBindings bindings;
+    private final ScalarConstructor scalars = new ScalarConstructor();
+    private final Map<String, Object> anchors = new HashMap<>();
+
+    YamlDecoder(Reader r, Converter c) {
+        this(new StreamReader(r), c);
+    }
+
+    YamlDecoder(CharSequence s, Converter c) {
+        this(new StreamReader(s.toString()), c);
+    }
+
+    private YamlDecoder(StreamReader r, Converter c) {
+        events = new ParserImpl(r);
+        converter = c;
+        bindings = c instanceof DTOBindings ? (DTOBindings) c : null;
+    }
+
+    /**
+     * Decode the document into the given type. As with the
+     * {@link DefaultYamlParser}, a document that is not a mapping is decoded
+     * as the {@code parsed} entry of a map.
+     */
+    Object decode(Type type) {
+        expect(Event.ID.StreamStart);
+        Object result;
+        if (events.checkEvent(Event.ID.StreamEnd)) {
+            result = converter.convert(wrap(null)).to(type);
+        } else {
+            expect(Event.ID.DocumentStart);
+            if (events.checkEvent(Event.ID.MappingStart))
+                result = decodeValue(type);
+            else
+                result = converter.convert(wrap(readValue())).to(type);
+            expect(Event.ID.DocumentEnd);
+        }
+        expectEnd();
+        return result;
+    }
+
+    /**
+     * Read the document into its generic representation: maps, lists and
+     * scalars.
+     */
+    Object read() {
+        expect(Event.ID.StreamStart);
+        Object result = null;
+        if (!events.checkEvent(Event.ID.StreamEnd)) {
+            expect(Event.ID.DocumentStart);
+            result = readValue();
+            expect(Event.ID.DocumentEnd);
+        }
+        expectEnd();
+        return result;
+    }
+
+    private Object decodeValue(Type type) {
+        Class<?> cls = null;
+        Type[] typeArgs = null;
+        if (type instanceof Class) {
+            cls = (Class<?>) type;
+        } else if (type instanceof ParameterizedType) {
+            ParameterizedType pt = (ParameterizedType) type;
+            if (pt.getRawType() instanceof Class)
+                cls = (Class<?>) pt.getRawType();
+            typeArgs = pt.getActualTypeArguments();
+        }
+
+        Event event = events.peekEvent();
+        if (cls != null && !(event instanceof AliasEvent) && ((NodeEvent) event).getAnchor() == null) {
+            if (event.is(Event.ID.MappingStart)) {
+                DTOBinding binding = bindings != null ? bindings.getDTOBinding(cls) : null;
+                if (binding != null)
+                    return decodeDTO(binding);
+                if (Map.class.isAssignableFrom(cls) && (typeArgs == null || typeArgs.length == 2)) {
+                    Map<Object, Object> m = Util.newMap(cls);
+                    if (m != null)
+                        return decodeMap(m, typeArgs);
+                }
+            } else if (event.is(Event.ID.SequenceStart)) {
+                if (cls.isArray())
+                    return decodeArray(cls.getComponentType());
+                if (Collection.class.isAssignableFrom(cls) && (typeArgs == null || typeArgs.length == 1)) {
+                    Collection<Object> c = Util.newCollection(cls);
+                    if (c != null)
+                        return decodeCollection(c, typeArgs);
+                }
+            } else if (event.is(Event.ID.Scalar)) {
+                Object val = readScalar((ScalarEvent) events.getEvent());
+                if (val == null)
+                    // The converter does not keep the component type of arrays for null
+                    return cls.isArray() ? null : converter.convert(null).to(type);
+                if (Util.isInstance(cls, val))
+                    return val;
+                // SnakeYAML constructs small integers as Integer, widen them
+                // for long fields without going through the converter
+                if (val instanceof Integer && (cls == long.class || cls == Long.class))
+                    return Long.valueOf((Integer) val);
+                return converter.convert(val).to(type);
+            }
+        }
+
+        // Any other type is converted from its generic representation
+        return converter.convert(readValue()).to(type);
+    }
+
+    private Object decodeDTO(DTOBinding binding) {
+        Object dto;
+        try {
+            dto = binding.newInstance();
+        } catch (Exception e) {
+            throw new ConversionException("Cannot create DTO", e);
+        }
+
+        expect(Event.ID.MappingStart);
+        while (!events.checkEvent(Event.ID.MappingEnd)) {
+            String key = readKey();
+            DTOField f = binding.getField(key);
+            if (f == null) {
+                readValue();
+                continue;
+            }
+
+            Object val = decodeValue(f.getGenericType());
+            try {
+                f.set(dto, val);
+            } catch (Exception e) {
+                throw new ConversionException("Cannot set field for key " + key, e);
+            }
+        }
+        expect(Event.ID.MappingEnd);
+        return dto;
+    }
+
+    private Object decodeMap(Map<Object, Object> m, Type[] typeArgs) {
+        Type keyType = typeArgs != null ? typeArgs[0] : Object.class;
+        Type valueType = typeArgs != null ? typeArgs[1] : Object.class;
+
+        expect(Event.ID.MappingStart);
+        while (!events.checkEvent(Event.ID.MappingEnd)) {
+            Object key = decodeValue(keyType);
+            m.put(key, decodeValue(valueType));
+        }
+        expect(Event.ID.MappingEnd);
+        return m;
+    }
+
+    private Object decodeCollection(Collection<Object> c, Type[] typeArgs) {
+        Type elementType = typeArgs != null ? typeArgs[0] : Object.class;
+
+        expect(Event.ID.SequenceStart);
+        while (!events.checkEvent(Event.ID.SequenceEnd)) {
+            c.add(decodeValue(elementType));
+        }
+        expect(Event.ID.SequenceEnd);
+        return c;
+    }
+
+    private Object decodeArray(Class<?> componentType) {
+        List<Object> l = new ArrayList<>();
+        expect(Event.ID.SequenceStart);
+        while (!events.checkEvent(Event.ID.SequenceEnd)) {
+            l.add(decodeValue(componentType));
+        }
+        expect(Event.ID.SequenceEnd);
+
+        Object array = Array.newInstance(componentType, l.size());
+        for (int i = 0; i < l.size(); i++) {
+            Array.set(array, i, l.get(i));
+        }
+        return array;
+    }
+
+    // The keys of a DTO are taken literally, so that keys such as 'yes' or
+    // '1' are not resolved to other types first
+    private String readKey() {
+        Event event = events.peekEvent();
+        if (event instanceof ScalarEvent && ((ScalarEvent) event).getAnchor() == null) {
+            events.getEvent();
+            return ((ScalarEvent) event).getValue();
+        }
+        return String.valueOf(readValue());
+    }
+
+    private Object readValue() {
+        Event event = events.getEvent();
+        if (event instanceof AliasEvent) {
+            String anchor = ((AliasEvent) event).getAnchor();
+            if (!anchors.containsKey(anchor))
+                throw new IllegalArgumentException("Malformatted YAML: undefined alias " + anchor + event.getStartMark());
+            return anchors.get(anchor);
+        }
+
+        Object result;
+        if (event.is(Event.ID.MappingStart)) {
+            Map<Object, Object> m = new LinkedHashMap<>();
+            while (!events.checkEvent(Event.ID.MappingEnd)) {
+                Object key = readValue();
+                m.put(key, readValue());
+            }
+            events.getEvent();
+            result = m;
+        } else if (event.is(Event.ID.SequenceStart)) {
+            List<Object> l = new ArrayList<>();
+            while (!events.checkEvent(Event.ID.SequenceEnd)) {
+                l.add(readValue());
+            }
+            events.getEvent();
+            result = l;
+        } else if (event.is(Event.ID.Scalar)) {
+            result = readScalar((ScalarEvent) event);
+        } else {
+            throw new IllegalArgumentException("Malformatted YAML: unexpected " + event);
+        }
+
+        String anchor = ((NodeEvent) event).getAnchor();
+        if (anchor != null)
+            anchors.put(anchor, result);
+        return result;
+    }
+
+    private Object readScalar(ScalarEvent event) {
+        return scalars.construct(event);
+    }
+
+    private void expect(Event.ID id) {
+        Event event = events.getEvent();
+        if (!event.is(id))
+            throw new IllegalArgumentException("Malformatted YAML: expected " + id + " but found " + event);
+    }
+
+    private void expectEnd() {
+        if (!events.checkEvent(Event.ID.StreamEnd))
+            throw new IllegalArgumentException("Malformatted YAML: expected a single document");
+        events.getEvent();
+    }
+
+    private static Map<String, Object> wrap(Object obj) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("parsed", obj);
+        return map;
+    }
+
+    /**
+     * Constructs scalars with the constructors of SnakeYAML for the standard
+     * tags. Scalars with other tags are kept as strings.
+     */
+    private static class ScalarConstructor extends SafeConstructor {
+        private final Resolver resolver = new Resolver();
+
+        Object construct(ScalarEvent event) {
+            Tag tag;
+            String t = event.getTag();
+            if (t == null || "!".equals(t))
+                tag = resolver.resolve(NodeId.scalar, event.getValue(), event.getImplicit().canOmitTagInPlainScalar());
+            else
+                tag = new Tag(t);
+
+            Construct c = yamlConstructors.get(tag);
+            if (c == null)
+                return event.getValue();
+            return c.construct(new ScalarNode(tag, event.getValue(), event.getStartMark(), event.getEndMark(), event.getStyle()));
+        }
+    }
+}
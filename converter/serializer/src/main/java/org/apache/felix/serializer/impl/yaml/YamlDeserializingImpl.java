@@ -16,9 +16,13 @@
  */
 package org.apache.felix.serializer.impl.yaml;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.reflect.Type;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
@@ -29,6 +33,7 @@ import org.apache.felix.serializer.Parser;
 import org.apache.felix.serializer.impl.Util;
 import org.osgi.util.converter.ConversionException;
 import org.osgi.util.converter.Converter;
+import org.osgi.util.converter.Converters;
 
 public class YamlDeserializingImpl<T> implements Deserializing<T> {
     private volatile Converter converter;
@@ -49,6 +54,14 @@ public class YamlDeserializingImpl<T> implements Deserializing<T> {
     @Override
     public T from(InputStream in, Charset charset) {
         try {
+            if (isStreaming()) {
+                try {
+                    return decode(new YamlDecoder(new InputStreamReader(in, charset), converter));
+                } finally {
+                    in.close();
+                }
+            }
+
             byte[] bytes = Util.readStream(in);
             String s = new String(bytes, charset);
             return from(s);
@@ -59,6 +72,20 @@ public class YamlDeserializingImpl<T> implements Deserializing<T> {
 
     @Override
     public T from(Readable in) {
+        if (isStreaming()) {
+            try {
+                return decode(new YamlDecoder(asReader(in), converter));
+            } finally {
+                if (in instanceof Closeable) {
+                    try {
+                        ((Closeable) in).close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+
         try (Scanner s = new Scanner(in)) {
             s.useDelimiter("\\Z");
             return from(s.next());
@@ -68,6 +95,9 @@ public class YamlDeserializingImpl<T> implements Deserializing<T> {
     @Override
     @SuppressWarnings("unchecked")
     public T from(CharSequence in) {
+        if (isStreaming())
+            return decode(new YamlDecoder(in, converter));
+
         Map<?,?> m = parser.parse(in);
         if (type instanceof Class)
             if (m.getClass().isAssignableFrom((Class<?>) type))
@@ -76,6 +106,39 @@ public class YamlDeserializingImpl<T> implements Deserializing<T> {
         return (T) converter.convert(m).to(type);
     }
 
+    /**
+     * The document is decoded while it is read, without parsing it into a map
+     * first, unless a custom parser or a custom converter is used. Custom
+     * converters can have rules for DTOs, maps and collections, which are
+     * only applied when the whole map is converted.
+     */
+    private boolean isStreaming() {
+        return parser instanceof DefaultYamlParser
+                && converter == Converters.standardConverter();
+    }
+
+    @SuppressWarnings("unchecked")
+    private T decode(YamlDecoder decoder) {
+        return (T) decoder.decode(type);
+    }
+
+    private static Reader asReader(Readable in) {
+        if (in instanceof Reader)
+            return (Reader) in;
+
+        return new Reader() {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                return in.read(CharBuffer.wrap(cbuf, off, len));
+            }
+
+            @Override
+            public void close() throws IOException {
+                // Closed by the caller
+            }
+        };
+    }
+
     @Override
     public Deserializing<T> convertWith(Converter c) {
         converter = c;
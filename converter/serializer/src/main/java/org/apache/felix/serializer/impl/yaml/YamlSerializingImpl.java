@@ -24,6 +24,7 @@ import java.nio.charset.StandardCharsets;
 import org.apache.felix.serializer.Serializing;
 import org.apache.felix.serializer.Writer;
 import org.apache.felix.serializer.impl.AbstractSpecifying;
+import org.apache.felix.serializer.impl.EncodingAppendable;
 import org.osgi.util.converter.ConversionException;
 import org.osgi.util.converter.Converter;
 
@@ -42,7 +43,10 @@ public class YamlSerializingImpl extends AbstractSpecifying<Serializing> impleme
     @Override
     public Appendable to(Appendable out) {
         try {
-            out.append(writer.write(object));
+            if (writer instanceof DefaultYamlWriter)
+                ((DefaultYamlWriter) writer).write(object, out);
+            else
+                out.append(writer.write(object));
             return out;
         } catch (IOException e) {
             throw new ConversionException("Problem converting to YAML", e);
@@ -58,6 +62,13 @@ public class YamlSerializingImpl extends AbstractSpecifying<Serializing> impleme
     @Override
     public void to(OutputStream os, Charset charset) {
         try {
+            if (writer instanceof DefaultYamlWriter) {
+                // Encode through reused buffers rather than the whole document
+                EncodingAppendable out = EncodingAppendable.open(os, charset);
+                ((DefaultYamlWriter) writer).write(object, out);
+                out.finish();
+                return;
+            }
             os.write(writer.write(object).getBytes(charset));
         } catch (IOException e) {
             throw new ConversionException("Problem converting to YAML", e);
@@ -16,6 +16,8 @@
  */
 package org.apache.felix.serializer.impl.json;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -27,6 +29,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class JsonParserTest {
@@ -46,6 +49,20 @@ public class JsonParserTest {
         assertTrue((Boolean) m.get("ha"));
     }
 
+    @Test
+    public void testInputStreamIsLeftOpen() {
+        final boolean[] closed = new boolean[1];
+        ByteArrayInputStream in = new ByteArrayInputStream("{\"hi\": \"ho\"}".getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        Map<String, Object> m = parser.parse(in);
+        assertEquals("ho", m.get("hi"));
+        assertFalse(closed[0]);
+    }
+
     @Test
     public void testJsonWithNewline() {
         String json = ""
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.serializer.impl.json;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.serializer.impl.json.JsonReader.Token;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class JsonReaderTest {
+    @Test
+    public void testTokens() throws Exception {
+        JsonReader reader = new JsonReader(new StringReader(
+                "{\"a\": [1, 2.5, -3e2], \"b\": {\"c\": null}, \"d\": \"x\\\"y\\u0041\", \"e\": true}"));
+        reader.beginObject();
+        assertEquals("a", reader.nextName());
+        reader.beginArray();
+        assertEquals(1L, reader.nextScalar());
+        assertEquals(2.5d, reader.nextScalar());
+        assertEquals(-300d, reader.nextScalar());
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        assertEquals("b", reader.nextName());
+        reader.skipValue();
+        assertEquals("d", reader.nextName());
+        assertEquals("x\"yA", reader.nextScalar());
+        assertEquals("e", reader.nextName());
+        assertEquals(Boolean.TRUE, reader.nextScalar());
+        reader.endObject();
+        assertEquals(Token.END_DOCUMENT, reader.peek());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLargeDocument() throws Exception {
+        // Larger than the buffer of the reader
+        StringBuilder sb = new StringBuilder("{\"list\": [");
+        for (int i = 0; i < 10000; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(i);
+        }
+        sb.append("], \"last\": \"value\"}");
+
+        Map<String, Object> m = (Map<String, Object>) new JsonReader(new StringReader(sb.toString())).nextValue();
+        assertEquals(10000, ((List<?>) m.get("list")).size());
+        assertEquals(9999L, ((List<?>) m.get("list")).get(9999));
+        assertEquals("value", m.get("last"));
+    }
+
+    @Test
+    public void testMalformatted() throws Exception {
+        for (String json : Arrays.asList("{\"a\" 1}", "{\"a\": 1,}", "[1 2]", "{\"a\": tru}", "[1", "{} {}")) {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            try {
+                reader.nextValue();
+                reader.peek();
+                fail("Expected an exception for " + json);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyContainers() throws Exception {
+        JsonReader reader = new JsonReader(new StringReader(" { \"a\" : [ ] , \"b\" : { } } "));
+        reader.beginObject();
+        assertEquals("a", reader.nextName());
+        reader.beginArray();
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        assertEquals("b", reader.nextName());
+        assertEquals(0, ((Map<?, ?>) reader.nextValue()).size());
+        reader.endObject();
+        assertEquals(Token.END_DOCUMENT, reader.peek());
+    }
+}
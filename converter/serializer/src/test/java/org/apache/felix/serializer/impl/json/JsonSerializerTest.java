@@ -16,7 +16,12 @@
  */
 package org.apache.felix.serializer.impl.json;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.felix.serializer.impl.json.MyDTO.Count;
@@ -26,12 +31,14 @@ import org.apache.sling.commons.json.JSONObject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.osgi.dto.DTO;
 import org.osgi.util.converter.Converter;
 import org.osgi.util.converter.Converters;
 import org.osgi.util.converter.TypeReference;
 import org.osgi.util.converter.TypeRule;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class JsonSerializerTest {
@@ -133,6 +140,93 @@ public class JsonSerializerTest {
         assertEquals(327, embedded2.polo);
     }
 
+    @Test
+    public void testDTOStreaming() throws Exception {
+        String json = "{\"items\": [{\"alpha\": \"A\", \"marco\": \"m1\", \"polo\": 1},"
+                + " {\"alpha\": \"C\", \"polo\": \"2\", \"unknown\": {\"x\": [1, 2]}}],"
+                + " \"numbers\": [3, 4], \"counts\": {\"a\": 1, \"b\": 2},"
+                + " \"dot.name\": \"dotted\", \"tags\": null}";
+
+        JsonSerializerImpl jsonCodec = new JsonSerializerImpl();
+        MyListDTO dto = jsonCodec.deserialize(MyListDTO.class)
+                .from(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(2, dto.items.size());
+        assertEquals(Alpha.A, dto.items.get(0).alpha);
+        assertEquals("m1", dto.items.get(0).marco);
+        assertEquals(1, dto.items.get(0).polo);
+        assertEquals(Alpha.C, dto.items.get(1).alpha);
+        assertEquals(2, dto.items.get(1).polo);
+        assertTrue(Arrays.equals(new int[] {3, 4}, dto.numbers));
+        assertEquals(Long.valueOf(2), dto.counts.get("b"));
+        assertEquals("dotted", dto.dot_name);
+
+        // The same as when the document is parsed into a map first
+        Converter custom = converter.newConverterBuilder().build();
+        MyListDTO dto2 = jsonCodec.deserialize(MyListDTO.class).convertWith(custom).from(json);
+        assertEquals(dto2.items.get(1).marco, dto.items.get(1).marco);
+        assertEquals(dto2.counts, dto.counts);
+        assertEquals(dto2.dot_name, dto.dot_name);
+        assertEquals(dto2.tags, dto.tags);
+    }
+
+    @Test
+    public void testNullValues() throws Exception {
+        String json = "{\"items\": null, \"numbers\": null, \"counts\": null, \"dot.name\": null}";
+
+        JsonSerializerImpl jsonCodec = new JsonSerializerImpl();
+        MyListDTO dto = jsonCodec.deserialize(MyListDTO.class)
+                .from(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        // The converter turns null into an Object[], which cannot be stored
+        // in an int[] field, so arrays are left null
+        assertNull(dto.numbers);
+        assertNull(dto.dot_name);
+    }
+
+    @Test
+    public void testOutputStream() throws Exception {
+        MyEmbeddedDTO embedded = new MyEmbeddedDTO();
+        embedded.alpha = Alpha.B;
+        embedded.marco = "jo !";
+        embedded.polo = 327;
+        Map<String, Object> m = new HashMap<>();
+        m.put("embedded", Arrays.asList(embedded, embedded));
+
+        JsonSerializerImpl jsonCodec = new JsonSerializerImpl();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        jsonCodec.serialize(m).to(out);
+        assertEquals(jsonCodec.serialize(m).toString(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+        StringBuilder sb = new StringBuilder();
+        jsonCodec.serialize(m).to(sb);
+        assertEquals(jsonCodec.serialize(m).toString(), sb.toString());
+    }
+
+    @Test
+    public void testOutputStreamLargeDocument() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append("\u00e9t\u00e9 \ud83d\ude00 ");
+        }
+        Map<String, Object> m = new HashMap<>();
+        m.put("text", sb.toString());
+
+        JsonSerializerImpl jsonCodec = new JsonSerializerImpl();
+        String expected = jsonCodec.serialize(m).toString();
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            jsonCodec.serialize(m).to(out, StandardCharsets.UTF_16);
+            assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_16));
+        }
+    }
+
+    public static class MyListDTO extends DTO {
+        public List<MyEmbeddedDTO> items;
+        public int[] numbers;
+        public Map<String, Long> counts;
+        public String dot_name;
+        public List<String> tags;
+    }
+
     static class Foo {
         private final String val;
 
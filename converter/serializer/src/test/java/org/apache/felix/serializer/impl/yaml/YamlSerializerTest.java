@@ -16,18 +16,26 @@
  */
 package org.apache.felix.serializer.impl.yaml;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.osgi.dto.DTO;
 import org.osgi.util.converter.Converter;
 import org.osgi.util.converter.Converters;
 import org.osgi.util.converter.TypeReference;
 import org.osgi.util.converter.TypeRule;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class YamlSerializerTest {
     private Converter converter;
@@ -94,6 +102,64 @@ public class YamlSerializerTest {
         assertEquals(m, m2);
     }
 
+    @Test
+    public void testDTOStreaming() throws Exception {
+        MyYamlDTO dto = new MyYamlDTO();
+        dto.name = "hello";
+        dto.count = 42;
+        dto.yes = true;
+        dto.ratio = 0.5;
+        dto.tags = new ArrayList<>(Arrays.asList("a", "b"));
+        dto.numbers = new long[] {1, 2, 3};
+        MyYamlDTO child = new MyYamlDTO();
+        child.name = "child";
+        child.count = 7;
+        dto.children = Arrays.asList(child);
+
+        YamlSerializerImpl yamlCodec = new YamlSerializerImpl();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        yamlCodec.serialize(dto).to(out);
+        assertEquals(yamlCodec.serialize(dto).toString(), out.toString("UTF-8"));
+
+        MyYamlDTO dto2 = yamlCodec.deserialize(MyYamlDTO.class).from(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals("hello", dto2.name);
+        assertEquals(42, dto2.count);
+        assertEquals(true, dto2.yes);
+        assertEquals(0.5, dto2.ratio, 0.0);
+        assertEquals(Arrays.asList("a", "b"), dto2.tags);
+        assertArrayEquals(new long[] {1, 2, 3}, dto2.numbers);
+        assertEquals(1, dto2.children.size());
+        assertEquals("child", dto2.children.get(0).name);
+        assertEquals(7, dto2.children.get(0).count);
+        assertNull(dto2.children.get(0).numbers);
+    }
+
+    @Test
+    public void testAnchorsAndAliases() {
+        String yaml = "name: &n 'shared'\n" +
+                "tags: \n" +
+                "  - *n\n" +
+                "  - 'other'\n" +
+                "count: 0x10\n" +
+                "unknown: \n" +
+                "  x: 1";
+
+        MyYamlDTO dto = new YamlSerializerImpl().deserialize(MyYamlDTO.class).from(yaml);
+        assertEquals("shared", dto.name);
+        assertEquals(Arrays.asList("shared", "other"), dto.tags);
+        assertEquals(16, dto.count);
+    }
+
+    public static class MyYamlDTO extends DTO {
+        public String name;
+        public int count;
+        public boolean yes;
+        public double ratio;
+        public List<String> tags;
+        public long[] numbers;
+        public List<MyYamlDTO> children;
+    }
+
     static class Foo {
         private final String val;
 
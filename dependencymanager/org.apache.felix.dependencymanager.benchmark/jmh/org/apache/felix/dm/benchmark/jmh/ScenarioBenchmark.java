@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the Artist/Album/Track scenario, implemented with DM, DM lambda, parallel DM and SCR 
+ * (see the {@link ScenarioState} parameters):
+ * <ul>
+ * <li>{@code activation}: time needed to start a scenario bundle and all its components,</li>
+ * <li>{@code deactivation}: time needed to stop a scenario bundle and all its components,</li>
+ * <li>{@code startStop}: number of complete start/stop cycles per second, with the number of components 
+ * activated and of dependencies bound per second.</li>
+ * </ul>
+ * The parallel scenario scaling can be measured using the "parallelism" parameter, for example:
+ * <pre>-p scenario=dependencymanager.parallel -p parallelism=1,2,4,8</pre>
+ * The filter indices only apply to the DM scenarios, so the scr scenario can be run alone with:
+ * <pre>-p scenario=scr -p filterIndex=none</pre>
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1024m", "-Xmx1024m"})
+public class ScenarioBenchmark {
+    /**
+     * Stops the scenario bundle after each invocation.
+     */
+    @State(Scope.Thread)
+    public static class Stopped {
+        @TearDown(Level.Invocation)
+        public void stop(ScenarioState scenario) throws Exception {
+            scenario.stop();
+        }
+    }
+
+    /**
+     * Starts the scenario bundle before each invocation.
+     */
+    @State(Scope.Thread)
+    public static class Started {
+        @Setup(Level.Invocation)
+        public void start(ScenarioState scenario) throws Exception {
+            scenario.start();
+        }
+    }
+
+    /**
+     * Number of components activated and of dependencies bound, reported per second.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Rates {
+        public long components;
+        public long binds;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            components = 0;
+            binds = 0;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void activation(ScenarioState scenario, Stopped stopped) throws Exception {
+        scenario.start();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void deactivation(ScenarioState scenario, Started started) throws Exception {
+        scenario.stop();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void startStop(ScenarioState scenario, Rates rates) throws Exception {
+        long activations = scenario.getActivations();
+        long binds = scenario.getBinds();
+        scenario.start();
+        scenario.stop();
+        rates.components += scenario.getActivations() - activations;
+        rates.binds += scenario.getBinds() - binds;
+    }
+}
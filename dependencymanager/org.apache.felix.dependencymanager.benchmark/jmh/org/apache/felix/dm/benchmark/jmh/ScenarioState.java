@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.jmh;
+
+import static org.apache.felix.dm.benchmark.scenario.Artist.ALBUMS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.ARTISTS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.TRACKS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.jar.JarFile;
+
+import org.apache.felix.dm.benchmark.controller.ScenarioController;
+import org.apache.felix.dm.benchmark.scenario.Album;
+import org.apache.felix.dm.benchmark.scenario.Artist;
+import org.apache.felix.dm.benchmark.scenario.Helper;
+import org.apache.felix.dm.benchmark.scenario.Track;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.launch.FrameworkFactory;
+
+/**
+ * An embedded Felix framework running one scenario bundle. The framework is booted once per fork, and
+ * this state acts as the ScenarioController injected in all Artist/Album/Track components: it is used
+ * to wait for all components to be started, or stopped.
+ * <p>
+ * The bundles to install are listed (separated with the path separator) in the "benchmark.bundles" 
+ * system property. The controller and scenario packages are provided by the system bundle, so the 
+ * controller and scenario bundles are not installed.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+@State(Scope.Benchmark)
+public class ScenarioState implements ScenarioController {
+    /**
+     * System property listing the bundles to install.
+     */
+    public final static String BUNDLES = "benchmark.bundles";
+    
+    /**
+     * Number of components created by a scenario bundle.
+     */
+    public final static int COMPONENTS = ARTISTS + (ARTISTS * (ALBUMS + (ALBUMS * TRACKS)));
+    
+    private final static String SCENARIO_PREFIX = "org.apache.felix.dependencymanager.benchmark.";
+    
+    private final static String SYSTEM_PACKAGES = 
+        "org.apache.felix.dm.benchmark.controller;version=1.0.0," + 
+        "org.apache.felix.dm.benchmark.scenario;version=1.0.0," + 
+        "org.apache.felix.dm.benchmark.scenario.impl;version=1.0.0";
+    
+    /**
+     * The benchmarked scenario bundle (without the "org.apache.felix.dependencymanager.benchmark." prefix).
+     */
+    @Param({"dependencymanager", "dependencymanager.parallel", "dependencymanager.lambda", "scr"})
+    public String scenario;
+    
+    /**
+     * The DM filter indices ("none" means filter indices are not used). The scr scenario does not use DM, so
+     * it gives the same results with any filter index.
+     */
+    @Param({"none", "objectClass,id"})
+    public String filterIndex;
+    
+    /**
+     * The parallelism of the threadpool used by the parallel scenario (0 means the number of cores).
+     */
+    @Param({"0"})
+    public int parallelism;
+    
+    /**
+     * When true, some processing is done in the components start methods.
+     */
+    @Param({"false"})
+    public boolean processing;
+    
+    private Path m_storage;
+    private Framework m_framework;
+    private Bundle m_bundle;
+    private volatile CountDownLatch m_startLatch = new CountDownLatch(0);
+    private volatile CountDownLatch m_stopLatch = new CountDownLatch(0);
+    private final LongAdder m_activations = new LongAdder();
+    private final LongAdder m_binds = new LongAdder();
+    
+    @Setup(Level.Trial)
+    public void boot() throws Exception {
+        // must be done before the threadpool is created
+        if (parallelism > 0) {
+            System.setProperty(Helper.PARALLELISM, String.valueOf(parallelism));
+        }
+        String bundles = System.getProperty(BUNDLES);
+        if (bundles == null) {
+            throw new IllegalStateException("No bundles to install, the \"" + BUNDLES + "\" system property is not set");
+        }
+        
+        m_storage = Files.createTempDirectory("dm-benchmark");
+        Map<String, String> config = new HashMap<>();
+        config.put(Constants.FRAMEWORK_STORAGE, m_storage.toString());
+        config.put(Constants.FRAMEWORK_STORAGE_CLEAN, Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+        config.put(Constants.FRAMEWORK_SYSTEMPACKAGES_EXTRA, SYSTEM_PACKAGES);
+        config.put("ds.loglevel", "warn");
+        if (! filterIndex.equals("none")) {
+            config.put("org.apache.felix.dependencymanager.filterindex", filterIndex);
+        }
+        m_framework = ServiceLoader.load(FrameworkFactory.class).iterator().next().newFramework(config);
+        m_framework.start();
+        
+        BundleContext context = m_framework.getBundleContext();
+        List<Bundle> installed = new ArrayList<>();
+        for (String location : bundles.split(File.pathSeparator)) {
+            String bsn = getSymbolicName(location);
+            if (bsn.equals(SCENARIO_PREFIX + "controller") || bsn.equals(SCENARIO_PREFIX + "scenario")) {
+                continue;
+            }
+            Bundle bundle = context.installBundle(new File(location).toURI().toString());
+            if (bsn.equals(SCENARIO_PREFIX + scenario)) {
+                m_bundle = bundle;
+            } else if (! bsn.startsWith(SCENARIO_PREFIX)) {
+                installed.add(bundle);
+            }
+        }
+        if (m_bundle == null) {
+            throw new IllegalStateException("Scenario bundle not found: " + SCENARIO_PREFIX + scenario);
+        }
+        for (Bundle bundle : installed) {
+            bundle.start();
+        }
+        context.registerService(ScenarioController.class, this, null);
+    }
+    
+    @TearDown(Level.Trial)
+    public void shutdown() throws Exception {
+        m_framework.stop();
+        m_framework.waitForStop(10000);
+        Files.walk(m_storage).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+
+    /**
+     * Starts the scenario bundle, and waits for all components to be started.
+     */
+    public void start() throws Exception {
+        m_startLatch = new CountDownLatch(COMPONENTS);
+        m_bundle.start();
+        if (! m_startLatch.await(60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Could not start components timely: current start latch=" + m_startLatch.getCount());
+        }
+        // Make sure the threadpool is quiescent and has finished to register all components
+        if (! Helper.getThreadPool().awaitQuiescence(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Could not start components timely (thread pool is still active after 5 seconds)");
+        }
+    }
+    
+    /**
+     * Stops the scenario bundle, and waits for all components to be stopped.
+     */
+    public void stop() throws Exception {
+        m_stopLatch = new CountDownLatch(COMPONENTS);
+        m_bundle.stop();
+        if (! Helper.getThreadPool().awaitQuiescence(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Could not stop components timely (thread pool is still active after 5 seconds)");
+        }
+        if (! m_stopLatch.await(60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Could not stop components timely: current stop latch=" + m_stopLatch.getCount());
+        }
+    }
+
+    /**
+     * Returns the number of components activated so far.
+     */
+    public long getActivations() {
+        return m_activations.sum();
+    }
+    
+    /**
+     * Returns the number of dependencies bound to the components activated so far.
+     */
+    public long getBinds() {
+        return m_binds.sum();
+    }
+
+    @Override
+    public void artistAdded(Artist artist) {
+        int size = artist.getAlbums().size();
+        if (size != ALBUMS) {
+            throw new IllegalStateException("Artist has not created expected number of albums:" + size);
+        }
+        artist.play();
+        m_binds.add(size);
+        componentAdded();
+    }
+
+    @Override
+    public void artistRemoved(Artist artist) {
+        m_stopLatch.countDown();
+    }
+
+    @Override
+    public void albumAdded(Album album) {
+        int size = album.getMusicTracks().size();
+        if (size != TRACKS) {
+            throw new IllegalStateException("Album does not contain expected number of music tracks:" + size);
+        }
+        m_binds.add(size);
+        componentAdded();
+    }
+
+    @Override
+    public void albumRemoved(Album album) {
+        m_stopLatch.countDown();
+    }
+
+    @Override
+    public void trackAdded(Track track) {
+        componentAdded();
+    }
+
+    @Override
+    public void trackRemoved(Track track) {
+        m_stopLatch.countDown();
+    }
+    
+    private void componentAdded() {
+        if (processing) {
+            long duration = TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextLong(5));
+            long t1 = System.nanoTime();
+            while (System.nanoTime() - t1 < duration)
+                ;
+        }
+        m_activations.increment();
+        m_startLatch.countDown();
+    }
+    
+    private static String getSymbolicName(String location) throws IOException {
+        try (JarFile jar = new JarFile(location)) {
+            String bsn = jar.getManifest().getMainAttributes().getValue(Constants.BUNDLE_SYMBOLICNAME);
+            return bsn == null ? "" : bsn.split(";")[0].trim();
+        }
+    }
+}
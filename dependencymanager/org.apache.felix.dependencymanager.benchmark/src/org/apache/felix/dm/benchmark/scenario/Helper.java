@@ -38,10 +38,15 @@ public class Helper {
      */
     private final static AtomicLong m_idGenerator = new AtomicLong();
 
+    /**
+     * System property used to configure the parallelism of the threadpool (number of cores by default).
+     */
+    public final static String PARALLELISM = "org.apache.felix.dm.benchmark.parallelism";
+
     /**
      * Threadpool which can be optionally used by parallel scenarios.
      */
-    private final static int CORES = Runtime.getRuntime().availableProcessors();
+    private final static int CORES = Integer.getInteger(PARALLELISM, Runtime.getRuntime().availableProcessors());
     private final static ForkJoinPool TPOOL = new ForkJoinPool(CORES);
     
     /**
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.scr;
+
+import static org.apache.felix.dm.benchmark.scenario.Artist.ALBUMS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.ARTISTS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.TRACKS;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.apache.felix.dm.benchmark.controller.ScenarioController;
+import org.apache.felix.dm.benchmark.scenario.Helper;
+import org.osgi.service.component.ComponentFactory;
+import org.osgi.service.component.ComponentInstance;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+
+/**
+ * Same scenario as the Dependency Manager one, using Declarative Services.
+ * The Artist, Album and Track components are created from component factories, because the components 
+ * are bound using a special "id" service property. Each factory instance is configured with the target 
+ * filter of its references.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+@Component(immediate = true)
+public class Benchmark {
+    final List<ComponentInstance> m_components = new ArrayList<>();
+    
+    @Reference
+    ScenarioController m_controller;
+    
+    @Reference(target = "(component.factory=" + ArtistComponent.FACTORY + ")")
+    ComponentFactory m_artists;
+
+    @Reference(target = "(component.factory=" + AlbumComponent.FACTORY + ")")
+    ComponentFactory m_albums;
+
+    @Reference(target = "(component.factory=" + TrackComponent.FACTORY + ")")
+    ComponentFactory m_tracks;
+
+    /**
+     * Initialize our Artists, Albums/Tracks. The Album and Track references are optional, otherwise the
+     * factories would not be registered before any Album or Track exists. So dependencies are created 
+     * before the components depending on them, and each component is activated with all its references bound.
+     */
+    @Activate
+    void start() {
+        Helper.debug(() -> "Benchmark.start");
+        for (int i = 0; i < ARTISTS; i ++) {
+            StringBuilder albums = new StringBuilder("(|");
+            for (int j = 0; j < ALBUMS; j ++) {
+                StringBuilder tracks = new StringBuilder("(|");
+                for (int k = 0; k < TRACKS; k ++) {
+                    tracks.append(create(m_tracks, null, null));
+                }
+                albums.append(create(m_albums, "tracks.target", tracks.append(")").toString()));
+            }
+            create(m_artists, "albums.target", albums.append(")").toString());
+        }
+    }
+    
+    @Deactivate
+    void stop() {
+        m_components.forEach(ComponentInstance::dispose);
+        m_components.clear();
+    }
+
+    /**
+     * Creates a component instance and returns a filter matching its id.
+     */
+    private String create(ComponentFactory factory, String target, String filter) {
+        String id = String.valueOf(Helper.generateId());
+        Hashtable<String, Object> props = new Hashtable<>();
+        props.put("id", id);
+        if (target != null) {
+            props.put(target, filter);
+        }
+        m_components.add(factory.newInstance(props));
+        return "(id=" + id + ")";
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.index.itest.tests;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.apache.felix.dm.Component;
+import org.apache.felix.dm.DependencyManager;
+import org.apache.felix.dm.diagnostics.FilterIndexStatistics;
+import org.apache.felix.dm.diagnostics.FilterIndexStatistics.IndexStatistics;
+import org.junit.Assert;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Checks that a filter index is automatically created for a property combination
+ * which is often looked up.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class AutoFilterIndexTest extends TestBase {
+	private final static String WINDOW = "org.apache.felix.dependencymanager.filterindex.auto.window";
+	private final static String THRESHOLD = "org.apache.felix.dependencymanager.filterindex.auto.threshold";
+	private final static String RETIREMENT = "org.apache.felix.dependencymanager.filterindex.auto.retirement";
+
+	private String m_systemConf;
+
+    @SuppressWarnings("unchecked")
+	public void setUp() throws Exception {
+    	// tune after every couple of lookups
+    	System.setProperty(WINDOW, "2");
+    	System.setProperty(THRESHOLD, "1");
+    	System.setProperty(RETIREMENT, "1000");
+
+        // backup currently configured filter index
+        BundleContext context = FrameworkUtil.getBundle(this.getClass()).getBundleContext();
+        m_systemConf = context.getProperty(DependencyManager.SERVICEREGISTRY_CACHE_INDICES);
+
+    	// enable automatic indices and use the special DM backdoor in order to reinitialize filter indices
+        Consumer<String> reset = (Consumer<String>) System.getProperties().get("org.apache.felix.dependencymanager.filterindex.reset");
+        reset.accept("*auto*");
+
+        super.setUp();
+    }
+
+    @SuppressWarnings("unchecked")
+	public void tearDown() throws Exception {
+        super.tearDown();
+        System.getProperties().remove(WINDOW);
+        System.getProperties().remove(THRESHOLD);
+        System.getProperties().remove(RETIREMENT);
+        Consumer<String> reset = (Consumer<String>) System.getProperties().get("org.apache.felix.dependencymanager.filterindex.reset");
+        reset.accept(m_systemConf);
+    }
+
+    public void testAutomaticIndex() throws Exception {
+        DependencyManager m = getDM();
+        Ensure e = new Ensure();
+        Hashtable<String, Object> props = new Hashtable<>();
+        props.put("type", "auto");
+        Component p = m.createComponent()
+            .setInterface(Service.class.getName(), props)
+            .setImplementation(new Provider());
+        m.add(p);
+
+        // each consumer looks up the same property combination
+        for (int i = 0; i < 5; i ++) {
+            Component c = m.createComponent()
+                .setImplementation(new Client(e, i * 2 + 1))
+                .add(m.createServiceDependency()
+                    .setService(Service.class, "(type=auto)")
+                    .setRequired(true));
+            m.add(c);
+            e.waitForStep(i * 2 + 1, 5000);
+            m.remove(c);
+            e.waitForStep(i * 2 + 2, 5000);
+        }
+        m.remove(p);
+        m.clear();
+
+        FilterIndexStatistics statistics = FilterIndexStatistics.getStatistics();
+        Assert.assertNotNull(statistics);
+        boolean found = false;
+        for (IndexStatistics index : statistics.getIndices()) {
+        	found |= index.isAutomatic() && index.getName().equals("objectClass,type");
+        }
+        Assert.assertTrue("no automatic index created", found);
+    }
+
+    public void testLookupsDuringPromotion() throws Exception {
+        DependencyManager m = getDM();
+        final int providers = 10;
+        Hashtable<String, Object> props = new Hashtable<>();
+        props.put("type", "concurrent");
+        for (int i = 0; i < providers; i ++) {
+            m.add(m.createComponent()
+                .setInterface(Service.class.getName(), props)
+                .setImplementation(new Provider()));
+        }
+
+        // the index is promoted while the threads look up the services, they must see all of them
+        final BundleContext context = m.getBundleContext();
+        final AtomicReference<String> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i ++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int j = 0; j < 500 && failure.get() == null; j ++) {
+                        ServiceReference[] refs = context.getServiceReferences(Service.class.getName(), "(type=concurrent)");
+                        int found = refs == null ? 0 : refs.length;
+                        if (found != providers) {
+                            failure.compareAndSet(null, "lookup " + j + " found " + found + " services");
+                        }
+                    }
+                }
+                catch (Exception e) {
+                    failure.compareAndSet(null, e.toString());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        m.clear();
+        Assert.assertNull(failure.get(), failure.get());
+
+        boolean found = false;
+        for (IndexStatistics index : FilterIndexStatistics.getStatistics().getIndices()) {
+        	found |= index.isAutomatic() && index.getName().equals("objectClass,type");
+        }
+        Assert.assertTrue("no automatic index created", found);
+    }
+
+    public static class Client {
+        private final Ensure m_ensure;
+        private final int m_step;
+
+        public Client(Ensure e, int step) {
+            m_ensure = e;
+            m_step = step;
+        }
+
+        public void start() {
+            m_ensure.step(m_step);
+        }
+
+        public void stop() {
+            m_ensure.step(m_step + 1);
+        }
+    }
+
+    public static interface Service {
+    }
+
+    public static class Provider implements Service {
+    }
+}
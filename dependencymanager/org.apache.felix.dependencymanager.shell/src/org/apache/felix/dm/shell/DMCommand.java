@@ -35,6 +35,8 @@ import org.apache.felix.dm.diagnostics.CircularDependency;
 import org.apache.felix.dm.diagnostics.DependencyGraph;
 import org.apache.felix.dm.diagnostics.DependencyGraph.ComponentState;
 import org.apache.felix.dm.diagnostics.DependencyGraph.DependencyState;
+import org.apache.felix.dm.diagnostics.FilterIndexStatistics;
+import org.apache.felix.dm.diagnostics.FilterIndexStatistics.IndexStatistics;
 import org.apache.felix.dm.diagnostics.MissingDependency;
 import org.apache.felix.service.command.CommandSession;
 import org.apache.felix.service.command.Descriptor;
@@ -126,6 +128,7 @@ public class DMCommand {
      *        set using the "dependencymanager.compact" gogo shell variable.
      * @param notavail only unregistered components / unavailable dependencies are displayed 
      * @param stats true means some statistics are displayed
+     * @param indices true means the filter indices hit rates are displayed
      * @param services an osgi filter used to filter on some given osgi service properties.  This parameter can also be 
      *        set using the "dependencymanager.services" gogo shell variable.
      * @param components a regular expression to match either component implementation class names.  This parameter can also be 
@@ -157,6 +160,10 @@ public class DMCommand {
             @Parameter(names = {"stats", "stat", "st"}, presentValue = "true", absentValue = "false") 
             boolean stats,
 
+            @Descriptor("Displays filter indices hit rates") 
+            @Parameter(names = {"indices", "idx"}, presentValue = "true", absentValue = "false") 
+            boolean indices,
+
             @Descriptor("<OSGi filter used to filter some service properties>") 
             @Parameter(names = {"services", "s"}, absentValue = "") 
             String services,
@@ -223,6 +230,11 @@ public class DMCommand {
             return;
         }
         
+        if (indices) {
+            showFilterIndices();
+            return;
+        }
+        
         DependencyGraph graph = null;
         if(notavail) {
         	graph = DependencyGraph.getGraph(ComponentState.UNREGISTERED, DependencyState.ALL_UNAVAILABLE);
@@ -313,6 +325,35 @@ public class DMCommand {
 
         }
 
+    /**
+     * Displays the number of lookups served by each filter index, and the unindexed lookups
+     * which are candidates for an automatic filter index.
+     */
+    private void showFilterIndices() {
+        FilterIndexStatistics statistics = FilterIndexStatistics.getStatistics();
+        if (statistics == null) {
+            System.out.println("Filter indices are not enabled (see org.apache.felix.dependencymanager.filterindex property)");
+            return;
+        }
+        long hits = statistics.getHits();
+        long misses = statistics.getMisses();
+        long total = hits + misses;
+        System.out.println("Filter indices:");
+        System.out.println(" - Lookups: " + total);
+        System.out.println(" - Hits: " + hits + (total > 0 ? " (" + (hits * 100 / total) + "%)" : ""));
+        System.out.println(" - Misses: " + misses);
+        for (IndexStatistics index : statistics.getIndices()) {
+            System.out.println("    " + index.getName() + (index.isAutomatic() ? " [auto]" : "") + ": " + index.getHits());
+        }
+        Map<String, Long> candidates = statistics.getCandidates();
+        if (!candidates.isEmpty()) {
+            System.out.println("Unindexed lookups:");
+            for (Map.Entry<String, Long> candidate : candidates.entrySet()) {
+                System.out.println("    " + candidate.getKey() + ": " + candidate.getValue());
+            }
+        }
+    }
+
     /**
      * Displays components callbacks (init/start/stop/destroy) elapsed time.
      * The components are sorted (the most time consuming components are displayed first).
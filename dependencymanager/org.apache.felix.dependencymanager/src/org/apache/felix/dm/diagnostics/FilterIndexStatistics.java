@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.diagnostics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.dm.FilterIndex;
+import org.apache.felix.dm.impl.index.AutoFilterIndex;
+import org.apache.felix.dm.impl.index.FilterIndexTuner;
+import org.apache.felix.dm.impl.index.ServiceRegistryCache;
+import org.apache.felix.dm.impl.index.ServiceRegistryCacheManager;
+
+/**
+ * A snapshot of the usage of the filter indices of the service registry cache, which is enabled by the 
+ * "org.apache.felix.dependencymanager.filterindex" property. A lookup is a hit when it is served by
+ * one of the indices, and a miss when it is forwarded to the framework service registry.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class FilterIndexStatistics {
+
+	/**
+	 * The usage of a single filter index.
+	 */
+	public static class IndexStatistics {
+		private final String m_name;
+		private final boolean m_automatic;
+		private final long m_hits;
+
+		IndexStatistics(String name, boolean automatic, long hits) {
+			m_name = name;
+			m_automatic = automatic;
+			m_hits = hits;
+		}
+
+		/**
+		 * Returns the index definition for automatic indices, or a description of the index.
+		 */
+		public String getName() {
+			return m_name;
+		}
+
+		/**
+		 * Returns true if the index has been created automatically from the observed lookups.
+		 */
+		public boolean isAutomatic() {
+			return m_automatic;
+		}
+
+		public long getHits() {
+			return m_hits;
+		}
+	}
+
+	private final List<IndexStatistics> m_indices = new ArrayList<>();
+	private final long m_misses;
+	private final Map<String, Long> m_candidates;
+
+	private FilterIndexStatistics(ServiceRegistryCache cache) {
+		FilterIndexTuner tuner = cache.getFilterIndexTuner();
+		for (FilterIndex index : cache.getFilterIndices()) {
+			boolean automatic = index instanceof AutoFilterIndex;
+			String name = automatic ? ((AutoFilterIndex) index).getDefinition() : index.toString().trim();
+			m_indices.add(new IndexStatistics(name, automatic, cache.getHits(index)));
+		}
+		m_misses = cache.getMisses();
+		m_candidates = tuner != null ? tuner.getCandidates() : Collections.emptyMap();
+	}
+
+	/**
+	 * Returns the usage of the filter indices, or null if the service registry cache is not enabled.
+	 */
+	public static FilterIndexStatistics getStatistics() {
+		ServiceRegistryCache cache = ServiceRegistryCacheManager.getCache();
+		return cache != null ? new FilterIndexStatistics(cache) : null;
+	}
+
+	public List<IndexStatistics> getIndices() {
+		return m_indices;
+	}
+
+	/**
+	 * Returns the number of lookups served by the filter indices.
+	 */
+	public long getHits() {
+		long hits = 0;
+		for (IndexStatistics index : m_indices) {
+			hits += index.getHits();
+		}
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that no filter index could serve.
+	 */
+	public long getMisses() {
+		return m_misses;
+	}
+
+	/**
+	 * Returns the unindexed property combinations (using the filter index definition syntax) looked up 
+	 * recently, with their number of lookups, when automatic indices are enabled.
+	 */
+	public Map<String, Long> getCandidates() {
+		return m_candidates;
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.impl.index;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.felix.dm.impl.index.multiproperty.MultiPropertyFilterIndex;
+
+/**
+ * A multi property filter index created by the {@link FilterIndexTuner} for
+ * a combination of filter properties that is frequently looked up.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class AutoFilterIndex extends MultiPropertyFilterIndex {
+	private final String m_definition;
+	private final LongAdder m_windowHits = new LongAdder();
+	private int m_idleWindows;
+
+	public AutoFilterIndex(String definition) {
+		super(definition);
+		m_definition = definition;
+	}
+
+	/**
+	 * Returns the index definition, using the syntax of the "org.apache.felix.dependencymanager.filterindex" property.
+	 */
+	public String getDefinition() {
+		return m_definition;
+	}
+
+	void hit() {
+		m_windowHits.increment();
+	}
+
+	/**
+	 * Ends a tuning window and returns the number of consecutive windows without any lookup.
+	 */
+	int endWindow() {
+		if (m_windowHits.sumThenReset() == 0) {
+			m_idleWindows++;
+		} else {
+			m_idleWindows = 0;
+		}
+		return m_idleWindows;
+	}
+
+	boolean hasServiceListeners() {
+		return !getServiceListeners().isEmpty();
+	}
+
+	public String toString() {
+		return "AutoFilterIndex[" + m_definition + "]";
+	}
+}
@@ -54,22 +54,32 @@ public class BundleContextInterceptor extends BundleContextInterceptorBase {
     }
 
     public void addServiceListener(ServiceListener listener, String filter) throws InvalidSyntaxException {
-        FilterIndex filterIndex = m_cache.hasFilterIndexFor(null, filter);
-        if (filterIndex != null) {
-            filterIndex.addServiceListener(listener, filter);
+        FilterIndex filterIndex = m_cache.acquireFilterIndex(null, filter);
+        try {
+            if (filterIndex != null) {
+                filterIndex.addServiceListener(listener, filter);
+            }
+            else {
+                m_context.addServiceListener(listener, filter);
+            }
         }
-        else {
-            m_context.addServiceListener(listener, filter);
+        finally {
+            m_cache.releaseFilterIndex();
         }
     }
 
     public void addServiceListener(ServiceListener listener) {
-        FilterIndex filterIndex = m_cache.hasFilterIndexFor(null, null);
-        if (filterIndex != null) {
-            filterIndex.addServiceListener(listener, null);
+        FilterIndex filterIndex = m_cache.acquireFilterIndex(null, null);
+        try {
+            if (filterIndex != null) {
+                filterIndex.addServiceListener(listener, null);
+            }
+            else {
+                m_context.addServiceListener(listener);
+            }
         }
-        else {
-            m_context.addServiceListener(listener);
+        finally {
+            m_cache.releaseFilterIndex();
         }
     }
 
@@ -89,9 +99,15 @@ public class BundleContextInterceptor extends BundleContextInterceptorBase {
     		start = System.currentTimeMillis();
     	}
         // first we ask the cache if there is an index for our request (class and filter combination)
-        FilterIndex filterIndex = m_cache.hasFilterIndexFor(clazz, filter);
-        if (filterIndex != null) {
-            List<ServiceReference> result = filterIndex.getAllServiceReferences(clazz, filter);
+        FilterIndex filterIndex = m_cache.acquireFilterIndex(clazz, filter);
+        List<ServiceReference> result;
+        try {
+            result = filterIndex != null ? filterIndex.getAllServiceReferences(clazz, filter) : null;
+        }
+        finally {
+            m_cache.releaseFilterIndex();
+        }
+        if (result != null) {
             Iterator<ServiceReference> iterator = result.iterator();
             while (iterator.hasNext()) {
                 ServiceReference reference = iterator.next();
@@ -129,9 +145,15 @@ public class BundleContextInterceptor extends BundleContextInterceptorBase {
 
 	public ServiceReference[] getAllServiceReferences(String clazz, String filter) throws InvalidSyntaxException {
         // first we ask the cache if there is an index for our request (class and filter combination)
-        FilterIndex filterIndex = m_cache.hasFilterIndexFor(clazz, filter);
+        FilterIndex filterIndex = m_cache.acquireFilterIndex(clazz, filter);
+        List<ServiceReference> result;
+        try {
+            result = filterIndex != null ? filterIndex.getAllServiceReferences(clazz, filter) : null;
+        }
+        finally {
+            m_cache.releaseFilterIndex();
+        }
         if (filterIndex != null) {
-            List<ServiceReference> result = filterIndex.getAllServiceReferences(clazz, filter);
             if (result == null || result.size() == 0) {
                 return null;
             }
@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.impl.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.felix.dm.FilterIndex;
+import org.apache.felix.dm.impl.index.multiproperty.Filter;
+import org.apache.felix.dm.impl.index.multiproperty.Property;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Creates and removes filter indices according to the lookups made through the service registry cache.
+ * It is enabled by adding "*auto*" to the "org.apache.felix.dependencymanager.filterindex" property.
+ * 
+ * Lookups are observed by windows of a fixed number of lookups. At the end of a window, the property
+ * combinations of the unindexed filters that have been looked up at least a threshold number of times
+ * are promoted to a {@link AutoFilterIndex}, and the automatic indices that have not been used for a
+ * number of windows (and that have no service listeners) are retired.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class FilterIndexTuner {
+	public static final String AUTO = "*auto*";
+	
+	/**
+	 * Number of lookups of a tuning window (1000 by default).
+	 */
+	public static final String WINDOW = "org.apache.felix.dependencymanager.filterindex.auto.window";
+	
+	/**
+	 * Number of lookups of a property combination within a window before it is indexed (50 by default).
+	 */
+	public static final String THRESHOLD = "org.apache.felix.dependencymanager.filterindex.auto.threshold";
+	
+	/**
+	 * Number of consecutive windows without lookups before an automatic index is retired (10 by default).
+	 */
+	public static final String RETIREMENT = "org.apache.felix.dependencymanager.filterindex.auto.retirement";
+	
+	/**
+	 * Maximum number of automatic indices (16 by default).
+	 */
+	public static final String MAX = "org.apache.felix.dependencymanager.filterindex.auto.max";
+	
+	private final int m_window;
+	private final int m_threshold;
+	private final int m_retirement;
+	private final int m_max;
+	private final ConcurrentMap<String, LongAdder> m_candidates = new ConcurrentHashMap<>();
+	private final AtomicLong m_lookups = new AtomicLong();
+	private final List<AutoFilterIndex> m_indices = new ArrayList<>();
+	private volatile boolean m_due;
+	
+	public FilterIndexTuner(BundleContext context) {
+		m_window = getProperty(context, WINDOW, 1000);
+		m_threshold = getProperty(context, THRESHOLD, 50);
+		m_retirement = getProperty(context, RETIREMENT, 10);
+		m_max = getProperty(context, MAX, 16);
+	}
+	
+	/**
+	 * Records a lookup, and the index it has been served by, if any.
+	 */
+	public void lookup(String clazz, String filter, FilterIndex index) {
+		if (index == null) {
+			String definition = getDefinition(clazz, filter);
+			if (definition != null) {
+				m_candidates.computeIfAbsent(definition, k -> new LongAdder()).increment();
+			}
+		} else if (index instanceof AutoFilterIndex) {
+			((AutoFilterIndex) index).hit();
+		}
+		if (m_lookups.incrementAndGet() % m_window == 0) {
+			m_due = true;
+		}
+	}
+	
+	/**
+	 * Returns true when a window has ended and the indices should be tuned.
+	 */
+	public boolean isDue() {
+		return m_due;
+	}
+	
+	/**
+	 * Ends the current window and returns the automatic indices to retire, or null if the window has
+	 * already been ended. The caller must ensure that the indices are not used concurrently.
+	 */
+	public synchronized List<AutoFilterIndex> retire() {
+		if (!m_due) {
+			return null;
+		}
+		m_due = false;
+		List<AutoFilterIndex> retired = new ArrayList<>();
+		for (AutoFilterIndex index : m_indices) {
+			if (index.endWindow() >= m_retirement && !index.hasServiceListeners()) {
+				retired.add(index);
+			}
+		}
+		m_indices.removeAll(retired);
+		return retired;
+	}
+	
+	/**
+	 * Returns the new automatic indices for the property combinations looked up frequently during the
+	 * window that has ended, and starts a new window.
+	 */
+	public synchronized List<AutoFilterIndex> promote() {
+		List<Map.Entry<String, Long>> hot = new ArrayList<>();
+		for (Map.Entry<String, LongAdder> candidate : m_candidates.entrySet()) {
+			long count = candidate.getValue().sumThenReset();
+			if (count >= m_threshold) {
+				hot.add(new HashMap.SimpleEntry<>(candidate.getKey(), count));
+			} else if (count == 0) {
+				// not looked up during a whole window
+				m_candidates.remove(candidate.getKey(), candidate.getValue());
+			}
+		}
+		Collections.sort(hot, (e1, e2) -> Long.compare(e2.getValue(), e1.getValue()));
+		
+		List<AutoFilterIndex> promoted = new ArrayList<>();
+		for (Map.Entry<String, Long> entry : hot) {
+			if (m_indices.size() >= m_max) {
+				break;
+			}
+			m_candidates.remove(entry.getKey());
+			AutoFilterIndex index = new AutoFilterIndex(entry.getKey());
+			m_indices.add(index);
+			promoted.add(index);
+		}
+		return promoted;
+	}
+	
+	public synchronized boolean isAutomatic(FilterIndex index) {
+		return m_indices.contains(index);
+	}
+	
+	/**
+	 * Returns the number of lookups of the unindexed property combinations seen in the current window.
+	 */
+	public Map<String, Long> getCandidates() {
+		Map<String, Long> candidates = new HashMap<>();
+		m_candidates.forEach((definition, count) -> candidates.put(definition, count.sum()));
+		return candidates;
+	}
+	
+	/**
+	 * Returns the definition of a multi property filter index applicable to the given class and filter,
+	 * or null if the filter can't be indexed.
+	 */
+	static String getDefinition(String clazz, String filterString) {
+		// same filter as the one used by MultiPropertyFilterIndex to check whether it is applicable
+		String filterStringWithObjectClass = filterString;
+		if (clazz != null && !clazz.isEmpty()) {
+			if (filterString != null) {
+				if (!filterStringWithObjectClass.startsWith("(&(objectClass=")) {
+					filterStringWithObjectClass = "(&(objectClass=" + clazz + ")" + filterString + ")";
+				}
+			} else {
+				filterStringWithObjectClass = "(objectClass=" + clazz + ")";
+			}
+		}
+		if (filterStringWithObjectClass == null) {
+			return null;
+		}
+		Filter filter = Filter.parse(filterStringWithObjectClass);
+		// a single property is already indexed by the framework service registry
+		if (!filter.isValid() || filter.getPropertyKeys().size() < 2) {
+			return null;
+		}
+		List<String> keys = new ArrayList<>();
+		for (String key : filter.getPropertyKeys()) {
+			Property property = filter.getProperty(key);
+			if (property.isNegate()) {
+				keys.add("!" + key);
+			} else if ("*".equals(property.getValue())) {
+				// wildcards can't be indexed
+				return null;
+			} else {
+				keys.add(key);
+			}
+		}
+		Collections.sort(keys);
+		return String.join(",", keys);
+	}
+	
+	private static int getProperty(BundleContext context, String key, int defaultValue) {
+		String value = context.getProperty(key);
+		if (value != null) {
+			try {
+				return Integer.parseInt(value.trim());
+			} catch (NumberFormatException e) {
+				e.printStackTrace();
+			}
+		}
+		return defaultValue;
+	}
+}
@@ -22,7 +22,11 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.felix.dm.FilterIndex;
 import org.osgi.framework.BundleContext;
@@ -39,6 +43,11 @@ public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*
 	private final Map<BundleContext, BundleContextInterceptor> m_bundleContextInterceptorMap = new HashMap<>();
     private long m_currentVersion = 0;
     private long m_arrayVersion = -1;
+    // lookups hold the read lock, so that an index can't be closed while they use it
+    private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
+    private final Map<FilterIndex, LongAdder> m_hits = new ConcurrentHashMap<>();
+    private final LongAdder m_misses = new LongAdder();
+    private volatile FilterIndexTuner m_tuner;
     
     public ServiceRegistryCache(BundleContext context) {
         m_context = context;
@@ -61,6 +70,16 @@ public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*
     public void removeFilterIndex(FilterIndex index) {
         index.close();
         m_filterIndexList.remove(index);
+        m_hits.remove(index);
+    }
+    
+    /** Creates and retires filter indices according to the observed lookups. */
+    public void setFilterIndexTuner(FilterIndexTuner tuner) {
+        m_tuner = tuner;
+    }
+    
+    public FilterIndexTuner getFilterIndexTuner() {
+        return m_tuner;
     }
     
     public int getSize() {
@@ -106,6 +125,77 @@ public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*
         return null;
     }
 
+    /**
+     * Returns the filter index for a lookup, or null if there is none. The index can be used until
+     * {@link #releaseFilterIndex()} is called, which must be done even if no index is returned.
+     */
+    public FilterIndex acquireFilterIndex(String clazz, String filter) {
+        m_lock.readLock().lock();
+        FilterIndex filterIndex = hasFilterIndexFor(clazz, filter);
+        if (filterIndex != null) {
+            m_hits.computeIfAbsent(filterIndex, k -> new LongAdder()).increment();
+        }
+        else {
+            m_misses.increment();
+        }
+        FilterIndexTuner tuner = m_tuner;
+        if (tuner != null) {
+            tuner.lookup(clazz, filter, filterIndex);
+        }
+        return filterIndex;
+    }
+    
+    public void releaseFilterIndex() {
+        m_lock.readLock().unlock();
+        FilterIndexTuner tuner = m_tuner;
+        if (tuner != null && tuner.isDue()) {
+            tune(tuner);
+        }
+    }
+    
+    private void tune(FilterIndexTuner tuner) {
+        // never wait for the lookups in progress, the next lookup will try again
+        if (!m_lock.writeLock().tryLock()) {
+            return;
+        }
+        List<AutoFilterIndex> retired;
+        try {
+            retired = tuner.retire();
+            if (retired == null) {
+                return;
+            }
+            m_filterIndexList.removeAll(retired);
+        }
+        finally {
+            m_lock.writeLock().unlock();
+        }
+        for (AutoFilterIndex index : retired) {
+            index.close();
+            m_hits.remove(index);
+        }
+        for (AutoFilterIndex index : tuner.promote()) {
+            // only publish the index once its tracker has been populated, lookups would miss services otherwise.
+            // we got the write lock above, so this thread does not hold the read lock and can wait for it.
+            index.open(m_filterIndexBundleContext);
+            m_lock.writeLock().lock();
+            try {
+                m_filterIndexList.add(index);
+            }
+            finally {
+                m_lock.writeLock().unlock();
+            }
+        }
+    }
+    
+    public long getHits(FilterIndex index) {
+        LongAdder hits = m_hits.get(index);
+        return hits == null ? 0 : hits.sum();
+    }
+    
+    public long getMisses() {
+        return m_misses.sum();
+    }
+
     public void serviceChangedForFilterIndices(ServiceEvent event) {
         Iterator<FilterIndex> iterator = m_filterIndexList.iterator();
         while (iterator.hasNext()) {
@@ -171,6 +171,8 @@ public class ServiceRegistryCacheManager {
 						cache.addFilterIndex(new AspectFilterIndex());
 					} else if (props[i].equals("*adapter*")) {
 						cache.addFilterIndex(new AdapterFilterIndex());
+					} else if (props[i].equals(FilterIndexTuner.AUTO)) {
+						cache.setFilterIndexTuner(new FilterIndexTuner(m_context));
 					} else {
 						cache.addFilterIndex(new MultiPropertyFilterIndex(props[i]));
 					}
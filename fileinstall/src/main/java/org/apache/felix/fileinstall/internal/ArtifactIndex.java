@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.fileinstall.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A persistent index of the artifacts installed as bundles from one
+ * watched directory.
+ *
+ * For each artifact, the index records the path, size, last modification
+ * date and content hash of the file together with the transformed url
+ * and the id of the installed bundle.  On restart, this allows to
+ * recognize files which have been touched without being modified,
+ * so that their bundles are not updated again.
+ */
+public class ArtifactIndex
+{
+    private static final int VERSION = 1;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * An entry of the index.
+     */
+    public static class Record
+    {
+        final String path;
+        long size;
+        long lastModified;
+        String hash;
+        String transformedUrl;
+        long bundleId;
+
+        Record(String path)
+        {
+            this.path = path;
+        }
+
+        public long getBundleId()
+        {
+            return bundleId;
+        }
+
+        public String getHash()
+        {
+            return hash;
+        }
+
+        public String getTransformedUrl()
+        {
+            return transformedUrl;
+        }
+
+        /**
+         * Check whether the file still has the recorded size and
+         * last modification date.
+         */
+        public boolean isUnmodified(File file)
+        {
+            return file.isFile() && file.length() == size && file.lastModified() == lastModified;
+        }
+    }
+
+    private final File file;
+    private final Map<String, Record> records = new HashMap<String, Record>();
+    private boolean dirty;
+
+    public ArtifactIndex(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Load the index.  A missing or unreadable index is treated as empty.
+     */
+    public synchronized void load()
+    {
+        records.clear();
+        dirty = false;
+        if (!file.isFile())
+        {
+            return;
+        }
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != VERSION)
+            {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++)
+            {
+                Record record = new Record(in.readUTF());
+                record.size = in.readLong();
+                record.lastModified = in.readLong();
+                record.hash = emptyToNull(in.readUTF());
+                record.transformedUrl = emptyToNull(in.readUTF());
+                record.bundleId = in.readLong();
+                records.put(record.path, record);
+            }
+        }
+        catch (IOException e)
+        {
+            records.clear();
+        }
+        finally
+        {
+            close(in);
+        }
+    }
+
+    /**
+     * Write the index if it has been modified since it was loaded or saved.
+     * The index is written to a temporary file first, so that a crash does
+     * not leave a truncated index behind.
+     */
+    public synchronized void save() throws IOException
+    {
+        if (!dirty)
+        {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try
+        {
+            out.writeInt(VERSION);
+            out.writeInt(records.size());
+            for (Record record : records.values())
+            {
+                out.writeUTF(record.path);
+                out.writeLong(record.size);
+                out.writeLong(record.lastModified);
+                out.writeUTF(nullToEmpty(record.hash));
+                out.writeUTF(nullToEmpty(record.transformedUrl));
+                out.writeLong(record.bundleId);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        if (!tmp.renameTo(file))
+        {
+            file.delete();
+            if (!tmp.renameTo(file))
+            {
+                throw new IOException("Unable to write artifact index " + file);
+            }
+        }
+        dirty = false;
+    }
+
+    public synchronized Record get(File path)
+    {
+        return records.get(key(path));
+    }
+
+    /**
+     * Record an installed or updated artifact.
+     */
+    public synchronized void put(File path, String hash, URL transformedUrl, long bundleId)
+    {
+        Record record = new Record(key(path));
+        record.size = path.length();
+        record.lastModified = path.lastModified();
+        record.hash = hash;
+        record.transformedUrl = transformedUrl != null ? transformedUrl.toString() : null;
+        record.bundleId = bundleId;
+        records.put(record.path, record);
+        dirty = true;
+    }
+
+    /**
+     * Update the size and last modification date of an artifact whose
+     * content has not changed.
+     */
+    public synchronized void touch(File path)
+    {
+        Record record = records.get(key(path));
+        if (record != null)
+        {
+            record.size = path.length();
+            record.lastModified = path.lastModified();
+            dirty = true;
+        }
+    }
+
+    public synchronized void remove(File path)
+    {
+        if (records.remove(key(path)) != null)
+        {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Compute the hash of the content of a file.
+     *
+     * @param file the file
+     * @return the hex encoded hash or <code>null</code> if the file is not a regular file
+     *         or can not be read
+     */
+    public static String hash(File file)
+    {
+        if (!file.isFile())
+        {
+            return null;
+        }
+        InputStream in = null;
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            in = new FileInputStream(file);
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) > 0)
+            {
+                digest.update(buffer, 0, len);
+            }
+            byte[] bytes = digest.digest();
+            char[] chars = new char[bytes.length * 2];
+            for (int i = 0; i < bytes.length; i++)
+            {
+                chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+                chars[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+            }
+            return new String(chars);
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            return null;
+        }
+        finally
+        {
+            close(in);
+        }
+    }
+
+    private static String key(File path)
+    {
+        return path.getAbsolutePath();
+    }
+
+    private static String emptyToNull(String s)
+    {
+        return s.length() == 0 ? null : s;
+    }
+
+    private static String nullToEmpty(String s)
+    {
+        return s == null ? "" : s;
+    }
+
+    private static void close(Closeable closeable)
+    {
+        if (closeable != null)
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch (IOException e)
+            {
+                // Ignore
+            }
+        }
+    }
+}
@@ -30,6 +30,8 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -39,7 +41,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 import java.util.regex.Pattern;
@@ -85,6 +93,17 @@ import org.osgi.framework.wiring.BundleRevision;
  *   it tries to start all the managed bundle unless it has been configured
  *   to only install bundles.
  *
+ * Unless nio2 is disabled, changes are detected using file system events
+ * and reported once the files have not been modified for the debounce
+ * period.  Directories are jarred up and checksums computed in parallel,
+ * then the artifact listeners are called on the watcher thread, as they are
+ * not required to be thread safe.  Bundles are installed and updated in
+ * parallel, followed by a single refresh and start of the bundles.
+ *
+ * The content hash of installed bundles is kept in an index in the bundle
+ * data area, so that files which are touched without being modified,
+ * also while File Install is not running, do not cause updates.
+ *
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class DirectoryWatcher extends Thread implements BundleListener
@@ -110,6 +129,8 @@ public class DirectoryWatcher extends Thread implements BundleListener
     public final static String FRAGMENT_SCOPE = "felix.fileinstall.fragmentRefreshScope";
     public final static String DISABLE_NIO2 = "felix.fileinstall.disableNio2";
     public final static String SUBDIR_MODE = "felix.fileinstall.subdir.mode";
+    public final static String DEBOUNCE = "felix.fileinstall.debounce";
+    public final static String PARALLELISM = "felix.fileinstall.parallelism";
 
     public final static String SCOPE_NONE = "none";
     public final static String SCOPE_MANAGED = "managed";
@@ -139,8 +160,18 @@ public class DirectoryWatcher extends Thread implements BundleListener
     String fragmentScope;
     String optionalScope;
     boolean disableNio2;
+    long debounce;
+    int parallelism;
     int frameworkStartLevel;
 
+    // Pool used to process artifacts in parallel, created when needed
+    private ExecutorService executor;
+
+    // Persistent index of the installed artifacts, null if the
+    // framework does not provide a data area
+    private volatile ArtifactIndex index;
+    private boolean indexLoaded;
+
     // Map of all installed artifacts
     final Map<File, Artifact> currentManagedArtifacts = new HashMap<File, Artifact>();
 
@@ -157,7 +188,7 @@ public class DirectoryWatcher extends Thread implements BundleListener
     Set<Bundle> consistentlyFailingBundles = new HashSet<Bundle>();
 
     // Represents artifacts that could not be installed
-    final Map<File, Artifact> installationFailures = new HashMap<File, Artifact>();
+    final Map<File, Artifact> installationFailures = Collections.synchronizedMap(new HashMap<File, Artifact>());
 
     // flag (acces to which must be synchronized) that indicates wheter there's a change in state of system,
     // which may result in an attempt to start the watched bundles
@@ -188,13 +219,15 @@ public class DirectoryWatcher extends Thread implements BundleListener
         fragmentScope = properties.get(FRAGMENT_SCOPE);
         optionalScope = properties.get(OPTIONAL_SCOPE);
         disableNio2 = getBoolean(properties, DISABLE_NIO2, false);
+        debounce = getLong(properties, DEBOUNCE, WatcherScanner.DEFAULT_DEBOUNCE);
+        parallelism = getInt(properties, PARALLELISM, Runtime.getRuntime().availableProcessors());
         this.context.addBundleListener(this);
 
         if (disableNio2) {
             scanner = new Scanner(watchedDirectory, filter, properties.get(SUBDIR_MODE));
         } else {
             try {
-                scanner = new WatcherScanner(context, watchedDirectory, filter, properties.get(SUBDIR_MODE));
+                scanner = new WatcherScanner(context, watchedDirectory, filter, properties.get(SUBDIR_MODE), debounce);
             } catch (Throwable t) {
                 scanner = new Scanner(watchedDirectory, filter, properties.get(SUBDIR_MODE));
             }
@@ -282,7 +315,9 @@ public class DirectoryWatcher extends Thread implements BundleListener
                             + START_NEW_BUNDLES + " = " + startBundles + ", "
                             + TMPDIR + " = " + tmpDir + ", "
                             + FILTER + " = " + filter + ", "
-                            + START_LEVEL + " = " + startLevel + "}", null
+                            + START_LEVEL + " = " + startLevel + ", "
+                            + DEBOUNCE + " = " + debounce + ", "
+                            + PARALLELISM + " = " + parallelism + "}", null
             );
 
             if (!noInitialDelay) {
@@ -302,8 +337,12 @@ public class DirectoryWatcher extends Thread implements BundleListener
             fileInstall.lock.readLock().unlock();
         }
 
+        // Get notified about file system events
+        scanner.watch(this);
+
         while (!interrupted()) {
             try {
+                long delay = poll;
                 FrameworkStartLevel startLevelSvc = systemBundle.adapt(FrameworkStartLevel.class);
                 // Don't access the disk when the framework is still in a startup phase.
                 if (startLevelSvc.getStartLevel() >= activeLevel
@@ -315,9 +354,10 @@ public class DirectoryWatcher extends Thread implements BundleListener
                     if (files != null) {
                         process(files);
                     }
+                    delay = scanner.getScanDelay(poll);
                 }
                 synchronized (this) {
-                    wait(poll);
+                    wait(delay);
                 }
             } catch (InterruptedException e) {
                 interrupt();
@@ -347,6 +387,11 @@ public class DirectoryWatcher extends Thread implements BundleListener
                     log(Logger.LOG_DEBUG, "Bundle " + bundleEvent.getBundle().getBundleId()
                             + " has been uninstalled", null);
                     it.remove();
+                    ArtifactIndex index = this.index;
+                    if (index != null && artifact.getPath() != null)
+                    {
+                        index.remove(artifact.getPath());
+                    }
                     break;
                 }
             }
@@ -384,109 +429,38 @@ public class DirectoryWatcher extends Thread implements BundleListener
             processingFailures.clear();
         }
 
-        for (File file : files) {
-            boolean exists = file.exists();
-            Artifact artifact = getArtifact(file);
-            // File has been deleted
-            if (!exists) {
-                if (artifact != null) {
-                    deleteJaredDirectory(artifact);
-                    deleteTransformedFile(artifact);
-                    deleted.add(artifact);
-                }
-            }
-            // File exists
-            else {
-                File jar = file;
-                URL jaredUrl = null;
-                try {
-                    jaredUrl = file.toURI().toURL();
-                } catch (MalformedURLException e) {
-                    // Ignore, can't happen
-                }
-                // Jar up the directory if needed
-                if (file.isDirectory()) {
-                    prepareTempDir();
-                    try {
-                        jar = new File(tmpDir, file.getName() + ".jar");
-                        Util.jarDir(file, jar);
-                        jaredUrl = new URL(JarDirUrlHandler.PROTOCOL, null, file.getPath());
-
-                    } catch (IOException e) {
-                        // Notify user of problem, won't retry until the dir is updated.
-                        log(Logger.LOG_ERROR,
-                                "Unable to create jar for: " + file.getAbsolutePath(), e);
-                        continue;
-                    }
-                }
-                // File has been modified
-                if (artifact != null) {
-                    artifact.setChecksum(scanner.getChecksum(file));
-                    // If there's no listener, this is because this artifact has been installed before
-                    // fileinstall has been restarted.  In this case, try to find a listener.
-                    if (artifact.getListener() == null) {
-                        ArtifactListener listener = findListener(jar, listeners);
-                        // If no listener can handle this artifact, we need to defer the
-                        // processing for this artifact until one is found
-                        if (listener == null) {
-                            synchronized (processingFailures) {
-                                processingFailures.add(file);
-                            }
-                            continue;
-                        }
-                        artifact.setListener(listener);
-                    }
-                    // If the listener can not handle this file anymore,
-                    // uninstall the artifact and try as if is was new
-                    if (!listeners.contains(artifact.getListener()) || !artifact.getListener().canHandle(jar)) {
-                        deleted.add(artifact);
-                    }
-                    // The listener is still ok
-                    else {
-                        deleteTransformedFile(artifact);
-                        artifact.setJaredDirectory(jar);
-                        artifact.setJaredUrl(jaredUrl);
-                        if (transformArtifact(artifact)) {
-                            modified.add(artifact);
-                        } else {
-                            deleteJaredDirectory(artifact);
-                            deleted.add(artifact);
-                        }
-                    }
-                }
-                // File has been added
-                else {
-                    // Find the listener
-                    ArtifactListener listener = findListener(jar, listeners);
-                    // If no listener can handle this artifact, we need to defer the
-                    // processing for this artifact until one is found
-                    if (listener == null) {
-                        synchronized (processingFailures) {
-                            processingFailures.add(file);
-                        }
-                        continue;
-                    }
-                    // Create the artifact
-                    artifact = new Artifact();
-                    artifact.setPath(file);
-                    artifact.setJaredDirectory(jar);
-                    artifact.setJaredUrl(jaredUrl);
-                    artifact.setListener(listener);
-                    artifact.setChecksum(scanner.getChecksum(file));
-                    if (transformArtifact(artifact)) {
-                        created.add(artifact);
-                    } else {
-                        deleteJaredDirectory(artifact);
+        loadIndex();
+
+        // Jar up directories and compute the checksums in parallel, then
+        // call the listeners one artifact at a time
+        prepareTempDir();
+        final Map<File, PreparedFile> prepared = Collections.synchronizedMap(new HashMap<File, PreparedFile>());
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (final File file : files) {
+            tasks.add(new Runnable() {
+                public void run() {
+                    PreparedFile p = prepareFile(file);
+                    if (p != null) {
+                        prepared.put(file, p);
                     }
                 }
-            }
+            });
         }
+        runAll(tasks);
+        for (File file : files) {
+            prepareArtifact(file, prepared.get(file), listeners, deleted, modified, created);
+        }
+        sortByPath(deleted);
+        sortByPath(modified);
+        sortByPath(created);
+
         // Handle deleted artifacts
         // We do the operations in the following order:
         // uninstall, update, install, refresh & start.
         Collection<Bundle> uninstalledBundles = uninstall(deleted);
         Collection<Bundle> updatedBundles = update(modified);
         Collection<Bundle> installedBundles = install(created);
+        saveIndex();
 
         if (!uninstalledBundles.isEmpty() || !updatedBundles.isEmpty() || !installedBundles.isEmpty())
         {
@@ -527,6 +501,329 @@ public class DirectoryWatcher extends Thread implements BundleListener
         }
     }
 
+    /**
+     * Jar up a directory if needed and compute the checksum and content hash
+     * of an existing file.  This does not involve the listeners, so it may be
+     * called in parallel for different files.  Returns null if the file does
+     * not exist.
+     */
+    private PreparedFile prepareFile(File file)
+    {
+        if (!file.exists()) {
+            return null;
+        }
+        File jar = file;
+        URL jaredUrl = null;
+        try {
+            jaredUrl = file.toURI().toURL();
+        } catch (MalformedURLException e) {
+            // Ignore, can't happen
+        }
+        // Jar up the directory if needed
+        if (file.isDirectory()) {
+            try {
+                jar = new File(tmpDir, file.getName() + ".jar");
+                Util.jarDir(file, jar);
+                jaredUrl = new URL(JarDirUrlHandler.PROTOCOL, null, file.getPath());
+
+            } catch (IOException e) {
+                // Notify user of problem, won't retry until the dir is updated.
+                log(Logger.LOG_ERROR,
+                        "Unable to create jar for: " + file.getAbsolutePath(), e);
+                return new PreparedFile(null, null, 0, null);
+            }
+        }
+        return new PreparedFile(jar, jaredUrl, scanner.getChecksum(file),
+                index != null ? ArtifactIndex.hash(file) : null);
+    }
+
+    /**
+     * Find out whether a file has been created, modified or deleted and
+     * prepare the artifact accordingly, using the listeners.  This is
+     * called on the watcher thread only.
+     */
+    private void prepareArtifact(File file, PreparedFile prepared, List<ArtifactListener> listeners,
+            List<Artifact> deleted, List<Artifact> modified, List<Artifact> created)
+    {
+        Artifact artifact = getArtifact(file);
+        // File has been deleted
+        if (prepared == null) {
+            if (artifact != null) {
+                deleteJaredDirectory(artifact);
+                deleteTransformedFile(artifact);
+                deleted.add(artifact);
+            }
+        }
+        // The directory could not be jarred up
+        else if (prepared.jar == null) {
+            return;
+        }
+        // File exists
+        else {
+            File jar = prepared.jar;
+            URL jaredUrl = prepared.jaredUrl;
+            // File has been modified
+            if (artifact != null) {
+                artifact.setChecksum(prepared.checksum);
+                // If there's no listener, this is because this artifact has been installed before
+                // fileinstall has been restarted.  In this case, try to find a listener.
+                boolean listenerLookup = artifact.getListener() == null;
+                if (listenerLookup) {
+                    ArtifactListener listener = findListener(jar, listeners);
+                    // If no listener can handle this artifact, we need to defer the
+                    // processing for this artifact until one is found
+                    if (listener == null) {
+                        synchronized (processingFailures) {
+                            processingFailures.add(file);
+                        }
+                        return;
+                    }
+                    artifact.setListener(listener);
+                }
+                // If the listener can not handle this file anymore,
+                // uninstall the artifact and try as if is was new
+                if (!listeners.contains(artifact.getListener()) || !artifact.getListener().canHandle(jar)) {
+                    deleted.add(artifact);
+                }
+                // The listener is still ok
+                else {
+                    // The file has only been touched, its content did not change
+                    if (!listenerLookup && isContentUnchanged(artifact, file, prepared.hash)) {
+                        return;
+                    }
+                    deleteTransformedFile(artifact);
+                    artifact.setJaredDirectory(jar);
+                    artifact.setJaredUrl(jaredUrl);
+                    if (transformArtifact(artifact)) {
+                        modified.add(artifact);
+                    } else {
+                        deleteJaredDirectory(artifact);
+                        deleted.add(artifact);
+                    }
+                }
+            }
+            // File has been added
+            else {
+                // Find the listener
+                ArtifactListener listener = findListener(jar, listeners);
+                // If no listener can handle this artifact, we need to defer the
+                // processing for this artifact until one is found
+                if (listener == null) {
+                    synchronized (processingFailures) {
+                        processingFailures.add(file);
+                    }
+                    return;
+                }
+                // Create the artifact
+                artifact = new Artifact();
+                artifact.setPath(file);
+                artifact.setJaredDirectory(jar);
+                artifact.setJaredUrl(jaredUrl);
+                artifact.setListener(listener);
+                artifact.setChecksum(prepared.checksum);
+                if (index != null && !(listener instanceof ArtifactInstaller)) {
+                    artifact.setContentHash(prepared.hash);
+                }
+                if (transformArtifact(artifact)) {
+                    created.add(artifact);
+                } else {
+                    deleteJaredDirectory(artifact);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check whether the content of a bundle artifact is the same as when
+     * it was installed.  If so, only the checksum is updated.
+     */
+    private boolean isContentUnchanged(Artifact artifact, File file, String hash)
+    {
+        ArtifactIndex index = this.index;
+        if (index == null || artifact.getBundleId() <= 0
+                || artifact.getListener() instanceof ArtifactInstaller)
+        {
+            return false;
+        }
+        if (hash == null || !hash.equals(artifact.getContentHash()))
+        {
+            artifact.setContentHash(hash);
+            return false;
+        }
+        Bundle bundle = context.getBundle(artifact.getBundleId());
+        if (bundle == null)
+        {
+            return false;
+        }
+        log(Logger.LOG_DEBUG, "Content of " + file + " did not change, not updating bundle", null);
+        Util.storeChecksum(bundle, artifact.getChecksum(), context);
+        index.touch(file);
+        return true;
+    }
+
+    /**
+     * Record an installed or updated bundle artifact in the index.
+     */
+    private void indexArtifact(Artifact artifact)
+    {
+        ArtifactIndex index = this.index;
+        if (index != null && artifact.getBundleId() > 0
+                && !(artifact.getListener() instanceof ArtifactInstaller))
+        {
+            index.put(artifact.getPath(), artifact.getContentHash(), artifact.getTransformedUrl(), artifact.getBundleId());
+        }
+    }
+
+    private void loadIndex()
+    {
+        if (!indexLoaded)
+        {
+            indexLoaded = true;
+            File file = context.getDataFile("artifacts-"
+                    + Integer.toHexString(watchedDirectory.getAbsolutePath().hashCode()) + ".idx");
+            if (file != null)
+            {
+                ArtifactIndex index = new ArtifactIndex(file);
+                index.load();
+                this.index = index;
+            }
+        }
+    }
+
+    private void saveIndex()
+    {
+        ArtifactIndex index = this.index;
+        if (index != null)
+        {
+            try
+            {
+                index.save();
+            }
+            catch (IOException e)
+            {
+                log(Logger.LOG_WARNING, "Unable to save the artifact index", e);
+            }
+        }
+    }
+
+    /**
+     * Use the artifact index to recognize a file which has been touched
+     * without being modified while File Install was not running.  The
+     * checksum of such a file is updated so that the scanner does not
+     * report it.
+     */
+    private void reconcile(Bundle bundle, Artifact artifact)
+    {
+        ArtifactIndex index = this.index;
+        File path = artifact.getPath();
+        ArtifactIndex.Record record = index != null ? index.get(path) : null;
+        if (record == null || record.getBundleId() != bundle.getBundleId())
+        {
+            return;
+        }
+        artifact.setContentHash(record.getHash());
+        if (record.getTransformedUrl() != null)
+        {
+            try
+            {
+                artifact.setTransformedUrl(new URL(record.getTransformedUrl()));
+            }
+            catch (MalformedURLException e)
+            {
+                // Ignore, the artifact will be transformed again when modified
+            }
+        }
+        boolean unmodified = record.isUnmodified(path);
+        if (unmodified || (record.getHash() != null && record.getHash().equals(ArtifactIndex.hash(path))))
+        {
+            long checksum = Scanner.checksum(path);
+            if (checksum != artifact.getChecksum())
+            {
+                artifact.setChecksum(checksum);
+                Util.storeChecksum(bundle, checksum, context);
+            }
+            if (!unmodified)
+            {
+                index.touch(path);
+            }
+        }
+    }
+
+    private void sortByPath(List<Artifact> artifacts)
+    {
+        Collections.sort(artifacts, new Comparator<Artifact>()
+        {
+            public int compare(Artifact a1, Artifact a2)
+            {
+                return a1.getPath().compareTo(a2.getPath());
+            }
+        });
+    }
+
+    /**
+     * Run the tasks using the worker pool and wait for their completion.
+     * If no pool is configured, the tasks are run on the calling thread.
+     */
+    private void runAll(List<Runnable> tasks) throws InterruptedException
+    {
+        ExecutorService executor = tasks.size() > 1 ? getExecutor() : null;
+        if (executor == null)
+        {
+            for (Runnable task : tasks)
+            {
+                task.run();
+            }
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size());
+        for (Runnable task : tasks)
+        {
+            futures.add(executor.submit(task));
+        }
+        try
+        {
+            for (Future<?> future : futures)
+            {
+                try
+                {
+                    future.get();
+                }
+                catch (ExecutionException e)
+                {
+                    log(Logger.LOG_ERROR, "Unexpected error while processing artifacts", e.getCause());
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            for (Future<?> future : futures)
+            {
+                future.cancel(true);
+            }
+            throw e;
+        }
+    }
+
+    private synchronized ExecutorService getExecutor()
+    {
+        if (executor == null && parallelism > 1)
+        {
+            final String name = getName();
+            executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory()
+            {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, name + "-worker-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
     ArtifactListener findListener(File artifact, List<ArtifactListener> listeners)
     {
         for (ArtifactListener listener : listeners) {
@@ -799,6 +1096,14 @@ public class DirectoryWatcher extends Thread implements BundleListener
         {
             // Ignore
         }
+        synchronized (this)
+        {
+            if (executor != null)
+            {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
     }
 
     /**
@@ -808,6 +1113,7 @@ public class DirectoryWatcher extends Thread implements BundleListener
      */
     private void initializeCurrentManagedBundles()
     {
+        loadIndex();
         Bundle[] bundles = this.context.getBundles();
         String watchedDirPath = watchedDirectory.toURI().normalize().getPath();
         Map<File, Long> checksums = new HashMap<File, Long>();
@@ -864,11 +1170,13 @@ public class DirectoryWatcher extends Thread implements BundleListener
                     artifact.setChecksum(Util.loadChecksum(bundle, context));
                     artifact.setListener(null);
                     artifact.setPath(new File(path));
+                    reconcile(bundle, artifact);
                     setArtifact(new File(path), artifact);
                     checksums.put(new File(path), artifact.getChecksum());
                 }
             }
         }
+        saveIndex();
         scanner.initialize(checksums);
     }
 
@@ -877,15 +1185,27 @@ public class DirectoryWatcher extends Thread implements BundleListener
      * @param artifacts Collection of {@link Artifact}s to be installed
      * @return List of Bundles just installed
      */
-    private Collection<Bundle> install(Collection<Artifact> artifacts)
+    private Collection<Bundle> install(Collection<Artifact> artifacts) throws InterruptedException
     {
-        List<Bundle> bundles = new ArrayList<Bundle>();
-        for (Artifact artifact : artifacts) {
-            Bundle bundle = install(artifact);
-            if (bundle != null) {
-                bundles.add(bundle);
+        final List<Bundle> bundles = Collections.synchronizedList(new ArrayList<Bundle>());
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (final Artifact artifact : artifacts) {
+            Runnable task = new Runnable() {
+                public void run() {
+                    Bundle bundle = install(artifact);
+                    if (bundle != null) {
+                        bundles.add(bundle);
+                    }
+                }
+            };
+            // Artifact installers are not required to be thread safe
+            if (artifact.getListener() instanceof ArtifactInstaller) {
+                task.run();
+            } else {
+                tasks.add(task);
             }
         }
+        runAll(tasks);
         return bundles;
     }
 
@@ -912,15 +1232,27 @@ public class DirectoryWatcher extends Thread implements BundleListener
      * @param artifacts    Collection of {@link Artifact}s to be updated.
      * @return Collection of bundles that got updated
      */
-    private Collection<Bundle> update(Collection<Artifact> artifacts)
+    private Collection<Bundle> update(Collection<Artifact> artifacts) throws InterruptedException
     {
-        List<Bundle> bundles = new ArrayList<Bundle>();
-        for (Artifact artifact : artifacts) {
-            Bundle bundle = update(artifact);
-            if (bundle != null) {
-                bundles.add(bundle);
+        final List<Bundle> bundles = Collections.synchronizedList(new ArrayList<Bundle>());
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (final Artifact artifact : artifacts) {
+            Runnable task = new Runnable() {
+                public void run() {
+                    Bundle bundle = update(artifact);
+                    if (bundle != null) {
+                        bundles.add(bundle);
+                    }
+                }
+            };
+            // Artifact installers are not required to be thread safe
+            if (artifact.getListener() instanceof ArtifactInstaller) {
+                task.run();
+            } else {
+                tasks.add(task);
             }
         }
+        runAll(tasks);
         return bundles;
     }
 
@@ -979,6 +1311,7 @@ public class DirectoryWatcher extends Thread implements BundleListener
             }
             installationFailures.remove(path);
             setArtifact(path, artifact);
+            indexArtifact(artifact);
         }
         catch (Exception e)
         {
@@ -1070,6 +1403,10 @@ public class DirectoryWatcher extends Thread implements BundleListener
             }
             // Forget this artifact
             removeArtifact(path);
+            if (index != null)
+            {
+                index.remove(path);
+            }
             // Delete transformed file
             deleteTransformedFile(artifact);
             // if the listener is an installer, uninstall the artifact
@@ -1174,6 +1511,7 @@ public class DirectoryWatcher extends Thread implements BundleListener
                     in.close();
                 }
             }
+            indexArtifact(artifact);
         }
         catch (Throwable t)
         {
@@ -1495,4 +1833,23 @@ public class DirectoryWatcher extends Thread implements BundleListener
         return stateChanged.get();
     }
 
+    /**
+     * The result of {@link #prepareFile(File)}.  The jar is null if a
+     * directory could not be jarred up.
+     */
+    private static class PreparedFile
+    {
+        final File jar;
+        final URL jaredUrl;
+        final long checksum;
+        final String hash;
+
+        PreparedFile(File jar, URL jaredUrl, long checksum, String hash)
+        {
+            this.jar = jar;
+            this.jaredUrl = jaredUrl;
+            this.checksum = checksum;
+            this.hash = hash;
+        }
+    }
 }
@@ -177,6 +177,29 @@ public class Scanner implements Closeable {
         return files;
     }
 
+    /**
+     * Start detecting changes in the background.  The given monitor is
+     * notified whenever changes have been detected.  This scanner can
+     * only detect changes when {@link #scan(boolean)} is called, so
+     * this method does nothing.
+     *
+     * @param monitor the object to notify about changes
+     */
+    public void watch(Object monitor)
+    {
+    }
+
+    /**
+     * Return the time to wait before the next scan.
+     *
+     * @param poll the poll interval
+     * @return the delay in milliseconds
+     */
+    public long getScanDelay(long poll)
+    {
+        return poll;
+    }
+
     public void close() throws IOException {
     }
 
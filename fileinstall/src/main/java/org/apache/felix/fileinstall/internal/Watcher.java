@@ -39,6 +39,7 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
@@ -164,62 +165,86 @@ public abstract class Watcher implements Closeable {
             if (key == null) {
                 break;
             }
-            Path dir = keys.get(key);
-            if (dir == null) {
-                warn("Could not find key for " + key);
-                continue;
+            if (!processKey(key)) {
+                break;
             }
+        }
+    }
 
-            for (WatchEvent<?> event : key.pollEvents()) {
-                WatchEvent.Kind kind = event.kind();
-                WatchEvent<Path> ev = (WatchEvent<Path>)event;
+    /**
+     * Wait for file system events and process them.
+     *
+     * @param timeout the maximum time to wait in milliseconds
+     * @return <code>true</code> if events have been processed
+     */
+    public boolean waitForEvents(long timeout) throws InterruptedException {
+        WatchKey key = watcher.poll(timeout, TimeUnit.MILLISECONDS);
+        if (key == null) {
+            return false;
+        }
+        if (processKey(key)) {
+            processEvents();
+        }
+        return true;
+    }
 
-                // Context for directory entry event is the file name of entry
-                Path name = ev.context();
-                Path child = dir.resolve(name);
+    private boolean processKey(WatchKey key) {
+        Path dir = keys.get(key);
+        if (dir == null) {
+            warn("Could not find key for " + key);
+            return true;
+        }
 
-                debug("Processing event {} on path {}", kind, child);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            WatchEvent.Kind kind = event.kind();
+            WatchEvent<Path> ev = (WatchEvent<Path>)event;
 
-                if (kind == OVERFLOW) {
+            // Context for directory entry event is the file name of entry
+            Path name = ev.context();
+            Path child = dir.resolve(name);
+
+            debug("Processing event {} on path {}", kind, child);
+
+            if (kind == OVERFLOW) {
 //                    rescan();
-                    continue;
-                }
+                continue;
+            }
 
-                try {
-                    if (kind == ENTRY_CREATE) {
-                        if (Files.isDirectory(child)) {
-
-                            // if directory is created, and watching recursively, then
-                            // register it and its sub-directories
-                            Files.walkFileTree(child, new FilteringFileVisitor());
-                        } else if (Files.isRegularFile(child)) {
-                            scan(child);
-                        }
-                    } else if (kind == ENTRY_MODIFY) {
-                        if (Files.isRegularFile(child)) {
-                            scan(child);
-                        }
-                    } else if (kind == ENTRY_DELETE) {
-                        unscan(child);
+            try {
+                if (kind == ENTRY_CREATE) {
+                    if (Files.isDirectory(child)) {
+
+                        // if directory is created, and watching recursively, then
+                        // register it and its sub-directories
+                        Files.walkFileTree(child, new FilteringFileVisitor());
+                    } else if (Files.isRegularFile(child)) {
+                        scan(child);
+                    }
+                } else if (kind == ENTRY_MODIFY) {
+                    if (Files.isRegularFile(child)) {
+                        scan(child);
                     }
-                } catch (IOException x) {
-                    // ignore to keep sample readbale
-                    x.printStackTrace();
+                } else if (kind == ENTRY_DELETE) {
+                    unscan(child);
                 }
+            } catch (IOException x) {
+                // ignore to keep sample readbale
+                x.printStackTrace();
             }
+        }
 
-            // reset key and remove from set if directory no longer accessible
-            boolean valid = key.reset();
-            if (!valid) {
-                debug("Removing key " + key + " and dir " + dir + " from keys");
-                keys.remove(key);
+        // reset key and remove from set if directory no longer accessible
+        boolean valid = key.reset();
+        if (!valid) {
+            debug("Removing key " + key + " and dir " + dir + " from keys");
+            keys.remove(key);
 
-                // all directories are inaccessible
-                if (keys.isEmpty()) {
-                    break;
-                }
+            // all directories are inaccessible
+            if (keys.isEmpty()) {
+                return false;
             }
         }
+        return true;
     }
 
     private void scan(final Path file) throws IOException {
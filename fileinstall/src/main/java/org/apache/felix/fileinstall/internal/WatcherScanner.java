@@ -20,22 +20,38 @@ package org.apache.felix.fileinstall.internal;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.osgi.framework.BundleContext;
 
+/**
+ * A scanner driven by file system events.
+ *
+ * Instead of waiting for the checksum of a file to be stable over two
+ * scans, changes are reported once no further events have been received
+ * for a file during the debounce period.
+ */
 public class WatcherScanner extends Scanner {
 
+    public final static long DEFAULT_DEBOUNCE = 500;
+
     BundleContext bundleContext;
     PathMatcher fileMatcher;
     Watcher watcher;
+    long debounce;
+    Thread watcherThread;
 
-    Set<File> changed = new HashSet<File>();
+    // Changed files with the time of the last event
+    final Map<File, Long> changed = new HashMap<File, Long>();
 
     /**
      * Create a scanner for the specified directory and file filter
@@ -45,8 +61,21 @@ public class WatcherScanner extends Scanner {
      * @param subdirMode to use when scanning
      */
     public WatcherScanner(BundleContext bundleContext, File directory, String filterString, String subdirMode) throws IOException {
+        this(bundleContext, directory, filterString, subdirMode, DEFAULT_DEBOUNCE);
+    }
+
+    /**
+     * Create a scanner for the specified directory and file filter
+     *
+     * @param directory the directory to scan
+     * @param filterString a filter for file names
+     * @param subdirMode to use when scanning
+     * @param debounce the time in milliseconds without events before a change is reported
+     */
+    public WatcherScanner(BundleContext bundleContext, File directory, String filterString, String subdirMode, long debounce) throws IOException {
         super(directory, filterString, subdirMode);
         this.bundleContext = bundleContext;
+        this.debounce = debounce;
         if (filterString != null) {
             this.fileMatcher = FileSystems.getDefault().getPathMatcher("regex:" + filterString);
         } else {
@@ -60,39 +89,37 @@ public class WatcherScanner extends Scanner {
     }
 
     public Set<File> scan(boolean reportImmediately) {
-        watcher.processEvents();
+        if (watcherThread == null) {
+            watcher.processEvents();
+        }
         synchronized (changed) {
             if (changed.isEmpty()) {
                 return new HashSet<File>();
             }
-            Set<File> files = new HashSet<File>();
+            long now = System.currentTimeMillis();
+            Set<File> files = new TreeSet<File>();
             Set<File> removed = new HashSet<File>();
             if (reportImmediately) {
                 removed.addAll(storedChecksums.keySet());
             }
-            for (Iterator<File> iterator = changed.iterator(); iterator.hasNext(); ) {
-                File file = iterator.next();
-                long lastChecksum = lastChecksums.get(file) != null ? (Long) lastChecksums.get(file) : 0;
-                long storedChecksum = storedChecksums.get(file) != null ? (Long) storedChecksums.get(file) : 0;
-                long newChecksum = checksum(file);
-                lastChecksums.put(file, newChecksum);
+            for (Iterator<Map.Entry<File, Long>> iterator = changed.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<File, Long> entry = iterator.next();
+                File file = entry.getKey();
+                // Only handle file when it did not change during the debounce period
+                if (!reportImmediately && now - entry.getValue() < debounce) {
+                    continue;
+                }
+                iterator.remove();
                 if (file.exists()) {
-                    // Only handle file when it does not change anymore and it has changed since last reported
-                    if ((newChecksum == lastChecksum || reportImmediately)) {
-                        if (newChecksum != storedChecksum) {
-                            storedChecksums.put(file, newChecksum);
-                            files.add(file);
-                        } else {
-                            iterator.remove();
-                        }
-                        if (reportImmediately) {
-                            removed.remove(file);
-                        }
+                    long storedChecksum = storedChecksums.get(file) != null ? (Long) storedChecksums.get(file) : 0;
+                    long newChecksum = checksum(file);
+                    if (newChecksum != storedChecksum) {
+                        storedChecksums.put(file, newChecksum);
+                        files.add(file);
                     }
+                    removed.remove(file);
                 } else {
-                    if (!reportImmediately) {
-                        removed.add(file);
-                    }
+                    removed.add(file);
                 }
             }
             for (File file : removed) {
@@ -101,15 +128,61 @@ public class WatcherScanner extends Scanner {
                 // Remove no longer used checksums
                 lastChecksums.remove(file);
                 storedChecksums.remove(file);
-                changed.remove(file);
             }
 
             return files;
         }
     }
 
+    /**
+     * Process the file system events in a background thread and notify
+     * the monitor when events have been received.
+     */
+    public void watch(final Object monitor) {
+        if (watcherThread != null) {
+            return;
+        }
+        watcherThread = new Thread("fileinstall-watcher-" + directory.getPath()) {
+            public void run() {
+                try {
+                    while (!isInterrupted()) {
+                        if (watcher.waitForEvents(Long.MAX_VALUE)) {
+                            synchronized (monitor) {
+                                monitor.notifyAll();
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // Exit
+                } catch (ClosedWatchServiceException e) {
+                    // The scanner has been closed
+                }
+            }
+        };
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    /**
+     * Return the time until the debounce period of the pending changes
+     * ends, but not more than the poll interval.
+     */
+    public long getScanDelay(long poll) {
+        synchronized (changed) {
+            long now = System.currentTimeMillis();
+            long delay = poll;
+            for (Long time : changed.values()) {
+                delay = Math.min(delay, time + debounce - now);
+            }
+            return Math.max(delay, 1);
+        }
+    }
+
     public void close() throws IOException {
         watcher.close();
+        if (watcherThread != null) {
+            watcherThread.interrupt();
+        }
     }
 
     class ScannerWatcher extends Watcher {
@@ -136,7 +209,7 @@ public class WatcherScanner extends Scanner {
               // Otherwise we recurse by adding the file as-is.
             }
             synchronized (changed) {
-                changed.add(file);
+                changed.put(file, System.currentTimeMillis());
             }
         }
 
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.fileinstall.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+
+import junit.framework.TestCase;
+
+public class ArtifactIndexTest extends TestCase
+{
+
+    private File dir;
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        dir = new File("target/artifact-index-" + getName());
+        dir.mkdirs();
+        for (File file : dir.listFiles())
+        {
+            file.delete();
+        }
+    }
+
+    public void testSaveAndLoad() throws Exception
+    {
+        File artifact = write(new File(dir, "a.jar"), "foo");
+        File file = new File(dir, "index");
+
+        ArtifactIndex index = new ArtifactIndex(file);
+        index.load();
+        index.put(artifact, ArtifactIndex.hash(artifact), new URL("file:/tmp/a.jar"), 5);
+        index.save();
+
+        index = new ArtifactIndex(file);
+        index.load();
+        ArtifactIndex.Record record = index.get(artifact);
+        assertNotNull(record);
+        assertEquals(5, record.getBundleId());
+        assertEquals(ArtifactIndex.hash(artifact), record.getHash());
+        assertEquals("file:/tmp/a.jar", record.getTransformedUrl());
+        assertTrue(record.isUnmodified(artifact));
+
+        index.remove(artifact);
+        index.save();
+        index.load();
+        assertNull(index.get(artifact));
+    }
+
+    public void testHash() throws Exception
+    {
+        File a = write(new File(dir, "a.jar"), "foo");
+        File b = write(new File(dir, "b.jar"), "foo");
+        File c = write(new File(dir, "c.jar"), "bar");
+        assertEquals(ArtifactIndex.hash(a), ArtifactIndex.hash(b));
+        assertFalse(ArtifactIndex.hash(a).equals(ArtifactIndex.hash(c)));
+        assertNull(ArtifactIndex.hash(dir));
+    }
+
+    public void testCorruptIndexIsEmpty() throws Exception
+    {
+        File file = write(new File(dir, "index"), "garbage");
+        ArtifactIndex index = new ArtifactIndex(file);
+        index.load();
+        assertNull(index.get(new File(dir, "a.jar")));
+    }
+
+    private static File write(File file, String content) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(content.getBytes());
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+}
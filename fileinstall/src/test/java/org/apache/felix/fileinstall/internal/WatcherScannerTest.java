@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.fileinstall.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+import org.osgi.framework.BundleContext;
+
+public class WatcherScannerTest extends TestCase
+{
+
+    private File dir;
+    private BundleContext context;
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        dir = new File("target/watcher-scanner-" + getName());
+        dir.mkdirs();
+        for (File file : dir.listFiles())
+        {
+            file.delete();
+        }
+        context = EasyMock.createNiceMock(BundleContext.class);
+        EasyMock.replay(context);
+    }
+
+    public void testExistingFilesReportedImmediately() throws Exception
+    {
+        File file = write(new File(dir, "a.cfg"));
+        WatcherScanner scanner = new WatcherScanner(context, dir, null, null, 60000);
+        try
+        {
+            Set<File> files = scanner.scan(true);
+            assertEquals(1, files.size());
+            assertEquals(file.getCanonicalFile(), files.iterator().next().getCanonicalFile());
+            assertTrue(scanner.scan(true).isEmpty());
+        }
+        finally
+        {
+            scanner.close();
+        }
+    }
+
+    public void testChangesAreDebounced() throws Exception
+    {
+        File file = write(new File(dir, "a.cfg"));
+        WatcherScanner scanner = new WatcherScanner(context, dir, null, null, 200);
+        try
+        {
+            // The change is only reported once no event has been seen for the debounce period
+            assertTrue(scanner.scan(false).isEmpty());
+            long delay = scanner.getScanDelay(2000);
+            assertTrue(delay > 0 && delay <= 200);
+
+            Thread.sleep(250);
+            Set<File> files = scanner.scan(false);
+            assertEquals(1, files.size());
+            assertEquals(file.getCanonicalFile(), files.iterator().next().getCanonicalFile());
+
+            // Nothing pending anymore
+            assertTrue(scanner.scan(false).isEmpty());
+            assertEquals(2000, scanner.getScanDelay(2000));
+        }
+        finally
+        {
+            scanner.close();
+        }
+    }
+
+    private static File write(File file) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write("foo = bar\n".getBytes());
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Gets and ungets services from a bundle which already holds many services:
+ * <ul>
+ * <li>{@code getUngetService} gets and ungets one of the held services,</li>
+ * <li>{@code getUngetAll} gets and ungets all the held services again, as a
+ * bundle binding all its dependencies does.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ServiceRegistryBenchmark
+{
+    @Param({"10", "1000", "10000"})
+    int held;
+
+    private ServiceRegistry registry;
+    private Bundle provider;
+    private Bundle consumer;
+    private ServiceReference<?>[] refs;
+    private int next;
+
+    @Setup
+    public void setup()
+    {
+        registry = new ServiceRegistry(null, null);
+        provider = createBundle(1);
+        consumer = createBundle(2);
+        refs = new ServiceReference[held];
+        for (int i = 0; i < held; i++)
+        {
+            refs[i] = registry.registerService(
+                provider, new String[] {Runnable.class.getName()}, new Service(), null).getReference();
+            registry.getService(consumer, refs[i], false);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        registry.ungetServices(consumer);
+        registry.unregisterServices(provider);
+    }
+
+    @Benchmark
+    public void getUngetService(Blackhole bh)
+    {
+        ServiceReference<?> ref = refs[next];
+        next = (next + 1) % refs.length;
+        bh.consume(registry.getService(consumer, ref, false));
+        registry.ungetService(consumer, ref, null);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void getUngetAll(Blackhole bh)
+    {
+        for (ServiceReference<?> ref : refs)
+        {
+            bh.consume(registry.getService(consumer, ref, false));
+        }
+        for (ServiceReference<?> ref : refs)
+        {
+            registry.ungetService(consumer, ref, null);
+        }
+    }
+
+    private static Bundle createBundle(final long id)
+    {
+        return (Bundle) Proxy.newProxyInstance(Bundle.class.getClassLoader(), new Class[] {Bundle.class},
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (method.getName().equals("getBundleId"))
+                    {
+                        return id;
+                    }
+                    if (method.getName().equals("hashCode"))
+                    {
+                        return (int) id;
+                    }
+                    if (method.getName().equals("equals"))
+                    {
+                        return proxy == args[0];
+                    }
+                    if (method.getName().equals("toString"))
+                    {
+                        return "bundle " + id;
+                    }
+                    return method.getReturnType() == int.class ? Integer.valueOf(0) : null;
+                }
+            });
+    }
+
+    static class Service implements Runnable
+    {
+        public void run()
+        {
+        }
+    }
+}
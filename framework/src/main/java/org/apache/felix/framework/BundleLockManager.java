@@ -0,0 +1,628 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Manages the bundle locks and the global lock of the framework.
+ * <p>
+ * Bundles are spread over stripes, each guarded by its own mutex, and a
+ * thread waiting for a bundle lock waits on a condition of that bundle.
+ * Releasing a bundle lock or changing the state of a bundle therefore only
+ * wakes up the threads waiting for this bundle.
+ * <p>
+ * The global lock is exclusive: while a thread holds it, other threads
+ * cannot acquire bundle locks they do not already hold, while bundle locks
+ * only exclude each other for the same bundle. Releasing the global lock
+ * wakes up the threads waiting for the global lock and the threads waiting
+ * for a bundle lock.
+ * <p>
+ * Contended acquisitions are counted and, at debug level, logged along with
+ * the thread holding the lock.
+ */
+class BundleLockManager
+{
+    private static final int STRIPES = 16;
+
+    private final Logger m_logger;
+
+    private final Stripe[] m_stripes = new Stripe[STRIPES];
+
+    // Guards the global lock state and is used to wait for the global lock.
+    private final ReentrantLock m_globalMutex = new ReentrantLock();
+    private final Condition m_globalLockReleased = m_globalMutex.newCondition();
+    // The thread currently holding the global lock; only modified while
+    // holding the global mutex, but read while holding a stripe mutex.
+    private volatile Thread m_globalLockThread = null;
+    // How many times the global lock was acquired by the thread holding
+    // the global lock; if this value is zero, then it means the global
+    // lock is free.
+    private int m_globalLockCount = 0;
+    // Keeps track of threads wanting to acquire the global lock.
+    private final Set<Thread> m_globalLockWaiters =
+        Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+    // The bundle the thread holding the global lock is waiting for, if any.
+    private volatile BundleImpl m_globalLockThreadWaitingFor = null;
+
+    private final AtomicLong m_bundleLocks = new AtomicLong();
+    private final AtomicLong m_bundleLockContentions = new AtomicLong();
+    private final AtomicLong m_bundleLockWaitTime = new AtomicLong();
+    private final AtomicLong m_globalLocks = new AtomicLong();
+    private final AtomicLong m_globalLockContentions = new AtomicLong();
+    private final AtomicLong m_globalLockWaitTime = new AtomicLong();
+
+    BundleLockManager(Logger logger)
+    {
+        m_logger = logger;
+        for (int i = 0; i < m_stripes.length; i++)
+        {
+            m_stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Sets the state of the specified bundle and wakes up the threads waiting
+     * for its lock, so they can check whether the bundle is still in one of
+     * their desired states.
+     * @param bundle The bundle whose state is set.
+     * @param state The new bundle state.
+    **/
+    void setBundleStateAndNotify(BundleImpl bundle, int state)
+    {
+        Stripe stripe = getStripe(bundle);
+        stripe.m_mutex.lock();
+        try
+        {
+            bundle.__setState(state);
+            stripe.signal(bundle);
+        }
+        finally
+        {
+            stripe.m_mutex.unlock();
+        }
+    }
+
+    /**
+     * This method acquires the lock for the specified bundle as long as the
+     * bundle is in one of the specified states. If it is not, an exception
+     * is thrown. Bundle state changes will be monitored to avoid deadlocks.
+     * @param bundle The bundle to lock.
+     * @param desiredStates Logically OR'ed desired bundle states.
+     * @throws java.lang.IllegalStateException If the bundle is not in one of the
+     *         specified desired states.
+    **/
+    void acquireBundleLock(BundleImpl bundle, int desiredStates)
+        throws IllegalStateException
+    {
+        Thread current = Thread.currentThread();
+        Stripe stripe = getStripe(bundle);
+        Condition condition = null;
+        Thread blocker = null;
+        long start = 0;
+
+        stripe.m_mutex.lock();
+        try
+        {
+            // Wait if the desired bundle is already locked by someone else
+            // or if any thread has the global lock, unless the current thread
+            // holds the global lock or the bundle lock already.
+            while (!bundle.isLockable() ||
+                ((m_globalLockThread != null)
+                    && (m_globalLockThread != current)
+                    && (bundle.getLockingThread() != current)))
+            {
+                // Check to make sure the bundle is in a desired state.
+                // If so, keep waiting. If not, throw an exception.
+                if ((desiredStates & bundle.getState()) == 0)
+                {
+                    throw new IllegalStateException("Bundle in unexpected state.");
+                }
+                // If the calling thread already owns the global lock, then make
+                // sure no other thread is trying to promote a bundle lock to a
+                // global lock. If so, interrupt the other thread to avoid deadlock.
+                // Threads starting to wait for the global lock wake us up to
+                // perform this check again.
+                else if (m_globalLockThread == current)
+                {
+                    m_globalLockThreadWaitingFor = bundle;
+                    Thread owner = bundle.getLockingThread();
+                    if ((owner != null) && m_globalLockWaiters.contains(owner))
+                    {
+                        owner.interrupt();
+                    }
+                }
+
+                if (condition == null)
+                {
+                    condition = stripe.addWaiter(bundle);
+                    blocker = (bundle.getLockingThread() != null)
+                        ? bundle.getLockingThread() : m_globalLockThread;
+                    start = System.nanoTime();
+                }
+
+                try
+                {
+                    condition.await();
+                }
+                catch (InterruptedException ex)
+                {
+                    throw new IllegalStateException("Unable to acquire bundle lock, thread interrupted.");
+                }
+            }
+
+            // Now that we can acquire the bundle lock, let's check to make sure
+            // it is in a desired state; if not, throw an exception and do not
+            // lock it.
+            if ((desiredStates & bundle.getState()) == 0)
+            {
+                throw new IllegalStateException("Bundle in unexpected state.");
+            }
+
+            // Acquire the bundle lock.
+            bundle.lock();
+            m_bundleLocks.incrementAndGet();
+        }
+        finally
+        {
+            if (condition != null)
+            {
+                stripe.removeWaiter(bundle);
+                if (m_globalLockThread == current)
+                {
+                    m_globalLockThreadWaitingFor = null;
+                }
+            }
+            stripe.m_mutex.unlock();
+        }
+
+        if (condition != null)
+        {
+            long waited = System.nanoTime() - start;
+            m_bundleLockContentions.incrementAndGet();
+            m_bundleLockWaitTime.addAndGet(waited);
+            if (m_logger.getLogLevel() >= Logger.LOG_DEBUG)
+            {
+                m_logger.log(bundle, Logger.LOG_DEBUG, current.getName() + " waited "
+                    + TimeUnit.NANOSECONDS.toMillis(waited) + " ms for the lock of bundle "
+                    + bundle.getBundleId() + ((blocker != null) ? " held by " + blocker.getName() : ""));
+            }
+        }
+    }
+
+    /**
+     * Releases the bundle's lock.
+     * @param bundle The bundle whose lock is to be released.
+     * @throws java.lang.IllegalStateException If the calling thread does not
+     *         own the bundle lock.
+    **/
+    void releaseBundleLock(BundleImpl bundle)
+    {
+        Stripe stripe = getStripe(bundle);
+        stripe.m_mutex.lock();
+        try
+        {
+            // Unlock the bundle.
+            bundle.unlock();
+            // If the thread no longer holds the bundle lock,
+            // then wake up the threads waiting for it.
+            if (bundle.getLockingThread() == null)
+            {
+                stripe.signal(bundle);
+            }
+        }
+        finally
+        {
+            stripe.m_mutex.unlock();
+        }
+    }
+
+    /**
+     * Attempts to acquire the global lock. Will also promote a bundle lock
+     * to the global lock, if the calling thread already holds a bundle lock.
+     * Since it is possible to deadlock when trying to acquire the global lock
+     * while holding a bundle lock, this method may fail if a potential deadlock
+     * is detected. If the calling thread does not hold a bundle lock, then it
+     * will wait indefinitely to acquire the global.
+     * @return <tt>true</tt> if the global lock was successfully acquired,
+     *         <tt>false</tt> otherwise.
+    **/
+    boolean acquireGlobalLock()
+    {
+        Thread current = Thread.currentThread();
+
+        m_globalMutex.lock();
+        try
+        {
+            if ((m_globalLockThread == null) || (m_globalLockThread == current))
+            {
+                // Increment the current thread's global lock count.
+                m_globalLockCount++;
+                m_globalLockThread = current;
+                m_globalLocks.incrementAndGet();
+                return true;
+            }
+        }
+        finally
+        {
+            m_globalMutex.unlock();
+        }
+
+        // Add calling thread to global lock waiters list.
+        m_globalLockWaiters.add(current);
+        Thread blocker = m_globalLockThread;
+        long start = System.nanoTime();
+        boolean interrupted = false;
+        try
+        {
+            // If the thread holding the global lock is waiting for a bundle lock,
+            // wake it up so it can check for a potential deadlock in case this
+            // thread holds that bundle lock and is now trying to promote it to
+            // a global lock.
+            BundleImpl bundle = m_globalLockThreadWaitingFor;
+            if (bundle != null)
+            {
+                Stripe stripe = getStripe(bundle);
+                stripe.m_mutex.lock();
+                try
+                {
+                    stripe.signal(bundle);
+                }
+                finally
+                {
+                    stripe.m_mutex.unlock();
+                }
+            }
+
+            m_globalMutex.lock();
+            try
+            {
+                // Wait as long as some other thread holds the global lock
+                // and the current thread is not interrupted.
+                while (!interrupted
+                    && (m_globalLockThread != null)
+                    && (m_globalLockThread != current))
+                {
+                    try
+                    {
+                        m_globalLockReleased.await();
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        interrupted = true;
+                    }
+                }
+
+                // Check to see if we were interrupted, which means someone
+                // with the global lock wants our bundle lock, so we should
+                // fail gracefully.
+                if (!interrupted)
+                {
+                    // Increment the current thread's global lock count.
+                    m_globalLockCount++;
+                    m_globalLockThread = current;
+                    m_globalLocks.incrementAndGet();
+                }
+            }
+            finally
+            {
+                m_globalMutex.unlock();
+            }
+        }
+        finally
+        {
+            // At this point we are either interrupted or got the
+            // global lock, so remove the thread from the waiters list.
+            m_globalLockWaiters.remove(current);
+        }
+
+        long waited = System.nanoTime() - start;
+        m_globalLockContentions.incrementAndGet();
+        m_globalLockWaitTime.addAndGet(waited);
+        if (m_logger.getLogLevel() >= Logger.LOG_DEBUG)
+        {
+            m_logger.log(Logger.LOG_DEBUG, current.getName()
+                + (interrupted ? " gave up the global lock after " : " waited ")
+                + TimeUnit.NANOSECONDS.toMillis(waited) + " ms for the global lock"
+                + ((blocker != null) ? " held by " + blocker.getName() : ""));
+        }
+
+        // Note: If the thread was interrupted, there is no reason to notify
+        // anyone, since the thread was likely interrupted to force it to give
+        // up a bundle lock it is holding. When it does give up the bundle
+        // lock, it will wake up the threads waiting for it.
+
+        return !interrupted;
+    }
+
+    /**
+     * Releases the global lock.
+     * @throws java.lang.IllegalStateException If the calling thread does not
+     *         own the global lock.
+    **/
+    void releaseGlobalLock()
+    {
+        m_globalMutex.lock();
+        try
+        {
+            // Decrement the current thread's global lock count;
+            if (m_globalLockThread == Thread.currentThread())
+            {
+                m_globalLockCount--;
+                if (m_globalLockCount > 0)
+                {
+                    return;
+                }
+                m_globalLockThread = null;
+                m_globalLockReleased.signalAll();
+            }
+            else
+            {
+                throw new IllegalStateException(
+                    "The current thread doesn't own the global lock.");
+            }
+        }
+        finally
+        {
+            m_globalMutex.unlock();
+        }
+
+        // Wake up the threads which were waiting for a bundle lock
+        // because the global lock was held.
+        for (Stripe stripe : m_stripes)
+        {
+            stripe.m_mutex.lock();
+            try
+            {
+                stripe.signalAll();
+            }
+            finally
+            {
+                stripe.m_mutex.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of the lock contention statistics.
+     * @return the lock contention statistics.
+    **/
+    Statistics getStatistics()
+    {
+        return new Statistics(
+            m_bundleLocks.get(), m_bundleLockContentions.get(), m_bundleLockWaitTime.get(),
+            m_globalLocks.get(), m_globalLockContentions.get(), m_globalLockWaitTime.get(),
+            getWaitingThreads());
+    }
+
+    private Map<String, String> getWaitingThreads()
+    {
+        Map<String, String> waiting = new HashMap<String, String>();
+        for (Stripe stripe : m_stripes)
+        {
+            List<BundleImpl> bundles;
+            stripe.m_mutex.lock();
+            try
+            {
+                bundles = new ArrayList<BundleImpl>(stripe.m_waiters.keySet());
+            }
+            finally
+            {
+                stripe.m_mutex.unlock();
+            }
+            for (BundleImpl bundle : bundles)
+            {
+                Thread owner = bundle.getLockingThread();
+                waiting.put("bundle " + bundle.getBundleId(),
+                    (owner != null) ? owner.getName() : "global lock");
+            }
+        }
+        Thread owner = m_globalLockThread;
+        for (Thread thread : m_globalLockWaiters)
+        {
+            waiting.put(thread.getName(), (owner != null) ? owner.getName() : "global lock");
+        }
+        return waiting;
+    }
+
+    private Stripe getStripe(BundleImpl bundle)
+    {
+        return m_stripes[(int) (bundle.getBundleId() & (STRIPES - 1))];
+    }
+
+    /**
+     * The conditions of the bundles of a stripe which have waiting threads,
+     * guarded by the stripe mutex.
+     */
+    private static class Stripe
+    {
+        final ReentrantLock m_mutex = new ReentrantLock();
+        final Map<BundleImpl, Waiters> m_waiters = new HashMap<BundleImpl, Waiters>();
+
+        Condition addWaiter(BundleImpl bundle)
+        {
+            Waiters waiters = m_waiters.get(bundle);
+            if (waiters == null)
+            {
+                waiters = new Waiters(m_mutex.newCondition());
+                m_waiters.put(bundle, waiters);
+            }
+            waiters.m_count++;
+            return waiters.m_condition;
+        }
+
+        void removeWaiter(BundleImpl bundle)
+        {
+            Waiters waiters = m_waiters.get(bundle);
+            if ((waiters != null) && (--waiters.m_count == 0))
+            {
+                m_waiters.remove(bundle);
+            }
+        }
+
+        void signal(BundleImpl bundle)
+        {
+            Waiters waiters = m_waiters.get(bundle);
+            if (waiters != null)
+            {
+                waiters.m_condition.signalAll();
+            }
+        }
+
+        void signalAll()
+        {
+            for (Waiters waiters : m_waiters.values())
+            {
+                waiters.m_condition.signalAll();
+            }
+        }
+    }
+
+    private static class Waiters
+    {
+        final Condition m_condition;
+        int m_count;
+
+        Waiters(Condition condition)
+        {
+            m_condition = condition;
+        }
+    }
+
+    /**
+     * A snapshot of the lock contention statistics.
+     */
+    static class Statistics
+    {
+        private final long m_bundleLocks;
+        private final long m_bundleLockContentions;
+        private final long m_bundleLockWaitTime;
+        private final long m_globalLocks;
+        private final long m_globalLockContentions;
+        private final long m_globalLockWaitTime;
+        private final Map<String, String> m_waiting;
+
+        Statistics(long bundleLocks, long bundleLockContentions, long bundleLockWaitTime,
+            long globalLocks, long globalLockContentions, long globalLockWaitTime,
+            Map<String, String> waiting)
+        {
+            m_bundleLocks = bundleLocks;
+            m_bundleLockContentions = bundleLockContentions;
+            m_bundleLockWaitTime = bundleLockWaitTime;
+            m_globalLocks = globalLocks;
+            m_globalLockContentions = globalLockContentions;
+            m_globalLockWaitTime = globalLockWaitTime;
+            m_waiting = Collections.unmodifiableMap(waiting);
+        }
+
+        /**
+         * @return the number of bundle lock acquisitions.
+         */
+        long getBundleLocks()
+        {
+            return m_bundleLocks;
+        }
+
+        /**
+         * @return the number of bundle lock acquisitions which had to wait.
+         */
+        long getBundleLockContentions()
+        {
+            return m_bundleLockContentions;
+        }
+
+        /**
+         * @return the total time spent waiting for bundle locks, in milliseconds.
+         */
+        long getBundleLockWaitTime()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(m_bundleLockWaitTime);
+        }
+
+        /**
+         * @return the number of global lock acquisitions.
+         */
+        long getGlobalLocks()
+        {
+            return m_globalLocks;
+        }
+
+        /**
+         * @return the number of global lock acquisitions which had to wait.
+         */
+        long getGlobalLockContentions()
+        {
+            return m_globalLockContentions;
+        }
+
+        /**
+         * @return the total time spent waiting for the global lock, in milliseconds.
+         */
+        long getGlobalLockWaitTime()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(m_globalLockWaitTime);
+        }
+
+        /**
+         * @return the locks threads are currently waiting for, either a bundle
+         * or a thread waiting for the global lock, mapped to the name of the
+         * thread holding the lock.
+         */
+        Map<String, String> getWaiting()
+        {
+            return m_waiting;
+        }
+
+        /**
+         * @return these statistics as a DTO.
+         */
+        LockStatisticsDTO toDTO()
+        {
+            LockStatisticsDTO dto = new LockStatisticsDTO();
+            dto.bundleLocks = m_bundleLocks;
+            dto.bundleLockContentions = m_bundleLockContentions;
+            dto.bundleLockWaitTime = getBundleLockWaitTime();
+            dto.globalLocks = m_globalLocks;
+            dto.globalLockContentions = m_globalLockContentions;
+            dto.globalLockWaitTime = getGlobalLockWaitTime();
+            dto.waiting = new HashMap<String, String>(m_waiting);
+            return dto;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "bundle locks: " + m_bundleLocks + " (" + m_bundleLockContentions
+                + " contended, " + getBundleLockWaitTime() + " ms waited), global lock: "
+                + m_globalLocks + " (" + m_globalLockContentions + " contended, "
+                + getGlobalLockWaitTime() + " ms waited)"
+                + (m_waiting.isEmpty() ? "" : ", waiting: " + m_waiting);
+        }
+    }
+}
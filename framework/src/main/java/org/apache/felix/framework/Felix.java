@@ -129,17 +129,8 @@ public class Felix extends BundleImpl implements Framework
     // Resolver and resolver state.
     private final StatefulResolver m_resolver;
 
-    // Lock object used to determine if an individual bundle
-    // lock or the global lock can be acquired.
-    private final Object[] m_bundleLock = new Object[0];
-    // Keeps track of threads wanting to acquire the global lock.
-    private final List<Thread> m_globalLockWaitersList = new ArrayList<Thread>();
-    // The thread currently holding the global lock.
-    private Thread m_globalLockThread = null;
-    // How many times the global lock was acquired by the thread holding
-    // the global lock; if this value is zero, then it means the global
-    // lock is free.
-    private int m_globalLockCount = 0;
+    // Manages the individual bundle locks and the global lock.
+    private final BundleLockManager m_lockManager;
 
     // Maps a bundle location to a bundle location;
     // used to reserve a location when installing a bundle.
@@ -391,6 +382,8 @@ public class Felix extends BundleImpl implements Framework
             // Ignore and just use the default logging level.
         }
 
+        m_lockManager = new BundleLockManager(m_logger);
+
         // Initialize framework properties.
         initializeFrameworkProperties();
 
@@ -547,6 +540,10 @@ public class Felix extends BundleImpl implements Framework
         {
             return (A) m_fwkStartLevel;
         }
+        else if (type == LockStatisticsDTO.class)
+        {
+            return (A) getLockStatistics().toDTO();
+        }
         return super.adapt(type);
     }
 
@@ -5240,6 +5237,11 @@ public class Felix extends BundleImpl implements Framework
             m_cache.release();
             m_cache = null;
 
+            if (m_logger.getLogLevel() >= Logger.LOG_DEBUG)
+            {
+                m_logger.log(Logger.LOG_DEBUG, "Lock statistics: " + getLockStatistics());
+            }
+
             // Set the framework state to resolved.
             acquireBundleLock(Felix.this, Bundle.STOPPING);
             try
@@ -5489,11 +5491,7 @@ public class Felix extends BundleImpl implements Framework
 
     void setBundleStateAndNotify(BundleImpl bundle, int state)
     {
-        synchronized (m_bundleLock)
-        {
-            bundle.__setState(state);
-            m_bundleLock.notifyAll();
-        }
+        m_lockManager.setBundleStateAndNotify(bundle, state);
     }
 
     /**
@@ -5508,53 +5506,7 @@ public class Felix extends BundleImpl implements Framework
     void acquireBundleLock(BundleImpl bundle, int desiredStates)
         throws IllegalStateException
     {
-        synchronized (m_bundleLock)
-        {
-            // Wait if the desired bundle is already locked by someone else
-            // or if any thread has the global lock, unless the current thread
-            // holds the global lock or the bundle lock already.
-            while (!bundle.isLockable() ||
-                ((m_globalLockThread != null)
-                    && (m_globalLockThread != Thread.currentThread())
-                    && (bundle.getLockingThread() != Thread.currentThread())))
-            {
-                // Check to make sure the bundle is in a desired state.
-                // If so, keep waiting. If not, throw an exception.
-                if ((desiredStates & bundle.getState()) == 0)
-                {
-                    throw new IllegalStateException("Bundle in unexpected state.");
-                }
-                // If the calling thread already owns the global lock, then make
-                // sure no other thread is trying to promote a bundle lock to a
-                // global lock. If so, interrupt the other thread to avoid deadlock.
-                else if (m_globalLockThread == Thread.currentThread()
-                    && (bundle.getLockingThread() != null)
-                    && m_globalLockWaitersList.contains(bundle.getLockingThread()))
-                {
-                    bundle.getLockingThread().interrupt();
-                }
-
-                try
-                {
-                    m_bundleLock.wait();
-                }
-                catch (InterruptedException ex)
-                {
-                    throw new IllegalStateException("Unable to acquire bundle lock, thread interrupted.");
-                }
-            }
-
-            // Now that we can acquire the bundle lock, let's check to make sure
-            // it is in a desired state; if not, throw an exception and do not
-            // lock it.
-            if ((desiredStates & bundle.getState()) == 0)
-            {
-                throw new IllegalStateException("Bundle in unexpected state.");
-            }
-
-            // Acquire the bundle lock.
-            bundle.lock();
-        }
+        m_lockManager.acquireBundleLock(bundle, desiredStates);
     }
 
     /**
@@ -5565,17 +5517,7 @@ public class Felix extends BundleImpl implements Framework
     **/
     void releaseBundleLock(BundleImpl bundle)
     {
-        synchronized (m_bundleLock)
-        {
-            // Unlock the bundle.
-            bundle.unlock();
-            // If the thread no longer holds the bundle lock,
-            // then remove it from the held lock map.
-            if (bundle.getLockingThread() == null)
-            {
-                m_bundleLock.notifyAll();
-            }
-        }
+        m_lockManager.releaseBundleLock(bundle);
     }
 
     /**
@@ -5590,53 +5532,7 @@ public class Felix extends BundleImpl implements Framework
     **/
     boolean acquireGlobalLock()
     {
-        synchronized (m_bundleLock)
-        {
-            // Wait as long as some other thread holds the global lock
-            // and the current thread is not interrupted.
-            boolean interrupted = false;
-            while (!interrupted
-                && (m_globalLockThread != null)
-                && (m_globalLockThread != Thread.currentThread()))
-            {
-                // Add calling thread to global lock waiters list.
-                m_globalLockWaitersList.add(Thread.currentThread());
-                // We need to wake up all waiting threads so we can
-                // recheck for potential deadlock in acquireBundleLock()
-                // if this thread was holding a bundle lock and is now
-                // trying to promote it to a global lock.
-                m_bundleLock.notifyAll();
-                // Now wait for the global lock.
-                try
-                {
-                    m_bundleLock.wait();
-                }
-                catch (InterruptedException ex)
-                {
-                    interrupted = true;
-                }
-                // At this point we are either interrupted or will get the
-                // global lock, so remove the thread from the waiters list.
-                m_globalLockWaitersList.remove(Thread.currentThread());
-            }
-
-            // Check to see if we were interrupted, which means someone
-            // with the global lock wants our bundle lock, so we should
-            // fail gracefully.
-            if (!interrupted)
-            {
-                // Increment the current thread's global lock count.
-                m_globalLockCount++;
-                m_globalLockThread = Thread.currentThread();
-            }
-
-            // Note: If the thread was interrupted, there is no reason to notify
-            // anyone, since the thread was likely interrupted to force it to give
-            // up a bundle lock it is holding. When it does give up the bundle
-            // lock, it will do a notifyAll() in there.
-
-            return !interrupted;
-        }
+        return m_lockManager.acquireGlobalLock();
     }
 
     /**
@@ -5646,24 +5542,16 @@ public class Felix extends BundleImpl implements Framework
     **/
     void releaseGlobalLock()
     {
-        synchronized (m_bundleLock)
-        {
-            // Decrement the current thread's global lock count;
-            if (m_globalLockThread == Thread.currentThread())
-            {
-                m_globalLockCount--;
-                if (m_globalLockCount == 0)
-                {
-                    m_globalLockThread = null;
-                    m_bundleLock.notifyAll();
-                }
-            }
-            else
-            {
-                throw new IllegalStateException(
-                    "The current thread doesn't own the global lock.");
-            }
-        }
+        m_lockManager.releaseGlobalLock();
+    }
+
+    /**
+     * Returns the contention statistics of the bundle locks and the global lock.
+     * @return the lock contention statistics.
+    **/
+    BundleLockManager.Statistics getLockStatistics()
+    {
+        return m_lockManager.getStatistics();
     }
 
     private volatile URLHandlersActivator m_urlHandlersActivator;
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.Map;
+
+import org.osgi.dto.DTO;
+
+/**
+ * Data Transfer Object for the contention of the bundle locks and the
+ * global lock of the framework since it has been created.
+ * <p>
+ * The framework can be adapted to a {@code LockStatisticsDTO}, which is a
+ * snapshot taken at the time of the call.
+ */
+public class LockStatisticsDTO extends DTO
+{
+    /**
+     * The number of bundle lock acquisitions.
+     */
+    public long bundleLocks;
+
+    /**
+     * The number of bundle lock acquisitions which had to wait.
+     */
+    public long bundleLockContentions;
+
+    /**
+     * The total time spent waiting for bundle locks, in milliseconds.
+     */
+    public long bundleLockWaitTime;
+
+    /**
+     * The number of global lock acquisitions.
+     */
+    public long globalLocks;
+
+    /**
+     * The number of global lock acquisitions which had to wait.
+     */
+    public long globalLockContentions;
+
+    /**
+     * The total time spent waiting for the global lock, in milliseconds.
+     */
+    public long globalLockWaitTime;
+
+    /**
+     * The locks threads are waiting for, either a bundle or a thread waiting
+     * for the global lock, mapped to the name of the thread holding the lock.
+     */
+    public Map<String, String> waiting;
+}
@@ -29,6 +29,8 @@ import java.util.Set;
 import org.apache.felix.framework.StatefulResolver.ResolverHookRecord;
 import org.apache.felix.framework.resolver.CandidateComparator;
 import org.apache.felix.framework.util.Util;
+import org.apache.felix.resolver.cache.CachingResolveContext;
+import org.apache.felix.resolver.cache.ResolverCache;
 import org.osgi.framework.namespace.HostNamespace;
 import org.osgi.framework.namespace.PackageNamespace;
 import org.osgi.framework.wiring.BundleCapability;
@@ -45,7 +47,7 @@ import org.osgi.service.resolver.ResolveContext;
 /**
  * 
  */
-public class ResolveContextImpl extends ResolveContext
+public class ResolveContextImpl extends ResolveContext implements CachingResolveContext
 {
     private final StatefulResolver m_state;
     private final Map<Resource, Wiring> m_wirings;
@@ -191,6 +193,11 @@ public class ResolveContextImpl extends ResolveContext
         return !Util.isFragment(resource) ? getOndemandResources(resource) : Collections.<Resource>emptyList();
     }
 
+    public ResolverCache getResolverCache()
+    {
+        return m_state.getResolverCache();
+    }
+
     @Override
     public void onCancel(Runnable callback) {
         // TODO: implement session cancel
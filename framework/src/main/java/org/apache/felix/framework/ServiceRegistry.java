@@ -28,6 +28,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -55,8 +56,8 @@ public class ServiceRegistry
     // Capability set for all service registrations.
     private final CapabilitySet m_regCapSet = new CapabilitySet(Collections.singletonList(Constants.OBJECTCLASS), false);
 
-    // Maps bundle to an array of usage counts.
-    private final ConcurrentMap<Bundle, UsageCount[]> m_inUseMap = new ConcurrentHashMap<Bundle, UsageCount[]>();
+    // Maps bundle to its usage counts.
+    private final ConcurrentMap<Bundle, UsageCounts> m_inUseMap = new ConcurrentHashMap<Bundle, UsageCounts>();
 
     private final ServiceRegistryCallbacks m_callbacks;
 
@@ -194,12 +195,12 @@ public class ServiceRegistry
         final Bundle[] clients = getUsingBundles(ref);
         for (int i = 0; (clients != null) && (i < clients.length); i++)
         {
-            final UsageCount[] usages = m_inUseMap.get(clients[i]);
-            for (int x = 0; (usages != null) && (x < usages.length); x++)
+            final UsageCounts usages = m_inUseMap.get(clients[i]);
+            if (usages != null)
             {
-                if (usages[x].m_ref.equals(ref))
+                for (final UsageCount usage : usages.getUsageCounts(ref))
                 {
-                    ungetService(clients[i], ref, (usages[x].m_prototype ? usages[x].getService() : null));
+                    ungetService(clients[i], ref, (usage.m_prototype ? usage.getService() : null));
                 }
             }
         }
@@ -276,15 +277,19 @@ public class ServiceRegistry
 
     public ServiceReference<?>[] getServicesInUse(final Bundle bundle)
     {
-        final UsageCount[] usages = m_inUseMap.get(bundle);
+        final UsageCounts usages = m_inUseMap.get(bundle);
         if (usages != null)
         {
-            final ServiceReference<?>[] refs = new ServiceReference[usages.length];
-            for (int i = 0; i < refs.length; i++)
+            final List<UsageCount> list = usages.getUsageCounts();
+            if (!list.isEmpty())
             {
-                refs[i] = usages[i].m_ref;
+                final ServiceReference<?>[] refs = new ServiceReference[list.size()];
+                for (int i = 0; i < refs.length; i++)
+                {
+                    refs[i] = list.get(i).m_ref;
+                }
+                return refs;
             }
-            return refs;
         }
         return null;
     }
@@ -378,7 +383,7 @@ public class ServiceRegistry
                     }
                     if (svcObj != null && isPrototype)
                     {
-                        UsageCount existingUsage = obtainUsageCount(bundle, ref, svcObj, null);
+                        UsageCount existingUsage = indexPrototypeUsageCount(bundle, usage, svcObj);
                         if (existingUsage != null && existingUsage != usage)
                         {
                             flushUsageCount(bundle, ref, usage);
@@ -537,7 +542,7 @@ public class ServiceRegistry
     **/
     public void ungetServices(final Bundle bundle)
     {
-        UsageCount[] usages = m_inUseMap.get(bundle);
+        UsageCounts usages = m_inUseMap.get(bundle);
         if (usages == null)
         {
             return;
@@ -550,13 +555,13 @@ public class ServiceRegistry
 
         // Remove each service object from the
         // service cache.
-        for (int i = 0; i < usages.length; i++)
+        for (final UsageCount usage : usages.getUsageCounts())
         {
-            if (usages[i].m_svcHolderRef.get() == null)
+            if (usage.m_svcHolderRef.get() == null)
                 continue;
 
             // Keep ungetting until all usage count is zero.
-            while (ungetService(bundle, usages[i].m_ref, usages[i].m_prototype ? usages[i].getService() : null))
+            while (ungetService(bundle, usage.m_ref, usage.m_prototype ? usage.getService() : null))
             {
                 // Empty loop body.
             }
@@ -566,14 +571,13 @@ public class ServiceRegistry
     public Bundle[] getUsingBundles(ServiceReference<?> ref)
     {
         Bundle[] bundles = null;
-        for (Iterator<Map.Entry<Bundle, UsageCount[]>> iter = m_inUseMap.entrySet().iterator(); iter.hasNext(); )
+        for (Iterator<Map.Entry<Bundle, UsageCounts>> iter = m_inUseMap.entrySet().iterator(); iter.hasNext(); )
         {
-            Map.Entry<Bundle, UsageCount[]> entry = iter.next();
+            Map.Entry<Bundle, UsageCounts> entry = iter.next();
             Bundle bundle = entry.getKey();
-            UsageCount[] usages = entry.getValue();
-            for (int useIdx = 0; useIdx < usages.length; useIdx++)
+            for (final UsageCount usage : entry.getValue().getUsageCounts(ref))
             {
-                if (usages[useIdx].m_ref.equals(ref) && usages[useIdx].m_count.get() > 0)
+                if (usage.m_count.get() > 0)
                 {
                     // Add the bundle to the array to be returned.
                     if (bundles == null)
@@ -623,26 +627,21 @@ public class ServiceRegistry
      */
     UsageCount obtainUsageCount(Bundle bundle, ServiceReference<?> ref, Object svcObj, Boolean isPrototype)
     {
-        UsageCount usage = null;
-
-        // This method uses an optimistic concurrency mechanism with a conditional put/replace
-        // on the m_inUseMap. If this fails (because another thread made changes) this thread
-        // retries the operation. This is the purpose of the while loop.
-        boolean success = false;
-        while (!success)
+        // This method uses an optimistic concurrency mechanism with a conditional put
+        // on the m_inUseMap. If this fails (because another thread made changes or
+        // discarded the usage counts of the bundle) this thread retries the operation.
+        // This is the purpose of the while loop.
+        while (true)
         {
-            UsageCount[] usages = m_inUseMap.get(bundle);
+            UsageCounts usages = m_inUseMap.get(bundle);
 
             // If we know it's a prototype, then we always need to create a new usage count
-            if (!Boolean.TRUE.equals(isPrototype))
+            if (!Boolean.TRUE.equals(isPrototype) && (usages != null))
             {
-                for (int i = 0; (usages != null) && (i < usages.length); i++)
+                UsageCount usage = usages.get(ref, svcObj);
+                if (usage != null)
                 {
-                    if (usages[i].m_ref.equals(ref)
-                       && ((svcObj == null && !usages[i].m_prototype) || usages[i].getService() == svcObj))
-                    {
-                        return usages[i];
-                    }
+                    return usage;
                 }
             }
 
@@ -654,22 +653,42 @@ public class ServiceRegistry
                 return null;
             }
 
-            // Add a new Usage Count.
-            usage = new UsageCount(ref, isPrototype);
             if (usages == null)
             {
-                UsageCount[] newUsages = new UsageCount[] { usage };
-                success = m_inUseMap.putIfAbsent(bundle, newUsages) == null;
+                usages = new UsageCounts();
+                if (m_inUseMap.putIfAbsent(bundle, usages) != null)
+                {
+                    continue;
+                }
             }
-            else
+
+            // Add a new Usage Count, unless another thread added one for the same reference.
+            UsageCount usage = usages.add(new UsageCount(ref, isPrototype));
+            if (usage != null)
             {
-                UsageCount[] newUsages = new UsageCount[usages.length + 1];
-                System.arraycopy(usages, 0, newUsages, 0, usages.length);
-                newUsages[usages.length] = usage;
-                success = m_inUseMap.replace(bundle, usages, newUsages);
+                return usage;
             }
+
+            // The usage counts have been discarded as they became empty.
+            m_inUseMap.remove(bundle, usages);
         }
-        return usage;
+    }
+
+    /**
+     * Indexes a prototype usage count by the service object it has obtained.
+     * A prototype service factory may return the same service object more than
+     * once, in which case the usage count already indexed for this object is
+     * returned.
+     * @param bundle The bundle using the service.
+     * @param usage The prototype usage count.
+     * @param svcObj The service object obtained for the usage count.
+     * @return The usage count indexed for the service object, or {@code null}
+     * if the usage counts of the bundle have been flushed in the meantime.
+     */
+    UsageCount indexPrototypeUsageCount(Bundle bundle, UsageCount usage, Object svcObj)
+    {
+        UsageCounts usages = m_inUseMap.get(bundle);
+        return (usages != null) ? usages.index(usage, svcObj) : null;
     }
 
     /**
@@ -686,50 +705,30 @@ public class ServiceRegistry
     **/
     void flushUsageCount(Bundle bundle, ServiceReference<?> ref, UsageCount uc)
     {
-        // This method uses an optimistic concurrency mechanism with conditional modifications
-        // on the m_inUseMap. If this fails (because another thread made changes) this thread
-        // retries the operation. This is the purpose of the while loop.
-        boolean success = false;
-        while (!success)
+        UsageCounts usages = m_inUseMap.get(bundle);
+        if (usages == null)
         {
-            UsageCount[] usages = m_inUseMap.get(bundle);
-            final UsageCount[] orgUsages = usages;
-            for (int i = 0; (usages != null) && (i < usages.length); i++)
-            {
-                if ((uc == null && usages[i].m_ref.equals(ref)) || (uc == usages[i]))
-                {
-                    // If this is the only usage, then point to empty list.
-                    if ((usages.length - 1) == 0)
-                    {
-                        usages = null;
-                    }
-                    // Otherwise, we need to do some array copying.
-                    else
-                    {
-                        UsageCount[] newUsages = new UsageCount[usages.length - 1];
-                        System.arraycopy(usages, 0, newUsages, 0, i);
-                        if (i < newUsages.length)
-                        {
-                            System.arraycopy(
-                                usages, i + 1, newUsages, i, newUsages.length - i);
-                        }
-                        usages = newUsages;
-                        i--;
-                    }
-                }
-            }
-
-            if (usages == orgUsages)
-                return; // no change in map
+            return;
+        }
 
-            if (orgUsages != null)
+        boolean empty;
+        if (uc != null)
+        {
+            empty = usages.remove(uc);
+        }
+        else
+        {
+            empty = false;
+            for (final UsageCount usage : usages.getUsageCounts(ref))
             {
-                if (usages != null)
-                    success = m_inUseMap.replace(bundle, orgUsages, usages);
-                else
-                    success = m_inUseMap.remove(bundle, orgUsages);
+                empty |= usages.remove(usage);
             }
         }
+
+        if (empty)
+        {
+            m_inUseMap.remove(bundle, usages);
+        }
     }
 
     public HookRegistry getHookRegistry()
@@ -746,6 +745,9 @@ public class ServiceRegistry
         final AtomicLong m_serviceObjectsCount = new AtomicLong();
         final AtomicReference<ServiceHolder> m_svcHolderRef = new AtomicReference<ServiceHolder>();
 
+        // Index key of a prototype usage count, once it has obtained its service object.
+        volatile ServiceKey m_key;
+
         UsageCount(final ServiceReference<?> ref, final boolean isPrototype)
         {
             m_ref = ref;
@@ -759,6 +761,215 @@ public class ServiceRegistry
         }
     }
 
+    /**
+     * The usage counts of a bundle. Bundle scoped usage counts are indexed by
+     * their service reference, prototype scoped ones by the service object they
+     * have obtained, so usage counts are looked up in constant time however many
+     * services the bundle uses.
+     * <p>
+     * The usage counts are discarded once they become empty and cannot be
+     * modified anymore, a new instance has to be put in the {@code m_inUseMap}.
+     */
+    static class UsageCounts
+    {
+        // Number of usage counts, -1 once discarded.
+        private final AtomicInteger m_size = new AtomicInteger();
+
+        // Bundle scoped usage counts.
+        private final ConcurrentMap<ServiceReference<?>, UsageCount> m_usages =
+            new ConcurrentHashMap<ServiceReference<?>, UsageCount>();
+
+        // Prototype scoped usage counts, used as a set.
+        private final ConcurrentMap<UsageCount, Boolean> m_prototypes =
+            new ConcurrentHashMap<UsageCount, Boolean>();
+
+        // Prototype scoped usage counts by service object.
+        private final ConcurrentMap<ServiceKey, UsageCount> m_instances =
+            new ConcurrentHashMap<ServiceKey, UsageCount>();
+
+        /**
+         * Gets the usage count for the given reference and service object.
+         * @param ref The service reference.
+         * @param svcObj The service object or {@code null} to get the bundle scoped usage count.
+         * @return The usage count or {@code null} if none matches.
+         */
+        UsageCount get(ServiceReference<?> ref, Object svcObj)
+        {
+            UsageCount usage = m_usages.get(ref);
+            if (svcObj == null)
+            {
+                return usage;
+            }
+            UsageCount prototype = m_instances.get(new ServiceKey(svcObj));
+            if ((prototype != null) && prototype.m_ref.equals(ref) && (prototype.getService() == svcObj))
+            {
+                return prototype;
+            }
+            return ((usage != null) && (usage.getService() == svcObj)) ? usage : null;
+        }
+
+        /**
+         * Adds the given usage count. A bundle scoped usage count is only added if
+         * there is none for the same reference yet.
+         * @param usage The usage count to add.
+         * @return The added usage count, the existing one for the same reference, or
+         * {@code null} if these usage counts have been discarded.
+         */
+        UsageCount add(UsageCount usage)
+        {
+            // Reserve a slot first, this is not possible anymore once discarded.
+            int size;
+            do
+            {
+                size = m_size.get();
+                if (size < 0)
+                {
+                    return null;
+                }
+            }
+            while (!m_size.compareAndSet(size, size + 1));
+
+            if (usage.m_prototype)
+            {
+                m_prototypes.put(usage, Boolean.TRUE);
+                return usage;
+            }
+            UsageCount existing = m_usages.putIfAbsent(usage.m_ref, usage);
+            if (existing != null)
+            {
+                // Release the slot like remove() does, the existing usage count may
+                // have been removed in the meantime, leaving these usage counts empty.
+                if ((m_size.decrementAndGet() == 0) && m_size.compareAndSet(0, -1))
+                {
+                    return null;
+                }
+                return existing;
+            }
+            return usage;
+        }
+
+        /**
+         * Indexes a prototype usage count by the service object it has obtained.
+         * @param usage The prototype usage count.
+         * @param svcObj The service object.
+         * @return The usage count indexed for the service object, or {@code null}
+         * if the given usage count has been removed.
+         */
+        UsageCount index(UsageCount usage, Object svcObj)
+        {
+            if (!m_prototypes.containsKey(usage))
+            {
+                return null;
+            }
+            final ServiceKey key = new ServiceKey(svcObj);
+            while (true)
+            {
+                UsageCount existing = m_instances.putIfAbsent(key, usage);
+                if (existing == null)
+                {
+                    usage.m_key = key;
+                    return usage;
+                }
+                if (existing.m_ref.equals(usage.m_ref) && (existing.getService() == svcObj))
+                {
+                    return existing;
+                }
+                // Stale entry of a usage count which has released the object.
+                if (m_instances.replace(key, existing, usage))
+                {
+                    usage.m_key = key;
+                    return usage;
+                }
+            }
+        }
+
+        /**
+         * Removes the given usage count.
+         * @param usage The usage count to remove.
+         * @return {@code true} if these usage counts became empty and have been
+         * discarded.
+         */
+        boolean remove(UsageCount usage)
+        {
+            boolean removed;
+            if (usage.m_prototype)
+            {
+                removed = m_prototypes.remove(usage) != null;
+                final ServiceKey key = usage.m_key;
+                if (removed && (key != null))
+                {
+                    m_instances.remove(key, usage);
+                }
+            }
+            else
+            {
+                removed = m_usages.remove(usage.m_ref, usage);
+            }
+            return removed && (m_size.decrementAndGet() == 0) && m_size.compareAndSet(0, -1);
+        }
+
+        /**
+         * @return A snapshot of all the usage counts.
+         */
+        List<UsageCount> getUsageCounts()
+        {
+            final List<UsageCount> usages = new ArrayList<UsageCount>(m_usages.values());
+            usages.addAll(m_prototypes.keySet());
+            return usages;
+        }
+
+        /**
+         * @param ref The service reference.
+         * @return A snapshot of the usage counts of the given reference.
+         */
+        List<UsageCount> getUsageCounts(ServiceReference<?> ref)
+        {
+            final UsageCount usage = m_usages.get(ref);
+            if (m_prototypes.isEmpty())
+            {
+                return (usage != null) ? Collections.singletonList(usage) : Collections.<UsageCount>emptyList();
+            }
+            final List<UsageCount> usages = new ArrayList<UsageCount>();
+            if (usage != null)
+            {
+                usages.add(usage);
+            }
+            for (final UsageCount prototype : m_prototypes.keySet())
+            {
+                if (prototype.m_ref.equals(ref))
+                {
+                    usages.add(prototype);
+                }
+            }
+            return usages;
+        }
+    }
+
+    /**
+     * Key of a prototype service object, compared by identity.
+     */
+    static class ServiceKey
+    {
+        private final Object m_service;
+
+        ServiceKey(final Object service)
+        {
+            m_service = service;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode(m_service);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            return (obj instanceof ServiceKey) && (((ServiceKey) obj).m_service == m_service);
+        }
+    }
+
     static class ServiceHolder
     {
         final CountDownLatch m_latch = new CountDownLatch(1);
@@ -49,6 +49,7 @@ import org.apache.felix.framework.util.manifestparser.NativeLibrary;
 import org.apache.felix.framework.wiring.BundleRequirementImpl;
 import org.apache.felix.framework.wiring.BundleWireImpl;
 import org.apache.felix.resolver.ResolverImpl;
+import org.apache.felix.resolver.cache.ResolverCache;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleException;
@@ -79,6 +80,8 @@ class StatefulResolver
     private final ServiceRegistry m_registry;
     private final Executor m_executor;
     private final ResolverImpl m_resolver;
+    // Package spaces of resolved revisions kept by the resolver.
+    private final ResolverCache m_resolverCache;
     private boolean m_isResolving = false;
 
     // Set of all revisions.
@@ -99,6 +102,7 @@ class StatefulResolver
         m_logger = m_felix.getLogger();
         m_executor = getExecutor();
         m_resolver = new ResolverImpl(m_logger, m_executor);
+        m_resolverCache = new ResolverCache();
 
         m_revisions = new HashSet<BundleRevision>();
         m_fragments = new HashSet<BundleRevision>();
@@ -207,6 +211,10 @@ class StatefulResolver
 
     synchronized void removeRevision(BundleRevision br)
     {
+        // The wiring of the revision is about to change, so its
+        // package space can no longer be reused.
+        m_resolverCache.invalidate(br);
+
         if (m_revisions.remove(br))
         {
             m_fragments.remove(br);
@@ -226,6 +234,11 @@ class StatefulResolver
         }
     }
 
+    ResolverCache getResolverCache()
+    {
+        return m_resolverCache;
+    }
+
     boolean isEffective(Requirement req)
     {
         String effective = req.getDirectives().get(Constants.EFFECTIVE_DIRECTIVE);
@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.Bundle;
+
+public class BundleLockManagerTest extends TestCase
+{
+    private BundleLockManager m_lockManager;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        m_lockManager = new BundleLockManager(new Logger());
+    }
+
+    public void testContendedBundleLock() throws Exception
+    {
+        final BundleImpl bundle = new TestBundle(1);
+        BundleImpl other = new TestBundle(17);
+        m_lockManager.acquireBundleLock(bundle, Bundle.INSTALLED);
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread("waiter")
+        {
+            @Override
+            public void run()
+            {
+                m_lockManager.acquireBundleLock(bundle, Bundle.INSTALLED);
+                acquired.countDown();
+                m_lockManager.releaseBundleLock(bundle);
+            }
+        };
+        waiter.start();
+        waitForWaiting("bundle 1");
+        assertEquals(Thread.currentThread().getName(),
+            m_lockManager.getStatistics().getWaiting().get("bundle 1"));
+
+        // Another bundle of the same stripe can still be locked and released.
+        m_lockManager.acquireBundleLock(other, Bundle.INSTALLED);
+        m_lockManager.releaseBundleLock(other);
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+
+        m_lockManager.releaseBundleLock(bundle);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        waiter.join();
+
+        BundleLockManager.Statistics statistics = m_lockManager.getStatistics();
+        assertEquals(3, statistics.getBundleLocks());
+        assertEquals(1, statistics.getBundleLockContentions());
+        assertTrue(statistics.getWaiting().isEmpty());
+    }
+
+    public void testStateChangeFailsWaiter() throws Exception
+    {
+        final BundleImpl bundle = new TestBundle(2);
+        m_lockManager.acquireBundleLock(bundle, Bundle.INSTALLED);
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread waiter = new Thread("waiter")
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    m_lockManager.acquireBundleLock(bundle, Bundle.INSTALLED);
+                }
+                catch (Throwable th)
+                {
+                    failure.set(th);
+                }
+            }
+        };
+        waiter.start();
+        waitForWaiting("bundle 2");
+
+        m_lockManager.setBundleStateAndNotify(bundle, Bundle.UNINSTALLED);
+        waiter.join(5000);
+        assertFalse(waiter.isAlive());
+        assertTrue(failure.get() instanceof IllegalStateException);
+        m_lockManager.releaseBundleLock(bundle);
+    }
+
+    public void testGlobalLockBlocksBundleLock() throws Exception
+    {
+        final BundleImpl bundle = new TestBundle(3);
+        assertTrue(m_lockManager.acquireGlobalLock());
+        // The global lock is reentrant and allows its owner to lock bundles.
+        assertTrue(m_lockManager.acquireGlobalLock());
+        m_lockManager.acquireBundleLock(bundle, Bundle.INSTALLED);
+        m_lockManager.releaseBundleLock(bundle);
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread("waiter")
+        {
+            @Override
+            public void run()
+            {
+                m_lockManager.acquireBundleLock(bundle, Bundle.INSTALLED);
+                acquired.countDown();
+                m_lockManager.releaseBundleLock(bundle);
+            }
+        };
+        waiter.start();
+        waitForWaiting("bundle 3");
+
+        m_lockManager.releaseGlobalLock();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        m_lockManager.releaseGlobalLock();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        waiter.join();
+
+        try
+        {
+            m_lockManager.releaseGlobalLock();
+            fail("The global lock is not held");
+        }
+        catch (IllegalStateException ex)
+        {
+            // expected
+        }
+    }
+
+    public void testWaitingForGlobalLock() throws Exception
+    {
+        assertTrue(m_lockManager.acquireGlobalLock());
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread("global waiter")
+        {
+            @Override
+            public void run()
+            {
+                if (m_lockManager.acquireGlobalLock())
+                {
+                    acquired.countDown();
+                    m_lockManager.releaseGlobalLock();
+                }
+            }
+        };
+        waiter.start();
+        waitForWaiting("global waiter");
+
+        // The blocked thread is reported with the owner of the global lock
+        LockStatisticsDTO dto = m_lockManager.getStatistics().toDTO();
+        assertEquals(Thread.currentThread().getName(), dto.waiting.get("global waiter"));
+        assertEquals(1, dto.globalLocks);
+
+        m_lockManager.releaseGlobalLock();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        waiter.join();
+
+        dto = m_lockManager.getStatistics().toDTO();
+        assertTrue(dto.waiting.isEmpty());
+        assertEquals(2, dto.globalLocks);
+        assertEquals(1, dto.globalLockContentions);
+    }
+
+    public void testGlobalLockPromotionDeadlock() throws Exception
+    {
+        final BundleImpl bundle = new TestBundle(4);
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch global = new CountDownLatch(1);
+        final AtomicReference<Boolean> promoted = new AtomicReference<Boolean>();
+        Thread promoter = new Thread("promoter")
+        {
+            @Override
+            public void run()
+            {
+                m_lockManager.acquireBundleLock(bundle, Bundle.INSTALLED);
+                locked.countDown();
+                try
+                {
+                    global.await();
+                }
+                catch (InterruptedException ex)
+                {
+                    // ignore
+                }
+                promoted.set(m_lockManager.acquireGlobalLock());
+                m_lockManager.releaseBundleLock(bundle);
+            }
+        };
+
+        promoter.start();
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+        assertTrue(m_lockManager.acquireGlobalLock());
+        global.countDown();
+
+        // The promoter holds the bundle lock and waits for the global lock,
+        // so it is interrupted to give up its bundle lock.
+        m_lockManager.acquireBundleLock(bundle, Bundle.INSTALLED);
+        promoter.join(5000);
+        assertFalse(promoter.isAlive());
+        assertEquals(Boolean.FALSE, promoted.get());
+
+        m_lockManager.releaseBundleLock(bundle);
+        m_lockManager.releaseGlobalLock();
+        assertEquals(1, m_lockManager.getStatistics().getGlobalLockContentions());
+    }
+
+    private void waitForWaiting(String lock) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!m_lockManager.getStatistics().getWaiting().containsKey(lock))
+        {
+            assertTrue("Nobody waits for " + lock, System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static class TestBundle extends BundleImpl
+    {
+        private final long m_id;
+
+        TestBundle(long id)
+        {
+            m_id = id;
+        }
+
+        @Override
+        public long getBundleId()
+        {
+            return m_id;
+        }
+    }
+}
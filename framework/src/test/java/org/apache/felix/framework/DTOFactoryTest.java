@@ -19,6 +19,7 @@
 package org.apache.felix.framework;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
@@ -85,6 +86,16 @@ public class DTOFactoryTest
         framework.stop();
     }
 
+    @Test
+    public void testLockStatisticsDTO() throws Exception
+    {
+        LockStatisticsDTO dto = framework.adapt(LockStatisticsDTO.class);
+        assertNotNull(dto);
+        // starting the framework locks the system bundle
+        assertTrue(dto.bundleLocks > 0);
+        assertTrue(dto.waiting.isEmpty());
+    }
+
     @Test
     public void testBundleStartLevelDTO() throws Exception
     {
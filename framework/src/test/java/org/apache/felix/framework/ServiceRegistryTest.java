@@ -37,6 +37,7 @@ import junit.framework.TestCase;
 import org.apache.felix.framework.ServiceRegistrationImpl.ServiceReferenceImpl;
 import org.apache.felix.framework.ServiceRegistry.ServiceHolder;
 import org.apache.felix.framework.ServiceRegistry.UsageCount;
+import org.apache.felix.framework.ServiceRegistry.UsageCounts;
 import org.easymock.MockControl;
 import org.mockito.AdditionalAnswers;
 import org.mockito.InOrder;
@@ -449,14 +450,14 @@ public class ServiceRegistryTest extends TestCase
 
         assertSame(svc, sr.getService(b, ref, true));
 
-        final ConcurrentMap<Bundle, UsageCount[]> inUseMap =
-                (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
-        UsageCount[] uca = inUseMap.get(b);
-        assertEquals(1, uca.length);
-        assertEquals(1, uca[0].m_serviceObjectsCount.get());
+        final ConcurrentMap<Bundle, UsageCounts> inUseMap =
+                (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
+        List<UsageCount> ucl = inUseMap.get(b).getUsageCounts();
+        assertEquals(1, ucl.size());
+        assertEquals(1, ucl.get(0).m_serviceObjectsCount.get());
 
         sr.getService(b, ref, true);
-        assertEquals(2, uca[0].m_serviceObjectsCount.get());
+        assertEquals(2, ucl.get(0).m_serviceObjectsCount.get());
     }
 
     @SuppressWarnings("unchecked")
@@ -516,13 +517,13 @@ public class ServiceRegistryTest extends TestCase
         ServiceReferenceImpl ref = Mockito.mock(ServiceReferenceImpl.class);
         Mockito.when(ref.getRegistration()).thenReturn(reg);
 
-        final ConcurrentMap<Bundle, UsageCount[]> inUseMap =
-                (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        final ConcurrentMap<Bundle, UsageCounts> inUseMap =
+                (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         UsageCount uc = new UsageCount(ref, false);
         uc.m_svcHolderRef.set(new ServiceHolder());
 
-        inUseMap.put(b, new UsageCount[] {uc});
+        inUseMap.put(b, usageCounts(uc));
 
         assertFalse(sr.ungetService(b, ref, null));
         assertNull(uc.m_svcHolderRef.get());
@@ -539,8 +540,8 @@ public class ServiceRegistryTest extends TestCase
         ServiceReferenceImpl ref = Mockito.mock(ServiceReferenceImpl.class);
         Mockito.when(ref.getRegistration()).thenReturn(reg);
 
-        final ConcurrentMap<Bundle, UsageCount[]> inUseMap =
-                (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        final ConcurrentMap<Bundle, UsageCounts> inUseMap =
+                (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         UsageCount uc = new UsageCount(ref, false);
         ServiceHolder sh = new ServiceHolder();
@@ -551,7 +552,7 @@ public class ServiceRegistryTest extends TestCase
 
         Mockito.verify(reg, Mockito.never()).
             ungetService(Mockito.isA(Bundle.class), Mockito.any());
-        inUseMap.put(b, new UsageCount[] {uc});
+        inUseMap.put(b, usageCounts(uc));
 
         assertTrue(sr.ungetService(b, ref, null));
         assertNull(uc.m_svcHolderRef.get());
@@ -572,14 +573,14 @@ public class ServiceRegistryTest extends TestCase
         ServiceReferenceImpl ref = Mockito.mock(ServiceReferenceImpl.class);
         Mockito.when(ref.getRegistration()).thenReturn(reg);
 
-        final ConcurrentMap<Bundle, UsageCount[]> inUseMap =
-                (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        final ConcurrentMap<Bundle, UsageCounts> inUseMap =
+                (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         UsageCount uc = new UsageCount(ref, false);
         uc.m_svcHolderRef.set(new ServiceHolder());
         uc.m_count.set(2);
 
-        inUseMap.put(b, new UsageCount[] {uc});
+        inUseMap.put(b, usageCounts(uc));
 
         assertTrue(sr.ungetService(b, ref, null));
         assertNotNull(uc.m_svcHolderRef.get());
@@ -601,14 +602,14 @@ public class ServiceRegistryTest extends TestCase
         ServiceReferenceImpl ref = Mockito.mock(ServiceReferenceImpl.class);
         Mockito.when(ref.getRegistration()).thenReturn(reg);
 
-        final ConcurrentMap<Bundle, UsageCount[]> inUseMap =
-                (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        final ConcurrentMap<Bundle, UsageCounts> inUseMap =
+                (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         UsageCount uc = new UsageCount(ref, false);
         uc.m_svcHolderRef.set(new ServiceHolder());
         uc.m_count.set(2);
 
-        inUseMap.put(b, new UsageCount[] {uc});
+        inUseMap.put(b, usageCounts(uc));
 
         assertTrue(sr.ungetService(b, ref, null));
         assertNull(uc.m_svcHolderRef.get());
@@ -630,8 +631,8 @@ public class ServiceRegistryTest extends TestCase
         ServiceReferenceImpl ref = Mockito.mock(ServiceReferenceImpl.class);
         Mockito.when(ref.getRegistration()).thenReturn(reg);
 
-        final ConcurrentMap<Bundle, UsageCount[]> inUseMap =
-                (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        final ConcurrentMap<Bundle, UsageCounts> inUseMap =
+                (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         String svc = "myService";
         UsageCount uc = new UsageCount(ref, false);
@@ -641,7 +642,7 @@ public class ServiceRegistryTest extends TestCase
         uc.m_svcHolderRef.set(sh);
         uc.m_count.set(1);
 
-        inUseMap.put(b, new UsageCount[] {uc});
+        inUseMap.put(b, usageCounts(uc));
 
         try
         {
@@ -703,7 +704,7 @@ public class ServiceRegistryTest extends TestCase
         ServiceRegistry sr = new ServiceRegistry(null, null);
 
         @SuppressWarnings("unchecked")
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap = (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        ConcurrentMap<Bundle, UsageCounts> inUseMap = (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         assertEquals("Precondition", 0, inUseMap.size());
 
@@ -711,8 +712,8 @@ public class ServiceRegistryTest extends TestCase
         ServiceReference<?> ref = Mockito.mock(ServiceReference.class);
         UsageCount uc = sr.obtainUsageCount(b, ref, null, false);
         assertEquals(1, inUseMap.size());
-        assertEquals(1, inUseMap.get(b).length);
-        assertSame(uc, inUseMap.get(b)[0]);
+        assertEquals(1, inUseMap.get(b).getUsageCounts().size());
+        assertSame(uc, inUseMap.get(b).getUsageCounts().get(0));
         assertSame(ref, uc.m_ref);
         assertFalse(uc.m_prototype);
 
@@ -730,19 +731,19 @@ public class ServiceRegistryTest extends TestCase
         ServiceRegistry sr = new ServiceRegistry(null, null);
 
         @SuppressWarnings("unchecked")
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap = (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        ConcurrentMap<Bundle, UsageCounts> inUseMap = (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         Bundle b = Mockito.mock(Bundle.class);
         ServiceReference<?> ref = Mockito.mock(ServiceReference.class);
         UsageCount uc = sr.obtainUsageCount(b, ref, null, true);
         assertEquals(1, inUseMap.size());
-        assertEquals(1, inUseMap.values().iterator().next().length);
+        assertEquals(1, inUseMap.values().iterator().next().getUsageCounts().size());
 
         ServiceReference<?> ref2 = Mockito.mock(ServiceReference.class);
         UsageCount uc2 = sr.obtainUsageCount(b, ref2, null, true);
         assertEquals(1, inUseMap.size());
-        assertEquals(2, inUseMap.values().iterator().next().length);
-        List<UsageCount> ucl = Arrays.asList(inUseMap.get(b));
+        assertEquals(2, inUseMap.values().iterator().next().getUsageCounts().size());
+        List<UsageCount> ucl = inUseMap.get(b).getUsageCounts();
         assertTrue(ucl.contains(uc));
         assertTrue(ucl.contains(uc2));
     }
@@ -752,7 +753,7 @@ public class ServiceRegistryTest extends TestCase
         ServiceRegistry sr = new ServiceRegistry(null, null);
 
         @SuppressWarnings("unchecked")
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap = (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        ConcurrentMap<Bundle, UsageCounts> inUseMap = (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         Bundle b = Mockito.mock(Bundle.class);
         ServiceReference<?> ref = Mockito.mock(ServiceReference.class);
@@ -762,7 +763,7 @@ public class ServiceRegistryTest extends TestCase
         String svc = "foobar";
         sh.m_service = svc;
         uc.m_svcHolderRef.set(sh);
-        inUseMap.put(b, new UsageCount[] {uc});
+        inUseMap.put(b, usageCounts(uc));
 
         assertNull(sr.obtainUsageCount(b, Mockito.mock(ServiceReference.class), null, null));
 
@@ -775,13 +776,13 @@ public class ServiceRegistryTest extends TestCase
         ServiceRegistry sr = new ServiceRegistry(null, null);
 
         @SuppressWarnings("unchecked")
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap = (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        ConcurrentMap<Bundle, UsageCounts> inUseMap = (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         Bundle b = Mockito.mock(Bundle.class);
         ServiceReference<?> ref = Mockito.mock(ServiceReference.class);
 
         UsageCount uc = new UsageCount(ref, false);
-        inUseMap.put(b, new UsageCount[] {uc});
+        inUseMap.put(b, usageCounts(uc));
 
         assertNull(sr.obtainUsageCount(b, Mockito.mock(ServiceReference.class), null, null));
 
@@ -796,24 +797,24 @@ public class ServiceRegistryTest extends TestCase
 
         final Bundle b = Mockito.mock(Bundle.class);
 
-        final ConcurrentMap<Bundle, UsageCount[]> orgInUseMap =
-            (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        final ConcurrentMap<Bundle, UsageCounts> orgInUseMap =
+            (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap =
+        ConcurrentMap<Bundle, UsageCounts> inUseMap =
             Mockito.mock(ConcurrentMap.class, AdditionalAnswers.delegatesTo(orgInUseMap));
-        Mockito.doAnswer(new Answer<UsageCount[]>()
+        Mockito.doAnswer(new Answer<UsageCounts>()
             {
                 @Override
-                public UsageCount[] answer(InvocationOnMock invocation) throws Throwable
+                public UsageCounts answer(InvocationOnMock invocation) throws Throwable
                 {
                     // This mimicks another thread putting another UsageCount in concurrently
                     // The putIfAbsent() will fail and it has to retry
                     UsageCount uc = new UsageCount(Mockito.mock(ServiceReference.class), false);
-                    UsageCount[] uca = new UsageCount[] {uc};
+                    UsageCounts uca = usageCounts(uc);
                     orgInUseMap.put(b, uca);
                     return uca;
                 }
-            }).when(inUseMap).putIfAbsent(Mockito.any(Bundle.class), Mockito.any(UsageCount[].class));
+            }).when(inUseMap).putIfAbsent(Mockito.any(Bundle.class), Mockito.any(UsageCounts.class));
         setPrivateField(sr, "m_inUseMap", inUseMap);
 
         ServiceReference<?> ref = Mockito.mock(ServiceReference.class);
@@ -821,10 +822,10 @@ public class ServiceRegistryTest extends TestCase
         assertEquals(0, orgInUseMap.size());
         UsageCount uc = sr.obtainUsageCount(b, ref, null, false);
         assertEquals(1, orgInUseMap.size());
-        assertEquals(2, orgInUseMap.get(b).length);
+        assertEquals(2, orgInUseMap.get(b).getUsageCounts().size());
         assertSame(ref, uc.m_ref);
         assertFalse(uc.m_prototype);
-        List<UsageCount> l = new ArrayList<UsageCount>(Arrays.asList(orgInUseMap.get(b)));
+        List<UsageCount> l = new ArrayList<UsageCount>(orgInUseMap.get(b).getUsageCounts());
         l.remove(uc);
         assertEquals("There should be one UsageCount left", 1, l.size());
         assertNotSame(ref, l.get(0).m_ref);
@@ -837,34 +838,24 @@ public class ServiceRegistryTest extends TestCase
 
         final Bundle b = Mockito.mock(Bundle.class);
 
-        final ConcurrentMap<Bundle, UsageCount[]> orgInUseMap =
-            (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
-        orgInUseMap.put(b, new UsageCount[] {new UsageCount(Mockito.mock(ServiceReference.class), false)});
+        final ConcurrentMap<Bundle, UsageCounts> inUseMap =
+            (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap =
-            Mockito.mock(ConcurrentMap.class, AdditionalAnswers.delegatesTo(orgInUseMap));
-        Mockito.doAnswer(new Answer<Boolean>()
-            {
-                @Override
-                public Boolean answer(InvocationOnMock invocation) throws Throwable
-                {
-                    orgInUseMap.remove(b);
-                    return false;
-                }
-            }).when(inUseMap).replace(Mockito.any(Bundle.class),
-                    Mockito.any(UsageCount[].class), Mockito.any(UsageCount[].class));
-        setPrivateField(sr, "m_inUseMap", inUseMap);
+        // This mimicks another thread which has flushed the last usage count
+        // but has not removed the discarded usage counts from the map yet
+        UsageCount uc = new UsageCount(Mockito.mock(ServiceReference.class), false);
+        UsageCounts discarded = usageCounts(uc);
+        assertTrue("Precondition", discarded.remove(uc));
+        inUseMap.put(b, discarded);
 
         ServiceReference<?> ref = Mockito.mock(ServiceReference.class);
 
-        assertEquals("Precondition", 1, inUseMap.size());
-        assertEquals("Precondition", 1, inUseMap.values().iterator().next().length);
-        assertNotSame("Precondition", ref, inUseMap.get(b)[0].m_ref);
-        sr.obtainUsageCount(b, ref, null, false);
+        UsageCount uc2 = sr.obtainUsageCount(b, ref, null, false);
         assertEquals(1, inUseMap.size());
-        assertEquals(1, inUseMap.values().iterator().next().length);
-        assertSame("The old usage count should have been removed by the mock and this one should have been added",
-                ref, inUseMap.get(b)[0].m_ref);
+        assertNotSame("The discarded usage counts should have been replaced", discarded, inUseMap.get(b));
+        assertEquals(1, inUseMap.get(b).getUsageCounts().size());
+        assertSame(uc2, inUseMap.get(b).getUsageCounts().get(0));
+        assertSame(ref, uc2.m_ref);
     }
 
     public void testFlushUsageCount() throws Exception
@@ -872,7 +863,7 @@ public class ServiceRegistryTest extends TestCase
         ServiceRegistry sr = new ServiceRegistry(null, null);
 
         @SuppressWarnings("unchecked")
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap = (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        ConcurrentMap<Bundle, UsageCounts> inUseMap = (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         Bundle b = Mockito.mock(Bundle.class);
 
@@ -881,15 +872,15 @@ public class ServiceRegistryTest extends TestCase
         ServiceReference<?> ref2 = Mockito.mock(ServiceReference.class);
         UsageCount uc2 = new UsageCount(ref2, true);
 
-        inUseMap.put(b, new UsageCount[] {uc, uc2});
+        inUseMap.put(b, usageCounts(uc, uc2));
 
         assertEquals("Precondition", 1, inUseMap.size());
-        assertEquals("Precondition", 2, inUseMap.values().iterator().next().length);
+        assertEquals("Precondition", 2, inUseMap.values().iterator().next().getUsageCounts().size());
 
         sr.flushUsageCount(b, ref, uc);
         assertEquals(1, inUseMap.size());
-        assertEquals(1, inUseMap.values().iterator().next().length);
-        assertSame(uc2, inUseMap.values().iterator().next()[0]);
+        assertEquals(1, inUseMap.values().iterator().next().getUsageCounts().size());
+        assertSame(uc2, inUseMap.values().iterator().next().getUsageCounts().get(0));
 
         sr.flushUsageCount(b, ref2, uc2);
         assertEquals(0, inUseMap.size());
@@ -900,7 +891,7 @@ public class ServiceRegistryTest extends TestCase
         ServiceRegistry sr = new ServiceRegistry(null, null);
 
         @SuppressWarnings("unchecked")
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap = (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        ConcurrentMap<Bundle, UsageCounts> inUseMap = (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         Bundle b = Mockito.mock(Bundle.class);
         Bundle b2 = Mockito.mock(Bundle.class);
@@ -912,8 +903,8 @@ public class ServiceRegistryTest extends TestCase
         ServiceReference<?> ref3 = Mockito.mock(ServiceReference.class);
         UsageCount uc3 = new UsageCount(ref3, true);
 
-        inUseMap.put(b, new UsageCount[] {uc2, uc});
-        inUseMap.put(b2, new UsageCount[] {uc3});
+        inUseMap.put(b, usageCounts(uc2, uc));
+        inUseMap.put(b2, usageCounts(uc3));
 
         assertEquals("Precondition", 2, inUseMap.size());
 
@@ -929,21 +920,21 @@ public class ServiceRegistryTest extends TestCase
         ServiceRegistry sr = new ServiceRegistry(null, null);
 
         @SuppressWarnings("unchecked")
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap = (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        ConcurrentMap<Bundle, UsageCounts> inUseMap = (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         Bundle b = Mockito.mock(Bundle.class);
 
         ServiceReference<?> ref = Mockito.mock(ServiceReference.class);
         UsageCount uc = new UsageCount(ref, false);
 
-        inUseMap.put(b, new UsageCount[] {uc});
+        inUseMap.put(b, usageCounts(uc));
         assertEquals("Precondition", 1, inUseMap.size());
-        assertEquals("Precondition", 1, inUseMap.values().iterator().next().length);
+        assertEquals("Precondition", 1, inUseMap.values().iterator().next().getUsageCounts().size());
 
         UsageCount uc2 = new UsageCount(Mockito.mock(ServiceReference.class), false);
         sr.flushUsageCount(b, ref, uc2);
         assertEquals("Should be no changes", 1, inUseMap.size());
-        assertEquals("Should be no changes", 1, inUseMap.values().iterator().next().length);
+        assertEquals("Should be no changes", 1, inUseMap.values().iterator().next().getUsageCounts().size());
     }
 
     public void testFlushUsageCountNull() throws Exception
@@ -951,7 +942,7 @@ public class ServiceRegistryTest extends TestCase
         ServiceRegistry sr = new ServiceRegistry(null, null);
 
         @SuppressWarnings("unchecked")
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap = (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        ConcurrentMap<Bundle, UsageCounts> inUseMap = (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         Bundle b = Mockito.mock(Bundle.class);
         Bundle b2 = Mockito.mock(Bundle.class);
@@ -963,8 +954,8 @@ public class ServiceRegistryTest extends TestCase
         ServiceReference<?> ref3 = Mockito.mock(ServiceReference.class);
         UsageCount uc3 = new UsageCount(ref3, true);
 
-        inUseMap.put(b, new UsageCount[] {uc2, uc});
-        inUseMap.put(b2, new UsageCount[] {uc3});
+        inUseMap.put(b, usageCounts(uc2, uc));
+        inUseMap.put(b2, usageCounts(uc3));
 
         assertEquals("Precondition", 2, inUseMap.size());
 
@@ -977,7 +968,7 @@ public class ServiceRegistryTest extends TestCase
     }
 
     @SuppressWarnings("unchecked")
-    public void testFlushUsageCountRetry() throws Exception
+    public void testFlushUsageCountDiscards() throws Exception
     {
         ServiceRegistry sr = new ServiceRegistry(null, null);
 
@@ -987,64 +978,75 @@ public class ServiceRegistryTest extends TestCase
         final ServiceReference<?> ref2 = Mockito.mock(ServiceReference.class);
         final UsageCount uc2 = new UsageCount(ref2, false);
 
-        final ConcurrentMap<Bundle, UsageCount[]> orgInUseMap =
-            (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        final ConcurrentMap<Bundle, UsageCounts> inUseMap =
+            (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
-        final ConcurrentMap<Bundle, UsageCount[]> inUseMap =
-            Mockito.mock(ConcurrentMap.class, AdditionalAnswers.delegatesTo(orgInUseMap));
-        Mockito.doAnswer(new Answer<Boolean>()
-            {
-                @Override
-                public Boolean answer(InvocationOnMock invocation) throws Throwable
-                {
-                    inUseMap.put(b, new UsageCount[] {uc});
-                    return false;
-                }
-            }).when(inUseMap).replace(Mockito.isA(Bundle.class),
-                    Mockito.isA(UsageCount[].class), Mockito.isA(UsageCount[].class));
-        setPrivateField(sr, "m_inUseMap", inUseMap);
-
-        inUseMap.put(b, new UsageCount[] {uc, uc2});
+        UsageCounts usages = usageCounts(uc, uc2);
+        inUseMap.put(b, usages);
 
         sr.flushUsageCount(b, null, uc);
+        assertSame(usages, inUseMap.get(b));
 
-        assertNull("A 'concurrent' process has removed uc2 as well, "
-                + "so the entry for 'b' should have been removed",
-                inUseMap.get(b));
+        sr.flushUsageCount(b, null, uc2);
+        assertNull("The entry for 'b' should have been removed", inUseMap.get(b));
+        assertNull("Discarded usage counts should not accept new usage counts",
+                usages.add(new UsageCount(ref, false)));
     }
 
-    public void testFlushUsageCountRetry2() throws Exception
+    @SuppressWarnings("unchecked")
+    public void testObtainUsageCountManyServices() throws Exception
     {
         ServiceRegistry sr = new ServiceRegistry(null, null);
 
         final Bundle b = Mockito.mock(Bundle.class);
-        final ServiceReference<?> ref = Mockito.mock(ServiceReference.class);
-        final UsageCount uc = new UsageCount(ref, false);
-        final ServiceReference<?> ref2 = Mockito.mock(ServiceReference.class);
-        final UsageCount uc2 = new UsageCount(ref2, false);
 
-        final ConcurrentMap<Bundle, UsageCount[]> orgInUseMap =
-            (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        final ConcurrentMap<Bundle, UsageCounts> inUseMap =
+            (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
-        final ConcurrentMap<Bundle, UsageCount[]> inUseMap =
-            Mockito.mock(ConcurrentMap.class, AdditionalAnswers.delegatesTo(orgInUseMap));
-        Mockito.doAnswer(new Answer<Boolean>()
-            {
-                @Override
-                public Boolean answer(InvocationOnMock invocation) throws Throwable
-                {
-                    inUseMap.put(b, new UsageCount[] {uc, uc2});
-                    return false;
-                }
-            }).when(inUseMap).remove(Mockito.isA(Bundle.class), Mockito.isA(UsageCount[].class));
-        setPrivateField(sr, "m_inUseMap", inUseMap);
+        List<ServiceReference<?>> refs = new ArrayList<ServiceReference<?>>();
+        List<UsageCount> ucs = new ArrayList<UsageCount>();
+        for (int i = 0; i < 1000; i++)
+        {
+            ServiceReference<?> ref = Mockito.mock(ServiceReference.class);
+            refs.add(ref);
+            ucs.add(sr.obtainUsageCount(b, ref, null, false));
+        }
+        assertEquals(1000, inUseMap.get(b).getUsageCounts().size());
+
+        for (int i = 0; i < refs.size(); i++)
+        {
+            assertSame(ucs.get(i), sr.obtainUsageCount(b, refs.get(i), null, null));
+        }
 
-        inUseMap.put(b, new UsageCount[] {uc});
+        for (int i = 0; i < refs.size(); i++)
+        {
+            sr.flushUsageCount(b, refs.get(i), null);
+        }
+        assertEquals(0, inUseMap.size());
+    }
 
-        sr.flushUsageCount(b, null, uc);
+    public void testIndexPrototypeUsageCount() throws Exception
+    {
+        ServiceRegistry sr = new ServiceRegistry(null, null);
 
-        assertEquals(1, inUseMap.get(b).length);
-        assertSame(uc2, inUseMap.get(b)[0]);
+        Bundle b = Mockito.mock(Bundle.class);
+        ServiceReference<?> ref = Mockito.mock(ServiceReference.class);
+
+        String svc = "foo";
+        UsageCount uc = sr.obtainUsageCount(b, ref, null, true);
+        ServiceHolder sh = new ServiceHolder();
+        sh.m_service = svc;
+        uc.m_svcHolderRef.set(sh);
+        assertSame(uc, sr.indexPrototypeUsageCount(b, uc, svc));
+        assertSame(uc, sr.obtainUsageCount(b, ref, svc, null));
+
+        // The same service object obtained by another usage count
+        UsageCount uc2 = sr.obtainUsageCount(b, ref, null, true);
+        assertNotSame(uc, uc2);
+        uc2.m_svcHolderRef.set(sh);
+        assertSame(uc, sr.indexPrototypeUsageCount(b, uc2, svc));
+
+        assertNull(sr.obtainUsageCount(b, ref, "bar", null));
     }
 
     public void testGetUngetServiceFactory() throws Exception
@@ -1172,8 +1174,8 @@ public class ServiceRegistryTest extends TestCase
         assertEquals("hi", sr.getService(clientBundle, reg.getReference(), false));
         sr.ungetService(clientBundle, reg.getReference(), null);
 
-        ConcurrentMap<Bundle, UsageCount[]> inUseMap =
-                (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        ConcurrentMap<Bundle, UsageCounts> inUseMap =
+                (ConcurrentMap<Bundle, UsageCounts>) getPrivateField(sr, "m_inUseMap");
 
         sr.unregisterService(regBundle, reg);
         assertEquals(0, inUseMap.size());
@@ -1255,6 +1257,36 @@ public class ServiceRegistryTest extends TestCase
         assertThat(sr.getUsingBundles(reg.getReference()), is(new Bundle[]{clientBundle2}));
     }
 
+    public void testUsageCountsDiscardedOnceEmpty() throws Exception
+    {
+        ServiceReferenceImpl ref = Mockito.mock(ServiceReferenceImpl.class);
+        UsageCounts usages = new UsageCounts();
+
+        UsageCount uc = new UsageCount(ref, false);
+        assertSame(uc, usages.add(uc));
+        // the slot reserved for the second usage count is released again
+        assertSame(uc, usages.add(new UsageCount(ref, false)));
+        assertTrue(usages.remove(uc));
+
+        // discarded usage counts make the caller start over
+        assertNull(usages.add(new UsageCount(ref, false)));
+        assertTrue(usages.getUsageCounts().isEmpty());
+    }
+
+    private UsageCounts usageCounts(UsageCount... ucs)
+    {
+        UsageCounts usages = new UsageCounts();
+        for (UsageCount uc : ucs)
+        {
+            usages.add(uc);
+            if (uc.m_prototype && uc.getService() != null)
+            {
+                usages.index(uc, uc.getService());
+            }
+        }
+        return usages;
+    }
+
     private Object getPrivateField(Object obj, String fieldName) throws NoSuchFieldException,
             IllegalAccessException
     {
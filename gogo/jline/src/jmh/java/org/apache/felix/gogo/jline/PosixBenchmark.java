@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.gogo.jline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Sorts and searches generated log lines:
+ * <ul>
+ * <li>{@code sortInMemory} and {@code sortExternal} sort the lines with the
+ * comparator of the sort command, the latter through temporary files,</li>
+ * <li>{@code grepMatches} is the former grep matching of {@code .*PATTERN.*},
+ * {@code grepFind} and {@code grepLiteral} the regex and literal searches
+ * done by the grep command now.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PosixBenchmark {
+
+    @Param({"100000"})
+    int lines;
+
+    @Param({"200"})
+    int lineLength;
+
+    @Param({"ERROR"})
+    String pattern;
+
+    private List<String> input;
+    private Comparator<String> comparator;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        String[] levels = {"DEBUG", "INFO", "WARN", "ERROR"};
+        input = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) {
+            StringBuilder sb = new StringBuilder(lineLength);
+            sb.append(random.nextInt(1000000)).append(' ');
+            // only a few lines contain the pattern
+            sb.append(levels[random.nextInt(100) == 0 ? 3 : random.nextInt(3)]).append(' ');
+            while (sb.length() < lineLength) {
+                sb.append((char) ('a' + random.nextInt(26)));
+                if (random.nextInt(8) == 0) {
+                    sb.append(' ');
+                }
+            }
+            input.add(sb.toString());
+        }
+        comparator = new Posix.SortComparator(false, false, false, false, '\0', null);
+    }
+
+    @Benchmark
+    public void sortInMemory(Blackhole bh) {
+        List<String> copy = new ArrayList<>(input);
+        Collections.sort(copy, comparator);
+        bh.consume(copy);
+    }
+
+    @Benchmark
+    public void sortExternal(Blackhole bh) throws Exception {
+        // a quarter of the input fits in memory
+        try (ExternalSort sort = new ExternalSort(comparator, lines * (48L + 2L * lineLength) / 4)) {
+            for (String s : input) {
+                sort.add(s);
+            }
+            for (Iterator<String> it = sort.sorted(); it.hasNext(); ) {
+                bh.consume(it.next());
+            }
+        }
+    }
+
+    @Benchmark
+    public int grepMatches() {
+        Matcher matcher = Pattern.compile(".*" + pattern + ".*").matcher("");
+        int count = 0;
+        for (String s : input) {
+            if (matcher.reset(s).matches()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int grepFind() {
+        Matcher matcher = Pattern.compile(pattern).matcher("");
+        int count = 0;
+        for (String s : input) {
+            if (matcher.reset(s).find()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int grepLiteral() {
+        Posix.LiteralSearch search = new Posix.LiteralSearch(pattern);
+        int count = 0;
+        for (String s : input) {
+            if (search.find(s)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.gogo.jline;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts lines using at most a given amount of memory.
+ * <p>
+ * Lines are buffered until the buffer size is reached, then the buffer
+ * is sorted and written to a temporary file. The sorted runs are merged
+ * when iterating over the result. The sort is stable: equal lines are
+ * returned in the order they were added.
+ */
+class ExternalSort implements Closeable {
+
+    // approximate footprint of a String besides its characters
+    private static final int LINE_OVERHEAD = 48;
+
+    private final Comparator<String> comparator;
+    private final long bufferSize;
+    private final List<String> lines = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private final List<BufferedReader> readers = new ArrayList<>();
+    private long size;
+
+    ExternalSort(Comparator<String> comparator, long bufferSize) {
+        this.comparator = comparator;
+        this.bufferSize = bufferSize;
+    }
+
+    public void addAll(BufferedReader reader) throws IOException {
+        for (String s = reader.readLine(); s != null; s = reader.readLine()) {
+            add(s);
+        }
+    }
+
+    public void add(String line) throws IOException {
+        lines.add(line);
+        size += LINE_OVERHEAD + 2L * line.length();
+        if (size >= bufferSize) {
+            spill();
+        }
+    }
+
+    /**
+     * Returns the sorted lines. The temporary files are removed when
+     * this sort is closed.
+     */
+    public Iterator<String> sorted() throws IOException {
+        lines.sort(comparator);
+        if (runs.isEmpty()) {
+            return lines.iterator();
+        }
+        List<Iterator<String>> sources = new ArrayList<>();
+        for (Path run : runs) {
+            BufferedReader reader = Files.newBufferedReader(run, StandardCharsets.UTF_8);
+            readers.add(reader);
+            sources.add(new LineIterator(reader));
+        }
+        sources.add(lines.iterator());
+        return new MergeIterator(sources);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (BufferedReader reader : readers) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private void spill() throws IOException {
+        lines.sort(comparator);
+        Path run = Files.createTempFile("gogo-sort", ".tmp");
+        runs.add(run);
+        try (BufferedWriter writer = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+            for (String s : lines) {
+                writer.write(s);
+                writer.newLine();
+            }
+        }
+        lines.clear();
+        size = 0;
+    }
+
+    private static class LineIterator implements Iterator<String> {
+        private final BufferedReader reader;
+        private String next;
+
+        LineIterator(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            this.next = reader.readLine();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            String s = next;
+            try {
+                next = reader.readLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return s;
+        }
+    }
+
+    /**
+     * K-way merge of sorted iterators, ties are broken by the order of
+     * the iterators to keep the sort stable.
+     */
+    private class MergeIterator implements Iterator<String> {
+        private final List<Iterator<String>> sources;
+        private final PriorityQueue<Head> heads;
+
+        MergeIterator(List<Iterator<String>> sources) {
+            this.sources = sources;
+            this.heads = new PriorityQueue<>(sources.size(), (h1, h2) -> {
+                int res = comparator.compare(h1.line, h2.line);
+                return res != 0 ? res : Integer.compare(h1.source, h2.source);
+            });
+            for (int i = 0; i < sources.size(); i++) {
+                advance(i);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public String next() {
+            Head head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            advance(head.source);
+            return head.line;
+        }
+
+        private void advance(int source) {
+            Iterator<String> it = sources.get(source);
+            if (it.hasNext()) {
+                heads.add(new Head(it.next(), source));
+            }
+        }
+    }
+
+    private static class Head {
+        final String line;
+        final int source;
+
+        Head(String line, int source) {
+            this.line = line;
+            this.source = source;
+        }
+    }
+}
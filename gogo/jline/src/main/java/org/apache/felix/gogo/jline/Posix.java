@@ -51,6 +51,7 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -124,6 +125,7 @@ public class Posix {
 
     public static final String DEFAULT_LS_COLORS = "dr=1;91:ex=1;92:sl=1;96:ot=34;43";
     public static final String DEFAULT_GREP_COLORS = "mt=1;31:fn=35:ln=32:se=36";
+    public static final long DEFAULT_SORT_BUFFER_SIZE = 64L * 1024L * 1024L;
 
     private static final LinkOption[] NO_FOLLOW_OPTIONS = new LinkOption[]{LinkOption.NOFOLLOW_LINKS};
     private static final List<String> WINDOWS_EXECUTABLE_EXTENSIONS = Collections.unmodifiableList(Arrays.asList(".bat", ".exe", ".cmd"));
@@ -970,41 +972,61 @@ public class Posix {
                 "  -t --field-separator=SEP     use SEP instead of non-blank to blank transition",
                 "  -b --ignore-leading-blanks   ignore leading blancks",
                 "     --numeric-sort            compare according to string numerical value",
-                "  -k --key=KEY                 fields to use for sorting separated by whitespaces"};
+                "  -k --key=KEY                 fields to use for sorting separated by whitespaces",
+                "  -S --buffer-size=SIZE        use SIZE bytes of memory before sorting through temporary files"};
 
         Options opt = parseOptions(session, usage, argv);
 
         List<String> args = opt.args();
 
-        List<String> lines = new ArrayList<>();
-        if (!args.isEmpty()) {
-            for (String filename : args) {
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                        session.currentDir().toUri().resolve(filename).toURL().openStream()))) {
-                    read(reader, lines);
-                }
-            }
-        } else {
-            BufferedReader r = new BufferedReader(new InputStreamReader(process.in()));
-            read(r, lines);
-        }
-
         String separator = opt.get("field-separator");
         boolean caseInsensitive = opt.isSet("ignore-case");
         boolean reverse = opt.isSet("reverse");
         boolean ignoreBlanks = opt.isSet("ignore-leading-blanks");
         boolean numeric = opt.isSet("numeric-sort");
         boolean unique = opt.isSet("unique");
+        long bufferSize = opt.isSet("buffer-size") ? parseSize(opt.get("buffer-size")) : DEFAULT_SORT_BUFFER_SIZE;
         List<String> sortFields = opt.getList("key");
 
         char sep = (separator == null || separator.length() == 0) ? '\0' : separator.charAt(0);
-        lines.sort(new SortComparator(caseInsensitive, reverse, ignoreBlanks, numeric, sep, sortFields));
-        String last = null;
-        for (String s : lines) {
-            if (!unique || last == null || !s.equals(last)) {
-                process.out().println(s);
+        Comparator<String> comparator = new SortComparator(caseInsensitive, reverse, ignoreBlanks, numeric, sep, sortFields);
+        try (ExternalSort sort = new ExternalSort(comparator, bufferSize)) {
+            if (!args.isEmpty()) {
+                for (String filename : args) {
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                            session.currentDir().toUri().resolve(filename).toURL().openStream()))) {
+                        sort.addAll(reader);
+                    }
+                }
+            } else {
+                BufferedReader r = new BufferedReader(new InputStreamReader(process.in()));
+                sort.addAll(r);
+            }
+            String last = null;
+            for (Iterator<String> it = sort.sorted(); it.hasNext(); ) {
+                String s = it.next();
+                if (!unique || last == null || !s.equals(last)) {
+                    process.out().println(s);
+                }
+                last = s;
             }
-            last = s;
+        }
+    }
+
+    private static long parseSize(String size) {
+        long unit = 1;
+        switch (Character.toUpperCase(size.charAt(size.length() - 1))) {
+            case 'K': unit = 1024L; break;
+            case 'M': unit = 1024L * 1024L; break;
+            case 'G': unit = 1024L * 1024L * 1024L; break;
+        }
+        if (unit > 1) {
+            size = size.substring(0, size.length() - 1);
+        }
+        try {
+            return Long.parseLong(size) * unit;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid buffer size: " + size);
         }
     }
 
@@ -1519,23 +1541,19 @@ public class Posix {
 
         String regex = args.remove(0);
         String regexp = regex;
-        if (opt.isSet("word-regexp")) {
+        boolean wordRegexp = opt.isSet("word-regexp");
+        boolean lineRegexp = opt.isSet("line-regexp");
+        boolean ignoreCase = opt.isSet("ignore-case");
+        if (wordRegexp) {
             regexp = "\\b" + regexp + "\\b";
         }
-        if (opt.isSet("line-regexp")) {
-            regexp = "^" + regexp + "$";
-        } else {
-            regexp = ".*" + regexp + ".*";
-        }
-        Pattern p;
-        Pattern p2;
-        if (opt.isSet("ignore-case")) {
-            p = Pattern.compile(regexp, Pattern.CASE_INSENSITIVE);
-            p2 = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
-        } else {
-            p = Pattern.compile(regexp);
-            p2 = Pattern.compile(regex);
-        }
+        int flags = ignoreCase ? Pattern.CASE_INSENSITIVE : 0;
+        Pattern p = Pattern.compile(regexp, flags);
+        Pattern p2 = Pattern.compile(regex, flags);
+        Matcher matcher = p.matcher("");
+        // Plain words are searched for without going through the regex engine
+        LiteralSearch literal = !wordRegexp && !lineRegexp && !ignoreCase && LiteralSearch.isLiteral(regex)
+                ? new LiteralSearch(regex) : null;
         int after = opt.isSet("after-context") ? opt.getNumber("after-context") : -1;
         int before = opt.isSet("before-context") ? opt.getNumber("before-context") : -1;
         int context = opt.isSet("context") ? opt.getNumber("context") : 0;
@@ -1596,9 +1614,18 @@ public class Posix {
                     if (line.length() == 1 && line.charAt(0) == '\n') {
                         break;
                     }
-                    boolean matches = p.matcher(line).matches();
+                    boolean matches;
+                    if (literal != null) {
+                        matches = literal.find(line);
+                    } else if (lineRegexp) {
+                        matches = matcher.reset(line).matches();
+                    } else {
+                        matches = matcher.reset(line).find();
+                    }
+                    // Only decorate the lines that may be printed
+                    boolean keep = (matches ^ invertMatch) || lineMatch != 0 || before > 0;
                     AttributedStringBuilder sbl = new AttributedStringBuilder();
-                    if (!count) {
+                    if (!count && keep) {
                         if (sources.size() > 1) {
                             if (colored) {
                                 applyStyle(sbl, colors, "fn");
@@ -1668,7 +1695,9 @@ public class Posix {
                             }
                             lineMatch = 0;
                         }
-                        lines.add(sbl.toAnsi(Shell.getTerminal(session)));
+                        if (keep) {
+                            lines.add(sbl.toAnsi(Shell.getTerminal(session)));
+                        }
                         while (lineMatch == 0 && lines.size() > before) {
                             lines.remove(0);
                         }
@@ -2086,6 +2115,54 @@ public class Posix {
         sb.style(new StyleResolver(colors::get).resolve("." + t));
     }
 
+    /**
+     * Boyer-Moore-Horspool search of a fixed string.
+     */
+    static class LiteralSearch {
+
+        private final String pattern;
+        private final int[] shifts = new int[256];
+
+        LiteralSearch(String pattern) {
+            this.pattern = pattern;
+            int m = pattern.length();
+            Arrays.fill(shifts, m);
+            // characters sharing a slot keep the smallest shift, which is safe
+            for (int i = 0; i < m - 1; i++) {
+                shifts[pattern.charAt(i) & 0xFF] = m - 1 - i;
+            }
+        }
+
+        static boolean isLiteral(String regex) {
+            if (regex.isEmpty()) {
+                return false;
+            }
+            for (int i = 0; i < regex.length(); i++) {
+                if ("\\^$.|?*+()[]{}".indexOf(regex.charAt(i)) >= 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean find(CharSequence text) {
+            int m = pattern.length();
+            int n = text.length();
+            int i = 0;
+            while (i <= n - m) {
+                int j = m - 1;
+                while (j >= 0 && text.charAt(i + j) == pattern.charAt(j)) {
+                    j--;
+                }
+                if (j < 0) {
+                    return true;
+                }
+                i += shifts[text.charAt(i + m - 1) & 0xFF];
+            }
+            return false;
+        }
+    }
+
     private static class StdInSource implements Source {
 
         private final Process process;
@@ -20,10 +20,12 @@ package org.apache.felix.gogo.jline;
 
 import org.junit.Test;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringWriter;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
 
@@ -40,6 +42,45 @@ public class PosixTest extends AbstractParserTest {
         assertEquals("  \u001b[1mbold\u001b[0m  la", res);
     }
 
+    @Test
+    public void testGrep() throws Exception {
+        Context context = new Context();
+        context.addCommand("grep", new Posix(context));
+        context.addCommand("lines", this);
+        context.addCommand("join", this);
+
+        assertEquals("line 42", context.execute("lines 50 | grep 'line 42' | join"));
+        assertEquals("line 4,line 42", context.execute("lines 50 | grep 'e 4' | grep -v 'e 4[0-13-9]' | join"));
+        assertEquals("line 4", context.execute("lines 50 | grep -x 'line 4' | join"));
+        assertEquals("line 1,line 10", context.execute("lines 11 | grep 'line 1|line 10' | join"));
+        assertEquals("line 1,line 10", context.execute("lines 11 | grep -i 'LINE 1' | join"));
+    }
+
+    @Test
+    public void testExternalSort() throws Exception {
+        Context context = new Context();
+        context.addCommand("sort", new Posix(context));
+        context.addCommand("lines", this);
+        context.addCommand("join", this);
+
+        String expected = context.execute("lines 500 | sort | join").toString();
+        assertEquals(expected, context.execute("lines 500 | sort -S 1K | join"));
+        assertEquals("line 0,line 1,line 10,", expected.substring(0, 22));
+        assertEquals(context.execute("lines 500 | sort -r | join"), context.execute("lines 500 | sort -r -S 1K | join"));
+        assertEquals(expected, context.execute("(lines 500 ; lines 500) | sort -u -S 1K | join"));
+    }
+
+    public void lines(int count) {
+        for (int i = 0; i < count; i++) {
+            System.out.println("line " + i);
+        }
+    }
+
+    public String join() throws IOException {
+        BufferedReader rdr = new BufferedReader(new InputStreamReader(System.in));
+        return rdr.lines().collect(Collectors.joining(","));
+    }
+
     public String tac() throws IOException {
         StringWriter sw = new StringWriter();
         Reader rdr = new InputStreamReader(System.in);
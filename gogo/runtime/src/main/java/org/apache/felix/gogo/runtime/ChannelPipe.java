@@ -0,0 +1,299 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.gogo.runtime;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * An in-memory pipe connecting two stages of a pipeline.
+ * <p>
+ * Bytes written to the {@link #sink()} are kept in a ring buffer until they
+ * are read from the {@link #source()}. Both sides block only when the buffer
+ * is full or empty and are woken up as soon as the other side makes progress.
+ * <p>
+ * Besides bytes, the writing stage may hand over its result object, see
+ * {@link Sink#setObject(Object, Supplier)}. The reading stage can take the
+ * object as is with {@link Source#readObject()}; if it reads bytes instead,
+ * the object is formatted once all the other bytes have been read. The
+ * formatted object is encoded in UTF-8.
+ */
+public class ChannelPipe
+{
+    public static final int DEFAULT_SIZE = 64 * 1024;
+
+    private final byte[] buffer;
+    private final Source source = new Source();
+    private final Sink sink = new Sink();
+    private int head;
+    private int count;
+    private boolean sinkClosed;
+    private boolean sourceClosed;
+    private Object object;
+    private Supplier<? extends CharSequence> text;
+    private boolean objectTaken;
+    private byte[] pending;
+    private int pendingOffset;
+
+    public ChannelPipe()
+    {
+        this(DEFAULT_SIZE);
+    }
+
+    public ChannelPipe(int size)
+    {
+        buffer = new byte[size];
+    }
+
+    public Source source()
+    {
+        return source;
+    }
+
+    public Sink sink()
+    {
+        return sink;
+    }
+
+    private synchronized int read(ByteBuffer dst) throws IOException
+    {
+        if (sourceClosed)
+        {
+            throw new ClosedChannelException();
+        }
+        if (!dst.hasRemaining())
+        {
+            return 0;
+        }
+        while (count == 0)
+        {
+            if (sinkClosed)
+            {
+                if (!formatObject())
+                {
+                    return -1;
+                }
+                break;
+            }
+            await();
+            if (sourceClosed)
+            {
+                throw new ClosedChannelException();
+            }
+        }
+        int n = Math.min(count, dst.remaining());
+        int first = Math.min(n, buffer.length - head);
+        dst.put(buffer, head, first);
+        if (n > first)
+        {
+            dst.put(buffer, 0, n - first);
+        }
+        head = (head + n) % buffer.length;
+        count -= n;
+        notifyAll();
+        return n;
+    }
+
+    private synchronized int write(ByteBuffer src) throws IOException
+    {
+        int written = 0;
+        while (src.hasRemaining())
+        {
+            if (sinkClosed)
+            {
+                throw new ClosedChannelException();
+            }
+            if (sourceClosed)
+            {
+                throw new IOException("Pipe closed");
+            }
+            if (count == buffer.length)
+            {
+                await();
+                continue;
+            }
+            int tail = (head + count) % buffer.length;
+            int n = Math.min(src.remaining(), tail < head ? head - tail : buffer.length - tail);
+            src.get(buffer, tail, n);
+            count += n;
+            written += n;
+            notifyAll();
+        }
+        return written;
+    }
+
+    // Called with the lock held once the buffer has been drained; the
+    // formatted object is copied into the buffer a chunk at a time.
+    private boolean formatObject()
+    {
+        if (pending == null)
+        {
+            if (objectTaken || text == null)
+            {
+                return false;
+            }
+            objectTaken = true;
+            pending = (text.get() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        }
+        int n = Math.min(pending.length - pendingOffset, buffer.length);
+        if (n == 0)
+        {
+            return false;
+        }
+        System.arraycopy(pending, pendingOffset, buffer, 0, n);
+        pendingOffset += n;
+        head = 0;
+        count = n;
+        return true;
+    }
+
+    private void await() throws IOException
+    {
+        try
+        {
+            wait();
+        }
+        catch (InterruptedException e)
+        {
+            throw (IOException) new InterruptedIOException().initCause(e);
+        }
+    }
+
+    /**
+     * The reading side of the pipe.
+     */
+    public class Source implements ReadableByteChannel
+    {
+        @Override
+        public int read(ByteBuffer dst) throws IOException
+        {
+            return ChannelPipe.this.read(dst);
+        }
+
+        /**
+         * Waits for the writing side to be closed and returns the object it
+         * has handed over, or <code>null</code> if there is none.
+         * The bytes written in the meantime are discarded, so that the
+         * writing side does not block on a full buffer. The object is not
+         * formatted into bytes once it has been taken.
+         */
+        public Object readObject() throws IOException
+        {
+            synchronized (ChannelPipe.this)
+            {
+                while (true)
+                {
+                    if (count > 0)
+                    {
+                        head = 0;
+                        count = 0;
+                        ChannelPipe.this.notifyAll();
+                    }
+                    if (sinkClosed)
+                    {
+                        break;
+                    }
+                    if (sourceClosed)
+                    {
+                        throw new ClosedChannelException();
+                    }
+                    await();
+                }
+                if (objectTaken)
+                {
+                    return null;
+                }
+                objectTaken = true;
+                return object;
+            }
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            synchronized (ChannelPipe.this)
+            {
+                return !sourceClosed;
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            synchronized (ChannelPipe.this)
+            {
+                sourceClosed = true;
+                ChannelPipe.this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * The writing side of the pipe.
+     */
+    public class Sink implements WritableByteChannel
+    {
+        @Override
+        public int write(ByteBuffer src) throws IOException
+        {
+            return ChannelPipe.this.write(src);
+        }
+
+        /**
+         * Hands the given object over to the reading side, which will see it
+         * once this side is closed.
+         *
+         * @param object the object to hand over
+         * @param text the formatted object, used if the reading side reads bytes
+         */
+        public void setObject(Object object, Supplier<? extends CharSequence> text)
+        {
+            synchronized (ChannelPipe.this)
+            {
+                ChannelPipe.this.object = object;
+                ChannelPipe.this.text = text;
+            }
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            synchronized (ChannelPipe.this)
+            {
+                return !sinkClosed;
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            synchronized (ChannelPipe.this)
+            {
+                sinkClosed = true;
+                ChannelPipe.this.notifyAll();
+            }
+        }
+    }
+}
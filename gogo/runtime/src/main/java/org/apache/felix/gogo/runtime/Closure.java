@@ -81,7 +81,7 @@ public class Closure implements Function, Evaluate
         {
             try
             {
-                this.program = new Parser(source).program();
+                this.program = session.programs().program(source);
             }
             catch (Exception e)
             {
@@ -259,23 +259,21 @@ public class Closure implements Function, Evaluate
                         ntoclose = toclose;
                         endOfPipe = true;
                     } else if (Token.eq("|", op)) {
-                        PipedInputStream pis = new PipedInputStream();
-                        PipedOutputStream pos = new PipedOutputStream(pis);
+                        ChannelPipe cp = new ChannelPipe();
                         nstreams = streams.clone();
-                        nstreams[1] = Channels.newChannel(pos);
+                        nstreams[1] = cp.sink();
                         ntoclose = toclose.clone();
                         ntoclose[1] = true;
-                        streams[0] = Channels.newChannel(pis);
+                        streams[0] = cp.source();
                         toclose[0] = true;
                         endOfPipe = false;
                     } else if (Token.eq("|&", op)) {
-                        PipedInputStream pis = new PipedInputStream();
-                        PipedOutputStream pos = new PipedOutputStream(pis);
+                        ChannelPipe cp = new ChannelPipe();
                         nstreams = streams.clone();
-                        nstreams[1] = nstreams[2] = Channels.newChannel(pos);
+                        nstreams[1] = nstreams[2] = cp.sink();
                         ntoclose = toclose.clone();
                         ntoclose[1] = ntoclose[2] = true;
-                        streams[0] = Channels.newChannel(pis);
+                        streams[0] = cp.source();
                         toclose[0] = true;
                         endOfPipe = false;
                     } else {
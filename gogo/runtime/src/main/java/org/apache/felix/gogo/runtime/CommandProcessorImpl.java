@@ -45,6 +45,7 @@ public class CommandProcessorImpl implements CommandProcessor
     protected final Map<String, Object> constants = new ConcurrentHashMap<>();
     protected final ThreadIO threadIO;
     protected final WeakHashMap<CommandSession, Object> sessions = new WeakHashMap<>();
+    protected final ProgramCache programs = new ProgramCache();
     protected boolean stopped;
 
     public CommandProcessorImpl()
@@ -225,6 +226,23 @@ public class CommandProcessorImpl implements CommandProcessor
         }
     }
 
+    @Descriptor("display the hits and misses of the parsed programs cache")
+    public Map<String, Object> parseCache(
+            @Parameter(names = { "-c", "--clear" }, presentValue = "true", absentValue = "false")
+            @Descriptor("clear the cache and its counters") boolean clear)
+    {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", programs.hits());
+        stats.put("misses", programs.misses());
+        stats.put("size", programs.size());
+        stats.put("capacity", programs.capacity());
+        if (clear)
+        {
+            programs.clear();
+        }
+        return stats;
+    }
+
     public Object addConstant(String name, Object target)
     {
         return constants.put(name, target);
@@ -122,6 +122,11 @@ public class CommandSessionImpl implements CommandSession, Converter
         return processor.threadIO;
     }
 
+    ProgramCache programs()
+    {
+        return processor.programs;
+    }
+
     public CommandProcessor processor()
     {
         return processor;
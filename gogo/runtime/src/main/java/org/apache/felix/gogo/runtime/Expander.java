@@ -1011,7 +1011,9 @@ public class Expander extends BaseTokenizer
                 int start = index - 1;
                 find(')', '(');
                 Token p = text.subSequence(start, index);
-                val = evaluate.eval(new Parser(p).sequence());
+                val = evaluate.eval(evaluate instanceof Closure
+                        ? ((Closure) evaluate).session().programs().sequence(p)
+                        : new Parser(p).sequence());
                 getch();
             }
             else
@@ -124,6 +124,8 @@ public class Pipe implements Callable<Result>, Process
     InputStream in;
     PrintStream out;
     PrintStream err;
+    ChannelPipe.Source source;
+    ChannelPipe.Sink sink;
 
     public Pipe(Closure closure, JobImpl job, Statement statement, Channel[] streams, boolean[] toclose, boolean endOfPipe)
     {
@@ -208,6 +210,17 @@ public class Pipe implements Callable<Result>, Process
         return job;
     }
 
+    /**
+     * Returns the result of the previous command of the pipeline, waiting
+     * for it to complete. This is only available when the <code>.PipeObjects</code>
+     * session variable is set to <code>true</code>, otherwise the result is
+     * formatted to the standard input of this command and <code>null</code>
+     * is returned.
+     */
+    public Object readObject() throws IOException {
+        return source != null ? source.readObject() : null;
+    }
+
     public boolean isTty(int fd) {
         // TODO: this assumes that the session is always created with input/output tty streams
         if (fd < 0 || fd > streams.length) {
@@ -378,6 +391,14 @@ public class Pipe implements Callable<Result>, Process
                 }
             }
 
+            // Keep the pipeline ends, unless redirected, to pass objects along
+            if (streams[0] instanceof ChannelPipe.Source) {
+                source = (ChannelPipe.Source) streams[0];
+            }
+            if (streams[1] instanceof ChannelPipe.Sink) {
+                sink = (ChannelPipe.Sink) streams[1];
+            }
+
             for (int i = 0; i < streams.length; i++) {
                 streams[i] = wrap(streams[i]);
             }
@@ -423,7 +444,16 @@ public class Pipe implements Callable<Result>, Process
                 // We don't print the result if we're at the end of the pipe
                 if (result != null && !endOfPipe && !Boolean.FALSE.equals(closure.session().get(".FormatPipe")))
                 {
-                    out.println(closure.session().format(result, Converter.INSPECT));
+                    // Hand the result over as is, it will only be formatted if read as text
+                    if (sink != null && Boolean.TRUE.equals(closure.session().get(".PipeObjects")))
+                    {
+                        final Object r = result;
+                        sink.setObject(result, () -> closure.session().format(r, Converter.INSPECT));
+                    }
+                    else
+                    {
+                        out.println(closure.session().format(result, Converter.INSPECT));
+                    }
                 }
                 return new Result(result);
 
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.gogo.runtime;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.gogo.runtime.Parser.Program;
+import org.apache.felix.gogo.runtime.Parser.Sequence;
+
+/**
+ * A bounded LRU cache of parsed programs, keyed by their source text.
+ * <p>
+ * Parsed programs are immutable, so they can be shared by all the sessions
+ * and closures evaluating the same text. Nested closures are part of the
+ * parsed program and are shared along with it, while variable expansion
+ * still happens on each evaluation.
+ */
+public class ProgramCache
+{
+    public static final int DEFAULT_SIZE = 256;
+
+    private final int size;
+    private final Map<String, Token> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ProgramCache()
+    {
+        this(DEFAULT_SIZE);
+    }
+
+    public ProgramCache(final int size)
+    {
+        this.size = size;
+        this.cache = new LinkedHashMap<String, Token>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Token> eldest)
+            {
+                return size() > size;
+            }
+        };
+    }
+
+    /**
+     * Returns the program parsed from the given source.
+     */
+    public Program program(CharSequence source)
+    {
+        String key = key('p', source);
+        Token program = get(key);
+        if (program == null)
+        {
+            program = put(key, new Parser(source).program());
+        }
+        return (Program) program;
+    }
+
+    /**
+     * Returns the sequence parsed from the given source, which must start
+     * with an opening parenthesis, as used by command substitution.
+     */
+    public Sequence sequence(CharSequence source)
+    {
+        String key = key('s', source);
+        Token sequence = get(key);
+        if (sequence == null)
+        {
+            sequence = put(key, new Parser(source).sequence());
+        }
+        return (Sequence) sequence;
+    }
+
+    public long hits()
+    {
+        return hits.get();
+    }
+
+    public long misses()
+    {
+        return misses.get();
+    }
+
+    public int size()
+    {
+        synchronized (cache)
+        {
+            return cache.size();
+        }
+    }
+
+    public int capacity()
+    {
+        return size;
+    }
+
+    public void clear()
+    {
+        synchronized (cache)
+        {
+            cache.clear();
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+
+    private Token get(String key)
+    {
+        Token token;
+        synchronized (cache)
+        {
+            token = cache.get(key);
+        }
+        (token != null ? hits : misses).incrementAndGet();
+        return token;
+    }
+
+    private Token put(String key, Token token)
+    {
+        if (size > 0)
+        {
+            synchronized (cache)
+            {
+                cache.put(key, token);
+            }
+        }
+        return token;
+    }
+
+    // the position is part of the key, as it is reported in error locations
+    private static String key(char kind, CharSequence source)
+    {
+        int line = 0;
+        int column = 0;
+        if (source instanceof Token)
+        {
+            line = ((Token) source).line();
+            column = ((Token) source).column();
+        }
+        return new StringBuilder(source.length() + 16)
+            .append(kind).append(line).append('.').append(column).append(':')
+            .append(source).toString();
+    }
+}
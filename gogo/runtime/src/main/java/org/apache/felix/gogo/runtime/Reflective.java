@@ -19,10 +19,14 @@
 package org.apache.felix.gogo.runtime;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -32,6 +36,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.felix.service.command.CommandSession;
 import org.apache.felix.service.command.Parameter;
@@ -50,6 +56,17 @@ public final class Reflective
                 "finally", "long", "strictfp", "volatile", "const", "float", "native",
                 "super", "while"));
 
+    // Candidate methods per class and command name
+    private static final ClassValue<ConcurrentMap<String, MethodSet>> METHODS =
+        new ClassValue<ConcurrentMap<String, MethodSet>>()
+        {
+            @Override
+            protected ConcurrentMap<String, MethodSet> computeValue(Class<?> type)
+            {
+                return new ConcurrentHashMap<>();
+            }
+        };
+
     /**
      * invokes the named method on the given target using the supplied args,
      * which are converted if necessary.
@@ -59,97 +76,76 @@ public final class Reflective
     public static Object invoke(CommandSession session, Object target, String name,
         List<Object> args) throws Exception
     {
-        Method[] methods = target.getClass().getMethods();
-        name = name.toLowerCase(Locale.ENGLISH);
-
-        String org = name;
-        String get = "get" + name;
-        String is = "is" + name;
-        String set = "set" + name;
-
-        if (KEYWORDS.contains(name))
+        MethodSet methods = null;
+        if (target instanceof Class<?>)
+        {
+            methods = getMethods((Class<?>) target, name);
+            if (methods.candidates.length == 0)
+            {
+                methods = null;
+            }
+        }
+        if (methods == null)
         {
-            name = "_" + name;
+            methods = getMethods(target.getClass(), name);
         }
 
-        if (target instanceof Class<?>)
+        // The binding of a previous invocation with the same argument types
+        // can be reused when it did not depend on the argument values
+        List<Object> signature = MethodSet.signature(args);
+        if (signature != null)
         {
-            Method[] staticMethods = ((Class<?>) target).getMethods();
-            for (Method m : staticMethods)
+            Candidate c = methods.bindings.get(signature);
+            if (c != null)
             {
-                String mname = m.getName().toLowerCase(Locale.ENGLISH);
-                if (mname.equals(name) || mname.equals(get) || mname.equals(set)
-                    || mname.equals(is) || mname.equals(MAIN))
+                Object[] parms = new Object[c.types.length];
+                if (coerce(session, target, c, parms, c.arguments(methods.org, args)) == 0)
                 {
-                    methods = staticMethods;
-                    break;
+                    return c.invoke(target, parms);
                 }
             }
         }
 
-        Method bestMethod = null;
+        Candidate bestMethod = null;
         Object[] bestArgs = null;
         int lowestMatch = Integer.MAX_VALUE;
         ArrayList<Class<?>[]> possibleTypes = new ArrayList<>();
 
-        for (Method m : methods)
+        for (Candidate c : methods.candidates)
         {
-            String mname = m.getName().toLowerCase(Locale.ENGLISH);
-            if (mname.equals(name) || mname.equals(get) || mname.equals(set)
-                || mname.equals(is) || mname.equals(MAIN))
-            {
-                Class<?>[] types = m.getParameterTypes();
-                ArrayList<Object> xargs = new ArrayList<>(args);
-
-                // pass command name as argv[0] to main, so it can handle
-                // multiple commands
-                if (mname.equals(MAIN))
-                {
-                    xargs.add(0, org);
-                }
+            Object[] parms = new Object[c.types.length];
+            int match = coerce(session, target, c, parms, c.arguments(methods.org, args));
 
-                Object[] parms = new Object[types.length];
-                int match = coerce(session, target, m, types, parms, xargs);
-
-                if (match < 0)
+            if (match < 0)
+            {
+                // coerce failed
+                possibleTypes.add(c.types);
+            }
+            else
+            {
+                if (match < lowestMatch)
                 {
-                    // coerce failed
-                    possibleTypes.add(types);
+                    lowestMatch = match;
+                    bestMethod = c;
+                    bestArgs = parms;
                 }
-                else
-                {
-                    if (match < lowestMatch)
-                    {
-                        lowestMatch = match;
-                        bestMethod = m;
-                        bestArgs = parms;
-                    }
 
-                    if (match == 0)
-                        break; // can't get better score
-                }
+                if (match == 0)
+                    break; // can't get better score
             }
         }
 
         if (bestMethod != null)
         {
-            bestMethod.setAccessible(true);
-            try
+            if (signature != null && lowestMatch == 0)
             {
-                return bestMethod.invoke(target, bestArgs);
-            }
-            catch (InvocationTargetException e)
-            {
-                Throwable cause = e.getCause();
-                if (cause instanceof Exception)
-                {
-                    throw (Exception) cause;
-                }
-                throw e;
+                methods.bind(signature, bestMethod);
             }
+            return bestMethod.invoke(target, bestArgs);
         }
         else
         {
+            name = methods.name;
             if (args.isEmpty())
             {
                 Field[] fields;
@@ -202,52 +198,64 @@ public final class Reflective
         }
     }
 
+    private static MethodSet getMethods(Class<?> type, String name)
+    {
+        ConcurrentMap<String, MethodSet> sets = METHODS.get(type);
+        MethodSet methods = sets.get(name);
+        if (methods == null)
+        {
+            methods = new MethodSet(type, name);
+            MethodSet old = sets.putIfAbsent(name, methods);
+            if (old != null)
+            {
+                methods = old;
+            }
+        }
+        return methods;
+    }
+
     /**
      * transform name/value parameters into ordered argument list.
      * params: --param2, value2, --flag1, arg3
      * args: true, value2, arg3
      * @return new ordered list of args.
      */
-    private static List<Object> transformParameters(Method method, List<Object> in)
+    private static List<Object> transformParameters(Parameter[] parameters, List<Object> in)
     {
-        Annotation[][] pas = method.getParameterAnnotations();
+        if (parameters.length == 0)
+        {
+            return in;
+        }
+
         ArrayList<Object> out = new ArrayList<>();
         ArrayList<Object> parms = new ArrayList<>(in);
 
-        for (Annotation as[] : pas)
+        for (Parameter p : parameters)
         {
-            for (Annotation a : as)
+            int i = -1;
+            for (String name : p.names())
             {
-                if (a instanceof Parameter)
-                {
-                    int i = -1;
-                    Parameter p = (Parameter) a;
-                    for (String name : p.names())
-                    {
-                        i = parms.indexOf(name);
-                        if (i >= 0)
-                            break;
-                    }
-
-                    if (i >= 0)
-                    {
-                        // parameter present
-                        parms.remove(i);
-                        Object value = p.presentValue();
-                        if (Parameter.UNSPECIFIED.equals(value))
-                        {
-                            if (i >= parms.size())
-                                return null; // missing parameter, so try other methods
-                            value = parms.remove(i);
-                        }
-                        out.add(value);
-                    }
-                    else
-                    {
-                        out.add(p.absentValue());
-                    }
+                i = parms.indexOf(name);
+                if (i >= 0)
+                    break;
+            }
 
+            if (i >= 0)
+            {
+                // parameter present
+                parms.remove(i);
+                Object value = p.presentValue();
+                if (Parameter.UNSPECIFIED.equals(value))
+                {
+                    if (i >= parms.size())
+                        return null; // missing parameter, so try other methods
+                    value = parms.remove(i);
                 }
+                out.add(value);
+            }
+            else
+            {
+                out.add(p.absentValue());
             }
         }
 
@@ -264,9 +272,11 @@ public final class Reflective
      * @return -1 if arguments can't be coerced; 0 if no coercion was necessary;
      *          > 0 if coercion was needed.
      */
-    private static int coerce(CommandSession session, Object target, Method m,
-        Class<?> types[], Object out[], List<Object> in)
+    private static int coerce(CommandSession session, Object target, Candidate c,
+        Object out[], List<Object> in)
     {
+        Method m = c.method;
+        Class<?>[] types = c.types;
         List<Object> cnvIn = new ArrayList<>();
         List<Object> cnvIn2 = new ArrayList<>();
         int different = 0;
@@ -286,10 +296,10 @@ public final class Reflective
             }
         }
 
-        cnvIn = transformParameters(m, cnvIn);
+        cnvIn = transformParameters(c.parameters, cnvIn);
         if (different != 0)
         {
-            cnvIn2 = transformParameters(m, cnvIn2);
+            cnvIn2 = transformParameters(c.parameters, cnvIn2);
         }
         if (cnvIn == null || cnvIn2 == null)
         {
@@ -632,4 +642,139 @@ public final class Reflective
         return null;
     }
 
+    /**
+     * The methods of a class that may be invoked for a command name, in the
+     * order of {@link Class#getMethods()}.
+     */
+    private static final class MethodSet
+    {
+        // Bound argument type signatures are only kept up to this number
+        private static final int MAX_BINDINGS = 32;
+
+        final String org;
+        final String name;
+        final Candidate[] candidates;
+        final ConcurrentMap<List<Object>, Candidate> bindings = new ConcurrentHashMap<>();
+
+        MethodSet(Class<?> type, String command)
+        {
+            org = command.toLowerCase(Locale.ENGLISH);
+            name = KEYWORDS.contains(org) ? "_" + org : org;
+            String get = "get" + org;
+            String is = "is" + org;
+            String set = "set" + org;
+
+            List<Candidate> list = new ArrayList<>();
+            for (Method m : type.getMethods())
+            {
+                String mname = m.getName().toLowerCase(Locale.ENGLISH);
+                if (mname.equals(name) || mname.equals(get) || mname.equals(set)
+                    || mname.equals(is) || mname.equals(MAIN))
+                {
+                    list.add(new Candidate(m, mname.equals(MAIN)));
+                }
+            }
+            candidates = list.toArray(new Candidate[list.size()]);
+        }
+
+        /**
+         * Returns the types of the given arguments, or null if the method
+         * bound to them may depend on their values. This is the case for
+         * strings and tokens, which may be converted to other types or name
+         * parameters.
+         */
+        static List<Object> signature(List<Object> args)
+        {
+            List<Object> signature = new ArrayList<>(args.size());
+            for (Object arg : args)
+            {
+                if (arg instanceof CharSequence)
+                {
+                    return null;
+                }
+                signature.add(arg == null ? null : arg.getClass());
+            }
+            return signature;
+        }
+
+        void bind(List<Object> signature, Candidate c)
+        {
+            if (bindings.size() < MAX_BINDINGS)
+            {
+                bindings.putIfAbsent(signature, c);
+            }
+        }
+    }
+
+    /**
+     * A method with its parameter metadata, invoked through a method handle.
+     */
+    private static final class Candidate
+    {
+        final Method method;
+        final Class<?>[] types;
+        final Parameter[] parameters;
+        final boolean main;
+        private volatile MethodHandle handle;
+
+        Candidate(Method method, boolean main)
+        {
+            this.method = method;
+            this.types = method.getParameterTypes();
+            this.main = main;
+            List<Parameter> list = new ArrayList<>();
+            for (Annotation[] as : method.getParameterAnnotations())
+            {
+                for (Annotation a : as)
+                {
+                    if (a instanceof Parameter)
+                    {
+                        list.add((Parameter) a);
+                    }
+                }
+            }
+            this.parameters = list.toArray(new Parameter[list.size()]);
+        }
+
+        List<Object> arguments(String org, List<Object> args)
+        {
+            ArrayList<Object> xargs = new ArrayList<>(args);
+            // pass command name as argv[0] to main, so it can handle
+            // multiple commands
+            if (main)
+            {
+                xargs.add(0, org);
+            }
+            return xargs;
+        }
+
+        Object invoke(Object target, Object[] args) throws Exception
+        {
+            MethodHandle h = handle;
+            if (h == null)
+            {
+                method.setAccessible(true);
+                h = MethodHandles.lookup().unreflect(method).asFixedArity();
+                if (Modifier.isStatic(method.getModifiers()))
+                {
+                    h = MethodHandles.dropArguments(h, 0, Object.class);
+                }
+                h = h.asType(MethodType.genericMethodType(types.length + 1))
+                    .asSpreader(Object[].class, types.length);
+                handle = h;
+            }
+            try
+            {
+                return (Object) h.invokeExact(target, args);
+            }
+            catch (Exception e)
+            {
+                throw e;
+            }
+            catch (Throwable t)
+            {
+                throw new InvocationTargetException(t);
+            }
+        }
+    }
 }
@@ -70,6 +70,7 @@ public class Activator implements BundleActivator
         processor.addCommand("osgi", processor, "addCommand");
         processor.addCommand("osgi", processor, "removeCommand");
         processor.addCommand("osgi", processor, "eval");
+        processor.addCommand("osgi", processor, "parseCache");
 
         return context.registerService(CommandProcessor.class.getName(), processor, null);
     }
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.gogo.runtime;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ChannelPipeTest {
+
+    @Test(timeout = 10000)
+    public void testReadObjectDiscardsPendingBytes() throws Exception {
+        ChannelPipe pipe = new ChannelPipe(1024);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                // More than the buffer holds, so the writer blocks unless
+                // the reader discards the bytes
+                pipe.sink().write(ByteBuffer.wrap(new byte[4 * 1024]));
+                pipe.sink().setObject("result", () -> "result");
+                pipe.sink().close();
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        writer.start();
+
+        assertEquals("result", pipe.source().readObject());
+        writer.join();
+        assertNull(failure.get());
+        assertEquals(-1, pipe.source().read(ByteBuffer.allocate(16)));
+    }
+
+    @Test
+    public void testObjectIsFormattedInUtf8() throws Exception {
+        ChannelPipe pipe = new ChannelPipe(16);
+        pipe.sink().write(ByteBuffer.wrap("out ".getBytes(StandardCharsets.UTF_8)));
+        pipe.sink().setObject(null, () -> "été");
+        pipe.sink().close();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ByteBuffer buf = ByteBuffer.allocate(3);
+        while (pipe.source().read(buf) >= 0) {
+            bytes.write(buf.array(), 0, buf.position());
+            buf.clear();
+        }
+        assertEquals("out été" + System.lineSeparator(),
+            new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        assertNull(pipe.source().readObject());
+    }
+}
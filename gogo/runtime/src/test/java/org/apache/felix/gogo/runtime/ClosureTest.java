@@ -41,4 +41,21 @@ public class ClosureTest {
         assertEquals("a", ((Closure) parent.get("cmd")).execute(parent, Collections.emptyList()).toString());
         assertEquals("b", ((Closure) parent.get("cmd")).execute(child, Collections.emptyList()).toString());
     }
+
+    @Test
+    public void testProgramCache() throws Exception {
+        CommandProcessorImpl processor = new CommandProcessorImpl(null);
+        ByteArrayInputStream bais = new ByteArrayInputStream("".getBytes());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CommandSessionImpl session = processor.createSession(bais, baos, baos);
+        session.execute("var = a");
+        assertEquals("a", session.execute("$var").toString());
+        session.execute("var = b");
+        assertEquals("b", session.execute("$var").toString());
+        assertEquals("b", session.execute("$($var)").toString());
+        session.execute("var = c");
+        assertEquals("c", session.execute("$($var)").toString());
+        assertEquals(3L, processor.programs.hits());
+        assertEquals(6L, processor.programs.misses());
+    }
 }
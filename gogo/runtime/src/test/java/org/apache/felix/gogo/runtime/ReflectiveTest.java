@@ -69,7 +69,57 @@ public class ReflectiveTest {
                 Collections.singletonList(conv));
     }
 
+    @Test
+    public void testCachedBindings() throws Exception {
+        // the bindings of previous invocations must not leak into the next ones
+        for (int i = 0; i < 3; i++) {
+            assertEquals("long", invoke("overloaded", Collections.<Object>singletonList(5L)));
+            assertEquals("list", invoke("overloaded", Collections.<Object>singletonList(Arrays.asList(1, 2))));
+            assertEquals("string", invoke("overloaded", Collections.<Object>singletonList("5")));
+            assertEquals("int", invoke("primitive", Collections.<Object>singletonList(5L)));
+            assertEquals(null, invoke("nothing", Collections.emptyList()));
+            assertEquals("static", invoke("STATICMETHOD", Collections.emptyList()));
+        }
+    }
+
+    @Test
+    public void testInvocationException() throws Exception {
+        try {
+            invoke("fail", Collections.emptyList());
+            Assert.fail("Expected an exception");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("failed", e.getMessage());
+        }
+    }
+
     static class Target {
+        public String overloaded(Long l) {
+            return "long";
+        }
+
+        public String overloaded(List<Object> l) {
+            return "list";
+        }
+
+        public String overloaded(String s) {
+            return "string";
+        }
+
+        public String primitive(int i) {
+            return "int";
+        }
+
+        public void nothing() {
+        }
+
+        public static String staticMethod() {
+            return "static";
+        }
+
+        public void fail() {
+            throw new IllegalStateException("failed");
+        }
+
         public Object test1(CommandSession session, Object[] argv) {
             return argv;
         }
@@ -152,6 +152,47 @@ public class TestParser extends AbstractParserTest
         assertEquals("defghi", c.execute("(echoout abc; echoout def; echoout ghi)|grep 'def|ghi'|capture"));
     }
 
+    @Test
+    public void testLargePipe() throws Exception
+    {
+        Context c = new Context();
+        c.addCommand("lines", this);
+        c.addCommand("capture", this);
+        c.addCommand("grep", this);
+
+        // More data than the pipe buffer can hold
+        assertEquals("line 19999", c.execute("lines 20000|grep 'line 19999'|capture"));
+        assertEquals("line 0", c.execute("lines 20000|grep 'line 0$'|capture"));
+    }
+
+    @Test
+    public void testPipeObjects() throws Exception
+    {
+        Context c = new Context();
+        c.addCommand("echo", this);
+        c.addCommand("capture", this);
+        c.addCommand("pipedobject", this);
+
+        assertEquals("a", c.execute("echo a|capture"));
+        assertEquals(null, c.execute("echo a|pipedobject"));
+        c.set(".PipeObjects", true);
+        assertEquals("a", c.execute("echo a|capture"));
+        assertEquals("a", c.execute("echo a|pipedobject"));
+    }
+
+    public void lines(int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            System.out.println("line " + i);
+        }
+    }
+
+    public Object pipedobject() throws IOException
+    {
+        return Pipe.getCurrentPipe().readObject();
+    }
+
     @Test
     public void testAssignment() throws Exception
     {
@@ -19,6 +19,7 @@ package org.apache.felix.http.base.internal;
 import java.util.Hashtable;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import javax.servlet.Servlet;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpSessionEvent;
@@ -30,6 +31,7 @@ import org.apache.felix.http.base.internal.dispatch.DispatcherServlet;
 import org.apache.felix.http.base.internal.handler.HttpSessionWrapper;
 import org.apache.felix.http.base.internal.registry.HandlerRegistry;
 import org.apache.felix.http.base.internal.service.HttpServiceFactory;
+import org.apache.felix.http.base.internal.service.RuntimeStatisticsProvider;
 import org.apache.felix.http.base.internal.whiteboard.WhiteboardManager;
 import org.osgi.framework.BundleContext;
 
@@ -120,6 +122,16 @@ public final class HttpServiceController
         this.dispatcher.setWhiteboardManager(this.whiteboardManager);
     }
 
+    /**
+     * Set the provider for container statistics which are reported
+     * as part of the runtime DTO.
+     * @param provider The provider or {@code null} to remove it.
+     */
+    public void setStatisticsProvider(@Nullable final RuntimeStatisticsProvider provider)
+    {
+        this.whiteboardManager.setStatisticsProvider(provider);
+    }
+
     /**
      * Stops the http and http whiteboard service.
      */
@@ -43,11 +43,20 @@ public final class RuntimeDTOBuilder
 
     private final RegistryRuntime registry;
     private final ServiceReference<HttpServiceRuntime> serviceReference;
+    private final Map<String, Object> statistics;
 
     public RuntimeDTOBuilder(final RegistryRuntime registry, final ServiceReference<HttpServiceRuntime> ref)
+    {
+        this(registry, ref, null);
+    }
+
+    public RuntimeDTOBuilder(final RegistryRuntime registry,
+            final ServiceReference<HttpServiceRuntime> ref,
+            final Map<String, Object> statistics)
     {
         this.registry = registry;
         this.serviceReference = ref;
+        this.statistics = statistics;
     }
 
     public RuntimeDTO build()
@@ -78,6 +87,10 @@ public final class RuntimeDTOBuilder
         {
             props.put(key, this.serviceReference.getProperty(key));
         }
+        if (this.statistics != null)
+        {
+            props.putAll(this.statistics);
+        }
         dto.properties = props;
 
         final Bundle[] ubs = this.serviceReference.getUsingBundles();
@@ -54,6 +54,8 @@ public final class HttpServiceRuntimeImpl implements HttpServiceRuntime
 
     private volatile ServiceReference<HttpServiceRuntime> serviceReference;
 
+    private volatile RuntimeStatisticsProvider statisticsProvider;
+
     private volatile Timer timer;
 
     private final long updateChangeCountDelay;
@@ -87,8 +89,10 @@ public final class HttpServiceRuntimeImpl implements HttpServiceRuntime
     @Override
     public RuntimeDTO getRuntimeDTO()
     {
+        final RuntimeStatisticsProvider provider = this.statisticsProvider;
         final RuntimeDTOBuilder runtimeDTOBuilder = new RuntimeDTOBuilder(contextManager.getRuntimeInfo(),
-                this.serviceReference);
+                this.serviceReference,
+                provider == null ? null : provider.getStatistics());
         return runtimeDTOBuilder.build();
     }
 
@@ -127,6 +131,11 @@ public final class HttpServiceRuntimeImpl implements HttpServiceRuntime
         this.serviceReference = reference;
     }
 
+    public void setStatisticsProvider(final RuntimeStatisticsProvider provider)
+    {
+        this.statisticsProvider = provider;
+    }
+
     public void updateChangeCount(final ServiceRegistration<HttpServiceRuntime> reg)
     {
         if ( reg != null )
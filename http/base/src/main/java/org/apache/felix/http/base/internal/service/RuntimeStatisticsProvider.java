@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.service;
+
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A runtime statistics provider is implemented by the servlet container
+ * integration (e.g. Jetty) to contribute live values like thread pool
+ * utilization or connection counts to the {@code RuntimeDTO}.
+ * <p>
+ * The statistics are calculated each time a runtime DTO is created and are
+ * added to the properties of the service reference DTO of the runtime. They
+ * are not added to the service registration properties, as they change
+ * with every request.
+ */
+public interface RuntimeStatisticsProvider
+{
+    /**
+     * Return the current statistics.
+     * @return A map with the statistics, values must be valid DTO property types.
+     */
+    @NotNull Map<String, Object> getStatistics();
+}
@@ -75,6 +75,7 @@ import org.apache.felix.http.base.internal.runtime.dto.ServletContextDTOBuilder;
 import org.apache.felix.http.base.internal.service.HttpServiceFactory;
 import org.apache.felix.http.base.internal.service.HttpServiceRuntimeImpl;
 import org.apache.felix.http.base.internal.service.ResourceServlet;
+import org.apache.felix.http.base.internal.service.RuntimeStatisticsProvider;
 import org.apache.felix.http.base.internal.whiteboard.tracker.FilterTracker;
 import org.apache.felix.http.base.internal.whiteboard.tracker.ListenersTracker;
 import org.apache.felix.http.base.internal.whiteboard.tracker.PreprocessorTracker;
@@ -227,6 +228,15 @@ public final class WhiteboardManager
         tracker.open();
     }
 
+    /**
+     * Set the provider contributing live statistics to the runtime DTO.
+     * @param provider The provider or {@code null} to remove it
+     */
+    public void setStatisticsProvider(final RuntimeStatisticsProvider provider)
+    {
+        this.serviceRuntime.setStatisticsProvider(provider);
+    }
+
     /**
      * Stop the instance
      */
@@ -164,6 +164,12 @@ class ConfigMetaTypeProvider implements MetaTypeProvider
                 -1,
                 bundle.getBundleContext().getProperty(JettyConfig.FELIX_JETTY_THREADPOOL_MAX)));
 
+        adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_JETTY_VIRTUAL_THREADS_ENABLE,
+                "Virtual Threads",
+                "Whether to process requests on virtual threads instead of the jetty thread pool. Requires Java 21 or later, otherwise the thread pool is used. The selectors keep running on platform threads and accept the connections, the acceptors setting is ignored. Default is false.",
+                false,
+                bundle.getBundleContext().getProperty(JettyConfig.FELIX_JETTY_VIRTUAL_THREADS_ENABLE)));
+
         adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_JETTY_ACCEPTORS,
                 "Acceptors",
                 "Number of acceptor threads to use, or -1 for a default value. Acceptors accept new TCP/IP connections. If 0, then the selector threads are used to accept connections.",
@@ -176,6 +182,24 @@ class ConfigMetaTypeProvider implements MetaTypeProvider
                 -1,
                 bundle.getBundleContext().getProperty(JettyConfig.FELIX_JETTY_SELECTORS)));
 
+        adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_HTTP2_ENABLE,
+                "Enable HTTP/2",
+                "Whether to enable HTTP/2. Cleartext HTTP/2 (h2c) is added to the HTTP connector, h2 is negotiated via ALPN on the HTTPS connector if ALPN is available. Default is false.",
+                false,
+                bundle.getBundleContext().getProperty(JettyConfig.FELIX_HTTP2_ENABLE)));
+
+        adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_JETTY_HTTP2_MAX_CONCURRENT_STREAMS,
+                "HTTP/2 Max Concurrent Streams",
+                "The maximum number of concurrent HTTP/2 streams per connection. Default is 128.",
+                128,
+                bundle.getBundleContext().getProperty(JettyConfig.FELIX_JETTY_HTTP2_MAX_CONCURRENT_STREAMS)));
+
+        adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_JETTY_STATISTICS_ENABLE,
+                "Connection Statistics",
+                "Whether connection statistics are collected and reported through the HttpServiceRuntime. Default is false.",
+                false,
+                bundle.getBundleContext().getProperty(JettyConfig.FELIX_JETTY_STATISTICS_ENABLE)));
+
         adList.add(new AttributeDefinitionImpl(JettyConfig.FELIX_JETTY_HEADER_BUFFER_SIZE,
                 "Header Buffer Size",
                 "Size of the buffer for request and response headers. Default is 16KB.",
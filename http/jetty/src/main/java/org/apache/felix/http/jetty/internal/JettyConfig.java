@@ -86,12 +86,24 @@ public final class JettyConfig
     /** Felix specific property to control the maximum size of the jetty thread pool */
     public static final String FELIX_JETTY_THREADPOOL_MAX = "org.apache.felix.http.jetty.threadpool.max";
 
+    /** Felix specific property to use virtual threads for request processing instead of the jetty thread pool. Selectors stay on platform threads and accept the connections. Requires Java 21 or later, ignored otherwise. Default is false */
+    public static final String FELIX_JETTY_VIRTUAL_THREADS_ENABLE = "org.apache.felix.http.jetty.virtualthreads.enable";
+
     /** Felix specific property to control the number of jetty acceptor threads */
     public static final String FELIX_JETTY_ACCEPTORS = "org.apache.felix.http.jetty.acceptors";
 
     /** Felix specific property to control the number of jetty selector threads */
     public static final String FELIX_JETTY_SELECTORS = "org.apache.felix.http.jetty.selectors";
 
+    /** Felix specific property to enable HTTP/2: h2c on the HTTP connector and h2 on the HTTPS connector (if ALPN is available). Default is false */
+    public static final String FELIX_HTTP2_ENABLE = "org.apache.felix.http2.enable";
+
+    /** Felix specific property to configure the maximum number of concurrent HTTP/2 streams per connection. Default is 128 */
+    public static final String FELIX_JETTY_HTTP2_MAX_CONCURRENT_STREAMS = "org.apache.felix.jetty.http2.maxConcurrentStreams";
+
+    /** Felix specific property to enable connection statistics which are reported by the HttpServiceRuntime. Default is false */
+    public static final String FELIX_JETTY_STATISTICS_ENABLE = "org.apache.felix.http.jetty.statistics.enable";
+
     /** Felix specific property to configure the request buffer size. Default is 16KB (instead of Jetty's default of 4KB) */
     public static final String FELIX_JETTY_HEADER_BUFFER_SIZE = "org.apache.felix.http.jetty.headerBufferSize";
 
@@ -425,6 +437,11 @@ public final class JettyConfig
         return getIntProperty(FELIX_JETTY_THREADPOOL_MAX, -1);
     }
 
+    public boolean isUseVirtualThreads()
+    {
+        return getBooleanProperty(FELIX_JETTY_VIRTUAL_THREADS_ENABLE, false);
+    }
+
     public int getAcceptors()
     {
         return getIntProperty(FELIX_JETTY_ACCEPTORS, -1);
@@ -507,6 +524,21 @@ public final class JettyConfig
         return useHttps && getHttpsPort() > 0;
     }
 
+    public boolean isUseHttp2()
+    {
+        return getBooleanProperty(FELIX_HTTP2_ENABLE, false);
+    }
+
+    public int getHttp2MaxConcurrentStreams()
+    {
+        return getIntProperty(FELIX_JETTY_HTTP2_MAX_CONCURRENT_STREAMS, 128);
+    }
+
+    public boolean isStatisticsEnabled()
+    {
+        return getBooleanProperty(FELIX_JETTY_STATISTICS_ENABLE, false);
+    }
+
     public boolean isProxyLoadBalancerConnection()
     {
         return getBooleanProperty(FELIX_PROXY_LOAD_BALANCER_CONNECTION_ENABLE, false);
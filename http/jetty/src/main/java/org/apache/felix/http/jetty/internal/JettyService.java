@@ -41,9 +41,15 @@ import javax.servlet.SessionTrackingMode;
 
 import org.apache.felix.http.base.internal.HttpServiceController;
 import org.apache.felix.http.base.internal.logger.SystemLogger;
+import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
 import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.http2.server.AbstractHTTP2ServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
 import org.eclipse.jetty.io.ConnectionStatistics;
 import org.eclipse.jetty.security.HashLoginService;
+import org.eclipse.jetty.server.ConnectionFactory;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.HttpConfiguration;
 import org.eclipse.jetty.server.HttpConnectionFactory;
@@ -315,6 +321,7 @@ public final class JettyService extends AbstractLifeCycle.AbstractLifeCycleListe
         {
             this.controller.getEventDispatcher().setActive(false);
             this.controller.unregister();
+            this.controller.setStatisticsProvider(null);
 
             if (this.fileRequestLog != null)
             {
@@ -368,11 +375,19 @@ public final class JettyService extends AbstractLifeCycle.AbstractLifeCycleListe
         if (this.config.isUseHttp() || this.config.isUseHttps())
         {
 
+            final VirtualThreadPool virtualThreadPool = this.config.isUseVirtualThreads() ? VirtualThreadPool.create() : null;
             final int threadPoolMax = this.config.getThreadPoolMax();
-            if (threadPoolMax >= 0) {
-                this.server = new Server( new QueuedThreadPool(threadPoolMax) );
+            if (virtualThreadPool != null) {
+                this.server = new Server( virtualThreadPool );
             } else {
-                this.server = new Server();
+                if (this.config.isUseVirtualThreads()) {
+                    SystemLogger.warning("Virtual threads are not supported by this Java runtime, using the thread pool", null);
+                }
+                if (threadPoolMax >= 0) {
+                    this.server = new Server( new QueuedThreadPool(threadPoolMax) );
+                } else {
+                    this.server = new Server();
+                }
             }
             this.server.addLifeCycleListener(this);
 
@@ -455,7 +470,9 @@ public final class JettyService extends AbstractLifeCycle.AbstractLifeCycleListe
 
                 message.append(" [");
                 ThreadPool threadPool = this.server.getThreadPool();
-                if (threadPool instanceof ThreadPool.SizedThreadPool) {
+                if (threadPool instanceof VirtualThreadPool) {
+                    message.append("virtualThreads=true,");
+                } else if (threadPool instanceof ThreadPool.SizedThreadPool) {
                     ThreadPool.SizedThreadPool sizedThreadPool = (ThreadPool.SizedThreadPool) threadPool;
                     message.append("minThreads=").append(sizedThreadPool.getMinThreads()).append(",");
                     message.append("maxThreads=").append(sizedThreadPool.getMaxThreads()).append(",");
@@ -467,9 +484,13 @@ public final class JettyService extends AbstractLifeCycle.AbstractLifeCycleListe
                     message.append("acceptors=").append(serverConnector.getAcceptors()).append(",");
                     message.append("selectors=").append(serverConnector.getSelectorManager().getSelectorCount());
                 }
+                if (this.config.isUseHttp2()) {
+                    message.append(",http2=true");
+                }
                 message.append("]");
 
                 SystemLogger.info(message.toString());
+                this.controller.setStatisticsProvider(new JettyStatistics(this.server));
                 this.controller.register(context.getServletContext(), getServiceProperties());
             }
             else
@@ -525,12 +546,20 @@ public final class JettyService extends AbstractLifeCycle.AbstractLifeCycleListe
         HttpConnectionFactory connFactory = new HttpConnectionFactory();
         configureHttpConnectionFactory(connFactory);
 
-        ServerConnector connector = new ServerConnector(
-            server,
-            config.getAcceptors(),
-            config.getSelectors(),
-            connFactory
-        );
+        final ConnectionFactory[] factories;
+        if (this.config.isUseHttp2())
+        {
+            // h2c is negotiated by prior knowledge or HTTP/1.1 upgrade
+            final HTTP2CServerConnectionFactory h2cFactory = new HTTP2CServerConnectionFactory(connFactory.getHttpConfiguration());
+            configureHttp2ConnectionFactory(h2cFactory);
+            factories = new ConnectionFactory[] { connFactory, h2cFactory };
+        }
+        else
+        {
+            factories = new ConnectionFactory[] { connFactory };
+        }
+
+        ServerConnector connector = newServerConnector(factories);
 
         configureConnector(connector, this.config.getHttpPort());
 
@@ -549,17 +578,36 @@ public final class JettyService extends AbstractLifeCycle.AbstractLifeCycleListe
         SslContextFactory sslContextFactory = new SslContextFactory();
         configureSslContextFactory(sslContextFactory);
 
-        ServerConnector connector = new ServerConnector(
-            server,
-            config.getAcceptors(),
-            config.getSelectors(),
-            new SslConnectionFactory(sslContextFactory, HttpVersion.HTTP_1_1.toString()),
-            connFactory
-        );
-
         HttpConfiguration httpConfiguration = connFactory.getHttpConfiguration();
         httpConfiguration.addCustomizer(new SecureRequestCustomizer());
 
+        final ALPNServerConnectionFactory alpnFactory = this.config.isUseHttp2() ? createALPNConnectionFactory() : null;
+        final ServerConnector connector;
+        if (alpnFactory != null)
+        {
+            final HTTP2ServerConnectionFactory h2Factory = new HTTP2ServerConnectionFactory(httpConfiguration);
+            configureHttp2ConnectionFactory(h2Factory);
+            alpnFactory.setDefaultProtocol(connFactory.getProtocol());
+
+            // RFC 7540 blacklists some cipher suites for h2, prefer the allowed ones
+            sslContextFactory.setCipherComparator(HTTP2Cipher.COMPARATOR);
+            sslContextFactory.setUseCipherSuitesOrder(true);
+
+            connector = newServerConnector(
+                new SslConnectionFactory(sslContextFactory, alpnFactory.getProtocol()),
+                alpnFactory,
+                h2Factory,
+                connFactory
+            );
+        }
+        else
+        {
+            connector = newServerConnector(
+                new SslConnectionFactory(sslContextFactory, HttpVersion.HTTP_1_1.toString()),
+                connFactory
+            );
+        }
+
         if (this.config.isProxyLoadBalancerConnection())
         {
             httpConfiguration.addCustomizer(customizerWrapper);
@@ -569,6 +617,54 @@ public final class JettyService extends AbstractLifeCycle.AbstractLifeCycleListe
         return startConnector(connector);
     }
 
+    private ServerConnector newServerConnector(final ConnectionFactory... factories)
+    {
+        if (this.server.getThreadPool() instanceof VirtualThreadPool)
+        {
+            // connections are accepted by the selectors, which run on platform threads
+            return ((VirtualThreadPool) this.server.getThreadPool()).newServerConnector(
+                this.server,
+                this.config.getSelectors(),
+                factories);
+        }
+        return new ServerConnector(
+            this.server,
+            this.config.getAcceptors(),
+            this.config.getSelectors(),
+            factories);
+    }
+
+    /**
+     * Create the ALPN connection factory required to negotiate h2 over TLS.
+     * @return The factory or {@code null} if no ALPN implementation is available.
+     */
+    private ALPNServerConnectionFactory createALPNConnectionFactory()
+    {
+        // the ALPN processors are looked up using the service loader
+        final ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        try
+        {
+            Thread.currentThread().setContextClassLoader(this.getClass().getClassLoader());
+            return new ALPNServerConnectionFactory();
+        }
+        catch (final IllegalStateException e)
+        {
+            SystemLogger.warning("ALPN is not available, HTTPS connector supports HTTP/1.1 only. "
+                + "On Java 9 or later install the org.apache.felix.http.jetty.alpn fragment to enable h2.", e);
+            return null;
+        }
+        finally
+        {
+            Thread.currentThread().setContextClassLoader(cl);
+        }
+    }
+
+    private void configureHttp2ConnectionFactory(final AbstractHTTP2ServerConnectionFactory factory)
+    {
+        factory.setMaxConcurrentStreams(this.config.getHttp2MaxConcurrentStreams());
+        factory.setStreamIdleTimeout(this.config.getHttpTimeout());
+    }
+
     private void configureSslContextFactory(final SslContextFactory connector)
     {
         if (this.config.getKeystoreType() != null)
@@ -644,7 +740,7 @@ public final class JettyService extends AbstractLifeCycle.AbstractLifeCycleListe
         connector.setHost(this.config.getHost());
         connector.setIdleTimeout(this.config.getHttpTimeout());
 
-        if (this.config.isRegisterMBeans())
+        if (this.config.isRegisterMBeans() || this.config.isStatisticsEnabled())
         {
             connector.addBean(new ConnectionStatistics());
         }
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.jetty.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.felix.http.base.internal.service.RuntimeStatisticsProvider;
+import org.eclipse.jetty.io.ConnectionStatistics;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * Reports the utilization of the jetty thread pool and, if enabled, the
+ * connection statistics of all connectors. The values are added to the
+ * service properties of the {@code RuntimeDTO}.
+ */
+public final class JettyStatistics implements RuntimeStatisticsProvider
+{
+    /** Prefix for all statistic properties */
+    public static final String PREFIX = "org.apache.felix.http.jetty.statistics.";
+
+    private final Server server;
+
+    public JettyStatistics(final Server server)
+    {
+        this.server = server;
+    }
+
+    @Override
+    public Map<String, Object> getStatistics()
+    {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+
+        final ThreadPool threadPool = this.server.getThreadPool();
+        stats.put(PREFIX + "threadpool.type", threadPool instanceof VirtualThreadPool ? "virtual" : "platform");
+        stats.put(PREFIX + "threadpool.threads", threadPool.getThreads());
+        stats.put(PREFIX + "threadpool.idle", threadPool.getIdleThreads());
+        stats.put(PREFIX + "threadpool.lowOnThreads", threadPool.isLowOnThreads());
+        if (threadPool instanceof QueuedThreadPool)
+        {
+            final QueuedThreadPool qtp = (QueuedThreadPool) threadPool;
+            stats.put(PREFIX + "threadpool.busy", qtp.getBusyThreads());
+            stats.put(PREFIX + "threadpool.max", qtp.getMaxThreads());
+            stats.put(PREFIX + "threadpool.queued", qtp.getQueueSize());
+        }
+        else if (threadPool instanceof VirtualThreadPool)
+        {
+            final VirtualThreadPool vtp = (VirtualThreadPool) threadPool;
+            stats.put(PREFIX + "threadpool.busy", vtp.getThreads());
+            stats.put(PREFIX + "threadpool.max", vtp.getMaxThreads());
+            stats.put(PREFIX + "threadpool.completed", vtp.getCompletedTasks());
+        }
+
+        long connections = 0;
+        long connectionsMax = 0;
+        long connectionsTotal = 0;
+        long receivedBytes = 0;
+        long sentBytes = 0;
+        boolean hasConnectionStatistics = false;
+        final Connector[] connectors = this.server.getConnectors();
+        if (connectors != null)
+        {
+            for (final Connector connector : connectors)
+            {
+                final ConnectionStatistics cs = connector.getBean(ConnectionStatistics.class);
+                if (cs != null)
+                {
+                    hasConnectionStatistics = true;
+                    connections += cs.getConnections();
+                    connectionsMax += cs.getConnectionsMax();
+                    connectionsTotal += cs.getConnectionsTotal();
+                    receivedBytes += cs.getReceivedBytes();
+                    sentBytes += cs.getSentBytes();
+                }
+            }
+        }
+        if (hasConnectionStatistics)
+        {
+            stats.put(PREFIX + "connections.open", connections);
+            stats.put(PREFIX + "connections.max", connectionsMax);
+            stats.put(PREFIX + "connections.total", connectionsTotal);
+            stats.put(PREFIX + "bytes.received", receivedBytes);
+            stats.put(PREFIX + "bytes.sent", sentBytes);
+        }
+        return stats;
+    }
+}
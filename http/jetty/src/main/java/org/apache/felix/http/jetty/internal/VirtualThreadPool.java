@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.jetty.internal;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.http.base.internal.logger.SystemLogger;
+import org.eclipse.jetty.io.SelectorManager;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * A jetty thread pool running every task on its own virtual thread.
+ * <p>
+ * Virtual threads are only available with Java 21 or later. As this bundle
+ * is compiled for Java 8 the executor is created reflectively, use
+ * {@link #create()} to check whether this pool can be used on the
+ * current runtime.
+ * <p>
+ * Only requests are meant to be processed on virtual threads, the selectors
+ * keep running on platform threads. Connectors must therefore be created with
+ * {@link #newServerConnector(Server, int, ConnectionFactory...)}. This pool is
+ * deliberately no {@code TryExecutor}: jetty's execution strategy then keeps
+ * producing on the selector thread and executes the requests on this pool,
+ * instead of handing over the selector to a pooled thread.
+ */
+public final class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool
+{
+    private static final AtomicInteger SELECTOR_IDS = new AtomicInteger();
+
+    private final ExecutorService executor;
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private VirtualThreadPool(final ExecutorService executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Create a new virtual thread pool.
+     * @return The pool or {@code null} if the runtime does not support virtual threads.
+     */
+    public static VirtualThreadPool create()
+    {
+        try
+        {
+            final Object executor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return new VirtualThreadPool((ExecutorService) executor);
+        }
+        catch (final NoSuchMethodException e)
+        {
+            // Java version does not support virtual threads
+        }
+        catch (final Exception e)
+        {
+            SystemLogger.warning("Unable to create virtual thread executor", e);
+        }
+        return null;
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        this.executor.shutdown();
+        super.doStop();
+    }
+
+    @Override
+    public void execute(final Runnable task)
+    {
+        this.executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final int current = active.incrementAndGet();
+                int max = maxActive.get();
+                while (current > max && !maxActive.compareAndSet(max, current))
+                {
+                    max = maxActive.get();
+                }
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    active.decrementAndGet();
+                    completed.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Create a connector processing its requests on this pool.
+     * <p>
+     * The connector has no acceptor threads, new connections are accepted
+     * by its selectors. The selectors run on platform threads, as they
+     * are long running and block in native code while selecting.
+     * @param server The server
+     * @param selectors The number of selectors, or -1 for a default value
+     * @param factories The connection factories
+     * @return The connector
+     */
+    public ServerConnector newServerConnector(final Server server, final int selectors, final ConnectionFactory... factories)
+    {
+        return new ServerConnector(server, this, null, null, 0, selectors, factories)
+        {
+            @Override
+            protected SelectorManager newSelectorManager(final Executor executor, final Scheduler scheduler, final int selectors)
+            {
+                return new ServerConnectorManager(executor, scheduler, selectors)
+                {
+                    @Override
+                    protected void execute(final Runnable task)
+                    {
+                        // only used to run the selector loops
+                        final Thread thread = new Thread(task, "jetty-selector-" + SELECTOR_IDS.incrementAndGet());
+                        thread.start();
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public void join() throws InterruptedException
+    {
+        while (!this.executor.awaitTermination(1, TimeUnit.SECONDS))
+        {
+            // wait until all tasks are finished
+        }
+    }
+
+    /**
+     * @return The number of virtual threads currently running a task
+     */
+    @Override
+    public int getThreads()
+    {
+        return this.active.get();
+    }
+
+    /**
+     * @return Always {@code 0}, virtual threads are never idle
+     */
+    @Override
+    public int getIdleThreads()
+    {
+        return 0;
+    }
+
+    /**
+     * @return Always {@code false}, virtual threads are not pooled
+     */
+    @Override
+    public boolean isLowOnThreads()
+    {
+        return false;
+    }
+
+    /**
+     * @return The highest number of concurrently running tasks
+     */
+    public int getMaxThreads()
+    {
+        return this.maxActive.get();
+    }
+
+    /**
+     * @return The number of completed tasks
+     */
+    public long getCompletedTasks()
+    {
+        return this.completed.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s{%s,active=%d,max=%d}", getClass().getSimpleName(), getState(), getThreads(), getMaxThreads());
+    }
+}
@@ -18,6 +18,7 @@ package org.apache.felix.http.jetty.internal;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -68,6 +69,23 @@ public class JettyConfigTest
         assertTrue(this.config.getHttpsPort() >= 9000 && this.config.getHttpsPort() < 65535);
     }
 
+    @Test public void testHttp2AndVirtualThreads()
+    {
+        assertFalse(this.config.isUseHttp2());
+        assertFalse(this.config.isUseVirtualThreads());
+        assertEquals(128, this.config.getHttp2MaxConcurrentStreams());
+
+        Hashtable<String, Object> props = new Hashtable<>();
+        props.put(JettyConfig.FELIX_HTTP2_ENABLE, "true");
+        props.put(JettyConfig.FELIX_JETTY_VIRTUAL_THREADS_ENABLE, "true");
+        props.put(JettyConfig.FELIX_JETTY_HTTP2_MAX_CONCURRENT_STREAMS, "64");
+        this.config.update(props);
+
+        assertTrue(this.config.isUseHttp2());
+        assertTrue(this.config.isUseVirtualThreads());
+        assertEquals(64, this.config.getHttp2MaxConcurrentStreams());
+    }
+
     @Test public void testGetPortInvalidRange()
     {
         Hashtable<String, Object> props = new Hashtable<>();
@@ -16,18 +16,32 @@
  */
 package org.apache.felix.http.jetty.internal;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.Dictionary;
 import java.util.EnumSet;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -47,8 +61,10 @@ import org.apache.felix.http.jetty.internal.JettyService.Deployment;
 import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -90,6 +106,8 @@ public class JettyServiceTest
         when(mockBundle.getHeaders()).thenReturn(new Hashtable<String, String>());
         final ServiceReference ref = mock(ServiceReference.class);
         when(ref.getProperty(Constants.SERVICE_ID)).thenReturn(1L);
+        when(ref.getPropertyKeys()).thenReturn(new String[0]);
+        when(ref.getBundle()).thenReturn(mockBundle);
         final ServiceRegistration reg = mock(ServiceRegistration.class);
         when(reg.getReference()).thenReturn(ref);
         when(mockBundleContext.registerService((Class<ServletContextHelper>)Matchers.isNotNull(),
@@ -223,4 +241,123 @@ public class JettyServiceTest
             fail("Test Was not asserted");
         }
     }
-}
\ No newline at end of file
+
+    @Test public void testRequestOnVirtualThreads() throws Exception
+    {
+        Assume.assumeTrue("Virtual threads are not supported", isVirtualThreadSupported());
+
+        final Hashtable<String, Object> props = new Hashtable<>();
+        props.put(JettyConfig.FELIX_JETTY_VIRTUAL_THREADS_ENABLE, true);
+        final JettyService service = startJetty(props);
+        try
+        {
+            assertEquals(404, get(props));
+
+            final Map<String, Object> stats = getRuntime().getRuntimeDTO().serviceDTO.properties;
+            assertEquals("virtual", stats.get(JettyStatistics.PREFIX + "threadpool.type"));
+            assertTrue((Long) stats.get(JettyStatistics.PREFIX + "threadpool.completed") > 0);
+        }
+        finally
+        {
+            service.stop();
+        }
+    }
+
+    @Test public void testH2cUpgrade() throws Exception
+    {
+        final Hashtable<String, Object> props = new Hashtable<>();
+        props.put(JettyConfig.FELIX_HTTP2_ENABLE, true);
+        final JettyService service = startJetty(props);
+        try (Socket socket = new Socket("localhost", (Integer) props.get(JettyConfig.HTTP_PORT)))
+        {
+            socket.setSoTimeout(10000);
+            final OutputStream out = socket.getOutputStream();
+            out.write(("GET / HTTP/1.1\r\n"
+                    + "Host: localhost\r\n"
+                    + "Connection: Upgrade, HTTP2-Settings\r\n"
+                    + "Upgrade: h2c\r\n"
+                    + "HTTP2-Settings: AAMAAABkAAQAAP__\r\n"
+                    + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            assertEquals("HTTP/1.1 101 Switching Protocols", in.readLine());
+        }
+        finally
+        {
+            service.stop();
+        }
+    }
+
+    @Test public void testStatisticsInRuntimeDTO() throws Exception
+    {
+        final Hashtable<String, Object> props = new Hashtable<>();
+        props.put(JettyConfig.FELIX_JETTY_STATISTICS_ENABLE, true);
+        final JettyService service = startJetty(props);
+        try
+        {
+            assertEquals(404, get(props));
+
+            final Map<String, Object> stats = getRuntime().getRuntimeDTO().serviceDTO.properties;
+            assertEquals("platform", stats.get(JettyStatistics.PREFIX + "threadpool.type"));
+            assertTrue((Long) stats.get(JettyStatistics.PREFIX + "connections.total") >= 1);
+        }
+        finally
+        {
+            service.stop();
+        }
+    }
+
+    /**
+     * Start another jetty service on a free port, which is added to the properties.
+     */
+    private JettyService startJetty(final Hashtable<String, Object> props) throws Exception
+    {
+        try (ServerSocket socket = new ServerSocket(0))
+        {
+            props.put(JettyConfig.HTTP_PORT, socket.getLocalPort());
+        }
+        final JettyService service = new JettyService(mockBundleContext, new HttpServiceController(mockBundleContext), props);
+        service.start();
+        return service;
+    }
+
+    private int get(final Hashtable<String, Object> props) throws IOException
+    {
+        final HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:" + props.get(JettyConfig.HTTP_PORT) + "/").openConnection();
+        try
+        {
+            return conn.getResponseCode();
+        }
+        finally
+        {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * The runtime service registered by the last started jetty service.
+     */
+    @SuppressWarnings("unchecked")
+    private HttpServiceRuntime getRuntime()
+    {
+        final ArgumentCaptor<HttpServiceRuntime> captor = ArgumentCaptor.forClass(HttpServiceRuntime.class);
+        verify(mockBundleContext, atLeastOnce()).registerService(Matchers.eq(HttpServiceRuntime.class),
+                captor.capture(), Matchers.any(Dictionary.class));
+        final List<HttpServiceRuntime> runtimes = captor.getAllValues();
+        return runtimes.get(runtimes.size() - 1);
+    }
+
+    private static boolean isVirtualThreadSupported()
+    {
+        try
+        {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        }
+        catch (final NoSuchMethodException e)
+        {
+            return false;
+        }
+    }
+}
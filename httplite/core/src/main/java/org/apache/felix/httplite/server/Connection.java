@@ -20,9 +20,13 @@ package org.apache.felix.httplite.server;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 
 import javax.servlet.ServletException;
 
@@ -40,6 +44,13 @@ import org.apache.felix.httplite.servlet.HttpServletResponseImpl;
  * clients. A given persistent connection is limited in the number of
  * consecutive requests it is allowed to make before having its connection
  * closed as well as after a period of inactivity.
+ * <p>
+ * A connection created for a {@link SocketChannel} is driven by a
+ * {@link SelectorLoop}: the loop reads the request header without blocking
+ * and the connection is only handed to the thread pool once the header is
+ * complete. Each call to {@link #process()} then services a single request
+ * and, if the connection is kept alive, returns the channel to the loop so
+ * that an idle connection does not occupy a thread.
 **/
 public class Connection
 {
@@ -60,6 +71,14 @@ public class Connection
     private final ServiceRegistrationResolver m_resolver;
     private final Logger m_logger;
 
+    // Only used for connections driven by a selector loop.
+    private final SocketChannel m_channel;
+    private final SelectorLoop m_loop;
+    private byte[] m_header = new byte[0];
+    private int m_headerLength = 0;
+    private int m_headerEnd = -1;
+    private volatile long m_lastActivity;
+
     /**
      * Constructs a connection with a default inactivity timeout and request limit.
      *     
@@ -86,6 +105,8 @@ public class Connection
     public Connection(final Socket socket, final int timeout, final int requestLimit, final ServiceRegistrationResolver resolver, final Logger logger) throws IOException
     {
         m_socket = socket;
+        m_channel = null;
+        m_loop = null;
         m_resolver = resolver;
         m_logger = logger;
         m_socket.setSoTimeout(timeout);
@@ -136,6 +157,106 @@ public class Connection
         }
     }
 
+    /**
+     * Constructs a connection for a non-blocking channel accepted by a selector loop.
+     * The streams are created once a complete request header has been read.
+     * @param channel The client channel.
+     * @param timeout The inactivity timeout of the connection in milliseconds.
+     * @param requestLimit The maximum number of consecutive requests.
+     * @param resolver resolves a request URI to a client or servlet registration via the HTTP Service.
+     * @param logger logger instance.
+     * @param loop The selector loop owning the channel while it is idle.
+     * @throws java.io.IOException If any I/O error occurs.
+     */
+    Connection(final SocketChannel channel, final int timeout, final int requestLimit, final ServiceRegistrationResolver resolver, final Logger logger, final SelectorLoop loop) throws IOException
+    {
+        m_channel = channel;
+        m_socket = channel.socket();
+        m_loop = loop;
+        m_resolver = resolver;
+        m_logger = logger;
+        m_socket.setSoTimeout(timeout);
+        m_socket.setTcpNoDelay(true);
+        m_requestLimit = requestLimit;
+        m_lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * @return The channel of this connection or <tt>null</tt> if the connection
+     *         was created for a blocking socket.
+     */
+    SocketChannel getChannel()
+    {
+        return m_channel;
+    }
+
+    /**
+     * @return The time of the last read from the channel.
+     */
+    long getLastActivity()
+    {
+        return m_lastActivity;
+    }
+
+    /**
+     * @return The number of bytes read for the next request so far.
+     */
+    int getHeaderLength()
+    {
+        return m_headerLength;
+    }
+
+    /**
+     * @return <tt>true</tt> if a complete request header has been read.
+     */
+    boolean isHeaderComplete()
+    {
+        return m_headerEnd >= 0;
+    }
+
+    /**
+     * Append the bytes read by the selector loop to the header of the next request.
+     * The bytes after the end of the header are kept as well, they are the start
+     * of the request body.
+     * @param buffer The buffer, flipped for reading.
+     * @return <tt>true</tt> if the header is complete.
+     */
+    boolean appendHeader(final ByteBuffer buffer)
+    {
+        m_lastActivity = System.currentTimeMillis();
+        final int count = buffer.remaining();
+        if (m_headerLength + count > m_header.length)
+        {
+            byte[] header = new byte[Math.max(m_header.length * 2, m_headerLength + count)];
+            System.arraycopy(m_header, 0, header, 0, m_headerLength);
+            m_header = header;
+        }
+        final int start = Math.max(0, m_headerLength - 3);
+        buffer.get(m_header, m_headerLength, count);
+        m_headerLength += count;
+        findHeaderEnd(start);
+        return isHeaderComplete();
+    }
+
+    private void findHeaderEnd(final int start)
+    {
+        // Header lines end in '\n' or '\r\n', the header ends with an empty line.
+        for (int i = start; (m_headerEnd < 0) && (i < m_headerLength); i++)
+        {
+            if (m_header[i] == '\n')
+            {
+                if ((i + 1 < m_headerLength) && (m_header[i + 1] == '\n'))
+                {
+                    m_headerEnd = i + 2;
+                }
+                else if ((i + 2 < m_headerLength) && (m_header[i + 1] == '\r') && (m_header[i + 2] == '\n'))
+                {
+                    m_headerEnd = i + 3;
+                }
+            }
+        }
+    }
+
     /**
      * Performs the actual servicing of the connection and its subsequent requests.
      * This method will be called by threads in the thread pool. This method
@@ -151,6 +272,12 @@ public class Connection
     **/
     public void process() throws IOException, ServletException
     {
+        if (m_loop != null)
+        {
+            processChannel();
+            return;
+        }
+
         HttpServletRequestImpl request = m_resolver.getServletRequest(m_socket);
         HttpServletResponseImpl response = m_resolver.getServletResponse(m_os);
 
@@ -160,106 +287,190 @@ public class Connection
             boolean close = false;
             while (!close)
             {
-                // Read the next request.
-                try
-                {
-                    request.parseRequestLine(m_is);
-                }
-                catch (IOException e)
+                close = processRequest(request, response);
+            }
+        }
+        finally
+        {
+            closeConnection();
+        }
+    }
+
+    /**
+     * Services the single request whose header has been read by the selector loop.
+     * The channel is in blocking mode while the request is processed. If the
+     * connection is kept alive, the channel is returned to the selector loop
+     * afterwards, otherwise it is closed.
+     * @throws IOException If any I/O error occurs.
+     * @throws ServletException on servlet errors
+     */
+    private void processChannel() throws IOException, ServletException
+    {
+        // The bytes read by the selector loop are consumed before reading
+        // from the socket.
+        m_is = new ConcreteServletInputStream(new BufferedInputStream(
+            new SequenceInputStream(new ByteArrayInputStream(m_header, 0, m_headerLength),
+                m_socket.getInputStream())));
+        m_os = new BufferedOutputStream(m_socket.getOutputStream());
+        m_header = new byte[0];
+        m_headerLength = 0;
+        m_headerEnd = -1;
+
+        boolean close = true;
+        try
+        {
+            close = processRequest(m_resolver.getServletRequest(m_socket),
+                m_resolver.getServletResponse(m_os));
+            if (!close)
+            {
+                m_os.flush();
+                // Keep pipelined bytes already read from the socket for the next request.
+                final int available = m_is.available();
+                if (available > 0)
                 {
-                    m_logger.log(
-                        Logger.LOG_ERROR,
-                        "Error with request: " + request.toString() + ": "
-                            + e.getMessage());
-                    throw e;
+                    m_header = new byte[available];
+                    m_headerLength = m_is.read(m_header, 0, available);
+                    findHeaderEnd(0);
                 }
-                m_requestCount++;
+            }
+        }
+        finally
+        {
+            if (close)
+            {
+                closeConnection();
+            }
+            else
+            {
+                m_is = null;
+                m_os = null;
+                m_lastActivity = System.currentTimeMillis();
+                m_loop.returnConnection(this);
+            }
+        }
+    }
 
-                // Keep track of whether we have failed or not,
-                // because we still want to read the bytes to clear
-                // the input stream so we can service more requests.
-                boolean error = false;
+    /**
+     * Reads and services the next request of this connection.
+     * @param request The request
+     * @param response The response
+     * @return <tt>true</tt> if the connection must be closed.
+     * @throws IOException If any I/O error occurs.
+     * @throws ServletException on servlet errors
+     */
+    private boolean processRequest(final HttpServletRequestImpl request, final HttpServletResponseImpl response)
+        throws IOException, ServletException
+    {
+        boolean close = false;
 
-                m_logger.log(Logger.LOG_DEBUG,
-                    "Processing " + request.getRequestURI() + " (" + (m_requestLimit - m_requestCount)
-                        + " remaining)");
+        // Read the next request.
+        try
+        {
+            request.parseRequestLine(m_is);
+        }
+        catch (IOException e)
+        {
+            m_logger.log(
+                Logger.LOG_ERROR,
+                "Error with request: " + request.toString() + ": "
+                    + e.getMessage());
+            throw e;
+        }
+        m_requestCount++;
 
-                // If client is HTTP/1.1, then send continue message.
-                if (request.getProtocol().equals(HttpConstants.HTTP11_VERSION))
-                {
-                    response.sendContinueResponse();
-                }
+        // Keep track of whether we have failed or not,
+        // because we still want to read the bytes to clear
+        // the input stream so we can service more requests.
+        boolean error = false;
 
-                // Read the header lines of the request.
-                request.parseHeader(m_is);
+        m_logger.log(Logger.LOG_DEBUG,
+            "Processing " + request.getRequestURI() + " (" + (m_requestLimit - m_requestCount)
+                + " remaining)");
 
-                // If we have an HTTP/1.0 request without the connection set to
-                // keep-alive or we explicitly have a request to close the connection,
-                // then set close flag to exit the loop rather than trying to read
-                // more requests.
-                String v = request.getHeader(HttpConstants.HEADER_CONNECTION);
-                if ((request.getProtocol().equals(HttpConstants.HTTP10_VERSION) && ((v == null) || (!v.equalsIgnoreCase(HttpConstants.KEEPALIVE_CONNECTION))))
-                    || ((v != null) && v.equalsIgnoreCase(HttpConstants.CLOSE_CONNECTION)))
-                {
-                    close = true;
-                    response.setConnectionType("close");
-                }
-                // If we have serviced the maximum number of requests for
-                // this connection, then set close flag so we exit the loop
-                // and close the connection.
-                else if (m_requestCount >= m_requestLimit)
-                {
-                    close = true;
-                    response.setConnectionType("close");
-                }
+        // If client is HTTP/1.1, then send continue message.
+        if (request.getProtocol().equals(HttpConstants.HTTP11_VERSION))
+        {
+            response.sendContinueResponse();
+        }
 
-                // We do not support OPTIONS method so send
-                // a "not implemented" error in that case.
-                if (!HttpServletRequestImpl.isSupportedMethod(request.getMethod()))
-                {
-                    error = true;
-                    response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
-                    response.sendNotImplementedResponse();
-                }
+        // Read the header lines of the request.
+        request.parseHeader(m_is);
 
-                // Ignore if we have already failed, otherwise send error message
-                // if an HTTP/1.1 client did not include HOST header.
-                if (!error && request.getProtocol().equals(HttpConstants.HTTP11_VERSION)
-                    && (request.getHeader(HttpConstants.HOST_HEADER) == null))
-                {
-                    error = true;
-                    response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
-                    response.sendMissingHostResponse();
-                }
+        // If we have an HTTP/1.0 request without the connection set to
+        // keep-alive or we explicitly have a request to close the connection,
+        // then set close flag to exit the loop rather than trying to read
+        // more requests.
+        String v = request.getHeader(HttpConstants.HEADER_CONNECTION);
+        if ((request.getProtocol().equals(HttpConstants.HTTP10_VERSION) && ((v == null) || (!v.equalsIgnoreCase(HttpConstants.KEEPALIVE_CONNECTION))))
+            || ((v != null) && v.equalsIgnoreCase(HttpConstants.CLOSE_CONNECTION)))
+        {
+            close = true;
+            response.setConnectionType("close");
+        }
+        // If we have serviced the maximum number of requests for
+        // this connection, then set close flag so we exit the loop
+        // and close the connection.
+        else if (m_requestCount >= m_requestLimit)
+        {
+            close = true;
+            response.setConnectionType("close");
+        }
 
-                // Read in the request body.
-                request.parseBody(m_is);
+        // We do not support OPTIONS method so send
+        // a "not implemented" error in that case.
+        if (!HttpServletRequestImpl.isSupportedMethod(request.getMethod()))
+        {
+            error = true;
+            response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
+            response.sendNotImplementedResponse();
+        }
 
-                // Only process the request if there was no error.
-                if (!error)
-                {
-                    ServiceRegistrationHandler processor = m_resolver.getProcessor(
-                        request, response, request.getRequestURI());
+        // Ignore if we have already failed, otherwise send error message
+        // if an HTTP/1.1 client did not include HOST header.
+        if (!error && request.getProtocol().equals(HttpConstants.HTTP11_VERSION)
+            && (request.getHeader(HttpConstants.HOST_HEADER) == null))
+        {
+            error = true;
+            response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
+            response.sendMissingHostResponse();
+        }
+
+        // Read in the request body.
+        request.parseBody(m_is);
 
-                    if (processor != null)
-                    {
-                        processor.handle(close);
+        // Only process the request if there was no error.
+        if (!error)
+        {
+            ServiceRegistrationHandler processor = m_resolver.getProcessor(
+                request, response, request.getRequestURI());
 
-                        m_logger.log(Logger.LOG_DEBUG, "Processed " + request.toString());
+            if (processor != null)
+            {
+                processor.handle(close);
 
-                        // TODO: Adding next line to make test cases pass, but not sure if it is correct
-                        // and needs further investigation.
-                        close = true;
-                        continue;
-                    }
+                m_logger.log(Logger.LOG_DEBUG, "Processed " + request.toString());
 
-                    close = true;
-                    response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
-                    response.sendNotFoundResponse();
-                }
+                // TODO: Adding next line to make test cases pass, but not sure if it is correct
+                // and needs further investigation.
+                // Connections driven by a selector loop honor keep-alive, as
+                // every request gets its own request and response object.
+                return (m_loop == null) || close;
             }
+
+            close = true;
+            response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
+            response.sendNotFoundResponse();
         }
-        finally
+
+        return close;
+    }
+
+    /**
+     * Closes the streams and the socket of this connection.
+     */
+    void closeConnection()
+    {
+        if (m_is != null)
         {
             try
             {
@@ -269,6 +480,9 @@ public class Connection
             {
                 m_logger.log(Logger.LOG_ERROR, "Error closing socket input stream.", ex);
             }
+        }
+        if (m_os != null)
+        {
             try
             {
                 m_os.close();
@@ -277,14 +491,14 @@ public class Connection
             {
                 m_logger.log(Logger.LOG_ERROR, "Error closing socket output stream.", ex);
             }
-            try
-            {
-                m_socket.close();
-            }
-            catch (IOException ex)
-            {
-                m_logger.log(Logger.LOG_ERROR, "Error closing socket.", ex);
-            }
+        }
+        try
+        {
+            m_socket.close();
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error closing socket.", ex);
         }
     }
 }
\ No newline at end of file
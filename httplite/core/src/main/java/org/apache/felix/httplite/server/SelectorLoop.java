@@ -0,0 +1,421 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.server;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.felix.httplite.osgi.Logger;
+import org.apache.felix.httplite.osgi.ServiceRegistrationResolver;
+
+/**
+ * This class implements a selector based front end for the web server. A
+ * single thread accepts connections and reads request headers without
+ * blocking. A connection is only handed to the thread pool once its request
+ * header is complete, idle keep-alive connections are parked in the selector
+ * and do not occupy a thread. All reads of the loop share one direct buffer.
+ * <p>
+ * This front end requires <tt>java.nio</tt>, it is only used if the
+ * <tt>org.apache.felix.http.nio.enable</tt> property is set to <tt>true</tt>.
+**/
+public class SelectorLoop implements Runnable
+{
+    /**
+     * Maximum size of a request header in bytes.
+     */
+    public static final int MAX_HEADER_SIZE = 16 * 1024;
+
+    /**
+     * Interval in milliseconds for checking idle connections.
+     */
+    private static final int SELECT_INTERVAL = 1000;
+
+    private final Selector m_selector;
+    private final ServerSocketChannel m_serverChannel;
+    private final ByteBuffer m_readBuffer = ByteBuffer.allocateDirect(4096);
+    private final List m_returnedConnections = new ArrayList();
+    private final ThreadPool m_threadPool;
+    private final int m_connectionTimeout;
+    private final int m_connectionRequestLimit;
+    private final ServiceRegistrationResolver m_resolver;
+    private final Logger m_logger;
+
+    private volatile boolean m_running = true;
+    private long m_lastIdleCheck = System.currentTimeMillis();
+
+    /**
+     * Opens the server channel and the selector.
+     * @param bindAddr Address of the interface to bind to or <tt>null</tt> for all interfaces.
+     * @param port The port to listen on.
+     * @param threadPool The thread pool servicing requests.
+     * @param connectionTimeout The inactivity timeout of connections in milliseconds.
+     * @param connectionRequestLimit The maximum number of consecutive requests per connection.
+     * @param resolver resolves a request URI to a client or servlet registration via the HTTP Service.
+     * @param logger Logger instance.
+     * @throws IOException If the server channel can't be opened.
+     */
+    public SelectorLoop(final InetAddress bindAddr, final int port, final ThreadPool threadPool,
+        final int connectionTimeout, final int connectionRequestLimit,
+        final ServiceRegistrationResolver resolver, final Logger logger) throws IOException
+    {
+        m_threadPool = threadPool;
+        m_connectionTimeout = connectionTimeout;
+        m_connectionRequestLimit = connectionRequestLimit;
+        m_resolver = resolver;
+        m_logger = logger;
+
+        m_selector = Selector.open();
+        m_serverChannel = ServerSocketChannel.open();
+        try
+        {
+            bind(m_serverChannel.socket(), (bindAddr == null) ? new InetSocketAddress(port)
+                : new InetSocketAddress(bindAddr, port));
+            m_serverChannel.configureBlocking(false);
+            m_serverChannel.register(m_selector, SelectionKey.OP_ACCEPT);
+        }
+        catch (IOException ex)
+        {
+            m_serverChannel.close();
+            m_selector.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Binds the server socket of the channel. ServerSocket.bind() is not part
+     * of the Java 1.3 API the bundle is checked against, so it is called
+     * reflectively instead of ignoring ServerSocket in the signature check.
+     */
+    private static void bind(final ServerSocket socket, final SocketAddress address) throws IOException
+    {
+        try
+        {
+            Method bind = ServerSocket.class.getMethod("bind", new Class[] { SocketAddress.class });
+            bind.invoke(socket, new Object[] { address });
+        }
+        catch (InvocationTargetException ex)
+        {
+            Throwable target = ex.getTargetException();
+            if (target instanceof IOException)
+            {
+                throw (IOException) target;
+            }
+            if (target instanceof RuntimeException)
+            {
+                throw (RuntimeException) target;
+            }
+            throw new IOException(target.toString());
+        }
+        catch (Exception ex)
+        {
+            throw new IOException(ex.toString());
+        }
+    }
+
+    /**
+     * Stops the loop, the calling thread does not wait for the loop to exit.
+     */
+    public void stop()
+    {
+        m_running = false;
+        m_selector.wakeup();
+    }
+
+    /**
+     * Returns a kept alive connection to the loop once its request has been
+     * serviced. This is called by the thread pool threads.
+     * @param connection The connection.
+     */
+    void returnConnection(final Connection connection)
+    {
+        synchronized (m_returnedConnections)
+        {
+            if (m_running)
+            {
+                m_returnedConnections.add(connection);
+                m_selector.wakeup();
+                return;
+            }
+        }
+        connection.closeConnection();
+    }
+
+    /**
+     * This method is the main loop of the selector thread.
+     */
+    public void run()
+    {
+        m_logger.log(Logger.LOG_DEBUG, "Waiting for connections.");
+
+        final List ready = new ArrayList();
+        boolean pending = false;
+        while (m_running)
+        {
+            try
+            {
+                registerReturnedConnections(ready);
+
+                if (pending || !ready.isEmpty())
+                {
+                    m_selector.selectNow();
+                }
+                else
+                {
+                    m_selector.select(SELECT_INTERVAL);
+                }
+
+                for (Iterator i = m_selector.selectedKeys().iterator(); i.hasNext();)
+                {
+                    SelectionKey key = (SelectionKey) i.next();
+                    i.remove();
+                    if (!key.isValid())
+                    {
+                        continue;
+                    }
+                    if (key.isAcceptable())
+                    {
+                        accept();
+                    }
+                    else if (key.isReadable())
+                    {
+                        read(key, ready);
+                    }
+                }
+
+                pending = false;
+                if (!ready.isEmpty())
+                {
+                    // The keys of the ready connections have been cancelled, a
+                    // selection operation is required to deregister their
+                    // channels before they can be switched to blocking mode.
+                    m_selector.selectNow();
+                    pending = !m_selector.selectedKeys().isEmpty();
+                    dispatch(ready);
+                }
+
+                closeIdleConnections();
+            }
+            catch (IOException ex)
+            {
+                if (m_running)
+                {
+                    m_logger.log(Logger.LOG_ERROR, "Error in selector loop.", ex);
+                }
+            }
+        }
+
+        close();
+    }
+
+    private void accept() throws IOException
+    {
+        SocketChannel channel = m_serverChannel.accept();
+        if (channel == null)
+        {
+            return;
+        }
+        try
+        {
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel, m_connectionTimeout,
+                m_connectionRequestLimit, m_resolver, m_logger, this);
+            channel.register(m_selector, SelectionKey.OP_READ, connection);
+            m_logger.log(Logger.LOG_DEBUG, "Accepted a new connection.");
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error creating connection.", ex);
+            closeChannel(channel);
+        }
+    }
+
+    private void read(final SelectionKey key, final List ready)
+    {
+        Connection connection = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        try
+        {
+            m_readBuffer.clear();
+            int count = channel.read(m_readBuffer);
+            if (count < 0)
+            {
+                // Client closed the connection.
+                key.cancel();
+                connection.closeConnection();
+                return;
+            }
+            m_readBuffer.flip();
+            if (connection.appendHeader(m_readBuffer))
+            {
+                key.cancel();
+                ready.add(connection);
+            }
+            else if (connection.getHeaderLength() > MAX_HEADER_SIZE)
+            {
+                m_logger.log(Logger.LOG_INFO, "Closing connection, request header too large.");
+                key.cancel();
+                connection.closeConnection();
+            }
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_DEBUG, "Error reading from connection.", ex);
+            key.cancel();
+            connection.closeConnection();
+        }
+    }
+
+    private void dispatch(final List ready)
+    {
+        for (Iterator i = ready.iterator(); i.hasNext();)
+        {
+            Connection connection = (Connection) i.next();
+            try
+            {
+                connection.getChannel().configureBlocking(true);
+                m_threadPool.addConnection(connection);
+            }
+            catch (Exception ex)
+            {
+                m_logger.log(Logger.LOG_ERROR, "Error dispatching connection.", ex);
+                connection.closeConnection();
+            }
+        }
+        ready.clear();
+    }
+
+    private void registerReturnedConnections(final List ready)
+    {
+        Connection[] connections;
+        synchronized (m_returnedConnections)
+        {
+            if (m_returnedConnections.isEmpty())
+            {
+                return;
+            }
+            connections = (Connection[]) m_returnedConnections.toArray(
+                new Connection[m_returnedConnections.size()]);
+            m_returnedConnections.clear();
+        }
+
+        for (int i = 0; i < connections.length; i++)
+        {
+            Connection connection = connections[i];
+            if (connection.isHeaderComplete())
+            {
+                // The next request has already been read, the channel is
+                // still in blocking mode and can be dispatched directly.
+                ready.add(connection);
+                continue;
+            }
+            try
+            {
+                connection.getChannel().configureBlocking(false);
+                connection.getChannel().register(m_selector, SelectionKey.OP_READ, connection);
+            }
+            catch (IOException ex)
+            {
+                m_logger.log(Logger.LOG_DEBUG, "Error registering connection.", ex);
+                connection.closeConnection();
+            }
+        }
+    }
+
+    private void closeIdleConnections()
+    {
+        long now = System.currentTimeMillis();
+        if ((m_connectionTimeout <= 0) || (now - m_lastIdleCheck < SELECT_INTERVAL))
+        {
+            return;
+        }
+        m_lastIdleCheck = now;
+
+        for (Iterator i = m_selector.keys().iterator(); i.hasNext();)
+        {
+            SelectionKey key = (SelectionKey) i.next();
+            Object attachment = key.attachment();
+            if (key.isValid() && (attachment instanceof Connection)
+                && (now - ((Connection) attachment).getLastActivity() >= m_connectionTimeout))
+            {
+                m_logger.log(Logger.LOG_INFO, "Connection closed due to inactivity.");
+                key.cancel();
+                ((Connection) attachment).closeConnection();
+            }
+        }
+    }
+
+    private void close()
+    {
+        synchronized (m_returnedConnections)
+        {
+            m_running = false;
+        }
+        for (Iterator i = m_selector.keys().iterator(); i.hasNext();)
+        {
+            SelectionKey key = (SelectionKey) i.next();
+            if (key.attachment() instanceof Connection)
+            {
+                ((Connection) key.attachment()).closeConnection();
+            }
+        }
+        synchronized (m_returnedConnections)
+        {
+            for (Iterator i = m_returnedConnections.iterator(); i.hasNext();)
+            {
+                ((Connection) i.next()).closeConnection();
+            }
+            m_returnedConnections.clear();
+        }
+        closeChannel(m_serverChannel);
+        try
+        {
+            m_selector.close();
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error closing selector.", ex);
+        }
+    }
+
+    private void closeChannel(final Channel channel)
+    {
+        try
+        {
+            channel.close();
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error closing channel.", ex);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.osgi.test.cases;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+
+import javax.servlet.ServletException;
+
+import org.apache.felix.httplite.osgi.test.AbstractHttpliteTestCase;
+import org.apache.felix.httplite.osgi.test.BasicTestingServlet;
+import org.apache.felix.httplite.server.Server;
+import org.osgi.service.http.HttpService;
+import org.osgi.service.http.NamespaceException;
+
+
+/**
+ * Tests for the selector based front end.
+ *
+ */
+public class TestSelectorConnections extends AbstractHttpliteTestCase
+{
+
+    protected void setUp() throws Exception
+    {
+        System.setProperty( Server.CONFIG_PROPERTY_NIO_ENABLE, "true" );
+        super.setUp();
+    }
+
+
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        System.getProperties().remove( Server.CONFIG_PROPERTY_NIO_ENABLE );
+    }
+
+
+    public void testRequest() throws ServletException, NamespaceException, IOException
+    {
+        HttpService httpService = getHTTPService( registry.getBundleContext() );
+
+        BasicTestingServlet testServlet = new BasicTestingServlet( "test", true );
+        httpService.registerServlet( "/test", testServlet, null, null );
+
+        HttpURLConnection client = getConnection( DEFAULT_BASE_URL + "/test/a", "GET" );
+
+        client.connect();
+        assertEquals( 200, client.getResponseCode() );
+        assertEquals( "test", readInputAsString( client.getInputStream() ) );
+        assertEquals( "/a", testServlet.getPathInfo() );
+    }
+
+
+    public void testKeepAlive() throws ServletException, NamespaceException, IOException
+    {
+        HttpService httpService = getHTTPService( registry.getBundleContext() );
+
+        BasicTestingServlet testServlet = new BasicTestingServlet( "test", true );
+        httpService.registerServlet( "/test", testServlet, null, null );
+
+        Socket socket = new Socket( "localhost", DEFAULT_PORT );
+        try
+        {
+            socket.setSoTimeout( 5000 );
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            // Send the header in two parts to have it assembled by the selector.
+            out.write( "GET /test/a HTTP/1.1\r\nHost: loc".getBytes() );
+            out.flush();
+            out.write( "alhost\r\n\r\n".getBytes() );
+            out.flush();
+            assertEquals( "test", readResponseBody( in ) );
+            assertEquals( "/a", testServlet.getPathInfo() );
+
+            // The second request uses the same connection.
+            out.write( "GET /test/b HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes() );
+            out.flush();
+            assertEquals( "test", readResponseBody( in ) );
+            assertEquals( "/b", testServlet.getPathInfo() );
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+
+    public void testNotFound() throws ServletException, NamespaceException, IOException
+    {
+        HttpService httpService = getHTTPService( registry.getBundleContext() );
+
+        httpService.registerServlet( "/test", new BasicTestingServlet(), null, null );
+
+        HttpURLConnection client = getConnection( DEFAULT_BASE_URL + "/unknown", "GET" );
+
+        client.connect();
+        assertEquals( 404, client.getResponseCode() );
+    }
+
+
+    /**
+     * Read a 200 response, skipping interim 100 responses, and return its body.
+     */
+    private static String readResponseBody( InputStream in ) throws IOException
+    {
+        int contentLength = -1;
+        boolean ok = false;
+        while ( !ok )
+        {
+            String status = readLine( in );
+            ok = status.indexOf( " 200 " ) > 0;
+            for ( String line = readLine( in ); line.length() > 0; line = readLine( in ) )
+            {
+                if ( line.toLowerCase().startsWith( "content-length:" ) )
+                {
+                    contentLength = Integer.parseInt( line.substring( 15 ).trim() );
+                }
+            }
+        }
+        assertTrue( contentLength >= 0 );
+
+        byte[] body = new byte[contentLength];
+        int read = 0;
+        while ( read < contentLength )
+        {
+            int count = in.read( body, read, contentLength - read );
+            assertTrue( count > 0 );
+            read += count;
+        }
+        return new String( body );
+    }
+
+
+    private static String readLine( InputStream in ) throws IOException
+    {
+        StringBuffer sb = new StringBuffer();
+        for ( int c = in.read(); c != '\n'; c = in.read() )
+        {
+            assertTrue( c >= 0 );
+            if ( c != '\r' )
+            {
+                sb.append( ( char ) c );
+            }
+        }
+        return sb.toString();
+    }
+}
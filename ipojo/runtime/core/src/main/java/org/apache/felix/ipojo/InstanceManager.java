@@ -29,6 +29,8 @@ import org.osgi.framework.BundleContext;
 
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * This class defines the container of primitive instances. It manages content initialization
@@ -138,10 +140,12 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
     private List m_stateQueue = new ArrayList();
 
     /**
-     * The map of [field, value], storing POJO managed
-     * field value.
+     * The map of [field, {@link FieldSlot}], storing POJO managed
+     * field values and the interceptors monitoring them.
+     * Slots are created when fields are registered, so
+     * field accesses don't need to lock the instance manager.
      */
-    private Map m_fields = new HashMap();
+    private final ConcurrentMap m_fields = new ConcurrentHashMap();
 
     /**
      * The Map storing the Method objects by ids.
@@ -368,8 +372,9 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
     public synchronized Object getFieldValue(String fieldName, Object pojo) {
         Object setByContainer = null;
 
-        if (m_fields != null) {
-            setByContainer = m_fields.get(fieldName);
+        FieldSlot slot = (FieldSlot) m_fields.get(fieldName);
+        if (slot != null) {
+            setByContainer = slot.m_value;
         }
 
         if (setByContainer == null && pojo != null) { // In the case of no given pojo, return null.
@@ -1079,6 +1084,8 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
                 m_fieldRegistration.put(field.getFieldName(), newList);
             }
         }
+        getFieldSlot(field.getFieldName()).m_interceptors =
+                (FieldInterceptor[]) m_fieldRegistration.get(field.getFieldName());
     }
 
     /**
@@ -1180,14 +1187,15 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
      * @return the value decided by the last asked handler (throws a warning if two fields decide two different values)
      */
     public Object onGet(Object pojo, String fieldName) {
-        Object initialValue = null;
-        synchronized (this) { // Stack confinement.
-            initialValue = m_fields.get(fieldName);
+        FieldSlot slot = (FieldSlot) m_fields.get(fieldName);
+        if (slot == null) {
+            return null; // Neither registered nor set.
         }
+        Object initialValue = slot.m_value;
         Object result = initialValue;
         boolean hasChanged = false;
         // Get the list of registered handlers
-        FieldInterceptor[] list = (FieldInterceptor[]) m_fieldRegistration.get(fieldName); // Immutable list.
+        FieldInterceptor[] list = slot.m_interceptors; // Immutable list.
         for (int i = 0; list != null && i < list.length; i++) {
             // Call onGet outside of a synchronized block.
             Object handlerResult = list[i].onGet(pojo, fieldName, initialValue);
@@ -1210,10 +1218,7 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
         }
         if (hasChanged) {
             // A change occurs => notify the change
-            //TODO consider just changing the reference, however multiple thread can be an issue
-            synchronized (this) {
-                m_fields.put(fieldName, result);
-            }
+            slot.m_value = result;
             // Call onset outside of a synchronized block.
             for (int i = 0; list != null && i < list.length; i++) {
                 list[i].onSet(pojo, fieldName, result);
@@ -1388,22 +1393,36 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
      * @param objectValue the new value of the field
      */
     public void onSet(final Object pojo, final String fieldName, final Object objectValue) {
-        synchronized (this) {
-            // First, store the new value.
-            // This must be done in a synchronized block to avoid
-            // concurrent modification
-            m_fields.put(fieldName, objectValue);
-        }
+        // First, store the new value.
+        FieldSlot slot = getFieldSlot(fieldName);
+        slot.m_value = objectValue;
         // The registrations cannot be modified, so we can directly access
         // the interceptor list.
-        FieldInterceptor[] list = (FieldInterceptor[]) m_fieldRegistration
-                .get(fieldName);
+        FieldInterceptor[] list = slot.m_interceptors;
         for (int i = 0; list != null && i < list.length; i++) {
             // The callback must be call outside the synchronization block.
             list[i].onSet(pojo, fieldName, objectValue);
         }
     }
 
+    /**
+     * Gets the slot storing the value of the given field, creating it if needed.
+     *
+     * @param fieldName the field name
+     * @return the slot of the field
+     */
+    private FieldSlot getFieldSlot(String fieldName) {
+        FieldSlot slot = (FieldSlot) m_fields.get(fieldName);
+        if (slot == null) {
+            FieldSlot newSlot = new FieldSlot();
+            slot = (FieldSlot) m_fields.putIfAbsent(fieldName, newSlot);
+            if (slot == null) {
+                slot = newSlot;
+            }
+        }
+        return slot;
+    }
+
 
     /**
      * Gets the bundle context used by this component instance.
@@ -1575,4 +1594,21 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
     public BundleContext getInstanceContext() {
         return m_instanceContext;
     }
+
+    /**
+     * The value of a managed field and the interceptors monitoring it.
+     * Reading the field value is a single volatile read.
+     */
+    private static final class FieldSlot {
+        /**
+         * The current field value.
+         */
+        private volatile Object m_value;
+
+        /**
+         * The interceptors monitoring the field.
+         * Once configured, this array can't change.
+         */
+        private volatile FieldInterceptor[] m_interceptors;
+    }
 }
@@ -115,6 +115,12 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
      */
     private int m_timeout;
 
+    /**
+     * The service objects resolved for the last seen binding version.
+     * Shared by all threads, replaced when the bindings change.
+     */
+    private volatile Snapshot m_snapshot;
+
     /**
      * Dependency constructor. After the creation the dependency is not started.
      *
@@ -213,6 +219,7 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
         acquireWriteLockIfNotHeld();
         m_isStarted = false;
         super.stop();
+        m_snapshot = null;
         releaseWriteLockIfHeld();
 
     }
@@ -753,10 +760,19 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
     /**
      * Creates the object to store in the given Thread Local.
      * This object will be injected inside the POJO field.
+     * The service objects are resolved once per binding version and shared by
+     * all threads, so this method only looks up the service registry when the
+     * bindings have changed.
      *
      * @param usage : Thread Local to populate.
      */
     private void createServiceObject(Usage usage) {
+        Snapshot snapshot = m_snapshot;
+        if (snapshot != null && snapshot.m_version == getBindingVersion()) {
+            usage.m_object = copyServiceObject(snapshot.m_object);
+            return;
+        }
+
         ServiceReference[] refs = getServiceReferences();
 
         // manage timeout
@@ -764,6 +780,7 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
             waitForServiceUntilTimeout();
         }
 
+        int version = getBindingVersion();
         refs = getServiceReferences();
 
         if (!isAggregate()) {
@@ -810,7 +827,7 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
                         for (ServiceReference ref : refs) {
                             objs.add(getService(ref));
                         }
-                        usage.m_object = objs;
+                        usage.m_object = Collections.unmodifiableList(objs);
                     }
                     break;
                 case SET:
@@ -822,7 +839,7 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
                         for (ServiceReference ref : refs) {
                             objs.add(getService(ref));
                         }
-                        usage.m_object = objs;
+                        usage.m_object = Collections.unmodifiableSet(objs);
                     }
                     break;
                 case VECTOR:
@@ -839,6 +856,29 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
                     break;
             }
         }
+
+        // No provider is not cached as we have to wait again on the next access.
+        if (refs != null) {
+            m_snapshot = new Snapshot(version, usage.m_object);
+            usage.m_object = copyServiceObject(usage.m_object);
+        }
+    }
+
+    /**
+     * Gets the object to inject from a shared snapshot object.
+     * Lists and sets are unmodifiable and shared, arrays and vectors cannot be
+     * made immutable so each thread gets its own copy.
+     *
+     * @param object : the snapshot object.
+     * @return the object to inject.
+     */
+    private Object copyServiceObject(Object object) {
+        if (isAggregate() && m_type == AggregateDependencyInjectionType.ARRAY) {
+            return ((Object[]) object).clone();
+        } else if (isAggregate() && m_type == AggregateDependencyInjectionType.VECTOR) {
+            return new Vector<Object>((Vector) object);
+        }
+        return object;
     }
 
     /**
@@ -1256,4 +1296,25 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
 
     }
 
+
+    /**
+     * Service objects resolved for a given binding version.
+     * Immutable, the injected object is either a service object, an unmodifiable
+     * collection or an array / vector copied before being injected.
+     */
+    private static final class Snapshot {
+        /**
+         * The binding version used to resolve the service objects.
+         */
+        private final int m_version;
+        /**
+         * The object to inject.
+         */
+        private final Object m_object;
+
+        private Snapshot(int version, Object object) {
+            m_version = version;
+            m_object = object;
+        }
+    }
 }
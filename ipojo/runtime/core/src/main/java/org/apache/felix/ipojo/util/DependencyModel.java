@@ -133,6 +133,11 @@ public abstract class DependencyModel {
      * The current list of bound services.
      */
     private List<ServiceReference> m_boundServices = new ArrayList<ServiceReference>();
+    /**
+     * The version of the bindings, incremented each time the bound services
+     * or their service objects change. Only modified while holding the write lock.
+     */
+    private volatile int m_bindingVersion;
     /**
      * The lock ensuring state consistency of the dependency.
      * This lock can be acquired from all collaborators.
@@ -254,6 +259,7 @@ public abstract class DependencyModel {
             m_boundServices.clear();
             m_serviceReferenceManager.close();
             ungetAllServices();
+            m_bindingVersion++;
             m_state = UNRESOLVED;
             if (m_contextSourceManager != null) {
                 m_contextSourceManager.stop();
@@ -407,6 +413,17 @@ public abstract class DependencyModel {
         }
     }
 
+    /**
+     * Gets the version of the bindings. The version changes each time the
+     * bound services or their service objects change, so objects computed
+     * from the bindings can be reused as long as the version is unchanged.
+     *
+     * @return the current binding version.
+     */
+    public int getBindingVersion() {
+        return m_bindingVersion;
+    }
+
     /**
      * Gets the list of currently used service references.
      * If no service references, returns <code>null</code>
@@ -711,6 +728,7 @@ public abstract class DependencyModel {
                         }
                     }
                 }
+                m_bindingVersion++;
             }
         } finally {
             releaseWriteLockIfHeld();
@@ -777,6 +795,7 @@ public abstract class DependencyModel {
                     }
                 }
                 // Else, do nothing.
+                m_bindingVersion++;
             }
         } finally {
             releaseWriteLockIfHeld();
@@ -957,6 +976,7 @@ public abstract class DependencyModel {
         try {
             acquireWriteLockIfNotHeld();
             sbh = m_serviceObjects.remove(ref);
+            m_bindingVersion++;
         } finally {
             releaseWriteLockIfHeld();
         }
@@ -1084,6 +1104,10 @@ public abstract class DependencyModel {
                 }
             }
 
+            if (!arrivals.isEmpty() || !departures.isEmpty() || m_aggregate) {
+                m_bindingVersion++;
+            }
+
             // Before leaving the protected region, copy used services.
             Map<ServiceReference, ServiceBindingHolder> services = new HashMap<ServiceReference, ServiceBindingHolder>(m_serviceObjects);
 
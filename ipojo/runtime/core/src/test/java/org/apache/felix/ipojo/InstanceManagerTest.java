@@ -20,6 +20,7 @@ package org.apache.felix.ipojo;
 
 import org.apache.felix.ipojo.metadata.Attribute;
 import org.apache.felix.ipojo.metadata.Element;
+import org.apache.felix.ipojo.parser.FieldMetadata;
 import org.apache.felix.ipojo.parser.MethodMetadata;
 import org.junit.Test;
 import org.osgi.framework.Bundle;
@@ -125,6 +126,91 @@ public class InstanceManagerTest {
         assertThat(error.get()).isEqualTo(0);
     }
 
+    @Test
+    public void testFieldAccess() throws ConfigurationException, ClassNotFoundException {
+        InstanceManager manager = createInstanceManager();
+        final AtomicInteger sets = new AtomicInteger();
+        final Object injected = new Object();
+        manager.register(new FieldMetadata("foo", "java.lang.Object"), new FieldInterceptor() {
+            public void onSet(Object pojo, String fieldName, Object value) {
+                sets.incrementAndGet();
+            }
+
+            public Object onGet(Object pojo, String fieldName, Object value) {
+                return injected;
+            }
+        });
+
+        // The injected value is advertised once, then kept
+        assertThat(manager.onGet(null, "foo")).isSameAs(injected);
+        assertThat(manager.onGet(null, "foo")).isSameAs(injected);
+        assertThat(sets.get()).isEqualTo(1);
+        assertThat(manager.getFieldValue("foo", null)).isSameAs(injected);
+
+        manager.onSet(null, "foo", "bar");
+        assertThat(sets.get()).isEqualTo(2);
+        assertThat(manager.getFieldValue("foo", null)).isEqualTo("bar");
+
+        // Fields without interceptors
+        assertThat(manager.onGet(null, "baz")).isNull();
+        manager.onSet(null, "baz", "value");
+        assertThat(manager.onGet(null, "baz")).isEqualTo("value");
+    }
+
+    @Test
+    public void testConcurrentFieldAccess() throws InterruptedException, ConfigurationException, ClassNotFoundException {
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        final AtomicInteger error = new AtomicInteger();
+        final InstanceManager manager = createInstanceManager();
+        manager.register(new FieldMetadata("foo", "java.lang.Integer"), new FieldInterceptor() {
+            public void onSet(Object pojo, String fieldName, Object value) {
+            }
+
+            public Object onGet(Object pojo, String fieldName, Object value) {
+                return value;
+            }
+        });
+        manager.onSet(null, "foo", 0);
+
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final CountDownLatch doneSignal = new CountDownLatch(CALLERS);
+        for (int i = 1; i < CALLERS + 1; ++i) {
+            final int value = i;
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        startSignal.await();
+                        manager.onSet(null, "foo", value);
+                        Object read = manager.onGet(null, "foo");
+                        if (!(read instanceof Integer) || ((Integer) read) > CALLERS) {
+                            error.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    } finally {
+                        doneSignal.countDown();
+                    }
+                }
+            });
+        }
+
+        startSignal.countDown();
+        assertThat(doneSignal.await(1, TimeUnit.MINUTES)).isTrue();
+        assertThat(error.get()).isEqualTo(0);
+        executor.shutdown();
+    }
+
+    private InstanceManager createInstanceManager() throws ConfigurationException, ClassNotFoundException {
+        ComponentFactory factory = mock(ComponentFactory.class);
+        when(factory.loadClass(anyString())).thenReturn(MyComponent.class);
+        when(factory.getClassName()).thenReturn(MyComponent.class.getName());
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getHeaders()).thenReturn(new Hashtable<String, String>());
+        BundleContext context = mock(BundleContext.class);
+        when(context.getBundle()).thenReturn(bundle);
+        return new InstanceManager(factory, context, new HandlerManager[0]);
+    }
+
     private class Caller implements Runnable {
 
         private final CountDownLatch startSignal;
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.ipojo.handlers.dependency;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import org.apache.felix.ipojo.ComponentFactory;
+import org.apache.felix.ipojo.InstanceManager;
+import org.apache.felix.ipojo.dependency.interceptors.TransformedServiceReference;
+import org.apache.felix.ipojo.test.MockBundle;
+import org.apache.felix.ipojo.util.Logger;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that the injected service objects are shared until the bindings change.
+ */
+public class DependencySnapshotTest extends TestCase {
+
+    private BundleContext context;
+
+    private DependencyHandler handler;
+
+    private Map<ServiceReference, Object> services = new HashMap<ServiceReference, Object>();
+
+    private int getServiceCalls;
+
+    public void setUp() throws Exception {
+        Bundle bundle = new MockBundle(Dependency.class.getClassLoader());
+
+        context = Mockito.mock(BundleContext.class);
+        Mockito.when(context.getProperty(DependencyHandler.PROXY_TYPE_PROPERTY)).thenReturn(null);
+        Mockito.when(context.getProperty(Logger.IPOJO_LOG_LEVEL_PROP)).thenReturn(null);
+        Mockito.when(context.getBundle()).thenReturn(bundle);
+
+        ComponentFactory factory = Mockito.mock(ComponentFactory.class);
+        Mockito.when(factory.getBundleClassLoader()).thenReturn(Dependency.class.getClassLoader());
+
+        InstanceManager im = Mockito.mock(InstanceManager.class);
+        Mockito.when(im.getContext()).thenReturn(context);
+        Mockito.when(im.getFactory()).thenReturn(factory);
+
+        handler = Mockito.mock(DependencyHandler.class);
+        Mockito.when(handler.getInstanceManager()).thenReturn(im);
+        Mockito.when(handler.getLogger()).thenReturn(new Logger(context, "test", Logger.INFO));
+
+        Mockito.when(context.getService(Mockito.<ServiceReference>any())).thenAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                ServiceReference reference = (ServiceReference) invocation.getArguments()[0];
+                if (reference instanceof TransformedServiceReference) {
+                    reference = ((TransformedServiceReference) reference).getWrappedReference();
+                }
+                getServiceCalls++;
+                return services.get(reference);
+            }
+        });
+    }
+
+    public void testAggregateIsSharedBetweenAccesses() throws Exception {
+        ServiceReference ref1 = createReference(1);
+        ServiceReference ref2 = createReference(2);
+        Runnable svc1 = Mockito.mock(Runnable.class);
+        Runnable svc2 = Mockito.mock(Runnable.class);
+        Mockito.when(context.getServiceReferences(Runnable.class.getName(), null))
+                .thenReturn(new ServiceReference[] {ref1, ref2});
+        registerService(ref1, svc1);
+        registerService(ref2, svc2);
+
+        Dependency dependency = new Dependency(handler, "a_field", Runnable.class, null, true, true, false,
+                false, "dep", context, Dependency.DYNAMIC_BINDING_POLICY, null, null, null);
+        dependency.setAggregateType(AggregateDependencyInjectionType.LIST);
+        dependency.start();
+
+        List first = (List) dependency.onGet(new Object(), "a_field", null);
+        Assert.assertEquals(2, first.size());
+        Assert.assertTrue(first.contains(svc1));
+        Assert.assertTrue(first.contains(svc2));
+        int version = dependency.getBindingVersion();
+
+        // Another access with the same bindings gets the same list, without looking up the services again.
+        dependency.resetLocalCache();
+        List second = (List) dependency.onGet(new Object(), "a_field", null);
+        Assert.assertSame(first, second);
+        Assert.assertEquals(version, dependency.getBindingVersion());
+        Assert.assertEquals(2, getServiceCalls);
+
+        try {
+            second.add(svc1);
+            fail("The injected list must be unmodifiable");
+        } catch (UnsupportedOperationException e) {
+            // OK
+        }
+
+        dependency.stop();
+        Assert.assertTrue(dependency.getBindingVersion() != version);
+    }
+
+    public void testArrayIsCopiedForEachAccess() throws Exception {
+        ServiceReference ref1 = createReference(1);
+        Runnable svc1 = Mockito.mock(Runnable.class);
+        Mockito.when(context.getServiceReferences(Runnable.class.getName(), null))
+                .thenReturn(new ServiceReference[] {ref1});
+        registerService(ref1, svc1);
+
+        Dependency dependency = new Dependency(handler, "a_field", Runnable.class, null, true, true, false,
+                false, "dep", context, Dependency.DYNAMIC_BINDING_POLICY, null, null, null);
+        dependency.setAggregateType(AggregateDependencyInjectionType.ARRAY);
+        dependency.start();
+
+        Object[] first = (Object[]) dependency.onGet(new Object(), "a_field", null);
+        dependency.resetLocalCache();
+        Object[] second = (Object[]) dependency.onGet(new Object(), "a_field", null);
+        Assert.assertNotSame(first, second);
+        Assert.assertSame(svc1, second[0]);
+        Assert.assertTrue(second instanceof Runnable[]);
+        Assert.assertEquals(1, getServiceCalls);
+
+        dependency.stop();
+    }
+
+    private void registerService(ServiceReference ref, Object svc) {
+        services.put(ref, svc);
+    }
+
+    private ServiceReference createReference(long id) {
+        ServiceReference ref = Mockito.mock(ServiceReference.class);
+        Mockito.when(ref.getProperty(Constants.SERVICE_ID)).thenReturn(id);
+        Mockito.when(ref.getProperty(Constants.OBJECTCLASS)).thenReturn(new String[] {Runnable.class.getName()});
+        Mockito.when(ref.getPropertyKeys()).thenReturn(new String[] {Constants.SERVICE_ID, Constants.OBJECTCLASS});
+        return ref;
+    }
+}
@@ -0,0 +1,500 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.jmh;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.resolver.Logger;
+import org.apache.felix.resolver.ResolutionMetrics;
+import org.apache.felix.resolver.ResolutionMetricsListener;
+import org.apache.felix.resolver.ResolverImpl;
+import org.apache.felix.resolver.Util;
+import org.apache.felix.resolver.test.BigResolutionTest;
+import org.apache.felix.resolver.test.util.CandidateComparator;
+import org.apache.felix.resolver.test.util.CapabilitySet;
+import org.apache.felix.resolver.test.util.GenericRequirement;
+import org.apache.felix.resolver.test.util.JsonReader;
+import org.apache.felix.resolver.test.util.PackageCapability;
+import org.apache.felix.resolver.test.util.PackageRequirement;
+import org.apache.felix.resolver.test.util.ResolveContextImpl;
+import org.apache.felix.resolver.test.util.ResourceImpl;
+import org.apache.felix.resolver.test.util.SimpleFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Constants;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+import org.osgi.resource.Wiring;
+import org.osgi.service.resolver.HostedCapability;
+import org.osgi.service.resolver.ResolutionException;
+
+/**
+ * Replays resolution scenarios:
+ * <ul>
+ * <li>{@code small}: the repository of FELIX-4914,</li>
+ * <li>{@code large}: the recorded resolution of {@code BigResolutionTest},</li>
+ * <li>{@code uses}: groups of importers that each need a permutation to
+ * resolve a uses constraint conflict,</li>
+ * <li>{@code dynamic}: a dynamic import of a resolved bundle that imports
+ * packages of many resolved bundles.</li>
+ * </ul>
+ * The counters of the resolves are averaged and printed at the end of each
+ * benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResolverBenchmark
+{
+    private static final int USES_GROUPS = 25;
+    private static final int DYNAMIC_EXPORTERS = 500;
+
+    @Param({ "small", "large", "uses", "dynamic" })
+    public String scenario;
+
+    @Param({ "1", "4" })
+    public int parallelism;
+
+    private ResolverImpl resolver;
+    private ResolveContextImpl context;
+    private Wiring dynamicHost;
+    private Requirement dynamicReq;
+
+    private final AtomicLong resolves = new AtomicLong();
+    private final AtomicLong permutations = new AtomicLong();
+    private final AtomicLong candidates = new AtomicLong();
+    private final AtomicLong packageSpaceNanos = new AtomicLong();
+    private final AtomicLong peakCandidateMapSize = new AtomicLong();
+
+    @Setup
+    public void setup() throws Exception
+    {
+        // A log level of zero turns logging off
+        resolver = new ResolverImpl(new Logger(0), parallelism);
+        resolver.setMetricsListener(new ResolutionMetricsListener()
+        {
+            public void resolutionEnded(ResolutionMetrics metrics)
+            {
+                resolves.incrementAndGet();
+                permutations.addAndGet(metrics.getPermutations());
+                candidates.addAndGet(metrics.getCandidates());
+                packageSpaceNanos.addAndGet(metrics.getPackageSpaceTime(TimeUnit.NANOSECONDS));
+                long peak;
+                while (metrics.getPeakCandidateMapSize() > (peak = peakCandidateMapSize.get())
+                    && !peakCandidateMapSize.compareAndSet(peak, metrics.getPeakCandidateMapSize()))
+                {
+                }
+            }
+        });
+
+        if ("small".equals(scenario))
+        {
+            setupSmall();
+        }
+        else if ("large".equals(scenario))
+        {
+            setupLarge();
+        }
+        else if ("uses".equals(scenario))
+        {
+            setupUses();
+        }
+        else if ("dynamic".equals(scenario))
+        {
+            setupDynamic();
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unknown scenario " + scenario);
+        }
+        // Make sure the scenario resolves before measuring it
+        resolve();
+        resolves.set(0);
+        permutations.set(0);
+        candidates.set(0);
+        packageSpaceNanos.set(0);
+        peakCandidateMapSize.set(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void printMetrics()
+    {
+        long n = Math.max(1, resolves.get());
+        System.out.println();
+        System.out.println("Resolves:                " + resolves.get());
+        System.out.println("Permutations / resolve:  " + permutations.get() / n);
+        System.out.println("Candidates / resolve:    " + candidates.get() / n);
+        System.out.println("Package spaces / resolve: "
+            + String.format("%.3f", packageSpaceNanos.get() / n * 1E-6) + " ms");
+        System.out.println("Peak candidate map size: " + peakCandidateMapSize.get());
+    }
+
+    @Benchmark
+    public Map<Resource, List<Wire>> resolve() throws ResolutionException
+    {
+        if (dynamicHost != null)
+        {
+            return resolver.resolveDynamic(context, dynamicHost, dynamicReq);
+        }
+        return resolver.resolve(context);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void setupSmall() throws Exception
+    {
+        Map<String, Object> resolution = (Map<String, Object>) read("felix-4914.json");
+        Collection<Map<String, Object>> metadatas;
+        Object repository = resolution.get("repository");
+        if (repository instanceof Map)
+        {
+            metadatas = ((Map<String, Map<String, Object>>) repository).values();
+        }
+        else
+        {
+            metadatas = (Collection<Map<String, Object>>) repository;
+        }
+        List<Resource> resources = new ArrayList<Resource>();
+        Resource root = null;
+        for (Map<String, Object> metadata : metadatas)
+        {
+            Resource resource = BigResolutionTest.parseResource(metadata);
+            resources.add(resource);
+            if ("root".equals(Util.getSymbolicName(resource)))
+            {
+                root = resource;
+            }
+        }
+        context = new ResolveContextImpl(Collections.<Resource, Wiring> emptyMap(),
+            findCandidates(resources, resources), Collections.singletonList(root),
+            Collections.<Resource> emptyList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void setupLarge() throws Exception
+    {
+        Map<String, Object> resolution = (Map<String, Object>) read("resolution.json");
+        List<Resource> resources = new ArrayList<Resource>();
+        Map<String, Object> system = new HashMap<String, Object>();
+        system.put("capabilities", Arrays.asList(
+            "osgi.ee; osgi.ee=JavaSE; version=1.5",
+            "osgi.ee; osgi.ee=JavaSE; version=1.6",
+            "osgi.ee; osgi.ee=JavaSE; version=1.7"));
+        resources.add(BigResolutionTest.parseResource(system));
+        for (Object r : (Collection<Object>) resolution.get("resources"))
+        {
+            resources.add(BigResolutionTest.parseResource(r));
+        }
+        List<Resource> mandatory = new ArrayList<Resource>();
+        for (Object r : (Collection<Object>) resolution.get("mandatory"))
+        {
+            mandatory.add(BigResolutionTest.parseResource(r));
+        }
+        List<Resource> requirers = new ArrayList<Resource>(resources);
+        requirers.addAll(mandatory);
+        context = new ResolveContextImpl(Collections.<Resource, Wiring> emptyMap(),
+            findCandidates(resources, requirers), mandatory, Collections.<Resource> emptyList())
+        {
+            // Hosted capabilities are appended, as in BigResolutionTest
+            @Override
+            public int insertHostedCapability(List<Capability> capabilities, HostedCapability hostedCapability)
+            {
+                capabilities.add(hostedCapability);
+                return capabilities.size() - 1;
+            }
+        };
+    }
+
+    /**
+     * In each group, A exports a using c and may import c from C2 or C1,
+     * while B exports b using c and can only import c from C1. The importer
+     * of a, b and c is first checked with both A and itself wired to C2,
+     * which violates the uses constraint of b, so each group adds
+     * permutations until both are wired to C1.
+     */
+    private void setupUses()
+    {
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        List<Resource> mandatory = new ArrayList<Resource>();
+        for (int i = 0; i < USES_GROUPS; i++)
+        {
+            ResourceImpl c1 = new ResourceImpl("C1_" + i);
+            Capability c1_c = addPackage(c1, "c" + i, null);
+            ResourceImpl c2 = new ResourceImpl("C2_" + i);
+            Capability c2_c = addPackage(c2, "c" + i, null);
+
+            ResourceImpl a = new ResourceImpl("A" + i);
+            Capability a_a = addPackage(a, "a" + i, "c" + i);
+            candMap.put(addImport(a, "c" + i), listOf(c2_c, c1_c));
+
+            ResourceImpl b = new ResourceImpl("B" + i);
+            Capability b_b = addPackage(b, "b" + i, "c" + i);
+            candMap.put(addImport(b, "c" + i), listOf(c1_c));
+
+            ResourceImpl importer = new ResourceImpl("I" + i);
+            candMap.put(addImport(importer, "a" + i), listOf(a_a));
+            candMap.put(addImport(importer, "b" + i), listOf(b_b));
+            candMap.put(addImport(importer, "c" + i), listOf(c2_c, c1_c));
+            mandatory.add(importer);
+        }
+        context = new ResolveContextImpl(Collections.<Resource, Wiring> emptyMap(),
+            candMap, mandatory, Collections.<Resource> emptyList());
+    }
+
+    /**
+     * A resolved host imports one package from each of many resolved
+     * exporters and dynamically imports a package from an unresolved
+     * exporter, which uses one of the packages imported by the host.
+     */
+    private void setupDynamic()
+    {
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+
+        ResourceImpl host = new ResourceImpl("host");
+        List<Wire> hostWires = new ArrayList<Wire>();
+        Capability p0 = null;
+        for (int i = 0; i < DYNAMIC_EXPORTERS; i++)
+        {
+            ResourceImpl exporter = new ResourceImpl("E" + i);
+            Capability cap = addPackage(exporter, "p" + i, null);
+            Requirement req = addImport(host, "p" + i);
+            Wire wire = new SimpleWire(req, cap);
+            hostWires.add(wire);
+            wirings.put(exporter, new SimpleWiring(exporter,
+                Collections.<Wire> emptyList(), Collections.singletonList(wire)));
+            if (i == 0)
+            {
+                p0 = cap;
+            }
+        }
+        GenericRequirement dynamic = new GenericRequirement(host, PackageNamespace.PACKAGE_NAMESPACE);
+        dynamic.addDirective(Constants.FILTER_DIRECTIVE, "(" + PackageNamespace.PACKAGE_NAMESPACE + "=dyn)");
+        dynamic.addDirective(PackageNamespace.REQUIREMENT_RESOLUTION_DIRECTIVE,
+            PackageNamespace.RESOLUTION_DYNAMIC);
+        host.addRequirement(dynamic);
+        wirings.put(host, new SimpleWiring(host, hostWires, Collections.<Wire> emptyList()));
+
+        ResourceImpl provider = new ResourceImpl("D");
+        Capability dyn = addPackage(provider, "dyn", "p0");
+        candMap.put(addImport(provider, "p0"), listOf(p0));
+        candMap.put(dynamic, listOf(dyn));
+
+        context = new ResolveContextImpl(wirings, candMap,
+            Collections.<Resource> emptyList(), Collections.<Resource> emptyList());
+        dynamicHost = wirings.get(host);
+        dynamicReq = dynamic;
+    }
+
+    private static Object read(String name) throws Exception
+    {
+        InputStream is = ResolverBenchmark.class.getClassLoader().getResourceAsStream(name);
+        try
+        {
+            return JsonReader.read(is);
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    private static Map<Requirement, List<Capability>> findCandidates(
+        List<Resource> providers, List<Resource> requirers)
+    {
+        Map<String, CapabilitySet> capSets = new HashMap<String, CapabilitySet>();
+        for (Resource resource : providers)
+        {
+            for (Capability cap : resource.getCapabilities(null))
+            {
+                String ns = cap.getNamespace();
+                CapabilitySet set = capSets.get(ns);
+                if (set == null)
+                {
+                    set = new CapabilitySet(Collections.singletonList(ns));
+                    capSets.put(ns, set);
+                }
+                set.addCapability(cap);
+            }
+        }
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        for (Resource resource : requirers)
+        {
+            for (Requirement req : resource.getRequirements(null))
+            {
+                CapabilitySet set = capSets.get(req.getNamespace());
+                if (set == null)
+                {
+                    continue;
+                }
+                String filter = req.getDirectives().get(Constants.FILTER_DIRECTIVE);
+                SimpleFilter sf = (filter != null)
+                    ? SimpleFilter.parse(filter)
+                    : SimpleFilter.convert(req.getAttributes());
+                List<Capability> caps = new ArrayList<Capability>(set.match(sf, true));
+                Collections.sort(caps, new CandidateComparator());
+                candMap.put(req, caps);
+            }
+        }
+        return candMap;
+    }
+
+    private static Capability addPackage(ResourceImpl resource, String name, String uses)
+    {
+        PackageCapability cap = new PackageCapability(resource, name);
+        if (uses != null)
+        {
+            cap.addDirective(PackageNamespace.CAPABILITY_USES_DIRECTIVE, uses);
+        }
+        resource.addCapability(cap);
+        return cap;
+    }
+
+    private static Requirement addImport(ResourceImpl resource, String name)
+    {
+        Requirement req = new PackageRequirement(resource, name);
+        resource.addRequirement(req);
+        return req;
+    }
+
+    private static List<Capability> listOf(Capability... caps)
+    {
+        List<Capability> list = new ArrayList<Capability>();
+        Collections.addAll(list, caps);
+        return list;
+    }
+
+    private static class SimpleWire implements Wire
+    {
+        private final Requirement m_requirement;
+        private final Capability m_capability;
+
+        SimpleWire(Requirement requirement, Capability capability)
+        {
+            m_requirement = requirement;
+            m_capability = capability;
+        }
+
+        public Capability getCapability()
+        {
+            return m_capability;
+        }
+
+        public Requirement getRequirement()
+        {
+            return m_requirement;
+        }
+
+        public Resource getProvider()
+        {
+            return m_capability.getResource();
+        }
+
+        public Resource getRequirer()
+        {
+            return m_requirement.getResource();
+        }
+    }
+
+    private static class SimpleWiring implements Wiring
+    {
+        private final Resource m_resource;
+        private final List<Wire> m_required;
+        private final List<Wire> m_provided;
+
+        SimpleWiring(Resource resource, List<Wire> required, List<Wire> provided)
+        {
+            m_resource = resource;
+            m_required = required;
+            m_provided = provided;
+        }
+
+        public List<Capability> getResourceCapabilities(String namespace)
+        {
+            return m_resource.getCapabilities(namespace);
+        }
+
+        public List<Requirement> getResourceRequirements(String namespace)
+        {
+            List<Requirement> reqs = new ArrayList<Requirement>();
+            for (Wire wire : getRequiredResourceWires(namespace))
+            {
+                reqs.add(wire.getRequirement());
+            }
+            return reqs;
+        }
+
+        public List<Wire> getProvidedResourceWires(String namespace)
+        {
+            return filter(m_provided, namespace);
+        }
+
+        public List<Wire> getRequiredResourceWires(String namespace)
+        {
+            return filter(m_required, namespace);
+        }
+
+        public Resource getResource()
+        {
+            return m_resource;
+        }
+
+        private static List<Wire> filter(List<Wire> wires, String namespace)
+        {
+            if (namespace == null)
+            {
+                return wires;
+            }
+            List<Wire> result = new ArrayList<Wire>();
+            for (Wire wire : wires)
+            {
+                if (namespace.equals(wire.getCapability().getNamespace()))
+                {
+                    result.add(wire);
+                }
+            }
+            return result;
+        }
+    }
+}
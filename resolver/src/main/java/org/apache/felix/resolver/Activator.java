@@ -25,6 +25,7 @@ import org.osgi.service.resolver.Resolver;
 public class Activator implements BundleActivator
 {
     public static final String LOG_LEVEL = "felix.resolver.log.level";
+    public static final String PARALLEL_PERMUTATIONS = "felix.resolver.parallel.permutations";
 
     public void start(BundleContext bc) throws Exception
     {
@@ -40,9 +41,23 @@ public class Activator implements BundleActivator
                 // Use default log level.
             }
         }
+        // Number of candidate permutations to check at a time, disabled by default
+        int parallelPermutations = 1;
+        if (bc.getProperty(PARALLEL_PERMUTATIONS) != null)
+        {
+            try
+            {
+                parallelPermutations = Integer.parseInt(bc.getProperty(PARALLEL_PERMUTATIONS));
+            }
+            catch (NumberFormatException ex)
+            {
+                // Check permutations one at a time.
+            }
+        }
         bc.registerService(
             Resolver.class,
-            new ResolverImpl(new Logger(logLevel)),
+            new ResolverImpl(new Logger(logLevel),
+                Runtime.getRuntime().availableProcessors(), parallelPermutations),
             null);
     }
 
@@ -50,8 +50,10 @@ class Candidates
     private final ResolveSession m_session;
     // Maps a capability to requirements that match it.
     private final OpenHashMapSet<Capability, Requirement> m_dependentMap;
-    // Maps a requirement to the capability it matches.
-    private final OpenHashMapList m_candidateMap;
+    // Maps a requirement to the capability it matches. Permutations share
+    // the map with the candidates they are copied from, so the selectors in
+    // it are replaced rather than modified once it may have been copied.
+    private final PersistentHashMap<Requirement, CandidateSelector> m_candidateMap;
     // Maps a bundle revision to its associated wrapped revision; this only happens
     // when a revision being resolved has fragments to attach to it.
     private final Map<Resource, WrappedResource> m_allWrappedHosts;
@@ -60,7 +62,7 @@ class Candidates
 
     private final Map<Capability, Requirement> m_subtitutableMap;
 
-    private final OpenHashMapSet<Requirement, Capability> m_delta;
+    private final PersistentHashMap<Requirement, CopyOnWriteSet<Capability>> m_delta;
     private final AtomicBoolean m_candidateSelectorsUnmodifiable;
 
     /**
@@ -70,11 +72,11 @@ class Candidates
         ResolveSession session,
         AtomicBoolean candidateSelectorsUnmodifiable,
         OpenHashMapSet<Capability, Requirement> dependentMap,
-        OpenHashMapList candidateMap,
+        PersistentHashMap<Requirement, CandidateSelector> candidateMap,
         Map<Resource, WrappedResource> wrappedHosts,
         OpenHashMap<Resource, PopulateResult> populateResultCache,
         Map<Capability, Requirement> substitutableMap,
-        OpenHashMapSet<Requirement, Capability> delta)
+        PersistentHashMap<Requirement, CopyOnWriteSet<Capability>> delta)
     {
         m_session = session;
         m_candidateSelectorsUnmodifiable = candidateSelectorsUnmodifiable;
@@ -94,11 +96,11 @@ class Candidates
         m_session = session;
         m_candidateSelectorsUnmodifiable = new AtomicBoolean(false);
         m_dependentMap = new OpenHashMapSet<Capability, Requirement>();
-        m_candidateMap = new OpenHashMapList();
+        m_candidateMap = new PersistentHashMap<Requirement, CandidateSelector>();
         m_allWrappedHosts = new HashMap<Resource, WrappedResource>();
         m_populateResultCache = new OpenHashMap<Resource, PopulateResult>();
         m_subtitutableMap = new OpenHashMap<Capability, Requirement>();
-        m_delta = new OpenHashMapSet<Requirement, Capability>(3);
+        m_delta = new PersistentHashMap<Requirement, CopyOnWriteSet<Capability>>();
     }
 
     public int getNbResources()
@@ -106,6 +108,11 @@ class Candidates
         return m_populateResultCache.size();
     }
 
+    public int getCandidateMapSize()
+    {
+        return m_candidateMap.size();
+    }
+
     public Map<Resource, Resource> getRootHosts()
     {
         Map<Resource, Resource> hosts = new LinkedHashMap<Resource, Resource>();
@@ -206,6 +213,10 @@ class Candidates
                 continue;
             }
             List<Capability> candidates = rc.findProviders(requirement);
+            if (m_session.getMetrics() != null)
+            {
+                m_session.getMetrics().candidatesExamined(candidates.size());
+            }
             LinkedList<Resource> newToPopulate = new LinkedList<Resource>();
             ResolutionError thrown = processCandidates(newToPopulate, requirement, candidates);
              if (candidates.isEmpty() && !Util.isOptional(requirement))
@@ -320,7 +331,7 @@ class Candidates
     private static final int SUBSTITUTED = 2;
     private static final int EXPORTED = 3;
 
-    ResolutionError checkSubstitutes()
+    ResolutionError checkSubstitutes(ResolveSession session)
     {
         OpenHashMap<Capability, Integer> substituteStatuses = new OpenHashMap<Capability, Integer>(m_subtitutableMap.size());
         for (Capability substitutable : m_subtitutableMap.keySet())
@@ -341,7 +352,7 @@ class Candidates
             Requirement substitutedReq = m_subtitutableMap.get(substituteStatus.getKey());
             if (substitutedReq != null)
             {
-                m_session.permutateIfNeeded(PermutationType.SUBSTITUTE, substitutedReq, this);
+                session.permutateIfNeeded(PermutationType.SUBSTITUTE, substitutedReq, this);
             }
             Set<Requirement> dependents = m_dependentMap.get(substituteStatus.getKey());
             if (dependents != null)
@@ -351,6 +362,9 @@ class Candidates
                     CandidateSelector candidates = m_candidateMap.get(dependent);
                     if (candidates != null)
                     {
+                        // The selector may be shared with other permutations
+                        candidates = candidates.copy();
+                        int count = candidates.getRemainingCandidateCount();
                         candidates:
                         while (!candidates.isEmpty())
                         {
@@ -384,6 +398,10 @@ class Candidates
                                 return new MissingRequirementError(dependent);
                             }
                         }
+                        else if (candidates.getRemainingCandidateCount() != count)
+                        {
+                            m_candidateMap.put(dependent, candidates);
+                        }
                     }
                 }
             }
@@ -452,6 +470,10 @@ class Candidates
         // cannot resolve.
         // TODO: verify the two following statements
         LinkedList<Resource> toPopulate = new LinkedList<Resource>();
+        if (m_session.getMetrics() != null)
+        {
+            m_session.getMetrics().candidatesExamined(m_session.getDynamicCandidates().size());
+        }
         ResolutionError rethrow = processCandidates(toPopulate, m_session.getDynamicRequirement(), m_session.getDynamicCandidates());
 
         // Add the dynamic imports candidates.
@@ -712,16 +734,26 @@ class Candidates
 
     public void removeFirstCandidate(Requirement req)
     {
-        CandidateSelector candidates = m_candidateMap.get(req);
+        // The selector and the delta may be shared with other permutations,
+        // so they are replaced rather than modified.
+        CandidateSelector candidates = m_candidateMap.get(req).copy();
         // Remove the conflicting candidate.
         Capability cap = candidates.removeCurrentCandidate();
         if (candidates.isEmpty())
         {
             m_candidateMap.remove(req);
         }
+        else
+        {
+            m_candidateMap.put(req, candidates);
+        }
         // Update the delta with the removed capability
-        CopyOnWriteSet<Capability> capPath = m_delta.getOrCompute(req);
+        CopyOnWriteSet<Capability> capPath = m_delta.get(req);
+        capPath = (capPath == null)
+            ? new CopyOnWriteSet<Capability>()
+            : new CopyOnWriteSet<Capability>(capPath);
         capPath.add(cap);
+        m_delta.put(req, capPath);
     }
 
     public CandidateSelector clearMultipleCardinalityCandidates(Requirement req, Collection<Capability> caps)
@@ -957,7 +989,6 @@ class Candidates
 
         populateSubstitutables();
 
-        m_candidateMap.trim();
         m_dependentMap.trim();
 
         // mark the selectors as unmodifiable now
@@ -973,7 +1004,7 @@ class Candidates
     {
         Map<Capability, Map<String, Map<Version, List<Requirement>>>> hostFragments =
             new HashMap<Capability, Map<String, Map<Version, List<Requirement>>>>();
-        for (Entry<Requirement, CandidateSelector> entry : m_candidateMap.fast())
+        for (Entry<Requirement, CandidateSelector> entry : m_candidateMap.entrySet())
         {
             Requirement req = entry.getKey();
             CandidateSelector caps = entry.getValue();
@@ -1130,7 +1161,9 @@ class Candidates
 
     /**
      * Creates a copy of the Candidates object. This is used for creating
-     * permutations when package space conflicts are discovered.
+     * permutations when package space conflicts are discovered. The copy
+     * shares the candidate map and the delta with this object, so it takes
+     * constant time and only the requirements changed afterwards are copied.
      *
      * @return copy of this Candidates object.
      */
@@ -1140,11 +1173,11 @@ class Candidates
                 m_session,
                 m_candidateSelectorsUnmodifiable,
                 m_dependentMap,
-                m_candidateMap.deepClone(),
+                m_candidateMap.copy(),
                 m_allWrappedHosts,
                 m_populateResultCache,
                 m_subtitutableMap,
-                m_delta.deepClone());
+                m_delta.copy());
     }
 
     public void dump(ResolveContext rc)
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The counters of a single resolve operation, as reported to a
+ * {@link ResolutionMetricsListener}.
+ * <p>
+ * The counters are updated by the threads of the resolver while the
+ * operation is running and are final once it is reported.
+ */
+public class ResolutionMetrics
+{
+    private final boolean m_dynamic;
+    private final AtomicInteger m_permutations = new AtomicInteger();
+    private final AtomicLong m_candidates = new AtomicLong();
+    private final AtomicLong m_packageSpaceNanos = new AtomicLong();
+    private final AtomicInteger m_peakCandidateMapSize = new AtomicInteger();
+    private long m_resolveNanos;
+    private boolean m_resolved;
+
+    ResolutionMetrics(boolean dynamic)
+    {
+        m_dynamic = dynamic;
+    }
+
+    /**
+     * Returns whether this is a dynamic resolve operation.
+     */
+    public boolean isDynamic()
+    {
+        return m_dynamic;
+    }
+
+    /**
+     * Returns whether the resolve operation succeeded.
+     */
+    public boolean isResolved()
+    {
+        return m_resolved;
+    }
+
+    /**
+     * Returns the number of candidate permutations checked for consistency.
+     */
+    public int getPermutations()
+    {
+        return m_permutations.get();
+    }
+
+    /**
+     * Returns the number of candidate capabilities examined, that is the
+     * total number of providers returned by the resolve context.
+     */
+    public long getCandidates()
+    {
+        return m_candidates.get();
+    }
+
+    /**
+     * Returns the time spent computing package spaces, summed over all
+     * checked permutations.
+     */
+    public long getPackageSpaceTime(TimeUnit unit)
+    {
+        return unit.convert(m_packageSpaceNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the largest number of requirements with candidates in any of
+     * the checked permutations.
+     */
+    public int getPeakCandidateMapSize()
+    {
+        return m_peakCandidateMapSize.get();
+    }
+
+    /**
+     * Returns the duration of the resolve operation.
+     */
+    public long getResolveTime(TimeUnit unit)
+    {
+        return unit.convert(m_resolveNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void candidatesExamined(int count)
+    {
+        m_candidates.addAndGet(count);
+    }
+
+    void permutationChecked(int candidateMapSize)
+    {
+        m_permutations.incrementAndGet();
+        int peak;
+        while (candidateMapSize > (peak = m_peakCandidateMapSize.get()))
+        {
+            if (m_peakCandidateMapSize.compareAndSet(peak, candidateMapSize))
+            {
+                break;
+            }
+        }
+    }
+
+    void packageSpacesCalculated(long nanos)
+    {
+        m_packageSpaceNanos.addAndGet(nanos);
+    }
+
+    void resolveEnded(long nanos, boolean resolved)
+    {
+        m_resolveNanos = nanos;
+        m_resolved = resolved;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ResolutionMetrics[resolved=" + m_resolved
+            + ", dynamic=" + m_dynamic
+            + ", permutations=" + getPermutations()
+            + ", candidates=" + getCandidates()
+            + ", peakCandidateMapSize=" + getPeakCandidateMapSize()
+            + ", packageSpaceTime=" + getPackageSpaceTime(TimeUnit.MICROSECONDS) + "us"
+            + ", resolveTime=" + getResolveTime(TimeUnit.MICROSECONDS) + "us]";
+    }
+}
@@ -25,6 +25,8 @@ import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.felix.resolver.cache.CachingResolveContext;
+import org.apache.felix.resolver.cache.ResolverCache;
 import org.apache.felix.resolver.reason.ReasonException;
 import org.apache.felix.resolver.util.ArrayMap;
 import org.apache.felix.resolver.util.CandidateSelector;
@@ -46,6 +48,10 @@ public class ResolverImpl implements Resolver
 
     private final Executor m_executor;
 
+    private final int m_parallelPermutations;
+
+    private volatile ResolutionMetricsListener m_metricsListener;
+
     enum PermutationType {
         USES,
         IMPORT,
@@ -53,7 +59,8 @@ public class ResolverImpl implements Resolver
     }
 
     // Note this class is not thread safe.
-    // Only use in the context of a single thread.
+    // Only use in the context of a single thread. Permutations checked
+    // in parallel each get their own speculative session.
     static class ResolveSession implements Runnable
     {
         // Holds the resolve context for this session
@@ -88,14 +95,21 @@ public class ResolverImpl implements Resolver
         private final Set<Object> m_processedDeltas = new HashSet<Object>();
         private final Executor m_executor;
         private final Set<Requirement> m_mutated = new HashSet<Requirement>();
-        private final Set<Requirement> m_sub_mutated = new HashSet<Requirement>();
-        private final ConcurrentMap<String, List<String>> m_usesCache = new ConcurrentHashMap<String, List<String>>();
+        private final Set<Requirement> m_sub_mutated;
+        private final ResolverCache m_usesCache;
+        // Holds the state kept between resolve operations, if any
+        private final ResolverCache m_cache;
+        // Counters of the resolve operation, shared with speculative sessions,
+        // or null if there is no metrics listener
+        private final ResolutionMetrics m_metrics;
         private ResolutionError m_currentError;
         volatile private CancellationException m_isCancelled = null;
+        // The session a speculative session checks a permutation for
+        private final ResolveSession m_parent;
 
-        static ResolveSession createSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates)
+        static ResolveSession createSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates, boolean metrics)
         {
-            ResolveSession session = new ResolveSession(resolveContext, executor, dynamicHost, dynamicReq, dynamicCandidates);
+            ResolveSession session = new ResolveSession(resolveContext, executor, dynamicHost, dynamicReq, dynamicCandidates, metrics);
             // call onCancel first
             session.getContext().onCancel(session);
             // now gather the mandatory and optional resources
@@ -103,13 +117,20 @@ public class ResolverImpl implements Resolver
             return session;
         }
 
-        private ResolveSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates)
+        private ResolveSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates, boolean metrics)
         {
             m_resolveContext = resolveContext;
             m_executor = executor;
             m_dynamicHost = dynamicHost;
             m_dynamicReq = dynamicReq;
             m_dynamicCandidates = dynamicCandidates;
+            m_sub_mutated = new HashSet<Requirement>();
+            m_cache = (resolveContext instanceof CachingResolveContext)
+                ? ((CachingResolveContext) resolveContext).getResolverCache()
+                : null;
+            m_usesCache = (m_cache != null) ? m_cache : new ResolverCache();
+            m_parent = null;
+            m_metrics = metrics ? new ResolutionMetrics(dynamicHost != null) : null;
             if (m_dynamicHost != null) {
                 m_mandatoryResources = Collections.singletonList(dynamicHost);
                 m_optionalResources = Collections.emptyList();
@@ -120,6 +141,55 @@ public class ResolverImpl implements Resolver
             }
         }
 
+        /**
+         * Creates a speculative session to check a permutation of the given
+         * session on another thread. The permutations it creates are recorded
+         * in the speculative session, until they are merged into the parent.
+         */
+        private ResolveSession(ResolveSession parent)
+        {
+            m_resolveContext = parent.m_resolveContext;
+            // The permutation is checked on a single thread
+            m_executor = new DumbExecutor();
+            m_dynamicHost = parent.m_dynamicHost;
+            m_dynamicReq = parent.m_dynamicReq;
+            m_dynamicCandidates = parent.m_dynamicCandidates;
+            m_mandatoryResources = parent.m_mandatoryResources;
+            m_optionalResources = parent.m_optionalResources;
+            m_sub_mutated = new HashSet<Requirement>(parent.m_sub_mutated);
+            m_usesCache = parent.m_usesCache;
+            m_cache = parent.m_cache;
+            m_metrics = parent.m_metrics;
+            m_parent = parent;
+        }
+
+        ResolveSession createSpeculativeSession()
+        {
+            return new ResolveSession(this);
+        }
+
+        /**
+         * Adds the permutations created while checking a permutation in the
+         * given speculative session, after the ones already added since the
+         * last permutations were taken.
+         */
+        void mergePermutations(ResolveSession speculative)
+        {
+            for (Candidates permutation : speculative.m_usesPermutations)
+            {
+                addPermutation(PermutationType.USES, permutation);
+            }
+            for (Candidates permutation : speculative.m_importPermutations)
+            {
+                addPermutation(PermutationType.IMPORT, permutation);
+            }
+            for (Candidates permutation : speculative.m_substPermutations)
+            {
+                addPermutation(PermutationType.SUBSTITUTE, permutation);
+            }
+            m_sub_mutated.addAll(speculative.m_sub_mutated);
+        }
+
         private void initMandatoryAndOptionalResources() {
             if (!isDynamic()) {
                 m_mandatoryResources.addAll(getContext().getMandatoryResources());
@@ -131,15 +201,66 @@ public class ResolverImpl implements Resolver
             return m_multipleCardCandidates;
         }
 
+        void setMultipleCardCandidates(Candidates candidates)
+        {
+            m_multipleCardCandidates = candidates;
+        }
+
         ResolveContext getContext()
         {
             return m_resolveContext;
         }
 
-        ConcurrentMap<String, List<String>> getUsesCache() {
+        /**
+         * Returns the counters of the resolve operation, or null if they are
+         * not collected because there is no metrics listener.
+         */
+        ResolutionMetrics getMetrics()
+        {
+            return m_metrics;
+        }
+
+        ResolverCache getUsesCache() {
             return m_usesCache;
         }
 
+        /**
+         * Returns the package space of the given resource computed by a
+         * previous resolve operation, if it is still valid for its current
+         * wiring. The dynamic host is always computed again.
+         */
+        CachedPackageSpace getCachedPackageSpace(Resource resource)
+        {
+            if ((m_cache == null) || resource.equals(m_dynamicHost))
+            {
+                return null;
+            }
+            Object cached = m_cache.getPackageSpace(resource);
+            if ((cached instanceof CachedPackageSpace)
+                && ((CachedPackageSpace) cached).isValid(getContext().getWirings().get(resource)))
+            {
+                return (CachedPackageSpace) cached;
+            }
+            return null;
+        }
+
+        /**
+         * Keeps the package space of the given resource for later resolve
+         * operations, if the resource is resolved.
+         */
+        void cachePackageSpace(Resource resource, List<WireCandidate> wireCandidates, Packages packages)
+        {
+            if ((m_cache == null) || resource.equals(m_dynamicHost))
+            {
+                return;
+            }
+            Wiring wiring = getContext().getWirings().get(resource);
+            if (wiring != null)
+            {
+                m_cache.putPackageSpace(resource, new CachedPackageSpace(wiring, wireCandidates, packages));
+            }
+        }
+
         void permutateIfNeeded(PermutationType type, Requirement req, Candidates permutation) {
             List<Capability> candidates = permutation.getCandidates(req);
             if ((candidates != null) && (candidates.size() > 1))
@@ -197,6 +318,38 @@ public class ResolverImpl implements Resolver
         }
 
         Candidates getNextPermutation() {
+            Candidates next = pollPermutation();
+            if (next == null) {
+                return null;
+            }
+            // Null out each time a new permutation is attempted.
+            // We only use this to store a valid permutation which is a
+            // delta of the current permutation.
+            m_multipleCardCandidates = null;
+            // clear mutateIndexes also so we insert new permutations
+            // based of this permutation as a higher priority
+            clearMutateIndexes();
+            return next;
+        }
+
+        /**
+         * Takes up to the given number of permutations, in the order in which
+         * they would be returned by {@link #getNextPermutation()}.
+         */
+        List<Candidates> getNextPermutations(int max) {
+            List<Candidates> next = new ArrayList<Candidates>(max);
+            Candidates permutation;
+            while (next.size() < max && (permutation = pollPermutation()) != null) {
+                next.add(permutation);
+            }
+            m_multipleCardCandidates = null;
+            // The permutations created by all of them are inserted
+            // before the remaining ones, in the order of the permutations
+            clearMutateIndexes();
+            return next;
+        }
+
+        private Candidates pollPermutation() {
             Candidates next = null;
             do {
                 if (!m_usesPermutations.isEmpty())
@@ -216,13 +369,6 @@ public class ResolverImpl implements Resolver
                 }
             }
             while(!m_processedDeltas.add(next.getDelta()));
-            // Null out each time a new permutation is attempted.
-            // We only use this to store a valid permutation which is a
-            // delta of the current permutation.
-            m_multipleCardCandidates = null;
-            // clear mutateIndexes also so we insert new permutations
-            // based of this permutation as a higher priority
-            clearMutateIndexes();
             return next;
         }
 
@@ -339,7 +485,7 @@ public class ResolverImpl implements Resolver
         }
 
         boolean isCancelled() {
-            return m_isCancelled != null;
+            return m_isCancelled != null || (m_parent != null && m_parent.isCancelled());
         }
 
         void checkForCancel() throws ResolutionException {
@@ -355,17 +501,48 @@ public class ResolverImpl implements Resolver
     }
 
     public ResolverImpl(Logger logger, int parallelism)
+    {
+        this(logger, parallelism, 1);
+    }
+
+    public ResolverImpl(Logger logger, Executor executor)
+    {
+        this(logger, executor, 1);
+    }
+
+    /**
+     * Creates a resolver which checks up to {@code parallelPermutations}
+     * candidate permutations at a time when a uses constraint conflict
+     * requires trying other permutations. The permutations are checked
+     * speculatively on the threads of the resolver, and the first one in the
+     * order in which they would have been checked one at a time that is
+     * consistent is used, so the result does not depend on the timing of the
+     * threads. It may differ from the result found by checking permutations
+     * one at a time.
+     */
+    public ResolverImpl(Logger logger, int parallelism, int parallelPermutations)
     {
         this.m_logger = logger;
         this.m_parallelism = parallelism;
         this.m_executor = null;
+        this.m_parallelPermutations = parallelPermutations;
     }
 
-    public ResolverImpl(Logger logger, Executor executor)
+    public ResolverImpl(Logger logger, Executor executor, int parallelPermutations)
     {
         this.m_logger = logger;
         this.m_parallelism = -1;
         this.m_executor = executor;
+        this.m_parallelPermutations = parallelPermutations;
+    }
+
+    /**
+     * Sets the listener that receives the counters of every resolve
+     * operation of this resolver, or removes it if {@code null}.
+     */
+    public void setMetricsListener(ResolutionMetricsListener listener)
+    {
+        m_metricsListener = listener;
     }
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc) throws ResolutionException
@@ -417,11 +594,33 @@ public class ResolverImpl implements Resolver
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc, Executor executor) throws ResolutionException
     {
-        ResolveSession session = ResolveSession.createSession(rc, executor, null, null, null);
+        ResolveSession session = ResolveSession.createSession(rc, executor, null, null, null, m_metricsListener != null);
         return doResolve(session);
     }
 
     private Map<Resource, List<Wire>> doResolve(ResolveSession session) throws ResolutionException {
+        ResolutionMetrics metrics = session.getMetrics();
+        ResolutionMetricsListener listener = m_metricsListener;
+        if (metrics == null || listener == null)
+        {
+            return resolveSession(session);
+        }
+        long start = System.nanoTime();
+        boolean resolved = false;
+        try
+        {
+            Map<Resource, List<Wire>> wireMap = resolveSession(session);
+            resolved = true;
+            return wireMap;
+        }
+        finally
+        {
+            metrics.resolveEnded(System.nanoTime() - start, resolved);
+            listener.resolutionEnded(metrics);
+        }
+    }
+
+    private Map<Resource, List<Wire>> resolveSession(ResolveSession session) throws ResolutionException {
         Map<Resource, List<Wire>> wireMap = new HashMap<Resource, List<Wire>>();
         boolean retry;
         do
@@ -557,8 +756,11 @@ public class ResolverImpl implements Resolver
     }
 
     private Candidates findValidCandidates(ResolveSession session, Map<Resource, ResolutionError> faultyResources) {
+        if (m_parallelPermutations > 1 && !(session.getExecutor() instanceof DumbExecutor))
+        {
+            return findValidCandidatesInParallel(session, faultyResources);
+        }
         Candidates allCandidates = null;
-        boolean foundFaultyResources = false;
         do
         {
             allCandidates = session.getNextPermutation();
@@ -579,24 +781,179 @@ public class ResolverImpl implements Resolver
                     )
             );
 
-            if (!currentFaultyResources.isEmpty())
+            addFaultyResources(faultyResources, currentFaultyResources);
+        }
+        while (!session.isCancelled() && session.getCurrentError() != null);
+
+        return allCandidates;
+    }
+
+    /**
+     * Checks the next permutations of the session in parallel, each one in a
+     * speculative session. Their results are then processed in the order of
+     * the permutations, as if they had been checked one at a time: the first
+     * consistent permutation is returned once the checks of the following ones
+     * have been cancelled and have finished. If none of them is consistent,
+     * the permutations created while checking them are added to the session
+     * in the same order.
+     */
+    private Candidates findValidCandidatesInParallel(ResolveSession session, Map<Resource, ResolutionError> faultyResources) {
+        while (!session.isCancelled())
+        {
+            List<Candidates> permutations = session.getNextPermutations(m_parallelPermutations);
+            if (permutations.isEmpty())
             {
-                if (!foundFaultyResources)
+                return null;
+            }
+
+            List<SpeculativeCheck> checks = new ArrayList<SpeculativeCheck>(permutations.size());
+            for (Candidates permutation : permutations)
+            {
+                SpeculativeCheck check = new SpeculativeCheck(session.createSpeculativeSession(), permutation);
+                checks.add(check);
+                session.getExecutor().execute(check);
+            }
+
+            int done = 0;
+            try
+            {
+                while (done < checks.size())
+                {
+                    SpeculativeCheck check = checks.get(done);
+                    check.await();
+                    done++;
+                    addFaultyResources(faultyResources, check.faultyResources);
+                    session.setCurrentError(check.error);
+                    if (check.error == null)
+                    {
+                        session.setMultipleCardCandidates(check.session.getMultipleCardCandidates());
+                        return check.permutation;
+                    }
+                    session.mergePermutations(check.session);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                // Report the interruption as a cancellation of the resolve operation
+                session.run();
+            }
+            finally
+            {
+                // The checks that are not needed anymore still share the
+                // metrics of the session, they may not outlive this call
+                cancelAndAwait(checks.subList(done, checks.size()));
+            }
+        }
+        return null;
+    }
+
+    private static void cancelAndAwait(List<SpeculativeCheck> checks)
+    {
+        for (SpeculativeCheck check : checks)
+        {
+            check.cancel();
+        }
+        boolean interrupted = false;
+        for (SpeculativeCheck check : checks)
+        {
+            while (true)
+            {
+                try
                 {
-                    foundFaultyResources = true;
-                    faultyResources.putAll(currentFaultyResources);
+                    check.awaitDone();
+                    break;
                 }
-                else if (faultyResources.size() > currentFaultyResources.size())
+                catch (InterruptedException e)
                 {
-                    // save the optimal faultyResources which has less
-                    faultyResources.clear();
-                    faultyResources.putAll(currentFaultyResources);
+                    interrupted = true;
                 }
             }
         }
-        while (!session.isCancelled() && session.getCurrentError() != null);
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-        return allCandidates;
+    private static void addFaultyResources(
+        Map<Resource, ResolutionError> faultyResources,
+        Map<Resource, ResolutionError> currentFaultyResources)
+    {
+        if (!currentFaultyResources.isEmpty())
+        {
+            if (faultyResources.isEmpty())
+            {
+                faultyResources.putAll(currentFaultyResources);
+            }
+            else if (faultyResources.size() > currentFaultyResources.size())
+            {
+                // save the optimal faultyResources which has less
+                faultyResources.clear();
+                faultyResources.putAll(currentFaultyResources);
+            }
+        }
+    }
+
+    /**
+     * Checks the consistency of a permutation in a speculative session.
+     */
+    private class SpeculativeCheck implements Runnable
+    {
+        final ResolveSession session;
+        final Candidates permutation;
+        final Map<Resource, ResolutionError> faultyResources = new HashMap<Resource, ResolutionError>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        volatile ResolutionError error;
+        private volatile Throwable throwable;
+
+        SpeculativeCheck(ResolveSession session, Candidates permutation)
+        {
+            this.session = session;
+            this.permutation = permutation;
+        }
+
+        public void run()
+        {
+            try
+            {
+                if (!session.isCancelled())
+                {
+                    error = checkConsistency(session, permutation, faultyResources);
+                }
+            }
+            catch (Throwable t)
+            {
+                throwable = t;
+            }
+            finally
+            {
+                done.countDown();
+            }
+        }
+
+        void cancel()
+        {
+            session.run();
+        }
+
+        void awaitDone() throws InterruptedException
+        {
+            done.await();
+        }
+
+        void await() throws InterruptedException
+        {
+            awaitDone();
+            if (throwable instanceof RuntimeException)
+            {
+                throw (RuntimeException) throwable;
+            }
+            if (throwable instanceof Error)
+            {
+                throw (Error) throwable;
+            }
+        }
     }
 
     private ResolutionError checkConsistency(
@@ -604,15 +961,25 @@ public class ResolverImpl implements Resolver
         Candidates allCandidates,
         Map<Resource, ResolutionError> currentFaultyResources)
     {
-        ResolutionError rethrow = allCandidates.checkSubstitutes();
+        ResolutionMetrics metrics = session.getMetrics();
+        if (metrics != null)
+        {
+            metrics.permutationChecked(allCandidates.getCandidateMapSize());
+        }
+        ResolutionError rethrow = allCandidates.checkSubstitutes(session);
         if (rethrow != null)
         {
             return rethrow;
         }
         Map<Resource, Resource> allhosts = allCandidates.getRootHosts();
         // Calculate package spaces
+        long start = (metrics != null) ? System.nanoTime() : 0;
         Map<Resource, Packages> resourcePkgMap =
             calculatePackageSpaces(session, allCandidates, allhosts.values());
+        if (metrics != null)
+        {
+            metrics.packageSpacesCalculated(System.nanoTime() - start);
+        }
         ResolutionError error = null;
         // Check package consistency
         Map<Resource, Object> resultCache =
@@ -668,7 +1035,7 @@ public class ResolverImpl implements Resolver
                         "Matching candidate does not provide a package name.");
                 }
             }
-            ResolveSession session = ResolveSession.createSession(context,  new DumbExecutor(), host, dynamicRequirement, matches);
+            ResolveSession session = ResolveSession.createSession(context,  new DumbExecutor(), host, dynamicRequirement, matches, m_metricsListener != null);
             return doResolve(session);
         }
 
@@ -1052,11 +1419,11 @@ public class ResolverImpl implements Resolver
                 if (s != null && s.length() > 0)
                 {
                     // Parse these uses directive.
-                    uses = session.getUsesCache().get(s);
+                    uses = session.getUsesCache().getUses(s);
                     if (uses == null)
                     {
                         uses = parseUses(s);
-                        session.getUsesCache().put(s, uses);
+                        session.getUsesCache().putUses(s, uses);
                     }
                 }
                 else
@@ -1126,8 +1493,10 @@ public class ResolverImpl implements Resolver
     {
         final EnhancedExecutor executor = new EnhancedExecutor(session.getExecutor());
 
-        // Parallel compute wire candidates
+        // Parallel compute wire candidates, taking the ones of resolved
+        // resources from the package spaces of previous resolve operations
         final Map<Resource, List<WireCandidate>> allWireCandidates = new ConcurrentHashMap<Resource, List<WireCandidate>>();
+        final Map<Resource, Packages> cachedPackages = new ConcurrentHashMap<Resource, Packages>();
         {
             final ConcurrentMap<Resource, Runnable> tasks = new ConcurrentHashMap<Resource, Runnable>(allCandidates.getNbResources());
             class Computer implements Runnable
@@ -1139,7 +1508,17 @@ public class ResolverImpl implements Resolver
                 }
                 public void run()
                 {
-                    List<WireCandidate> wireCandidates = getWireCandidates(session, allCandidates, resource);
+                    List<WireCandidate> wireCandidates;
+                    CachedPackageSpace cached = session.getCachedPackageSpace(resource);
+                    if (cached != null)
+                    {
+                        wireCandidates = cached.m_wireCandidates;
+                        cachedPackages.put(resource, cached.m_packages);
+                    }
+                    else
+                    {
+                        wireCandidates = getWireCandidates(session, allCandidates, resource);
+                    }
                     allWireCandidates.put(resource, wireCandidates);
                     for (WireCandidate w : wireCandidates)
                     {
@@ -1166,6 +1545,12 @@ public class ResolverImpl implements Resolver
         final OpenHashMap<Resource, Packages> allPackages = new OpenHashMap<Resource, Packages>(allCandidates.getNbResources());
         for (final Resource resource : allWireCandidates.keySet())
         {
+            Packages cached = cachedPackages.get(resource);
+            if (cached != null)
+            {
+                allPackages.put(resource, cached);
+                continue;
+            }
             final Packages packages = new Packages(resource);
             allPackages.put(resource, packages);
             executor.execute(new Runnable()
@@ -1182,6 +1567,10 @@ public class ResolverImpl implements Resolver
         // Parallel compute package lists
         for (final Resource resource : allWireCandidates.keySet())
         {
+            if (cachedPackages.containsKey(resource))
+            {
+                continue;
+            }
             executor.execute(new Runnable()
             {
                 public void run()
@@ -1200,7 +1589,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (!packages.m_requiredPkgs.isEmpty())
+            if (!packages.m_requiredPkgs.isEmpty() && !cachedPackages.containsKey(resource))
             {
                 getPackageSourcesInternal(session, allPackages, resource, packages);
             }
@@ -1211,7 +1600,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (packages.m_sources.isEmpty())
+            if (packages.m_sources.isEmpty() && !cachedPackages.containsKey(resource))
             {
                 executor.execute(new Runnable()
                 {
@@ -1227,6 +1616,10 @@ public class ResolverImpl implements Resolver
         // Parallel compute uses
         for (final Resource resource : allWireCandidates.keySet())
         {
+            if (cachedPackages.containsKey(resource))
+            {
+                continue;
+            }
             executor.execute(new Runnable()
             {
                 public void run()
@@ -1237,6 +1630,16 @@ public class ResolverImpl implements Resolver
         }
         executor.await();
 
+        // Keep the package spaces of resolved resources, they do not depend
+        // on the candidates and can be reused by later resolve operations
+        for (Map.Entry<Resource, List<WireCandidate>> entry : allWireCandidates.entrySet())
+        {
+            if (!cachedPackages.containsKey(entry.getKey()))
+            {
+                session.cachePackageSpace(entry.getKey(), entry.getValue(), allPackages.get(entry.getKey()));
+            }
+        }
+
         return allPackages;
     }
 
@@ -2079,6 +2482,33 @@ public class ResolverImpl implements Resolver
         }
     }
 
+    /**
+     * The package space of a resolved resource, as kept in a
+     * {@link ResolverCache} for the wiring it was computed for.
+     */
+    private static final class CachedPackageSpace
+    {
+        final Wiring m_wiring;
+        final int m_nbWires;
+        final List<WireCandidate> m_wireCandidates;
+        final Packages m_packages;
+
+        CachedPackageSpace(Wiring wiring, List<WireCandidate> wireCandidates, Packages packages)
+        {
+            m_wiring = wiring;
+            // Dynamic imports add wires to an existing wiring
+            m_nbWires = wiring.getRequiredResourceWires(null).size();
+            m_wireCandidates = wireCandidates;
+            m_packages = packages;
+        }
+
+        boolean isValid(Wiring wiring)
+        {
+            return (wiring == m_wiring)
+                && (wiring.getRequiredResourceWires(null).size() == m_nbWires);
+        }
+    }
+
     private static final class WireCandidate
     {
         public final Requirement requirement;
@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.cache;
+
+import org.osgi.service.resolver.ResolveContext;
+
+/**
+ * An optional extension of a {@link ResolveContext} that provides the
+ * state kept by the resolver between resolve operations.
+ * <p>
+ * When the resolve context passed to the resolver implements this interface,
+ * the package spaces of resolved resources and the parsed {@code uses}
+ * directives are taken from the returned cache, and the ones computed
+ * during the resolve operation are added to it. Successive resolve
+ * operations on the same set of wirings then only compute the package
+ * spaces of the resources that have been resolved or rewired since.
+ *
+ * @see ResolverCache
+ */
+public interface CachingResolveContext
+{
+    /**
+     * Returns the cache to use for resolve operations with this context.
+     *
+     * @return the cache, or {@code null} to resolve without a cache.
+     */
+    ResolverCache getResolverCache();
+}
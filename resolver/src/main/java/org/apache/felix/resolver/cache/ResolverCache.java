@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.cache;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.osgi.resource.Resource;
+
+/**
+ * The state kept by the resolver between resolve operations, see
+ * {@link CachingResolveContext}.
+ * <p>
+ * The package space of a resolved resource is only reused for as long as
+ * the resource has the same wiring, with the same number of required wires.
+ * The owner of the cache must invalidate the entries of resources whose
+ * wirings are replaced or whose providers are rewired in any other way,
+ * which is the case when resources are refreshed or uninstalled.
+ * <p>
+ * A cache may be used by concurrent resolve operations.
+ */
+public class ResolverCache
+{
+    // The uses directives are only bounded by the resources the cache is
+    // used with, the parsed ones are dropped once there are more than this
+    private static final int MAX_USES = 4096;
+
+    private final ConcurrentMap<Resource, Object> m_packageSpaces =
+        new ConcurrentHashMap<Resource, Object>();
+    private final ConcurrentMap<String, List<String>> m_uses =
+        new ConcurrentHashMap<String, List<String>>();
+
+    /**
+     * Removes the package space of the given resource.
+     *
+     * @param resource the resource that is no longer wired as before.
+     */
+    public void invalidate(Resource resource)
+    {
+        m_packageSpaces.remove(resource);
+    }
+
+    /**
+     * Removes all package spaces and parsed {@code uses} directives.
+     */
+    public void invalidateAll()
+    {
+        m_packageSpaces.clear();
+        m_uses.clear();
+    }
+
+    /**
+     * Returns the number of resources with a package space in this cache.
+     */
+    public int size()
+    {
+        return m_packageSpaces.size();
+    }
+
+    /**
+     * Returns the package space of the given resource. The package space is
+     * opaque to anything but the resolver.
+     */
+    public Object getPackageSpace(Resource resource)
+    {
+        return m_packageSpaces.get(resource);
+    }
+
+    /**
+     * Sets the package space of the given resource. Only called by the
+     * resolver.
+     */
+    public void putPackageSpace(Resource resource, Object packageSpace)
+    {
+        m_packageSpaces.put(resource, packageSpace);
+    }
+
+    /**
+     * Returns the packages of the given {@code uses} directive if it has
+     * been parsed before. Only used by the resolver.
+     */
+    public List<String> getUses(String directive)
+    {
+        return m_uses.get(directive);
+    }
+
+    /**
+     * Sets the packages of the given {@code uses} directive. Only called by
+     * the resolver.
+     */
+    public void putUses(String directive, List<String> uses)
+    {
+        if (m_uses.size() >= MAX_USES)
+        {
+            m_uses.clear();
+        }
+        m_uses.put(directive, uses);
+    }
+}
@@ -0,0 +1,597 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A hash array mapped trie whose copies share their structure.
+ * <p>
+ * {@link #copy()} takes constant time: the copy and the original share all
+ * nodes of the trie. Each map only modifies the nodes it owns in place, a
+ * shared node is copied the first time it is modified, so a copy only pays
+ * for the entries changed after it was made. Entries are immutable, so values
+ * are shared between copies as well and must not be modified once they have
+ * been put in a map that may have been copied.
+ * <p>
+ * Entries are iterated in insertion order, which is kept in a log of the keys.
+ * The log is shared between copies like the nodes: a map appends to it in
+ * place unless a copy has already appended, in which case it gets a log of
+ * its own. Null keys are not supported.
+ */
+public class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private Node root;
+    private int size;
+    private long sequence;
+    // Nodes created with this token are owned by this map only
+    private Object owner = new Object();
+    // The first logLength positions of the log hold the keys of this map in
+    // insertion order, along with positions of removed or re-added keys
+    private Log log;
+    private int logLength;
+
+    public PersistentHashMap() {
+    }
+
+    private PersistentHashMap(Node root, int size, long sequence, Log log, int logLength) {
+        this.root = root;
+        this.size = size;
+        this.sequence = sequence;
+        this.log = log;
+        this.logLength = logLength;
+    }
+
+    /**
+     * Create a copy of this map in constant time. The copy and this map share
+     * their nodes until either of them is modified.
+     *
+     * @return the copy
+     */
+    public PersistentHashMap<K, V> copy() {
+        // From now on the current nodes are shared, so neither map owns them
+        owner = new Object();
+        return new PersistentHashMap<K, V>(root, size, sequence, log, logLength);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Leaf leaf = find(key);
+        return leaf != null ? (V) leaf.value : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        Leaf leaf = new Leaf(hash(key), key, value, sequence);
+        Result result = new Result();
+        root = root == null
+                ? new Node(owner, bit(leaf.hash, 0), new Object[] {leaf})
+                : put(root, 0, leaf, result);
+        if (result.old == null) {
+            append(leaf);
+            size++;
+            sequence++;
+            return null;
+        }
+        return (V) result.old.value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        if (key == null || root == null) {
+            return null;
+        }
+        Result result = new Result();
+        root = remove(root, 0, hash(key), key, result);
+        if (result.old == null) {
+            return null;
+        }
+        size--;
+        if (root == null) {
+            log = null;
+            logLength = 0;
+        } else if (logLength > 2 * size + 8) {
+            compact();
+        }
+        return (V) result.old.value;
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        size = 0;
+        log = null;
+        logLength = 0;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new LeafIterator<K, V>(PersistentHashMap.this, log, logLength);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof Map) || ((Map<?, ?>) o).size() != size) {
+            return false;
+        }
+        Map<Object, Object> m = (Map<Object, Object>) o;
+        // The order does not matter here, so the entries don't need to be sorted
+        for (Leaf leaf : leaves()) {
+            Object v = m.get(leaf.key);
+            if (leaf.value == null ? v != null || !m.containsKey(leaf.key) : !leaf.value.equals(v)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 0;
+        for (Leaf leaf : leaves()) {
+            h += leaf.hashCode();
+        }
+        return h;
+    }
+
+    private Leaf find(Object key) {
+        if (key == null) {
+            return null;
+        }
+        int hash = hash(key);
+        Node node = root;
+        int shift = 0;
+        while (node != null) {
+            int bit = bit(hash, shift);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = node.slots[index(node.bitmap, bit)];
+            if (slot instanceof Leaf) {
+                Leaf leaf = (Leaf) slot;
+                return leaf.matches(hash, key) ? leaf : null;
+            }
+            if (slot instanceof Collision) {
+                return ((Collision) slot).find(hash, key);
+            }
+            node = (Node) slot;
+            shift += BITS;
+        }
+        return null;
+    }
+
+    // The entry at a position of the log, or null if its key has been removed,
+    // or removed and put again
+    private Leaf find(Log log, int position) {
+        Leaf leaf = find(log.keys[position]);
+        return leaf != null && leaf.seq == log.seqs[position] ? leaf : null;
+    }
+
+    private Node put(Node node, int shift, Leaf leaf, Result result) {
+        int bit = bit(leaf.hash, shift);
+        int idx = index(node.bitmap, bit);
+        if ((node.bitmap & bit) == 0) {
+            Object[] slots = new Object[node.slots.length + 1];
+            System.arraycopy(node.slots, 0, slots, 0, idx);
+            slots[idx] = leaf;
+            System.arraycopy(node.slots, idx, slots, idx + 1, node.slots.length - idx);
+            Node n = editable(node);
+            n.bitmap |= bit;
+            n.slots = slots;
+            return n;
+        }
+
+        Object slot = node.slots[idx];
+        Object newSlot;
+        if (slot instanceof Leaf) {
+            Leaf l = (Leaf) slot;
+            if (l.matches(leaf.hash, leaf.key)) {
+                result.old = l;
+                // The entry keeps its position in the insertion order
+                newSlot = new Leaf(l.hash, l.key, leaf.value, l.seq);
+            } else {
+                newSlot = merge(slot, l.hash, leaf, shift + BITS);
+            }
+        } else if (slot instanceof Collision) {
+            Collision c = (Collision) slot;
+            if (c.hash == leaf.hash) {
+                newSlot = c.put(leaf, result);
+            } else {
+                newSlot = merge(slot, c.hash, leaf, shift + BITS);
+            }
+        } else {
+            newSlot = put((Node) slot, shift + BITS, leaf, result);
+            if (newSlot == slot) {
+                return node;
+            }
+        }
+        Node n = editable(node);
+        n.slots[idx] = newSlot;
+        return n;
+    }
+
+    private Node remove(Node node, int shift, int hash, Object key, Result result) {
+        int bit = bit(hash, shift);
+        if ((node.bitmap & bit) == 0) {
+            return node;
+        }
+        int idx = index(node.bitmap, bit);
+        Object slot = node.slots[idx];
+        Object newSlot;
+        if (slot instanceof Leaf) {
+            if (!((Leaf) slot).matches(hash, key)) {
+                return node;
+            }
+            result.old = (Leaf) slot;
+            newSlot = null;
+        } else if (slot instanceof Collision) {
+            newSlot = ((Collision) slot).remove(hash, key, result);
+            if (newSlot == slot) {
+                return node;
+            }
+        } else {
+            newSlot = remove((Node) slot, shift + BITS, hash, key, result);
+            if (newSlot == slot) {
+                return node;
+            }
+        }
+
+        if (newSlot != null) {
+            Node n = editable(node);
+            n.slots[idx] = newSlot;
+            return n;
+        }
+        if (node.slots.length == 1) {
+            return null;
+        }
+        Object[] slots = new Object[node.slots.length - 1];
+        System.arraycopy(node.slots, 0, slots, 0, idx);
+        System.arraycopy(node.slots, idx + 1, slots, idx, slots.length - idx);
+        Node n = editable(node);
+        n.bitmap &= ~bit;
+        n.slots = slots;
+        return n;
+    }
+
+    // Create the smallest subtree holding both an existing slot and a new leaf
+    private Object merge(Object slot, int slotHash, Leaf leaf, int shift) {
+        if (slotHash == leaf.hash) {
+            Leaf[] leaves = slot instanceof Leaf
+                    ? new Leaf[] {(Leaf) slot}
+                    : ((Collision) slot).leaves;
+            Leaf[] newLeaves = new Leaf[leaves.length + 1];
+            System.arraycopy(leaves, 0, newLeaves, 0, leaves.length);
+            newLeaves[leaves.length] = leaf;
+            return new Collision(slotHash, newLeaves);
+        }
+        int idx1 = (slotHash >>> shift) & MASK;
+        int idx2 = (leaf.hash >>> shift) & MASK;
+        if (idx1 == idx2) {
+            return new Node(owner, 1 << idx1, new Object[] {merge(slot, slotHash, leaf, shift + BITS)});
+        }
+        return new Node(owner, (1 << idx1) | (1 << idx2), idx1 < idx2
+                ? new Object[] {slot, leaf}
+                : new Object[] {leaf, slot});
+    }
+
+    private void append(Leaf leaf) {
+        Log l = log;
+        if (l != null) {
+            synchronized (l) {
+                // The next position is free unless a copy has taken it
+                if (l.used == logLength && logLength < l.keys.length) {
+                    l.set(logLength, leaf);
+                    l.used = ++logLength;
+                    return;
+                }
+            }
+        }
+        Log newLog = new Log(Math.max(8, logLength * 2));
+        if (l != null) {
+            System.arraycopy(l.keys, 0, newLog.keys, 0, logLength);
+            System.arraycopy(l.seqs, 0, newLog.seqs, 0, logLength);
+        }
+        newLog.set(logLength, leaf);
+        newLog.used = ++logLength;
+        log = newLog;
+    }
+
+    // Drop the positions of the removed keys once they make up most of the log
+    private void compact() {
+        Log newLog = new Log(Math.max(8, size * 2));
+        int length = 0;
+        for (int i = 0; i < logLength; i++) {
+            Leaf leaf = find(log, i);
+            if (leaf != null) {
+                newLog.set(length++, leaf);
+            }
+        }
+        newLog.used = length;
+        log = newLog;
+        logLength = length;
+    }
+
+    private Node editable(Node node) {
+        if (node.owner == owner) {
+            return node;
+        }
+        return new Node(owner, node.bitmap, node.slots.clone());
+    }
+
+    private List<Leaf> leaves() {
+        List<Leaf> leaves = new ArrayList<Leaf>(size);
+        if (root != null) {
+            collect(root, leaves);
+        }
+        return leaves;
+    }
+
+    private static void collect(Node node, List<Leaf> leaves) {
+        for (Object slot : node.slots) {
+            if (slot instanceof Leaf) {
+                leaves.add((Leaf) slot);
+            } else if (slot instanceof Collision) {
+                Collections.addAll(leaves, ((Collision) slot).leaves);
+            } else {
+                collect((Node) slot, leaves);
+            }
+        }
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        // Spread the bits, identity hash codes are not uniform in the low bits
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static int index(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    private static final class Result {
+        Leaf old;
+    }
+
+    private static final class Node {
+        final Object owner;
+        int bitmap;
+        // Leaf, Collision or Node for each bit set in the bitmap
+        Object[] slots;
+
+        Node(Object owner, int bitmap, Object[] slots) {
+            this.owner = owner;
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    /**
+     * Entries whose keys have the same hash. They are immutable, as they are
+     * rare enough not to be worth updating in place.
+     */
+    private static final class Collision {
+        final int hash;
+        final Leaf[] leaves;
+
+        Collision(int hash, Leaf[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        Leaf find(int hash, Object key) {
+            for (Leaf leaf : leaves) {
+                if (leaf.matches(hash, key)) {
+                    return leaf;
+                }
+            }
+            return null;
+        }
+
+        Collision put(Leaf leaf, Result result) {
+            for (int i = 0; i < leaves.length; i++) {
+                Leaf l = leaves[i];
+                if (l.matches(leaf.hash, leaf.key)) {
+                    result.old = l;
+                    Leaf[] newLeaves = leaves.clone();
+                    newLeaves[i] = new Leaf(l.hash, l.key, leaf.value, l.seq);
+                    return new Collision(hash, newLeaves);
+                }
+            }
+            Leaf[] newLeaves = new Leaf[leaves.length + 1];
+            System.arraycopy(leaves, 0, newLeaves, 0, leaves.length);
+            newLeaves[leaves.length] = leaf;
+            return new Collision(hash, newLeaves);
+        }
+
+        Object remove(int hash, Object key, Result result) {
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].matches(hash, key)) {
+                    result.old = leaves[i];
+                    if (leaves.length == 2) {
+                        return leaves[1 - i];
+                    }
+                    Leaf[] newLeaves = new Leaf[leaves.length - 1];
+                    System.arraycopy(leaves, 0, newLeaves, 0, i);
+                    System.arraycopy(leaves, i + 1, newLeaves, i, newLeaves.length - i);
+                    return new Collision(this.hash, newLeaves);
+                }
+            }
+            return this;
+        }
+    }
+
+    private static final class Log {
+        final Object[] keys;
+        final long[] seqs;
+        // Number of positions taken by any of the maps sharing this log
+        int used;
+
+        Log(int capacity) {
+            keys = new Object[capacity];
+            seqs = new long[capacity];
+        }
+
+        void set(int position, Leaf leaf) {
+            keys[position] = leaf.key;
+            seqs[position] = leaf.seq;
+        }
+    }
+
+    private static final class Leaf implements Map.Entry<Object, Object> {
+        final int hash;
+        final Object key;
+        final Object value;
+        // Position in the insertion order
+        final long seq;
+
+        Leaf(int hash, Object key, Object value, long seq) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.seq = seq;
+        }
+
+        boolean matches(int hash, Object key) {
+            return this.hash == hash && (this.key == key || this.key.equals(key));
+        }
+
+        public Object getKey() {
+            return key;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public Object setValue(Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return key.equals(e.getKey())
+                    && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    private static final class LeafIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        private final PersistentHashMap<?, ?> map;
+        private final Log log;
+        private final int length;
+        private int position;
+        private Leaf next;
+
+        LeafIterator(PersistentHashMap<?, ?> map, Log log, int length) {
+            this.map = map;
+            this.log = log;
+            this.length = length;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && position < length) {
+                next = map.find(log, position++);
+            }
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            Leaf leaf = next;
+            if (leaf == null) {
+                throw new NoSuchElementException();
+            }
+            advance();
+            return (Map.Entry<K, V>) (Map.Entry<?, ?>) leaf;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
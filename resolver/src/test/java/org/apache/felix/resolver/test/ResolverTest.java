@@ -19,7 +19,9 @@
 package org.apache.felix.resolver.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -32,9 +34,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.felix.resolver.Logger;
+import org.apache.felix.resolver.ResolutionMetrics;
+import org.apache.felix.resolver.ResolutionMetricsListener;
 import org.apache.felix.resolver.ResolverImpl;
+import org.apache.felix.resolver.cache.CachingResolveContext;
+import org.apache.felix.resolver.cache.ResolverCache;
 import org.apache.felix.resolver.test.util.BundleCapability;
 import org.apache.felix.resolver.test.util.BundleRequirement;
 import org.apache.felix.resolver.test.util.GenericCapability;
@@ -913,6 +920,166 @@ public class ResolverTest
         resolver.resolve(rci);
     }
 
+    @Test
+    public void testUsesConflictWithParallelPermutations() throws Exception
+    {
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        List<Resource> mandatory = populateUsesConflictScenario(wirings, candMap, 6);
+        ResolveContextImpl rci = new ResolveContextImpl(wirings, candMap, mandatory, Collections.<Resource> emptyList());
+
+        final List<ResolutionMetrics> metrics = new ArrayList<ResolutionMetrics>();
+        ResolutionMetricsListener listener = new ResolutionMetricsListener()
+        {
+            public void resolutionEnded(ResolutionMetrics m)
+            {
+                metrics.add(m);
+            }
+        };
+
+        ResolverImpl sequential = new ResolverImpl(new Logger(Logger.LOG_DEBUG), 1);
+        sequential.setMetricsListener(listener);
+        Map<Resource, List<Wire>> expected = sequential.resolve(rci);
+        int sequentialPermutations = metrics.get(0).getPermutations();
+        assertTrue(sequentialPermutations > 1);
+
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG), 4, 4);
+        resolver.setMetricsListener(listener);
+        for (int i = 0; i < 10; i++)
+        {
+            assertEquals(expected, resolver.resolve(rci));
+            // The failing permutations of a batch are all checked, so more
+            // permutations are checked than one at a time
+            assertTrue(metrics.get(metrics.size() - 1).getPermutations() > sequentialPermutations);
+        }
+    }
+
+    @Test
+    public void testCachedPackageSpaces() throws Exception
+    {
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG), 1);
+
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+
+        // A and B are resolved, B exports y which uses x imported from A
+        ResourceImpl a = new ResourceImpl("A");
+        Capability a_pkgCap = addCap(a, PackageNamespace.PACKAGE_NAMESPACE, "x");
+
+        ResourceImpl b = new ResourceImpl("B");
+        Capability b_pkgCap = addCap(b, PackageNamespace.PACKAGE_NAMESPACE, "y", "x");
+        Requirement b_pkgReq = addReq(b, PackageNamespace.PACKAGE_NAMESPACE, "x");
+
+        // A2 also exports x, C imports x and y
+        ResourceImpl a2 = new ResourceImpl("A2");
+        Capability a2_pkgCap = addCap(a2, PackageNamespace.PACKAGE_NAMESPACE, "x");
+
+        ResourceImpl c = new ResourceImpl("C");
+        Requirement c_pkgReq1 = addReq(c, PackageNamespace.PACKAGE_NAMESPACE, "x");
+        Requirement c_pkgReq2 = addReq(c, PackageNamespace.PACKAGE_NAMESPACE, "y");
+
+        candMap.put(c_pkgReq1, Arrays.asList(a2_pkgCap, a_pkgCap));
+        candMap.put(c_pkgReq2, Collections.singletonList(b_pkgCap));
+
+        Map<Resource, List<Wire>> wires = new HashMap<Resource, List<Wire>>();
+        wires.put(a, new ArrayList<Wire>());
+        wires.put(b, new ArrayList<Wire>());
+        wires.get(b).add(new SimpleWire(b_pkgReq, a_pkgCap));
+
+        Map<Resource, List<Wire>> invertedWires = new HashMap<Resource, List<Wire>>();
+        invertedWires.put(a, new ArrayList<Wire>());
+        invertedWires.put(b, new ArrayList<Wire>());
+        invertedWires.get(a).add(new SimpleWire(b_pkgReq, a_pkgCap));
+
+        wirings.put(a, new SimpleWiring(a, Arrays.asList(a_pkgCap), wires, invertedWires));
+        wirings.put(b, new SimpleWiring(b, Arrays.asList(b_pkgCap), wires, invertedWires));
+
+        final ResolverCache cache = new ResolverCache();
+        class CachingContext extends ResolveContextImpl implements CachingResolveContext
+        {
+            CachingContext(Map<Resource, Wiring> wirings, Map<Requirement, List<Capability>> candMap,
+                Collection<Resource> mandatory)
+            {
+                super(wirings, candMap, mandatory, Collections.<Resource> emptyList());
+            }
+
+            public ResolverCache getResolverCache()
+            {
+                return cache;
+            }
+        }
+
+        Map<Resource, List<Wire>> expected = resolver.resolve(new ResolveContextImpl(wirings, candMap,
+            Collections.<Resource> singletonList(c), Collections.<Resource> emptyList()));
+        for (int i = 0; i < 3; i++)
+        {
+            Map<Resource, List<Wire>> wireMap = resolver.resolve(new CachingContext(wirings, candMap,
+                Collections.<Resource> singletonList(c)));
+            assertEquals(expected, wireMap);
+            // The uses constraint of y is still enforced from the cached package space of B
+            for (Wire w : wireMap.get(c))
+            {
+                assertEquals(w.getRequirement() == c_pkgReq1 ? a : b, w.getProvider());
+            }
+            assertEquals(2, cache.size());
+        }
+
+        // A new wiring of B is computed again
+        wirings.put(b, new SimpleWiring(b, Arrays.asList(b_pkgCap), wires, invertedWires));
+        assertEquals(expected, resolver.resolve(new CachingContext(wirings, candMap,
+            Collections.<Resource> singletonList(c))));
+        cache.invalidate(a);
+        assertEquals(1, cache.size());
+
+        // The parsed uses directives are dropped with the package spaces
+        assertEquals(Collections.singletonList("x"), cache.getUses("x"));
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertNull(cache.getUses("x"));
+    }
+
+    @Test
+    public void testMetricsListener() throws Exception
+    {
+        final List<ResolutionMetrics> metrics = new ArrayList<ResolutionMetrics>();
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG), 1);
+        resolver.setMetricsListener(new ResolutionMetricsListener()
+        {
+            public void resolutionEnded(ResolutionMetrics m)
+            {
+                metrics.add(m);
+            }
+        });
+
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        List<Resource> mandatory = populateScenario3(wirings, candMap);
+        resolver.resolve(new ResolveContextImpl(wirings, candMap, mandatory, Collections.<Resource> emptyList()));
+
+        assertEquals(1, metrics.size());
+        ResolutionMetrics m = metrics.get(0);
+        assertTrue(m.isResolved());
+        assertFalse(m.isDynamic());
+        assertTrue(m.getPermutations() >= 1);
+        assertTrue(m.getCandidates() > 0);
+        assertTrue(m.getPeakCandidateMapSize() > 0);
+        assertTrue(m.getResolveTime(TimeUnit.NANOSECONDS) >= m.getPackageSpaceTime(TimeUnit.NANOSECONDS));
+
+        // Failed resolves are reported too
+        mandatory = populateScenario4(wirings, candMap);
+        try
+        {
+            resolver.resolve(new ResolveContextImpl(wirings, candMap, mandatory, Collections.<Resource> emptyList()));
+            fail("Should have thrown a resolution exception");
+        }
+        catch (ResolutionException re)
+        {
+            // good
+        }
+        assertEquals(2, metrics.size());
+        assertFalse(metrics.get(1).isResolved());
+    }
+
     private ResolveContext populateScenario17(boolean realSubstitute,
         boolean felixResolveContext, boolean existingWirings)
     {
@@ -1238,6 +1405,46 @@ public class ResolverTest
         return resources;
     }
 
+    /**
+     * Several importers that import a package exported by two resources and
+     * a package of another resource that uses the second exporter. Each
+     * importer first gets the first exporter and has to be permuted to the
+     * second one to get a consistent class space.
+     */
+    private static List<Resource> populateUsesConflictScenario(
+        Map<Resource, Wiring> wirings, Map<Requirement, List<Capability>> candMap, int importers)
+    {
+        ResourceImpl p1 = new ResourceImpl("P1");
+        Capability p1Cap = new PackageCapability(p1, "p");
+        p1.addCapability(p1Cap);
+
+        ResourceImpl p2 = new ResourceImpl("P2");
+        Capability p2Cap = new PackageCapability(p2, "p");
+        p2.addCapability(p2Cap);
+
+        ResourceImpl u = new ResourceImpl("U");
+        PackageCapability uCap = new PackageCapability(u, "u");
+        uCap.addDirective(Namespace.CAPABILITY_USES_DIRECTIVE, "p");
+        u.addCapability(uCap);
+        Requirement r = new PackageRequirement(u, "p");
+        u.addRequirement(r);
+        candMap.put(r, new ArrayList<Capability>(Arrays.asList(p2Cap)));
+
+        List<Resource> resources = new ArrayList<Resource>();
+        for (int i = 0; i < importers; i++)
+        {
+            ResourceImpl importer = new ResourceImpl("I" + i);
+            r = new PackageRequirement(importer, "p");
+            importer.addRequirement(r);
+            candMap.put(r, new ArrayList<Capability>(Arrays.asList(p1Cap, p2Cap)));
+            r = new PackageRequirement(importer, "u");
+            importer.addRequirement(r);
+            candMap.put(r, new ArrayList<Capability>(Arrays.<Capability> asList(uCap)));
+            resources.add(importer);
+        }
+        return resources;
+    }
+
     private static List<Resource> populateScenario5(Map<Resource, Wiring> wirings, Map<Requirement, List<Capability>> candMap)
     {
         ResourceImpl x = new ResourceImpl("X");
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PersistentHashMapTest {
+    @Test
+    public void testCollisions() {
+        PersistentHashMap<Key, String> map = new PersistentHashMap<Key, String>();
+        Key k1 = new Key("a", 42);
+        Key k2 = new Key("b", 42);
+        Key k3 = new Key("c", 42);
+        map.put(k1, "1");
+        map.put(k2, "2");
+        map.put(k3, "3");
+        assertEquals(3, map.size());
+        assertEquals("1", map.get(k1));
+        assertEquals("2", map.get(k2));
+        assertEquals("3", map.get(k3));
+        assertNull(map.get(new Key("d", 42)));
+
+        assertEquals("2", map.put(k2, "two"));
+        assertEquals("two", map.get(k2));
+        assertEquals(Arrays.asList(k1, k2, k3), keys(map));
+
+        assertEquals("1", map.remove(k1));
+        assertNull(map.remove(k1));
+        assertFalse(map.containsKey(k1));
+        assertEquals("two", map.get(k2));
+        assertEquals("3", map.remove(k3));
+        assertEquals(1, map.size());
+        assertEquals(Arrays.asList(k2), keys(map));
+    }
+
+    @Test
+    public void testRemoveToEmpty() {
+        PersistentHashMap<Integer, Integer> map = new PersistentHashMap<Integer, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), map.remove(i));
+        }
+        assertTrue(map.isEmpty());
+        assertFalse(map.entrySet().iterator().hasNext());
+        assertEquals(new HashMap<Integer, Integer>(), map);
+
+        map.put(7, 7);
+        assertEquals(1, map.size());
+        assertEquals(Arrays.asList(7), keys(map));
+    }
+
+    @Test
+    public void testCopiesShareStructure() {
+        PersistentHashMap<Integer, String> parent = new PersistentHashMap<Integer, String>();
+        for (int i = 0; i < 100; i++) {
+            parent.put(i, "p" + i);
+        }
+        PersistentHashMap<Integer, String> child = parent.copy();
+        assertEquals(parent, child);
+
+        // Both maps append after the copy and change a shared entry
+        child.put(100, "c100");
+        child.put(5, "c5");
+        child.remove(10);
+        parent.put(200, "p200");
+        parent.remove(20);
+
+        assertEquals(100, child.size());
+        assertEquals("c5", child.get(5));
+        assertEquals("p20", child.get(20));
+        assertFalse(child.containsKey(10));
+        assertFalse(child.containsKey(200));
+
+        assertEquals(100, parent.size());
+        assertEquals("p5", parent.get(5));
+        assertEquals("p10", parent.get(10));
+        assertFalse(parent.containsKey(20));
+        assertFalse(parent.containsKey(100));
+
+        List<Integer> childKeys = keys(child);
+        assertEquals(Integer.valueOf(100), childKeys.get(childKeys.size() - 1));
+        assertFalse(childKeys.contains(10));
+        List<Integer> parentKeys = keys(parent);
+        assertEquals(Integer.valueOf(200), parentKeys.get(parentKeys.size() - 1));
+        assertFalse(parentKeys.contains(20));
+    }
+
+    @Test
+    public void testInsertionOrder() {
+        Random random = new Random(1);
+        PersistentHashMap<Integer, Integer> map = new PersistentHashMap<Integer, Integer>();
+        Map<Integer, Integer> expected = new LinkedHashMap<Integer, Integer>();
+        List<PersistentHashMap<Integer, Integer>> copies = new ArrayList<PersistentHashMap<Integer, Integer>>();
+        List<Map<Integer, Integer>> expectedCopies = new ArrayList<Map<Integer, Integer>>();
+        for (int i = 0; i < 10000; i++) {
+            Integer key = random.nextInt(500);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+            if (i % 1000 == 0) {
+                copies.add(map.copy());
+                expectedCopies.add(new LinkedHashMap<Integer, Integer>(expected));
+            }
+        }
+        assertEquals(new ArrayList<Map.Entry<Integer, Integer>>(expected.entrySet()),
+            new ArrayList<Map.Entry<Integer, Integer>>(map.entrySet()));
+        for (int i = 0; i < copies.size(); i++) {
+            assertEquals(new ArrayList<Integer>(expectedCopies.get(i).keySet()), keys(copies.get(i)));
+        }
+    }
+
+    private static <K> List<K> keys(Map<K, ?> map) {
+        return new ArrayList<K>(map.keySet());
+    }
+
+    private static class Key {
+        private final String name;
+        private final int hash;
+
+        Key(String name, int hash) {
+            this.name = name;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).name.equals(name);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.webconsole.internal.core;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+
+
+/**
+ * The <code>BundleSummaryCache</code> keeps the summaries of the bundles as
+ * shown in the bundle list of the {@link BundlesServlet}. A summary is
+ * created once per bundle and locale and dropped when a bundle event for
+ * the bundle is received.
+ * <p>
+ * Each bundle event increments a change counter. The counter is used as
+ * the ETag of the bundle list and clients can ask for the bundles changed
+ * since a counter value they have already seen.
+ */
+final class BundleSummaryCache implements SynchronousBundleListener
+{
+
+    // maximum number of bundles for which changes are tracked, if more
+    // bundles have changed, clients have to reload the full list
+    private static final int MAX_CHANGES = 1024;
+
+    // maximum number of locales for which summaries are cached
+    private static final int MAX_LOCALES = 16;
+
+    // the counter starts with the current time to not mix up counter
+    // values of an earlier instance with the values of this instance
+    private long changeCount = System.currentTimeMillis();
+
+    // the oldest counter value from which on changes are known
+    private long firstChange = changeCount;
+
+    // bundle id -> counter value of the last change of the bundle
+    private final Map<Long, Long> changes = new HashMap<Long, Long>();
+
+    // locale -> bundle id -> summary
+    private final Map<String, Map<Long, Map<String, Object>>> summaries = new HashMap<String, Map<Long, Map<String, Object>>>();
+
+
+    /**
+     * @see org.osgi.framework.BundleListener#bundleChanged(org.osgi.framework.BundleEvent)
+     */
+    @Override
+    public synchronized void bundleChanged( final BundleEvent event )
+    {
+        final Long id = new Long( event.getBundle().getBundleId() );
+
+        changeCount++;
+        if ( changes.size() >= MAX_CHANGES && !changes.containsKey( id ) )
+        {
+            changes.clear();
+            firstChange = changeCount - 1;
+        }
+        changes.put( id, new Long( changeCount ) );
+
+        for ( Iterator<Map<Long, Map<String, Object>>> i = summaries.values().iterator(); i.hasNext(); )
+        {
+            i.next().remove( id );
+        }
+    }
+
+
+    /**
+     * Returns the current value of the change counter.
+     */
+    synchronized long getChangeCount()
+    {
+        return changeCount;
+    }
+
+
+    /**
+     * Returns the ids of the bundles changed after the given counter value
+     * or <code>null</code> if the changes since that value are not known.
+     */
+    synchronized List<Long> getChangedSince( final long since )
+    {
+        if ( since < firstChange || since > changeCount )
+        {
+            return null;
+        }
+
+        final List<Long> result = new ArrayList<Long>();
+        for ( Iterator<Map.Entry<Long, Long>> i = changes.entrySet().iterator(); i.hasNext(); )
+        {
+            final Map.Entry<Long, Long> entry = i.next();
+            if ( entry.getValue().longValue() > since )
+            {
+                result.add( entry.getKey() );
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the cached summary of the bundle or <code>null</code> if there
+     * is none.
+     */
+    synchronized Map<String, Object> get( final String locale, final long bundleId )
+    {
+        final Map<Long, Map<String, Object>> localeSummaries = summaries.get( locale );
+        return localeSummaries == null ? null : localeSummaries.get( new Long( bundleId ) );
+    }
+
+
+    /**
+     * Caches the summary of the bundle unless the bundle has changed after
+     * the given counter value, which has been read before creating the summary.
+     */
+    synchronized void put( final String locale, final long bundleId, final Map<String, Object> summary,
+        final long createdAt )
+    {
+        final Long id = new Long( bundleId );
+        final Long changed = changes.get( id );
+        if ( ( changed != null && changed.longValue() > createdAt ) || createdAt < firstChange )
+        {
+            return;
+        }
+
+        Map<Long, Map<String, Object>> localeSummaries = summaries.get( locale );
+        if ( localeSummaries == null )
+        {
+            if ( summaries.size() >= MAX_LOCALES )
+            {
+                summaries.clear();
+            }
+            localeSummaries = new HashMap<Long, Map<String, Object>>();
+            summaries.put( locale, localeSummaries );
+        }
+        localeSummaries.put( id, summary );
+    }
+}
@@ -26,17 +26,20 @@ import java.lang.reflect.Array;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
 import java.util.jar.JarFile;
@@ -94,6 +97,10 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
     // an LDAP filter, that is used to search manifest headers, see FELIX-1441
     private static final String FILTER_PARAM = "filter";
 
+    // the change count of the bundle list known to the client, only the
+    // bundles changed since then are returned
+    private static final String SINCE_PARAM = "since";
+
     private static final String FIELD_STARTLEVEL = "bundlestartlevel";
 
     private static final String FIELD_START = "bundlestart";
@@ -117,6 +124,10 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
     private ServiceRegistration configurationPrinter;
     private ServiceTracker bundleInfoTracker;
 
+    // the bundle summaries shown in the bundle list, updated by bundle events
+    private BundleSummaryCache bundleSummaryCache;
+    private BundleContext bundleSummaryContext;
+
     // templates
     private final String TEMPLATE_MAIN;
 
@@ -140,6 +151,10 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         bundleInfoTracker = new ServiceTracker( bundleContext, BundleInfoProvider.class.getName(), null);
         bundleInfoTracker.open();
 
+        bundleSummaryCache = new BundleSummaryCache();
+        bundleSummaryContext = BundleContextUtil.getWorkingBundleContext( bundleContext );
+        bundleSummaryContext.addBundleListener( bundleSummaryCache );
+
         // bootdelegation property parsing from Apache Felix R4SearchPolicyCore
         String bootDelegation = bundleContext.getProperty( Constants.FRAMEWORK_BOOTDELEGATION );
         bootDelegation = ( bootDelegation == null ) ? "java.*" : bootDelegation + ",java.*";
@@ -182,6 +197,20 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
             bundleInfoTracker = null;
         }
 
+        if ( bundleSummaryCache != null )
+        {
+            try
+            {
+                bundleSummaryContext.removeBundleListener( bundleSummaryCache );
+            }
+            catch ( IllegalStateException ise )
+            {
+                // the bundle context is not valid any more, ignore
+            }
+            bundleSummaryCache = null;
+            bundleSummaryContext = null;
+        }
+
         super.deactivate();
     }
 
@@ -196,7 +225,7 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
     {
         try
         {
-            final Map map = createObjectStructure(null, null, null, true, Locale.ENGLISH, null, null );
+            final Map map = createObjectStructure(null, null, null, true, Locale.ENGLISH, null, -1, -1, null );
 
             pw.println( "Status: " + map.get( "status" ) );
             pw.println();
@@ -292,11 +321,20 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         }
         if ( reqInfo.extension.equals("json")  )
         {
+            final String filter = request.getParameter(FILTER_PARAM);
+            // the ETag and the bundle list are based on the same change count
+            final BundleSummaryCache cache = this.bundleSummaryCache;
+            final long changeCount = cache == null ? -1 : cache.getChangeCount();
+            if ( reqInfo.bundle == null && filter == null && isNotModified( request, response, changeCount ) )
+            {
+                return;
+            }
+
             final String pluginRoot = ( String ) request.getAttribute( WebConsoleConstants.ATTR_PLUGIN_ROOT );
             final String servicesRoot = getServicesRoot( request );
             try
             {
-                this.renderJSON(response, reqInfo.bundle, pluginRoot, servicesRoot, request.getLocale(), request.getParameter(FILTER_PARAM), null );
+                this.renderJSON(response, reqInfo.bundle, pluginRoot, servicesRoot, request.getLocale(), filter, getSince( request ), changeCount, null );
             }
             catch (InvalidSyntaxException e)
             {
@@ -424,7 +462,7 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
             final String servicesRoot = getServicesRoot( req );
             try
             {
-                this.renderJSON( resp, null, pluginRoot, servicesRoot, req.getLocale(), req.getParameter(FILTER_PARAM), bundleException );
+                this.renderJSON( resp, null, pluginRoot, servicesRoot, req.getLocale(), req.getParameter(FILTER_PARAM), -1, -1, bundleException );
             }
             catch (InvalidSyntaxException e)
             {
@@ -524,7 +562,7 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         StringWriter w = new StringWriter();
         try
         {
-            writeJSON(w, reqInfo.bundle, pluginRoot, servicesRoot, request.getLocale(), request.getParameter(FILTER_PARAM), null );
+            writeJSON(w, reqInfo.bundle, pluginRoot, servicesRoot, request.getLocale(), request.getParameter(FILTER_PARAM), -1, -1, null );
         }
         catch (InvalidSyntaxException e)
         {
@@ -536,28 +574,86 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         response.getWriter().print(TEMPLATE_MAIN);
     }
 
-    private void renderJSON( final HttpServletResponse response, final Bundle bundle, final String pluginRoot, final String servicesRoot, final Locale locale, final String filter, final BundleException be )
+    /**
+     * Sets the ETag of the bundle list, which is derived from the given
+     * value of the change counter of the bundle summaries, and checks it
+     * against the <code>If-None-Match</code> header of the request.
+     *
+     * @return <code>true</code> if the client already has the current
+     *      bundle list and a 304 response has been sent
+     */
+    private boolean isNotModified( final HttpServletRequest request, final HttpServletResponse response,
+        final long changeCount )
+    {
+        if ( changeCount < 0 )
+        {
+            return false;
+        }
+
+        final String etag = "W/\"" + Long.toHexString( changeCount ) + '-'
+            + Integer.toHexString( String.valueOf( request.getLocale() ).hashCode() ) + '"';
+        response.setHeader( "ETag", etag );
+        response.setHeader( "Cache-Control", "no-cache" );
+        response.setHeader( "Vary", "Accept-Language" );
+
+        final String ifNoneMatch = request.getHeader( "If-None-Match" );
+        if ( ifNoneMatch != null )
+        {
+            final StringTokenizer st = new StringTokenizer( ifNoneMatch, "," );
+            while ( st.hasMoreTokens() )
+            {
+                final String tag = st.nextToken().trim();
+                if ( etag.equals( tag ) || "*".equals( tag ) )
+                {
+                    response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+
+    private long getSince( final HttpServletRequest request )
+    {
+        final String since = request.getParameter( SINCE_PARAM );
+        if ( since != null )
+        {
+            try
+            {
+                return Long.parseLong( since );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                // ignore and return the full list
+            }
+        }
+        return -1;
+    }
+
+
+    private void renderJSON( final HttpServletResponse response, final Bundle bundle, final String pluginRoot, final String servicesRoot, final Locale locale, final String filter, final long since, final long changeCount, final BundleException be )
             throws IOException, InvalidSyntaxException
     {
         response.setContentType( "application/json" );
         response.setCharacterEncoding( "UTF-8" );
 
         final PrintWriter pw = response.getWriter();
-        writeJSON(pw, bundle, pluginRoot, servicesRoot, locale, filter, be);
+        writeJSON(pw, bundle, pluginRoot, servicesRoot, locale, filter, since, changeCount, be);
     }
 
 
-    private void writeJSON( final Writer pw, final Bundle bundle, final String pluginRoot, final String servicesRoot, final Locale locale, final String filter, final BundleException be )
+    private void writeJSON( final Writer pw, final Bundle bundle, final String pluginRoot, final String servicesRoot, final Locale locale, final String filter, final long since, final long changeCount, final BundleException be )
             throws IOException, InvalidSyntaxException
     {
-        final Map<String, Object> map = createObjectStructure( bundle, pluginRoot, servicesRoot, false, locale, filter, be );
+        final Map<String, Object> map = createObjectStructure( bundle, pluginRoot, servicesRoot, false, locale, filter, since, changeCount, be );
         final JSONWriter writer = new JSONWriter(pw);
 
         writer.value(map);
     }
 
     private Map<String, Object> createObjectStructure( final Bundle bundle, final String pluginRoot,
-            final String servicesRoot, final boolean fullDetails, final Locale locale, final String filter, final BundleException be ) throws IOException, InvalidSyntaxException
+            final String servicesRoot, final boolean fullDetails, final Locale locale, final String filter, final long since, final long changeCount, final BundleException be ) throws IOException, InvalidSyntaxException
     {
         final Bundle[] allBundles = this.getBundles();
         final List<Object> status = getStatusLine(allBundles);
@@ -587,8 +683,6 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
             bundles = allBundles;
         }
 
-        Util.sort( bundles, locale );
-
         final Map<String, Object> map = new LinkedHashMap<String, Object>();
 
         if (null != be)
@@ -604,6 +698,15 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         // add raw status
         map.put( "s", status.toArray() );
 
+        final BundleSummaryCache cache = this.bundleSummaryCache;
+        if ( bundle == null && filter == null && !fullDetails && cache != null )
+        {
+            putBundleSummaries( map, cache, bundles, locale, since, changeCount );
+            return map;
+        }
+
+        Util.sort( bundles, locale );
+
         final Object[] bundlesArray = new Object[bundles.length];
         for ( int i = 0; i < bundles.length; i++ )
         {
@@ -615,6 +718,84 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         return map;
     }
 
+    /**
+     * Adds the summaries of the bundles to the map. If the change count
+     * <code>since</code> is known, only the bundles changed since then are
+     * added together with the ids of the removed bundles. The change count
+     * is the value the ETag of the response is based on or <code>-1</code>
+     * to use the current value.
+     */
+    private void putBundleSummaries( final Map<String, Object> map, final BundleSummaryCache cache,
+            final Bundle[] bundles, final Locale locale, final long since, final long etagChangeCount )
+    {
+        final long changeCount = etagChangeCount < 0 ? cache.getChangeCount() : etagChangeCount;
+        final String localeString = String.valueOf( locale );
+        final List<Long> changed = since < 0 ? null : cache.getChangedSince( since );
+        final Set<Long> remaining = changed == null ? null : new HashSet<Long>( changed );
+
+        final List<Map<String, Object>> data = new ArrayList<Map<String, Object>>();
+        for ( int i = 0; i < bundles.length; i++ )
+        {
+            final long id = bundles[i].getBundleId();
+            if ( remaining != null && !remaining.remove( new Long( id ) ) )
+            {
+                continue;
+            }
+
+            Map<String, Object> summary = cache.get( localeString, id );
+            if ( summary == null )
+            {
+                summary = bundleInfo( bundles[i], false, null, null, locale );
+                cache.put( localeString, id, summary, changeCount );
+            }
+            data.add( summary );
+        }
+
+        // same order as Util.sort
+        Collections.sort( data, new Comparator<Map<String, Object>>()
+        {
+            @Override
+            public int compare( Map<String, Object> s1, Map<String, Object> s2 )
+            {
+                final long id1 = ( ( Long ) s1.get( "id" ) ).longValue();
+                final long id2 = ( ( Long ) s2.get( "id" ) ).longValue();
+                if ( id1 == id2 )
+                {
+                    return 0;
+                }
+                else if ( id1 == 0 )
+                {
+                    return -1;
+                }
+                else if ( id2 == 0 )
+                {
+                    return 1;
+                }
+
+                int comp = ( ( String ) s1.get( "name" ) ).compareToIgnoreCase( ( String ) s2.get( "name" ) );
+                if ( comp == 0 )
+                {
+                    comp = Version.parseVersion( ( String ) s1.get( "version" ) ).compareTo(
+                        Version.parseVersion( ( String ) s2.get( "version" ) ) );
+                }
+                if ( comp == 0 )
+                {
+                    comp = id1 < id2 ? -1 : 1;
+                }
+                return comp;
+            }
+        } );
+
+        map.put( "changeCount", changeCount );
+        if ( remaining != null )
+        {
+            // the changed bundles not found anymore have been uninstalled
+            map.put( "since", since );
+            map.put( "removed", remaining.toArray() );
+        }
+        map.put( "data", data.toArray() );
+    }
+
     private List<Object> getStatusLine(final Bundle[] bundles)
     {
         List<Object> ret = new ArrayList<Object>();
@@ -65,7 +65,7 @@ function renderData( eventData, filter )  {
 	}
 
 	if (bundlesBody.find('tr').size() == 0) {
-		bundlesBody.html('<tr><td colspan="6">' + i18n.filterNoMatch + '</td></tr>');
+		bundlesBody.html('<tr><td colspan="6">' + i18n.filterNoMatch + '</td></tr>');
 	}
 
 	// show dialog on error
@@ -127,7 +127,39 @@ function entrySetupState( /* Object */ bundle, tr, id) {
 }
 
 function loadData() {
-    $.get(pluginRoot + "/.json", null, renderData, "json"); 
+	// ask only for the changed bundles if the full list is known
+	if (lastBundleData && typeof lastBundleData.changeCount != 'undefined') {
+		$.get(pluginRoot + "/.json", { 'since' : lastBundleData.changeCount }, mergeData, "json");
+	} else {
+		$.get(pluginRoot + "/.json", null, renderData, "json");
+	}
+}
+
+function mergeData( eventData ) {
+	if (typeof eventData.since == 'undefined' || !lastBundleData) {
+		renderData(eventData);
+		return;
+	}
+	var changed = {};
+	for ( var idx in eventData.data ) changed[eventData.data[idx].id] = eventData.data[idx];
+	for ( var idx in eventData.removed ) changed[eventData.removed[idx]] = false;
+	var data = [];
+	for ( var idx in lastBundleData.data ) {
+		var b = lastBundleData.data[idx];
+		if (typeof changed[b.id] == 'undefined') {
+			data.push(b);
+		} else if (changed[b.id]) {
+			data.push(changed[b.id]);
+			delete changed[b.id];
+		}
+	}
+	for ( var id in changed ) {
+		if (changed[id]) data.push(changed[id]);
+	}
+	eventData.data = data;
+	delete eventData.since;
+	delete eventData.removed;
+	renderData(eventData);
 }
 
 function changeDataEntryState(/* long */ id, /* String */ action) {
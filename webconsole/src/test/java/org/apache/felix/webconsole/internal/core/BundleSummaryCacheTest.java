@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.webconsole.internal.core;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+
+
+public class BundleSummaryCacheTest extends TestCase
+{
+
+    public void test_summary_dropped_on_event()
+    {
+        final BundleSummaryCache cache = new BundleSummaryCache();
+        final Map<String, Object> summary = new HashMap<String, Object>();
+
+        cache.put( "en", 5, summary, cache.getChangeCount() );
+        assertSame( summary, cache.get( "en", 5 ) );
+        assertNull( cache.get( "de", 5 ) );
+
+        cache.bundleChanged( event( 6 ) );
+        assertSame( summary, cache.get( "en", 5 ) );
+
+        cache.bundleChanged( event( 5 ) );
+        assertNull( cache.get( "en", 5 ) );
+    }
+
+
+    public void test_stale_summary_not_cached()
+    {
+        final BundleSummaryCache cache = new BundleSummaryCache();
+        final long createdAt = cache.getChangeCount();
+
+        // the bundle changes while its summary is created
+        cache.bundleChanged( event( 5 ) );
+        cache.put( "en", 5, new HashMap<String, Object>(), createdAt );
+        assertNull( cache.get( "en", 5 ) );
+    }
+
+
+    public void test_changed_since()
+    {
+        final BundleSummaryCache cache = new BundleSummaryCache();
+        final long start = cache.getChangeCount();
+
+        assertEquals( Collections.emptyList(), cache.getChangedSince( start ) );
+
+        cache.bundleChanged( event( 5 ) );
+        final long afterFirst = cache.getChangeCount();
+        cache.bundleChanged( event( 7 ) );
+        cache.bundleChanged( event( 5 ) );
+
+        assertEquals( start + 3, cache.getChangeCount() );
+
+        final List<Long> all = cache.getChangedSince( start );
+        assertEquals( 2, all.size() );
+        assertTrue( all.contains( new Long( 5 ) ) );
+        assertTrue( all.contains( new Long( 7 ) ) );
+
+        final List<Long> later = cache.getChangedSince( afterFirst );
+        assertEquals( 2, later.size() );
+
+        assertEquals( Collections.emptyList(), cache.getChangedSince( cache.getChangeCount() ) );
+
+        // unknown counter values
+        assertNull( cache.getChangedSince( start - 1 ) );
+        assertNull( cache.getChangedSince( cache.getChangeCount() + 1 ) );
+    }
+
+
+    private static BundleEvent event( final long bundleId )
+    {
+        final Bundle bundle = ( Bundle ) Proxy.newProxyInstance( BundleSummaryCacheTest.class.getClassLoader(),
+            new Class[] { Bundle.class }, new InvocationHandler()
+            {
+                public Object invoke( Object proxy, Method method, Object[] args )
+                {
+                    if ( "getBundleId".equals( method.getName() ) )
+                    {
+                        return new Long( bundleId );
+                    }
+                    throw new UnsupportedOperationException( method.getName() );
+                }
+            } );
+        return new BundleEvent( BundleEvent.UPDATED, bundle );
+    }
+}